@@ -42,6 +42,10 @@ public class Admin {
 
         case GOSSIP -> gossip(frontend, cmdArgs);
 
+        case PEERS -> peers(frontend, cmdArgs);
+
+        case LANES -> lanes(frontend, cmdArgs);
+
         case EXIT -> {
           scanner.close();
           frontend.close();
@@ -161,5 +165,33 @@ public class Admin {
 
     frontend.forceGossip(qualifier);
   }
+
+  /**
+   * Call peers method from frontend
+   * @param frontend The admin frontend
+   * @param cmdArgs The command arguments
+   */
+  public static void peers(AdminFrontend frontend, String[] cmdArgs) {
+
+    String qualifier = getQualifier(cmdArgs);
+
+    if(qualifier.isEmpty()) { return; }
+
+    frontend.peers(qualifier);
+  }
+
+  /**
+   * Call lanes method from frontend
+   * @param frontend The admin frontend
+   * @param cmdArgs The command arguments
+   */
+  public static void lanes(AdminFrontend frontend, String[] cmdArgs) {
+
+    String qualifier = getQualifier(cmdArgs);
+
+    if(qualifier.isEmpty()) { return; }
+
+    frontend.lanes(qualifier);
+  }
 }
 
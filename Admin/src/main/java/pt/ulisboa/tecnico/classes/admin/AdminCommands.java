@@ -7,6 +7,8 @@ public class AdminCommands {
     public static final String ACTIVATEGOSSIP = "activateGossip";
     public static final String DEACTIVATEGOSSIP = "deactivateGossip";
     public static final String GOSSIP = "gossip";
+    public static final String PEERS = "peers";
+    public static final String LANES = "lanes";
     public static final String EXIT = "exit";
 }
 
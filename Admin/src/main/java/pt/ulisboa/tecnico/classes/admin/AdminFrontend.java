@@ -1,16 +1,16 @@
 package pt.ulisboa.tecnico.classes.admin;
 
 import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
 import io.grpc.StatusRuntimeException;
 
+import pt.ulisboa.tecnico.classes.ConnectionManager;
+import pt.ulisboa.tecnico.classes.Convert;
 import pt.ulisboa.tecnico.classes.Debug;
 import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.*;
 import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ResponseCode;
 import pt.ulisboa.tecnico.classes.contract.admin.AdminClassServer.*;
 import pt.ulisboa.tecnico.classes.contract.admin.AdminServiceGrpc;
 import pt.ulisboa.tecnico.classes.contract.admin.AdminServiceGrpc.*;
-import pt.ulisboa.tecnico.classes.contract.naming.NamingServerServiceGrpc;
 import pt.ulisboa.tecnico.classes.contract.naming.NamingServerServiceGrpc.*;
 
 import pt.ulisboa.tecnico.classes.Stringify;
@@ -26,27 +26,32 @@ public class AdminFrontend {
 
     private List<Address> addresses = new ArrayList<>();
 
-    private final ManagedChannel namingServerChannel;
-    private final NamingServerServiceBlockingStub namingServerStub;
+    // Naming server lookups and server channels, kept between requests
+    private final ConnectionManager connectionManager;
 
+    private Address classServerAddress;
     private ManagedChannel classServerChannel;
     private AdminServiceBlockingStub classServerStub;
 
 
     public AdminFrontend(boolean debugMode) {
+        this(debugMode, new ConnectionManager());
+    }
+
+    public AdminFrontend(boolean debugMode, ConnectionManager connectionManager) {
 
         // debug to log messages
         debug = new Debug(AdminFrontend.class.getName(),debugMode);
-        // create channel and stub to naming services at hardcoded address
-        namingServerChannel = ManagedChannelBuilder.forAddress("localhost", 5000).usePlaintext().build();
-        namingServerStub = NamingServerServiceGrpc.newBlockingStub(namingServerChannel);
+        this.connectionManager = connectionManager;
     }
 
     public List<Address> getAddresses() { return addresses; }
 
     public void setAddresses(List<Address> addresses) { this.addresses = addresses; }
 
-    public NamingServerServiceBlockingStub getNamingServerStub() { return namingServerStub; }
+    public ConnectionManager getConnectionManager() { return connectionManager; }
+
+    public NamingServerServiceBlockingStub getNamingServerStub() { return connectionManager.getNamingServerStub(); }
 
     public AdminServiceBlockingStub getClassServerStub() { return classServerStub; }
 
@@ -56,7 +61,7 @@ public class AdminFrontend {
 
     public void setClassServerChannel(ManagedChannel classServerChannel) { this.classServerChannel = classServerChannel; }
 
-    public ManagedChannel getNamingServerChannel() { return namingServerChannel; }
+    public ManagedChannel getNamingServerChannel() { return connectionManager.getNamingServerChannel(); }
 
     /**
      * Get servers from naming server
@@ -66,7 +71,7 @@ public class AdminFrontend {
      */
     private boolean findServers(String service, String[] qualifiers) {
 
-        setAddresses(ServerLookup.getAvailableServers(service, qualifiers, getNamingServerStub()));
+        setAddresses(connectionManager.getAvailableServers(service, qualifiers));
         return getAddresses().isEmpty();
     }
 
@@ -79,10 +84,9 @@ public class AdminFrontend {
         int randomValue = ServerLookup.getRandomValue(getAddresses().size());
         Address address = getAddresses().get(randomValue);
 
-        // Create channel and stub to the selected server
-        setClassServerChannel(ManagedChannelBuilder.forAddress(address.getHost(), address.getPort())
-                .usePlaintext()
-                .build());
+        // Reuse the channel to the selected server if one is already open
+        classServerAddress = address;
+        setClassServerChannel(connectionManager.getChannel(address));
         setClassServerStub(AdminServiceGrpc.newBlockingStub(classServerChannel));
 
         debug.log("Connecting to server at " + address.getHost() + ":" + address.getPort());
@@ -110,6 +114,7 @@ public class AdminFrontend {
             response = getClassServerStub().activate(request);
         } catch (StatusRuntimeException e){
             System.err.println("Caught exception with description: " + e.getStatus().getDescription());
+            connectionManager.reportFailure(classServerAddress, e.getStatus());
             return;
         }
 
@@ -117,8 +122,6 @@ public class AdminFrontend {
         System.out.println(Stringify.format(responseCode));
 
         debug.log("activate: " + responseCode + " with argument " + qualifier);
-
-        getClassServerChannel().shutdown();
     }
 
     /**
@@ -140,6 +143,7 @@ public class AdminFrontend {
             response = getClassServerStub().deactivate(request);
         } catch (StatusRuntimeException e){
             System.err.println("Caught exception with description: " + e.getStatus().getDescription());
+            connectionManager.reportFailure(classServerAddress, e.getStatus());
             return;
         }
 
@@ -147,8 +151,6 @@ public class AdminFrontend {
         System.out.println(Stringify.format(responseCode));
 
         debug.log("deactivate: " + responseCode + " with argument " + qualifier);
-
-        getClassServerChannel().shutdown();
     }
 
     /**
@@ -170,6 +172,7 @@ public class AdminFrontend {
             response = getClassServerStub().dump(request);
         } catch (StatusRuntimeException e){
             System.err.println("Caught exception with description: " + e.getStatus().getDescription());
+            connectionManager.reportFailure(classServerAddress, e.getStatus());
             return;
         }
 
@@ -182,8 +185,6 @@ public class AdminFrontend {
         }
 
         debug.log("dump: " + responseCode + " with argument " + qualifier);
-
-        getClassServerChannel().shutdown();
     }
 
     /**
@@ -205,6 +206,7 @@ public class AdminFrontend {
             response = getClassServerStub().activateGossip(request);
         } catch (StatusRuntimeException e){
             System.err.println("Caught exception with description: " + e.getStatus().getDescription());
+            connectionManager.reportFailure(classServerAddress, e.getStatus());
             return;
         }
 
@@ -212,8 +214,6 @@ public class AdminFrontend {
         System.out.println(Stringify.format(responseCode));
 
         debug.log("activateGossip: " + responseCode + " with argument " + qualifier);
-
-        getClassServerChannel().shutdown();
     }
 
     /**
@@ -235,6 +235,7 @@ public class AdminFrontend {
             response = getClassServerStub().deactivateGossip(request);
         } catch (StatusRuntimeException e){
             System.err.println("Caught exception with description: " + e.getStatus().getDescription());
+            connectionManager.reportFailure(classServerAddress, e.getStatus());
             return;
         }
 
@@ -242,8 +243,6 @@ public class AdminFrontend {
         System.out.println(Stringify.format(responseCode));
 
         debug.log("deactivateGossip: " + responseCode + " with argument " + qualifier);
-
-        getClassServerChannel().shutdown();
     }
 
     /**
@@ -265,6 +264,7 @@ public class AdminFrontend {
             response = getClassServerStub().forceGossip(request);
         } catch (StatusRuntimeException e){
             System.err.println("Caught exception with description: " + e.getStatus().getDescription());
+            connectionManager.reportFailure(classServerAddress, e.getStatus());
             return;
         }
 
@@ -272,14 +272,82 @@ public class AdminFrontend {
         System.out.println(Stringify.format(responseCode));
 
         debug.log("forceGossip: " + responseCode + " with argument " + qualifier);
+    }
+
+    /**
+     * Report what the other servers acknowledged to a server and how far behind they are
+     * Will report the peers of a single server
+     * If there are multiple, it will choose one randomly
+     * @param qualifier The server's qualifier
+     */
+    public void peers(String qualifier){
+
+        if(findServers("turmas", new String[]{qualifier})) return;
+
+        createChannelAndStub();
+
+        PeersRequest request = PeersRequest.getDefaultInstance();
+        PeersResponse response;
+
+        try {
+            response = getClassServerStub().peers(request);
+        } catch (StatusRuntimeException e){
+            System.err.println("Caught exception with description: " + e.getStatus().getDescription());
+            connectionManager.reportFailure(classServerAddress, e.getStatus());
+            return;
+        }
+
+        ResponseCode responseCode = response.getCode();
+        if(responseCode == ResponseCode.OK){
+            System.out.println("Clock: " + Convert.toVectorClock(response.getVectorClockState()));
+            response.getPeersList().forEach(peer -> System.out.println(Stringify.format(peer)));
+        }
+        else{
+            System.out.println(Stringify.format(responseCode));
+        }
+
+        debug.log("peers: " + responseCode + " with argument " + qualifier);
+    }
+
+    /**
+     * Report how busy the threads of clients, other servers and admins are on a server
+     * Will report the lanes of a single server
+     * If there are multiple, it will choose one randomly
+     * @param qualifier The server's qualifier
+     */
+    public void lanes(String qualifier){
+
+        if(findServers("turmas", new String[]{qualifier})) return;
+
+        createChannelAndStub();
+
+        LanesRequest request = LanesRequest.getDefaultInstance();
+        LanesResponse response;
+
+        try {
+            response = getClassServerStub().lanes(request);
+        } catch (StatusRuntimeException e){
+            System.err.println("Caught exception with description: " + e.getStatus().getDescription());
+            connectionManager.reportFailure(classServerAddress, e.getStatus());
+            return;
+        }
+
+        ResponseCode responseCode = response.getCode();
+        if(responseCode == ResponseCode.OK){
+            response.getLanesList().forEach(lane -> System.out.println(Stringify.format(lane)));
+            System.out.println(Stringify.format(response.getAdmission()));
+        }
+        else{
+            System.out.println(Stringify.format(responseCode));
+        }
 
-        getClassServerChannel().shutdown();
+        debug.log("lanes: " + responseCode + " with argument " + qualifier);
     }
 
     /**
      * Close channel
      */
     public void close(){
-        getNamingServerChannel().shutdown();
+        connectionManager.close();
     }
 }
@@ -0,0 +1,73 @@
+package pt.ulisboa.tecnico.classes.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pt.ulisboa.tecnico.classes.classserver.Class;
+import pt.ulisboa.tecnico.classes.classserver.ClassServerFrontend;
+import pt.ulisboa.tecnico.classes.classserver.ClassServerServiceImpl;
+import pt.ulisboa.tecnico.classes.classserver.ClassStateCache;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ClassState;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversions between a class and its protobuf state, done for every read response and gossip message
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConvertBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int classSize;
+
+    @Param({"3", "5"})
+    public int replicas;
+
+    private Class studentsClass;
+    private ClassState classState;
+    private ClassServerServiceImpl service;
+
+    @Setup
+    public void setup() {
+
+        studentsClass = Fixtures.newClass(1, replicas, 0, classSize);
+        classState = ClassStateCache.convertToClassState(studentsClass, true);
+        service = new ClassServerServiceImpl(studentsClass, false);
+    }
+
+    @Benchmark
+    public ClassState toClassState() {
+        return ClassStateCache.convertToClassState(studentsClass, true);
+    }
+
+    @Benchmark
+    public ClassState toClientClassState() {
+        return ClassStateCache.convertToClassState(studentsClass, false);
+    }
+
+    /**
+     * The state served from the cache, as reads see it while the class does not change
+     */
+    @Benchmark
+    public ClassState cachedClassState() {
+        return studentsClass.getReplicaClassState();
+    }
+
+    @Benchmark
+    public Class toClass() {
+        return ClassServerFrontend.convertToClass(classState);
+    }
+
+    @Benchmark
+    public Class toClassInService() {
+        return service.convertToClass(classState);
+    }
+
+    @Benchmark
+    public Class roundTrip() {
+        return ClassServerFrontend.convertToClass(ClassStateCache.convertToClassState(studentsClass, true));
+    }
+}
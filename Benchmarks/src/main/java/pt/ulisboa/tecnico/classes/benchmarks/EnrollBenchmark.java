@@ -0,0 +1,85 @@
+package pt.ulisboa.tecnico.classes.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pt.ulisboa.tecnico.classes.classserver.Class;
+import pt.ulisboa.tecnico.classes.classserver.exception.ClassException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Enrollments on a single replica, alone and with several threads writing at once
+ * Each thread enrolls and cancels its own students in turn, under the class lock as the services do
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnrollBenchmark {
+
+    // Students each thread enrolls and cancels
+    private static final int SLICE = 500;
+
+    @Param({"10", "100", "1000"})
+    public int classSize;
+
+    @Param({"3", "5"})
+    public int replicas;
+
+    private Class studentsClass;
+    private final AtomicInteger slices = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Slice {
+
+        private int first;
+        private int next = 0;
+
+        @Setup
+        public void setup(EnrollBenchmark benchmark) {
+            first = benchmark.classSize + benchmark.slices.getAndIncrement() * SLICE;
+            if (first + SLICE > Fixtures.MAX_STUDENTS) {
+                throw new IllegalStateException("Too many threads for the student ids available.");
+            }
+        }
+
+        private String nextStudentId() {
+            next = (next + 1) % SLICE;
+            return Fixtures.studentId(first + next);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        studentsClass = Fixtures.newClass(1, replicas, 0, classSize);
+        slices.set(0);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void enrollAlone(Slice slice) throws ClassException {
+        enrollOrCancel(slice.nextStudentId());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void enrollContended(Slice slice) throws ClassException {
+        enrollOrCancel(slice.nextStudentId());
+    }
+
+    private void enrollOrCancel(String studentId) throws ClassException {
+
+        studentsClass.getLock().lock();
+        try {
+            if (studentsClass.getEnrolled().containsKey(studentId)) {
+                studentsClass.cancelEnrollment(studentId);
+            } else {
+                studentsClass.enroll(studentId, "Student " + studentId.substring(5));
+            }
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package pt.ulisboa.tecnico.classes.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pt.ulisboa.tecnico.classes.ServerExecutors;
+import pt.ulisboa.tecnico.classes.classserver.Class;
+import pt.ulisboa.tecnico.classes.classserver.exception.ClassException;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bursts of enrollments in flight at once, run on each executor mode of the servers
+ * Every request first blocks for a while, as a handler waiting on another server does, then enrolls or cancels
+ * under the class lock. The peak number of platform threads of each mode is printed after its trial
+ * Virtual threads need Java 21, on older JVMs the virtual mode runs on the cached pool
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutorBenchmark {
+
+    @Param({"cached", "fixed", "virtual"})
+    public String mode;
+
+    @Param({"100", "1000", "5000"})
+    public int inFlight;
+
+    // Time each request blocks before enrolling (milliseconds)
+    @Param({"5"})
+    public long blockMillis;
+
+    private Class studentsClass;
+    private ExecutorService executor;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    @Setup(Level.Trial)
+    public void setup() {
+
+        if (inFlight > Fixtures.MAX_STUDENTS) {
+            throw new IllegalStateException("Too many requests for the student ids available.");
+        }
+        studentsClass = Fixtures.newClass(1, 3, 0, 0);
+
+        // The gRPC default is a cached pool
+        executor = ServerExecutors.create(ServerExecutors.Mode.valueOf(mode.toUpperCase()), "benchmark");
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool();
+        }
+        threads.resetPeakThreadCount();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+
+        System.out.println();
+        System.out.println("Peak platform threads with " + mode + " executor: " + threads.getPeakThreadCount());
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void burst() throws InterruptedException {
+
+        CountDownLatch done = new CountDownLatch(inFlight);
+        for (int request = 0; request < inFlight; request++) {
+            String studentId = Fixtures.studentId(request);
+            executor.execute(() -> {
+                try {
+                    Thread.sleep(blockMillis);
+                    enrollOrCancel(studentId);
+                } catch (InterruptedException | ClassException e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+
+    private void enrollOrCancel(String studentId) throws ClassException {
+
+        studentsClass.getLock().lock();
+        try {
+            if (studentsClass.getEnrolled().containsKey(studentId)) {
+                studentsClass.cancelEnrollment(studentId);
+            } else {
+                studentsClass.enroll(studentId, "Student " + studentId.substring(5));
+            }
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package pt.ulisboa.tecnico.classes.benchmarks;
+
+import pt.ulisboa.tecnico.classes.VectorClock;
+import pt.ulisboa.tecnico.classes.classserver.Class;
+import pt.ulisboa.tecnico.classes.classserver.ServerStatus;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Classes and clocks the benchmarks start from
+ */
+final class Fixtures {
+
+    // Student ids have 4 digits
+    static final int MAX_STUDENTS = 10000;
+
+    private Fixtures() {}
+
+    static String studentId(int student) {
+        return String.format("aluno%04d", student);
+    }
+
+    /**
+     * Create a clock with an entry per replica, server ids starting at 1
+     * @param replicas  The number of replicas
+     * @param value     The value of every entry
+     */
+    static VectorClock clock(int replicas, int value) {
+
+        VectorClock vectorClock = new VectorClock();
+        for (int serverId = 1; serverId <= replicas; serverId++) {
+            vectorClock.addEntry(serverId, value);
+        }
+        return vectorClock;
+    }
+
+    /**
+     * Create an open class of a replica with enrolled students
+     * @param serverId  The replica server id, 1 is the primary
+     * @param replicas  The number of replicas in its clock
+     * @param first     The first student enrolled
+     * @param size      The number of students enrolled, one millisecond apart
+     */
+    static Class newClass(int serverId, int replicas, int first, int size) {
+
+        ServerStatus serverStatus = new ServerStatus("localhost", 5000 + serverId, List.of(serverId == 1 ? "P" : "S"));
+        serverStatus.setServerId(serverId);
+        serverStatus.setVectorClock(clock(replicas, size));
+
+        ConcurrentHashMap<String, String> enrolled = new ConcurrentHashMap<>();
+        ConcurrentHashMap<String, Instant> timestamps = new ConcurrentHashMap<>();
+        for (int student = first; student < first + size; student++) {
+            enrolled.put(studentId(student), "Student " + student);
+            timestamps.put(studentId(student), Instant.ofEpochMilli(student));
+        }
+
+        Class studentsClass = new Class(serverStatus);
+        studentsClass.setCapacity(MAX_STUDENTS);
+        studentsClass.setOpenEnrollments(true);
+        studentsClass.setEnrolled(enrolled);
+        studentsClass.setTimestamps(timestamps);
+        return studentsClass;
+    }
+}
@@ -0,0 +1,76 @@
+package pt.ulisboa.tecnico.classes.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pt.ulisboa.tecnico.classes.classserver.Class;
+import pt.ulisboa.tecnico.classes.classserver.exception.ClassException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enrollments against a full class while one thread keeps changing it
+ * With the lock path every rejected enrollment takes the class lock, as enroll always did, with the fast path it is
+ * answered by rejectEnrollment without it. The rate of the writer shows how much the rejections slow real writes
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FullClassBenchmark {
+
+    @Param({"lock", "fast"})
+    public String path;
+
+    @Param({"10", "1000"})
+    public int classSize;
+
+    private Class studentsClass;
+    private String writtenStudentId;
+    private String rejectedStudentId;
+
+    @Setup
+    public void setup() {
+
+        studentsClass = Fixtures.newClass(1, 3, 0, classSize);
+        studentsClass.setCapacity(classSize);
+        writtenStudentId = Fixtures.studentId(0);
+        rejectedStudentId = Fixtures.studentId(classSize);
+    }
+
+    @Benchmark
+    @Group("storm")
+    @GroupThreads(3)
+    public String reject() {
+
+        if (path.equals("fast")) {
+            String failure = studentsClass.rejectEnrollment(rejectedStudentId);
+            if (failure != null) return failure;
+        }
+
+        studentsClass.getLock().lock();
+        try {
+            studentsClass.enroll(rejectedStudentId, "Student " + classSize);
+            throw new IllegalStateException("Enrolled in a full class.");
+        } catch (ClassException e) {
+            return e.getMessage();
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+    }
+
+    @Benchmark
+    @Group("storm")
+    @GroupThreads(1)
+    public void write() throws ClassException {
+
+        // Cancelled and enrolled again under one lock, so the class never has a free place
+        studentsClass.getLock().lock();
+        try {
+            studentsClass.cancelEnrollment(writtenStudentId);
+            studentsClass.enroll(writtenStudentId, "Student 0");
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package pt.ulisboa.tecnico.classes.benchmarks;
+
+import io.grpc.stub.StreamObserver;
+import org.openjdk.jmh.annotations.*;
+import pt.ulisboa.tecnico.classes.classserver.Class;
+import pt.ulisboa.tecnico.classes.classserver.ClassServerFrontend;
+import pt.ulisboa.tecnico.classes.classserver.ClassServerServiceImpl;
+import pt.ulisboa.tecnico.classes.contract.classserver.ClassServerClassServer.GossipRequest;
+import pt.ulisboa.tecnico.classes.contract.classserver.ClassServerClassServer.GossipResponse;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handling of gossip from another replica, when the clocks are concurrent and the student lists must be merged
+ * and when the sender is simply ahead
+ * The fan-in benchmarks receive concurrent gossip from every other replica, one request at a time or as a single
+ * pass of the gossip applier
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GossipBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int classSize;
+
+    @Param({"3", "5"})
+    public int replicas;
+
+    // Half of the sender's students are also enrolled locally, the other half are new
+    private GossipRequest concurrentRequest;
+    private GossipRequest aheadRequest;
+    // One concurrent request from each other replica, each sharing half of its students with the next
+    private final List<GossipRequest> fanInRequests = new ArrayList<>();
+    private ConcurrentHashMap<String, Instant> timestamps;
+
+    // Replaced before every call, since gossip changes the local class
+    private Class local;
+    private ClassServerServiceImpl service;
+
+    private final Response response = new Response();
+
+    private static class Response implements StreamObserver<GossipResponse> {
+
+        private GossipResponse value;
+
+        @Override
+        public void onNext(GossipResponse value) { this.value = value; }
+
+        @Override
+        public void onError(Throwable t) {}
+
+        @Override
+        public void onCompleted() {}
+    }
+
+    @Setup(Level.Trial)
+    public void setupRequests() {
+
+        Class remote = Fixtures.newClass(2, replicas, classSize / 2, classSize);
+        remote.getServerStatus().getVectorClock().increment(2);
+        concurrentRequest = ClassServerFrontend.buildGossipRequest(remote);
+
+        remote.getServerStatus().getVectorClock().increment(1);
+        remote.getServerStatus().getVectorClock().increment(1);
+        aheadRequest = ClassServerFrontend.buildGossipRequest(remote);
+
+        fanInRequests.clear();
+        for (int serverId = 2; serverId <= replicas; serverId++) {
+            Class sender = Fixtures.newClass(serverId, replicas, (serverId - 1) * classSize / 2, classSize);
+            sender.getServerStatus().getVectorClock().increment(serverId);
+            fanInRequests.add(ClassServerFrontend.buildGossipRequest(sender));
+        }
+
+        timestamps = new ConcurrentHashMap<>(Fixtures.newClass(1, replicas, 0, classSize).getTimestamps());
+    }
+
+    @Setup(Level.Invocation)
+    public void setupLocal() {
+
+        local = Fixtures.newClass(1, replicas, 0, classSize);
+        local.getServerStatus().getVectorClock().increment(1);
+        service = new ClassServerServiceImpl(local, false);
+    }
+
+    @Benchmark
+    public HashMap<String, Instant> sortByValue() {
+        return ClassServerServiceImpl.sortByValue(timestamps);
+    }
+
+    @Benchmark
+    public GossipResponse concurrentMerge() {
+        service.gossip(concurrentRequest, response);
+        return response.value;
+    }
+
+    @Benchmark
+    public GossipResponse senderAhead() {
+        service.gossip(aheadRequest, response);
+        return response.value;
+    }
+
+    @Benchmark
+    public GossipResponse fanInOneByOne() {
+        for (GossipRequest request : fanInRequests) {
+            service.gossip(request, response);
+        }
+        return response.value;
+    }
+
+    @Benchmark
+    public List<GossipResponse> fanInBatched() {
+        return service.getGossipApplier().apply(fanInRequests);
+    }
+}
@@ -0,0 +1,75 @@
+package pt.ulisboa.tecnico.classes.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pt.ulisboa.tecnico.classes.VectorClock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vector clock comparisons and merges, done on every client request and gossip message
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorClockBenchmark {
+
+    @Param({"3", "5", "9", "17"})
+    public int replicas;
+
+    // local is ahead of base in server 2, ahead is ahead of local in server 1,
+    // concurrent is ahead of base in server 1 only, so it is concurrent with local
+    private VectorClock local;
+    private VectorClock ahead;
+    private VectorClock concurrent;
+    private VectorClock equal;
+
+    @Setup
+    public void setup() {
+
+        VectorClock base = Fixtures.clock(replicas, 10);
+
+        local = base.copyVectorClock(base);
+        local.increment(2);
+
+        ahead = local.copyVectorClock(local);
+        ahead.increment(1);
+
+        concurrent = base.copyVectorClock(base);
+        concurrent.increment(1);
+
+        equal = local.copyVectorClock(local);
+    }
+
+    @Benchmark
+    public boolean happensBefore() {
+        return local.happensBefore(ahead);
+    }
+
+    @Benchmark
+    public boolean concurrent() {
+        return local.concurrent(concurrent);
+    }
+
+    @Benchmark
+    public boolean equalClocks() {
+        return local.equals(equal);
+    }
+
+    @Benchmark
+    public VectorClock copy() {
+        return local.copyVectorClock(local);
+    }
+
+    /**
+     * Merge into a copy, as gossip merges into a replica's own clock, so copy is the baseline
+     */
+    @Benchmark
+    public VectorClock merge() {
+        VectorClock merged = local.copyVectorClock(local);
+        merged.merge(concurrent);
+        return merged;
+    }
+}
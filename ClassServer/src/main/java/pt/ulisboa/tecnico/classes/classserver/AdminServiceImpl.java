@@ -2,22 +2,31 @@ package pt.ulisboa.tecnico.classes.classserver;
 
 import io.grpc.stub.StreamObserver;
 
+import pt.ulisboa.tecnico.classes.Convert;
+import pt.ulisboa.tecnico.classes.VectorClock;
 import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.*;
 import pt.ulisboa.tecnico.classes.contract.admin.AdminClassServer.*;
 import pt.ulisboa.tecnico.classes.contract.admin.AdminServiceGrpc.AdminServiceImplBase;
 
 import pt.ulisboa.tecnico.classes.Debug;
 
+import java.util.concurrent.Executor;
+
 public class AdminServiceImpl extends AdminServiceImplBase  {
 
     private final Debug debug;
     private final Class studentsClass;
-    private final ClassServerFrontend classServerFrontend;
+    private final GossipScheduler gossipScheduler;
+    private final ExecutionLanes executionLanes;
+    private final AdmissionController admissionController;
 
 
-    public AdminServiceImpl(Class studentsClass, ClassServerFrontend classServerFrontend, boolean debugMode) {
+    public AdminServiceImpl(Class studentsClass, GossipScheduler gossipScheduler, ExecutionLanes executionLanes,
+                            AdmissionController admissionController, boolean debugMode) {
         this.studentsClass = studentsClass;
-        this.classServerFrontend = classServerFrontend;
+        this.gossipScheduler = gossipScheduler;
+        this.executionLanes = executionLanes;
+        this.admissionController = admissionController;
         debug = new Debug(AdminServiceImpl.class.getName(), debugMode);
     }
 
@@ -29,7 +38,8 @@ public class AdminServiceImpl extends AdminServiceImplBase  {
     @Override
     public void activate(ActivateRequest request, StreamObserver<ActivateResponse> responseObserver) {
 
-        synchronized (studentsClass) {
+        studentsClass.getLock().lock();
+        try {
 
             studentsClass.activate();
             ResponseCode responseCode = ResponseCode.OK;
@@ -48,6 +58,8 @@ public class AdminServiceImpl extends AdminServiceImplBase  {
 
             responseObserver.onNext(activateResponse);
             responseObserver.onCompleted();
+        } finally {
+            studentsClass.getLock().unlock();
         }
     }
 
@@ -59,7 +71,8 @@ public class AdminServiceImpl extends AdminServiceImplBase  {
     @Override
     public void deactivate(DeactivateRequest request, StreamObserver<DeactivateResponse> responseObserver) {
 
-        synchronized (studentsClass){
+        studentsClass.getLock().lock();
+        try {
 
             studentsClass.deactivate();
             ResponseCode responseCode = ResponseCode.OK;
@@ -78,6 +91,8 @@ public class AdminServiceImpl extends AdminServiceImplBase  {
 
             responseObserver.onNext(deactivateResponse);
             responseObserver.onCompleted();
+        } finally {
+            studentsClass.getLock().unlock();
         }
     }
 
@@ -92,7 +107,7 @@ public class AdminServiceImpl extends AdminServiceImplBase  {
         ResponseCode responseCode = ResponseCode.OK;
         DumpResponse response = DumpResponse.newBuilder()
                 .setCode(responseCode)
-                .setClassState(convertToClassState(studentsClass))
+                .setClassState(studentsClass.getClassState())
                 .build();
 
         debug.log("dump: " + response.getCode());
@@ -108,7 +123,8 @@ public class AdminServiceImpl extends AdminServiceImplBase  {
      * @param responseObserver  The stream where response will be sent
      */
       public void activateGossip(ActivateGossipRequest request, StreamObserver<ActivateGossipResponse> responseObserver) {
-          synchronized (studentsClass){
+          studentsClass.getLock().lock();
+          try {
 
               studentsClass.activateGossip();
               ResponseCode responseCode = ResponseCode.OK;
@@ -127,6 +143,8 @@ public class AdminServiceImpl extends AdminServiceImplBase  {
 
               responseObserver.onNext(activateGossipResponse);
               responseObserver.onCompleted();
+          } finally {
+              studentsClass.getLock().unlock();
           }
       }
 
@@ -136,7 +154,8 @@ public class AdminServiceImpl extends AdminServiceImplBase  {
      * @param responseObserver  The stream where response will be sent
      */
     public void deactivateGossip(DeactivateGossipRequest request, StreamObserver<DeactivateGossipResponse> responseObserver) {
-      synchronized (studentsClass){
+      studentsClass.getLock().lock();
+      try {
 
           studentsClass.deactivateGossip();
           ResponseCode responseCode = ResponseCode.OK;
@@ -156,18 +175,29 @@ public class AdminServiceImpl extends AdminServiceImplBase  {
 
           responseObserver.onNext(deactivateGossipResponse);
           responseObserver.onCompleted();
+      } finally {
+          studentsClass.getLock().unlock();
       }
     }
 
     /**
      * Force server to gossip
+     * The round runs on the gossip scheduler, without the class lock, after any round already running
+     * The admin lane has a single thread, so the call is answered back on its lane once the round ends
+     * instead of waiting for it
      * @param request           The request from AdminFrontend
      * @param responseObserver  The stream where response will be sent
      */
     public void forceGossip(ForceGossipRequest request, StreamObserver<ForceGossipResponse> responseObserver) {
-        synchronized (studentsClass){
 
-            classServerFrontend.gossip(studentsClass, "admin");
+        Executor callExecutor = ExecutionLanes.callExecutor();
+
+        gossipScheduler.forceRound().whenCompleteAsync((updated, e) -> {
+
+            if (e != null) {
+                System.err.println("Caught exception when gossiping: " + e.getMessage());
+            }
+
             ResponseCode responseCode = ResponseCode.OK;
             ForceGossipResponse forceGossipResponse = ForceGossipResponse.newBuilder()
                     .setCode(responseCode)
@@ -177,41 +207,80 @@ public class AdminServiceImpl extends AdminServiceImplBase  {
 
             responseObserver.onNext(forceGossipResponse);
             responseObserver.onCompleted();
-        }
+        }, callExecutor != null ? callExecutor : Runnable::run);
     }
 
     /**
-     * Convert Class to ClassState
-     * @param studentsClass The class to be converted
-     * @return              The class state
+     * List what every other server acknowledged and how far behind it is
+     * @param request           The request from AdminFrontend
+     * @param responseObserver  The stream where response will be sent
      */
-    public ClassState convertToClassState(Class studentsClass){
+    @Override
+    public void peers(PeersRequest request, StreamObserver<PeersResponse> responseObserver) {
+
+        VectorClock vectorClock = studentsClass.getServerStatus().getVectorClock();
 
-        // Add enrollment status and class capacity
-        ClassState.Builder classState = ClassState.newBuilder()
-                .setOpenEnrollments(studentsClass.isOpenEnrollments())
-                .setCapacity(studentsClass.getCapacity());
+        ResponseCode responseCode = ResponseCode.OK;
+        PeersResponse.Builder response = PeersResponse.newBuilder()
+                .setCode(responseCode)
+                .setVectorClockState(Convert.toVectorClockState(vectorClock));
+
+        for (PeerCursors.Cursor cursor : studentsClass.getServerStatus().getPeerCursors().getCursors()) {
+
+            Peer.Builder peer = Peer.newBuilder()
+                    .setAddress(cursor.address())
+                    .setServerId(cursor.serverId())
+                    .setLag(cursor.lag(vectorClock))
+                    .setFailures(cursor.failures());
+
+            if (cursor.ackedVectorClock() != null) {
+                peer.setAckedVectorClockState(Convert.toVectorClockState(cursor.ackedVectorClock()));
+            }
+            if (cursor.lastAck() != null) {
+                peer.setLastAck(Convert.toGoogleTimestamp(cursor.lastAck()));
+            }
+            response.addPeers(peer);
+        }
 
-        // Add each enrolled student to state
-        studentsClass.getEnrolled().forEach((studentId, studentName) -> {
+        debug.log("peers: " + responseCode);
 
-            Student student = Student.newBuilder()
-                    .setStudentId(studentId)
-                    .setStudentName(studentName)
-                    .build();
-            classState.addEnrolled(student);
-        });
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
 
-        // Add each discarded student to state
-        studentsClass.getDiscarded().forEach((studentId, studentName) -> {
+    /**
+     * List how busy the threads of clients, other servers and admins are, and how many writes are let in
+     * @param request           The request from AdminFrontend
+     * @param responseObserver  The stream where response will be sent
+     */
+    @Override
+    public void lanes(LanesRequest request, StreamObserver<LanesResponse> responseObserver) {
 
-            Student student = Student.newBuilder()
-                    .setStudentId(studentId)
-                    .setStudentName(studentName)
-                    .build();
-            classState.addDiscarded(student);
-        });
+        ResponseCode responseCode = ResponseCode.OK;
+        LanesResponse.Builder response = LanesResponse.newBuilder().setCode(responseCode);
+
+        for (ExecutionLanes.Lane lane : executionLanes.getLanes()) {
+            response.addLanes(Lane.newBuilder()
+                    .setName(lane.getName())
+                    .setRunning(lane.getRunning())
+                    .setQueued(lane.getQueued())
+                    .setMaxQueued(lane.getMaxQueued())
+                    .setPeakQueued(lane.getPeakQueued())
+                    .setCompleted(lane.getCompleted())
+                    .setRejected(lane.getRejected()));
+        }
 
-        return classState.build();
+        response.setAdmission(Admission.newBuilder()
+                .setLimit(admissionController.getLimit())
+                .setInFlight(admissionController.getInFlight())
+                .setQueued(admissionController.getQueued())
+                .setAdmitted(admissionController.getAdmitted())
+                .setRejected(admissionController.getRejected())
+                .setExpired(admissionController.getExpired()));
+
+        debug.log("lanes: " + responseCode);
+
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
     }
 }
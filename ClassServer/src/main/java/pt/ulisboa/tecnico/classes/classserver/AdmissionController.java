@@ -0,0 +1,499 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import pt.ulisboa.tecnico.classes.RetryAfter;
+import pt.ulisboa.tecnico.classes.contract.professor.ProfessorServiceGrpc;
+import pt.ulisboa.tecnico.classes.contract.student.StudentServiceGrpc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Limits the writes handled at once, so a burst of enrollments waits in a short queue instead of piling up
+ * on the class lock
+ * The limit follows the latency of the writes, in the style of TCP Vegas: from how much slower writes are than the
+ * fastest recent one, it estimates how many of them wait on the class lock, and grows while only a few do and shrinks
+ * while many do. Writes over the limit wait in a bounded FIFO
+ * queue, and writes that find the queue full or wait too long are refused with RESOURCE_EXHAUSTED and a hint
+ * of when to retry, in the trailer read by RetryAfter
+ * Reads are never limited, nor are writes that a check on their request shows to be answered without the class lock
+ */
+public class AdmissionController implements ServerInterceptor {
+
+    public static final int INITIAL_LIMIT = 20;
+    public static final int MIN_LIMIT = 1;
+    public static final int MAX_LIMIT = 200;
+
+    // Writes waiting for a slot before new ones are refused
+    public static final int MAX_QUEUED = 100;
+    // Time a write may wait for a slot before it is refused (milliseconds)
+    public static final long MAX_WAIT = 1000;
+
+    // Writes waiting on the class below which the limit grows, and above which it shrinks
+    private static final int ALPHA = 3;
+    private static final int BETA = 6;
+    // Weight of a new latency in the average latency
+    private static final double RTT_SMOOTHING = 0.1;
+    // Samples after which the fastest latency is measured again, so it follows a slower or faster server
+    private static final int MIN_RTT_WINDOW = 500;
+
+    // Set by handlers that answer a write without the class lock
+    private static final Context.Key<AtomicBoolean> IGNORE_LATENCY_KEY = Context.key("admission-ignore-latency");
+
+    private static final Set<String> WRITES = Set.of(
+            StudentServiceGrpc.getEnrollMethod().getFullMethodName(),
+            StudentServiceGrpc.getEnrollBatchMethod().getFullMethodName(),
+            ProfessorServiceGrpc.getOpenEnrollmentsMethod().getFullMethodName(),
+            ProfessorServiceGrpc.getCloseEnrollmentsMethod().getFullMethodName(),
+            ProfessorServiceGrpc.getCancelEnrollmentMethod().getFullMethodName(),
+            ProfessorServiceGrpc.getCancelEnrollmentBatchMethod().getFullMethodName());
+
+    // Source of the latencies and waits (nanoseconds)
+    private final LongSupplier nanoTime;
+
+    // Checks of the requests answered without the class lock, by full method name
+    private final Map<String, Predicate<Object>> bypasses = new ConcurrentHashMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<Write<?, ?>> waiting = new ArrayDeque<>();
+
+    // Guarded by the lock
+    private double limit = INITIAL_LIMIT;
+    private int inFlight = 0;
+    private long minRtt = 0;
+    private long windowMinRtt = Long.MAX_VALUE;
+    private int windowSamples = 0;
+    private double averageRtt = 0;
+    private long admitted = 0;
+    private long rejected = 0;
+    private long expired = 0;
+    private long bypassed = 0;
+
+    public AdmissionController() {
+        this(System::nanoTime);
+    }
+
+    AdmissionController(LongSupplier nanoTime) {
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Check if a method changes the class
+     * @param fullMethodName    The full method name
+     * @return                  True if its calls are limited
+     */
+    public static boolean isWrite(String fullMethodName) {
+        return WRITES.contains(fullMethodName);
+    }
+
+    /**
+     * Let the writes of a method skip the limit when their request passes a check
+     * The decision then waits for the request, and writes that pass neither take a slot nor wait in the queue,
+     * so they are not held up by the writes they would not slow down. The check must be cheap and must not
+     * take the class lock. A request whose answer changes between the check and its handler runs without a slot
+     * @param method    The method
+     * @param check     True if the request is answered without the class lock
+     * @param <ReqT>    The request type
+     */
+    @SuppressWarnings("unchecked")
+    public <ReqT> void bypass(MethodDescriptor<ReqT, ?> method, Predicate<ReqT> check) {
+        bypasses.put(method.getFullMethodName(), request -> check.test((ReqT) request));
+    }
+
+    /**
+     * Leave the latency of the current write out of the limit
+     * For writes answered without the class lock, which are so fast that every other write would look queued
+     */
+    public static void ignoreLatency() {
+
+        AtomicBoolean ignore = IGNORE_LATENCY_KEY.get();
+        if (ignore != null) {
+            ignore.set(true);
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Writes that got a slot, at once or after waiting
+    public long getAdmitted() {
+        lock.lock();
+        try {
+            return admitted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Writes refused because the queue was full
+    public long getRejected() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Writes refused because they waited too long
+    public long getExpired() {
+        lock.lock();
+        try {
+            return expired;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Writes that skipped the limit because their request passed the check of their method
+    public long getBypassed() {
+        lock.lock();
+        try {
+            return bypassed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+
+        String fullMethodName = call.getMethodDescriptor().getFullMethodName();
+        if (!isWrite(fullMethodName)) {
+            return next.startCall(call, headers);
+        }
+
+        Write<ReqT, RespT> write = new Write<>(call, headers, next);
+
+        Predicate<Object> bypass = bypasses.get(fullMethodName);
+        if (bypass != null) {
+            // The handler is not started yet, so the request is asked for here
+            write.bypass = bypass;
+            call.request(1);
+        } else {
+            admit(write);
+        }
+        return write;
+    }
+
+    /**
+     * Start a write if there is a free slot, else queue or refuse it
+     * @param write The write
+     */
+    private void admit(Write<?, ?> write) {
+
+        long retryAfter;
+
+        lock.lock();
+        try {
+            if (inFlight < (int) limit && waiting.isEmpty()) {
+                inFlight++;
+                admitted++;
+                retryAfter = -1;
+            } else if (waiting.size() < MAX_QUEUED) {
+                write.queuedAt = nanoTime.getAsLong();
+                waiting.add(write);
+                return;
+            } else {
+                rejected++;
+                retryAfter = retryAfter();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (retryAfter >= 0) {
+            // Never started, so it holds no slot to release
+            write.finished.set(true);
+            refuse(write.call, "Too many writes waiting", retryAfter);
+            return;
+        }
+
+        write.start();
+    }
+
+    /**
+     * Start a write that passed the check of its method, without a slot
+     * @param write The write
+     */
+    private void skip(Write<?, ?> write) {
+
+        lock.lock();
+        try {
+            bypassed++;
+        } finally {
+            lock.unlock();
+        }
+
+        write.finished.set(true);
+        write.start();
+    }
+
+    /**
+     * Estimate when the queue will have room, from the average latency and the limit
+     * Must hold the lock
+     * @return The time to wait (milliseconds)
+     */
+    private long retryAfter() {
+        double queuedTime = averageRtt * (waiting.size() + 1) / Math.max(limit, 1);
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(Math.round(queuedTime)));
+    }
+
+    private static void refuse(ServerCall<?, ?> call, String reason, long retryAfter) {
+
+        try {
+            call.close(Status.RESOURCE_EXHAUSTED.withDescription(reason + ", retry after " + retryAfter + " ms."),
+                    RetryAfter.trailers(retryAfter));
+        } catch (IllegalStateException e) {
+            // The call was cancelled meanwhile
+        }
+    }
+
+    /**
+     * Free the slot of a finished write and start the writes waiting for it
+     * @param rtt   The latency of the write, negative if it was cancelled
+     */
+    private void release(long rtt) {
+
+        List<Write<?, ?>> starting = new ArrayList<>();
+        List<Write<?, ?>> expiring = new ArrayList<>();
+        long retryAfter;
+
+        lock.lock();
+        try {
+            inFlight--;
+            if (rtt >= 0) {
+                sample(rtt);
+            }
+
+            long now = nanoTime.getAsLong();
+            while (inFlight < (int) limit && !waiting.isEmpty()) {
+                Write<?, ?> write = waiting.poll();
+                if (now - write.queuedAt > TimeUnit.MILLISECONDS.toNanos(MAX_WAIT)) {
+                    // Never started, so it holds no slot to release
+                    write.finished.set(true);
+                    expired++;
+                    expiring.add(write);
+                } else {
+                    inFlight++;
+                    admitted++;
+                    starting.add(write);
+                }
+            }
+            retryAfter = retryAfter();
+        } finally {
+            lock.unlock();
+        }
+
+        // Each queued write goes back to its own call, on its lane when it has one
+        expiring.forEach(write -> write.executor.execute(() -> refuse(write.call, "Waited too long for other writes", retryAfter)));
+        starting.forEach(write -> write.executor.execute(write::start));
+    }
+
+    /**
+     * Adjust the limit to the latency of a write
+     * Must hold the lock
+     * @param rtt The latency (nanoseconds)
+     */
+    private void sample(long rtt) {
+
+        averageRtt = averageRtt == 0 ? rtt : (1 - RTT_SMOOTHING) * averageRtt + RTT_SMOOTHING * rtt;
+
+        windowMinRtt = Math.min(windowMinRtt, rtt);
+        if (minRtt == 0 || ++windowSamples >= MIN_RTT_WINDOW) {
+            minRtt = windowMinRtt;
+            windowMinRtt = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+
+        // Without enough writes to fill it, latency says nothing about the limit
+        if (inFlight + 1 < limit / 2) {
+            return;
+        }
+
+        // The time over the fastest write is spent waiting for the others
+        double queued = limit * (1 - (double) minRtt / rtt);
+        if (queued < ALPHA) {
+            limit = Math.min(MAX_LIMIT, limit + 1);
+        } else if (queued > BETA) {
+            limit = Math.max(MIN_LIMIT, limit - 1);
+        }
+    }
+
+    /**
+     * A write, started at once, when a slot frees, or once its request passed the check of its method
+     * A write that is not started yet keeps the callbacks of its call and delivers them once the handler starts
+     */
+    private final class Write<ReqT, RespT> extends ServerCall.Listener<ReqT> {
+
+        private final ServerCall<ReqT, RespT> call;
+        private final Metadata headers;
+        private final ServerCallHandler<ReqT, RespT> next;
+        // Guarded by the lock, set when the write is queued
+        private long queuedAt;
+        // Runs the start of a queued write, on the lane of its call
+        private final Executor executor = Objects.requireNonNullElse(ExecutionLanes.callExecutor(), Runnable::run);
+        // The context of the call, where the handler finds ignoreLatency
+        private final AtomicBoolean ignoreLatency = new AtomicBoolean(false);
+        private final Context context = Context.current().withValue(IGNORE_LATENCY_KEY, ignoreLatency);
+        private volatile long startedAt;
+        // Set once the slot is released, or when the write ends without ever taking one
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        // The check of the request, until the request arrives, callbacks of a call never run at the same time
+        private volatile Predicate<Object> bypass;
+
+        // Guards the handler and the callbacks received before it started
+        private final ReentrantLock startLock = new ReentrantLock();
+        private ServerCall.Listener<ReqT> delegate;
+        private final List<Consumer<ServerCall.Listener<ReqT>>> early = new ArrayList<>();
+
+        private Write(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+            this.call = call;
+            this.headers = headers;
+            this.next = next;
+        }
+
+        private void start() {
+
+            startedAt = nanoTime.getAsLong();
+            startLock.lock();
+            try {
+                delegate = Contexts.interceptCall(context, call, headers, next);
+                early.forEach(callback -> callback.accept(delegate));
+                early.clear();
+            } finally {
+                startLock.unlock();
+            }
+        }
+
+        /**
+         * Run a callback on the handler, or keep it until the handler starts
+         * @param callback The callback
+         */
+        private void deliver(Consumer<ServerCall.Listener<ReqT>> callback) {
+
+            ServerCall.Listener<ReqT> started;
+            startLock.lock();
+            try {
+                if (delegate == null) {
+                    early.add(callback);
+                    return;
+                }
+                started = delegate;
+            } finally {
+                startLock.unlock();
+            }
+            callback.accept(started);
+        }
+
+        @Override
+        public void onMessage(ReqT message) {
+
+            deliver(listener -> listener.onMessage(message));
+
+            Predicate<Object> check = bypass;
+            if (check == null) return;
+            bypass = null;
+
+            if (check.test(message)) {
+                skip(this);
+            } else {
+                admit(this);
+            }
+        }
+
+        @Override
+        public void onHalfClose() { deliver(ServerCall.Listener::onHalfClose); }
+
+        @Override
+        public void onReady() { deliver(ServerCall.Listener::onReady); }
+
+        /**
+         * Drop the check of a write whose call ends before its request arrives, so it never takes a slot
+         */
+        private void dropCheck() {
+
+            if (bypass != null) {
+                bypass = null;
+                finished.set(true);
+            }
+        }
+
+        @Override
+        public void onCancel() {
+
+            dropCheck();
+
+            boolean removed;
+            lock.lock();
+            try {
+                removed = waiting.remove(this);
+            } finally {
+                lock.unlock();
+            }
+            // A write still waiting never starts
+            if (removed) return;
+
+            if (finished.compareAndSet(false, true)) {
+                release(-1);
+            }
+            deliver(ServerCall.Listener::onCancel);
+        }
+
+        @Override
+        public void onComplete() {
+
+            dropCheck();
+
+            if (finished.compareAndSet(false, true)) {
+                release(ignoreLatency.get() ? -1 : nanoTime.getAsLong() - startedAt);
+            }
+            deliver(ServerCall.Listener::onComplete);
+        }
+    }
+}
@@ -1,63 +1,199 @@
 package pt.ulisboa.tecnico.classes.classserver;
 
+import java.time.Clock;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import pt.ulisboa.tecnico.classes.classserver.exception.ClassException;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.*;
 
 public class Class {
 
-    ServerStatus serverStatus;
-    private int capacity = 0;
-    private boolean openEnrollments = false;
-    private ConcurrentHashMap<String, String> enrolled = new ConcurrentHashMap<>();
+    final ServerStatus serverStatus;
+    // Held by every write and by the reads that need a consistent class, a lock instead of the monitor
+    // so handlers running on virtual threads do not pin their carrier while they wait or gossip
+    private final ReentrantLock lock = new ReentrantLock();
+    // Source of the enrollment timestamps, replaced by a virtual clock in simulations
+    private final Clock clock;
+    // Volatile so enrollments can be rejected without the lock, see rejectEnrollment
+    private volatile int capacity = 0;
+    private volatile boolean openEnrollments = false;
+    private volatile ConcurrentHashMap<String, String> enrolled = new ConcurrentHashMap<>();
+    // Places taken, follows the size of enrolled and is taken before a student is added to it
+    private final AtomicInteger takenSlots = new AtomicInteger();
     private ConcurrentHashMap<String, String> discarded = new ConcurrentHashMap<>();
     private ConcurrentHashMap<String, Instant> timestamps = new ConcurrentHashMap<>();
+    // Students of each list by enrollment time, kept up to date by the writes to answer getEnrollment
+    // A write moves one student in O(log n), replacing the lists through update or replace reorders them all in
+    // O(n log n) on that write, and only a class filled through the setters is reordered on its first lookup
+    private final RankedSet<OrderedStudent> enrolledOrder = new RankedSet<>();
+    private final RankedSet<OrderedStudent> discardedOrder = new RankedSet<>();
+    private boolean orderStale = false;
+    private final ClassStateCache classStateCache = new ClassStateCache(this);
+    private final ClassWatchers watchers = new ClassWatchers(this);
+    private final ClassPages classPages = new ClassPages(this);
+
+    public record Enrollment(boolean enrolled, Instant timestamp, int position) {}
+
+    private record OrderedStudent(Instant timestamp, String studentId) implements Comparable<OrderedStudent> {
+
+        private static final Comparator<OrderedStudent> ORDER = Comparator
+                .comparing(OrderedStudent::timestamp, Comparator.nullsFirst(Comparator.<Instant>naturalOrder()))
+                .thenComparing(OrderedStudent::studentId);
+
+        @Override
+        public int compareTo(OrderedStudent other) { return ORDER.compare(this, other); }
+    }
 
     public Class(ServerStatus serverStatus) {
+        this(serverStatus, Clock.systemUTC());
+    }
+
+    public Class(ServerStatus serverStatus, Clock clock) {
         this.serverStatus = serverStatus;
+        this.clock = clock;
     }
 
-    public synchronized ServerStatus getServerStatus() { return serverStatus; }
+    public ServerStatus getServerStatus() { return serverStatus; }
 
-    public synchronized int getCapacity() {
-        return capacity;
+    public Clock getClock() { return clock; }
+
+    public int getCapacity() {
+        lock.lock();
+        try {
+            return capacity;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized void setCapacity(int capacity) {
-        this.capacity = capacity;
+    public void setCapacity(int capacity) {
+        lock.lock();
+        try {
+            this.capacity = capacity;
+            classStateCache.invalidate();
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized boolean isOpenEnrollments() {
-        return openEnrollments;
+    public boolean isOpenEnrollments() {
+        lock.lock();
+        try {
+            return openEnrollments;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized void setOpenEnrollments(boolean openEnrollments) {
-        this.openEnrollments = openEnrollments;
+    public void setOpenEnrollments(boolean openEnrollments) {
+        lock.lock();
+        try {
+            this.openEnrollments = openEnrollments;
+            classStateCache.invalidate();
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized ConcurrentHashMap<String, String> getEnrolled() {
-        return enrolled;
+    public ConcurrentHashMap<String, String> getEnrolled() {
+        lock.lock();
+        try {
+            return enrolled;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized void setEnrolled(ConcurrentHashMap<String, String> enrolled) {
-        this.enrolled = enrolled;
+    public void setEnrolled(ConcurrentHashMap<String, String> enrolled) {
+        lock.lock();
+        try {
+            this.enrolled = enrolled;
+            orderStale = true;
+            takenSlots.set(enrolled.size());
+            classStateCache.invalidate();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public ConcurrentHashMap<String, String> getDiscarded() {
+        lock.lock();
+        try {
+            return discarded;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized ConcurrentHashMap<String, String> getDiscarded() {
-        return discarded;
+    public void setDiscarded(ConcurrentHashMap<String, String> discarded) {
+        lock.lock();
+        try {
+            this.discarded = discarded;
+            orderStale = true;
+            classStateCache.invalidate();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public ConcurrentHashMap<String, Instant> getTimestamps() {
+        lock.lock();
+        try {
+            return timestamps;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized void setDiscarded(ConcurrentHashMap<String, String> discarded) {
-        this.discarded = discarded;
+    public void setTimestamps(ConcurrentHashMap<String, Instant> timestamps) {
+        lock.lock();
+        try {
+            this.timestamps =  timestamps;
+            orderStale = true;
+            classStateCache.invalidate();
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized ConcurrentHashMap<String, Instant> getTimestamps() { return timestamps; }
+    public ReentrantLock getLock() { return lock; }
+
+    public ClassStateCache getClassStateCache() { return classStateCache; }
+
+    public ClassWatchers getWatchers() { return watchers; }
 
-    public synchronized void setTimestamps(ConcurrentHashMap<String, Instant> timestamps) { this.timestamps =  timestamps; }
+    public ClassPages getClassPages() { return classPages; }
 
-    public synchronized Instant getStudentTimestamp(String studentId){
-        return timestamps.get(studentId);
+    /**
+     * Get class state to send to clients
+     * The state is only rebuilt when the class changes
+     * @return The class state
+     */
+    public ClassState getClassState() { return classStateCache.getClientClassState(); }
+
+    /**
+     * Get class state (with student timestamps) to send to other servers
+     * The state is only rebuilt when the class changes
+     * @return The class state
+     */
+    public ClassState getReplicaClassState() { return classStateCache.getReplicaClassState(); }
+
+    public Instant getStudentTimestamp(String studentId){
+        lock.lock();
+        try {
+            return timestamps.get(studentId);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -65,11 +201,16 @@ public class Class {
      * @param studentId The student's id
      * @return          The student's name
      */
-    public synchronized String getStudentName(String studentId){
-        if(enrolled.containsKey(studentId)){
-            return enrolled.get(studentId);
-        } else {
-            return discarded.get(studentId);
+    public String getStudentName(String studentId){
+        lock.lock();
+        try {
+            if(enrolled.containsKey(studentId)){
+                return enrolled.get(studentId);
+            } else {
+                return discarded.get(studentId);
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -132,11 +273,16 @@ public class Class {
             throw new ClassException("Class is full");
         }
 
-        setOpenEnrollments(true);
+        // The capacity first, so enrollments checked without the lock never see the old one in an open class
         setCapacity(capacity);
+        setOpenEnrollments(true);
 
         serverStatus.setChanged(true);
         serverStatus.getVectorClock().increment(serverStatus.getServerId());
+
+        watchers.publish(ClassEvent.newBuilder()
+                .setType(ClassEventType.OPENED)
+                .setCapacity(capacity));
     }
 
     /**
@@ -158,6 +304,9 @@ public class Class {
 
         serverStatus.setChanged(true);
         serverStatus.getVectorClock().increment(serverStatus.getServerId());
+
+        watchers.publish(ClassEvent.newBuilder()
+                .setType(ClassEventType.CLOSED));
     }
 
     /**
@@ -179,13 +328,186 @@ public class Class {
         if(getEnrolled().containsKey(studentId)) {
             String studentName = getEnrolled().get(studentId);
             getEnrolled().remove(studentId);
+            takenSlots.decrementAndGet();
             getDiscarded().put(studentId, studentName);
-            timestamps.put(studentId, Instant.now());
+            order(studentId, Instant.now(clock), false);
+            classStateCache.invalidate();
             serverStatus.setChanged(true);
             serverStatus.getVectorClock().increment(serverStatus.getServerId());
+
+            watchers.publish(ClassEvent.newBuilder()
+                    .setType(ClassEventType.DISCARDED)
+                    .setStudent(Student.newBuilder().setStudentId(studentId).setStudentName(studentName)));
         }
     }
 
+    /**
+     * Cancel several student enrollments with a single clock increment
+     * @param studentIds    The students' ids
+     * @param atomic        True if no enrollment should be cancelled when any of them fails
+     * @return              The failure of each student in order, null if it succeeded
+     */
+    public List<String> cancelEnrollmentBatch(List<String> studentIds, boolean atomic) throws ClassException {
+
+        if(!serverStatus.isActive()){
+            throw new ClassException("Server is inactive");
+        }
+
+        // Malformed input rejects the whole batch, as it would a single request
+        for(String studentId : studentIds){
+            if(!isValidStudentId(studentId)){
+                throw new ClassException("Invalid student id");
+            }
+        }
+
+        List<String> failures = new ArrayList<>();
+        for(String studentId : studentIds){
+            failures.add(!getEnrolled().containsKey(studentId) && !getDiscarded().containsKey(studentId)
+                    ? "Student not enrolled"
+                    : null);
+        }
+
+        if(atomic && failures.stream().anyMatch(Objects::nonNull)){
+            return failures.stream().map(failure -> failure == null ? "Batch aborted" : failure).toList();
+        }
+
+        boolean changed = false;
+        Instant now = Instant.now(clock);
+
+        for(int i = 0; i < studentIds.size(); i++){
+            String studentId = studentIds.get(i);
+            String studentName = getEnrolled().remove(studentId);
+            if(studentName != null){
+                takenSlots.decrementAndGet();
+                getDiscarded().put(studentId, studentName);
+                // Keep the batch order in the timestamps
+                order(studentId, now.plusNanos(i), false);
+                changed = true;
+            }
+        }
+
+        if(changed){
+            classStateCache.invalidate();
+            serverStatus.setChanged(true);
+            serverStatus.getVectorClock().increment(serverStatus.getServerId());
+            watchers.publishSnapshot();
+        }
+
+        return failures;
+    }
+
+    /**
+     * Get the enrollment of a student
+     * @param studentId The student id
+     * Positions start at 1 and follow the enrollment time within the enrolled and discarded lists
+     * @return          The enrollment, or null if the student is not in the class
+     */
+    public Enrollment getEnrollment(String studentId) throws ClassException {
+
+        if(!serverStatus.isActive()){
+            throw new ClassException("Server is inactive");
+        }
+        else if(!isValidStudentId(studentId)){
+            throw new ClassException("Invalid student id");
+        }
+
+        lock.lock();
+        try {
+            if(orderStale){
+                rebuildOrder();
+            }
+
+            Instant timestamp = timestamps.get(studentId);
+            OrderedStudent key = new OrderedStudent(timestamp, studentId);
+
+            // The students before it are counted by the ordered set in O(log n)
+            if(enrolled.containsKey(studentId)){
+                return new Enrollment(true, timestamp, enrolledOrder.rank(key) + 1);
+            }
+            else if(discarded.containsKey(studentId)){
+                return new Enrollment(false, timestamp, discardedOrder.rank(key) + 1);
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Set the timestamp of a student and move it to its place in the order of its list
+     * Must be called under the lock
+     * @param studentId The student id
+     * @param timestamp The new timestamp
+     * @param enrolled  True if the student is now enrolled, false if discarded
+     */
+    private void order(String studentId, Instant timestamp, boolean enrolled) {
+
+        Instant previous = timestamps.put(studentId, timestamp);
+        if(orderStale){
+            return;
+        }
+
+        OrderedStudent old = new OrderedStudent(previous, studentId);
+        enrolledOrder.remove(old);
+        discardedOrder.remove(old);
+        (enrolled ? enrolledOrder : discardedOrder).add(new OrderedStudent(timestamp, studentId));
+    }
+
+    /**
+     * Order every student again, after the lists were replaced, in O(n log n)
+     * Must be called under the lock
+     */
+    private void rebuildOrder() {
+
+        enrolledOrder.clear();
+        discardedOrder.clear();
+        enrolled.keySet().forEach(studentId -> enrolledOrder.add(new OrderedStudent(timestamps.get(studentId), studentId)));
+        discarded.keySet().forEach(studentId -> discardedOrder.add(new OrderedStudent(timestamps.get(studentId), studentId)));
+        orderStale = false;
+    }
+
+    /**
+     * Reject an enrollment that is sure to fail, without taking the lock
+     * Every field read is volatile or atomic, so an enrollment against a full or closed class does not wait behind
+     * the writers holding the lock. The failures follow the order of enroll, and an enrollment that may succeed
+     * must still go through enroll with the lock held
+     * @param studentId The student id
+     * @return          The failure, or null if the enrollment may succeed or the server is inactive
+     */
+    public String rejectEnrollment(String studentId){
+
+        if(!serverStatus.isActive()){
+            return null;
+        }
+        else if(!openEnrollments){
+            return "Enrollments are closed";
+        }
+        else if(enrolled.containsKey(studentId)){
+            return "Student already enrolled";
+        }
+        else if(takenSlots.get() >= capacity){
+            return "Class is full";
+        }
+        return null;
+    }
+
+    /**
+     * Take places for students about to be enrolled
+     * @param slots The number of places
+     * @return      False if the class does not have that many free places
+     */
+    private boolean takeSlots(int slots){
+
+        int taken;
+        do {
+            taken = takenSlots.get();
+            if(taken + slots > capacity){
+                return false;
+            }
+        } while(!takenSlots.compareAndSet(taken, taken + slots));
+        return true;
+    }
+
     /**
      * Enroll student
      * @param studentId   The student id
@@ -202,7 +524,7 @@ public class Class {
         else if(getEnrolled().containsKey(studentId)){
             throw new ClassException("Student already enrolled");
         }
-        else if(getEnrolled().size() == getCapacity()){
+        else if(takenSlots.get() >= capacity){
             throw new ClassException("Class is full");
         }
         else if(!isValidStudentId(studentId)){
@@ -211,13 +533,97 @@ public class Class {
         else if(!isValidStudentName(studentName)){
             throw new ClassException("Invalid student name");
         }
+        else if(!takeSlots(1)){
+            throw new ClassException("Class is full");
+        }
 
         getDiscarded().remove(studentId);
         getEnrolled().put(studentId, studentName);
-        timestamps.put(studentId, Instant.now());
+        order(studentId, Instant.now(clock), true);
+        classStateCache.invalidate();
+
+        serverStatus.setChanged(true);
+        serverStatus.getVectorClock().increment(serverStatus.getServerId());
+
+        watchers.publish(ClassEvent.newBuilder()
+                .setType(ClassEventType.ENROLLED)
+                .setStudent(Student.newBuilder().setStudentId(studentId).setStudentName(studentName)));
+    }
+
+    /**
+     * Enroll several students with a single clock increment
+     * Students are checked in order, so earlier students of the batch take the free places first
+     * @param students  The students
+     * @param atomic    True if no student should be enrolled when any of them fails
+     * @return          The failure of each student in order, null if it succeeded
+     */
+    public List<String> enrollBatch(List<Student> students, boolean atomic) throws ClassException {
+
+        if(!serverStatus.isActive()){
+            throw new ClassException("Server is inactive");
+        }
+
+        // Malformed input rejects the whole batch, as it would a single request
+        for(Student student : students){
+            if(!isValidStudentId(student.getStudentId())){
+                throw new ClassException("Invalid student id");
+            }
+            else if(!isValidStudentName(student.getStudentName())){
+                throw new ClassException("Invalid student name");
+            }
+        }
+
+        List<String> failures = new ArrayList<>();
+        Set<String> batchEnrolled = new HashSet<>();
+        int enrolledCount = takenSlots.get();
+
+        for(Student student : students){
+            String failure = null;
+            if(!isOpenEnrollments()){
+                failure = "Enrollments are closed";
+            }
+            else if(getEnrolled().containsKey(student.getStudentId()) || batchEnrolled.contains(student.getStudentId())){
+                failure = "Student already enrolled";
+            }
+            else if(enrolledCount >= getCapacity()){
+                failure = "Class is full";
+            }
+            else{
+                batchEnrolled.add(student.getStudentId());
+                enrolledCount++;
+            }
+            failures.add(failure);
+        }
+
+        if(atomic && failures.stream().anyMatch(Objects::nonNull)){
+            return failures.stream().map(failure -> failure == null ? "Batch aborted" : failure).toList();
+        }
+        if(batchEnrolled.isEmpty()){
+            return failures;
+        }
+        if(!takeSlots(batchEnrolled.size())){
+            return failures.stream().map(failure -> failure == null ? "Class is full" : failure).toList();
+        }
+
+        Instant now = Instant.now(clock);
+
+        for(int i = 0; i < students.size(); i++){
+            Student student = students.get(i);
+            if(failures.get(i) == null){
+                getDiscarded().remove(student.getStudentId());
+                getEnrolled().put(student.getStudentId(), student.getStudentName());
+                // Keep the batch order in the timestamps
+                order(student.getStudentId(), now.plusNanos(i), true);
+            }
+        }
+        classStateCache.invalidate();
 
         serverStatus.setChanged(true);
         serverStatus.getVectorClock().increment(serverStatus.getServerId());
+
+        watchers.publishSnapshot();
+
+        return failures;
     }
 
     /**
@@ -236,6 +642,7 @@ public class Class {
 
     /**
      * Set server state to INACTIVE
+     * Watchers are disconnected so they can move to another server
      */
     public void deactivate(){
 
@@ -244,6 +651,7 @@ public class Class {
             serverStatus.setGossipActive(false);
             serverStatus.setDeactivateGossip(false);
         }
+        watchers.closeAll(ResponseCode.INACTIVE_SERVER);
     }
 
     /**
@@ -281,10 +689,36 @@ public class Class {
             throw new ClassException("Server is inactive");
         }
 
-        setCapacity(capacity);
-        setOpenEnrollments(openEnrollments);
-        setEnrolled(enrolled);
-        setDiscarded(discarded);
-        setTimestamps(timestamps);
+        replace(capacity, openEnrollments, enrolled, discarded, timestamps);
+    }
+
+    /**
+     * Replace the whole class, whether the server is active or not
+     * The students are ordered again here, so the lookups after it do not pay for it
+     * @param capacity          The new capacity
+     * @param openEnrollments   The new open enrollments
+     * @param enrolled          The new enrolled students
+     * @param discarded         The new discarded students
+     * @param timestamps        The new timestamps
+     */
+    public void replace(
+            Integer capacity,
+            boolean openEnrollments,
+            ConcurrentHashMap<String, String> enrolled,
+            ConcurrentHashMap<String, String> discarded,
+            ConcurrentHashMap<String, Instant> timestamps
+    ) {
+
+        lock.lock();
+        try {
+            setCapacity(capacity);
+            setOpenEnrollments(openEnrollments);
+            setEnrolled(enrolled);
+            setDiscarded(discarded);
+            setTimestamps(timestamps);
+            rebuildOrder();
+        } finally {
+            lock.unlock();
+        }
     }
 }
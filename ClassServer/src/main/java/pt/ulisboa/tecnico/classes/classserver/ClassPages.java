@@ -0,0 +1,274 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import io.grpc.stub.ServerCallStreamObserver;
+
+import pt.ulisboa.tecnico.classes.classserver.exception.ClassException;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+
+import static io.grpc.Status.INVALID_ARGUMENT;
+
+public class ClassPages {
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    // Time a class version is kept after the last page taken from it, whatever the writes in between
+    private static final Duration SNAPSHOT_TTL = Duration.ofSeconds(60);
+    // Max number of class versions kept, bounds the memory if many listings start at once
+    private static final int MAX_SNAPSHOTS = 64;
+
+    private final Class studentsClass;
+
+    // Ordered class snapshots by version and order, least recently used first
+    private final LinkedHashMap<String, HeldSnapshot> snapshots = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, HeldSnapshot> eldest) {
+            return size() > MAX_SNAPSHOTS;
+        }
+    };
+
+    public record Page(int capacity, boolean openEnrollments, List<Student> enrolled, List<Student> discarded, String nextPageToken) {}
+
+    private record Snapshot(long version, PageOrder order, int capacity, boolean openEnrollments, List<Student> enrolled, List<Student> discarded) {}
+
+    private record HeldSnapshot(Snapshot snapshot, Instant lastUsed) {}
+
+    private record Cursor(Snapshot snapshot, int offset) {}
+
+    public ClassPages(Class studentsClass) {
+        this.studentsClass = studentsClass;
+    }
+
+    /**
+     * Get a page of the class students, enrolled students first and then discarded students
+     * Every page of a listing is taken from the class version of its first page, kept while the listing goes on
+     * Tokens only work on the server that returned them, other replicas have other versions
+     * @param pageToken     The token returned with the previous page, empty for the first page
+     * @param pageSize      The max number of students in the page, default if not positive
+     * @param order         The order of the students
+     * @return              The page
+     * @throws ClassException If the token is invalid, from another server, or its class version is no longer kept
+     */
+    public Page getPage(String pageToken, int pageSize, PageOrder order) throws ClassException {
+        return getPage(resolve(pageToken, order), pageSize);
+    }
+
+    /**
+     * Send every page of the class students, starting at the given token
+     * Pages are only sent while the client is ready to receive them
+     * @param responseObserver  The stream where pages will be sent
+     * @param pageToken         The token of the first page to send, empty to start from the beginning
+     * @param pageSize          The max number of students in each page, default if not positive
+     * @param order             The order of the students
+     * @param toResponse        Converts a page to the response sent
+     * @param <T>               The response type
+     */
+    public <T> void streamPages(ServerCallStreamObserver<T> responseObserver, String pageToken, int pageSize,
+                                PageOrder order, Function<Page, T> toResponse) {
+
+        responseObserver.setOnReadyHandler(new Runnable() {
+
+            // The snapshot is kept here so a long stream never expires
+            private Cursor cursor;
+            private boolean done = false;
+
+            @Override
+            public void run() {
+                while (!done && responseObserver.isReady()) {
+                    try {
+                        if (cursor == null) {
+                            cursor = resolve(pageToken, order);
+                        }
+
+                        Page page = getPage(cursor, pageSize);
+                        responseObserver.onNext(toResponse.apply(page));
+
+                        if (page.nextPageToken().isEmpty()) {
+                            done = true;
+                            responseObserver.onCompleted();
+                        } else {
+                            cursor = new Cursor(cursor.snapshot(), cursor.offset() + page.enrolled().size() + page.discarded().size());
+                        }
+                    } catch (ClassException e) {
+                        done = true;
+                        responseObserver.onError(INVALID_ARGUMENT.withDescription(e.getMessage() + ".").asRuntimeException());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Find the snapshot and offset of a page token
+     * @param pageToken The page token, empty for the first page of the current version
+     * @param order     The order of the students
+     * @return          The cursor
+     * @throws ClassException If the token is invalid or its class version is no longer kept
+     */
+    private Cursor resolve(String pageToken, PageOrder order) throws ClassException {
+
+        if (pageToken.isEmpty()) {
+            return new Cursor(currentSnapshot(order), 0);
+        }
+
+        // Token format is serverId:version:order:offset
+        String[] parts = pageToken.split(":");
+        if (parts.length != 4) {
+            throw new ClassException("Invalid page token");
+        }
+
+        int serverId;
+        long version;
+        int tokenOrder;
+        int offset;
+        try {
+            serverId = Integer.parseInt(parts[0]);
+            version = Long.parseLong(parts[1]);
+            tokenOrder = Integer.parseInt(parts[2]);
+            offset = Integer.parseInt(parts[3]);
+        } catch (NumberFormatException e) {
+            throw new ClassException("Invalid page token");
+        }
+
+        if (tokenOrder != order.getNumber() || offset < 0) {
+            throw new ClassException("Invalid page token");
+        }
+        // Versions are counted by each server, the same version on another server is another class
+        if (serverId != studentsClass.getServerStatus().getServerId()) {
+            throw new ClassException("Page token from another server");
+        }
+
+        Snapshot snapshot = getSnapshot(key(version, order));
+        if (snapshot == null) {
+            throw new ClassException("Page token expired");
+        }
+        if (offset > snapshot.enrolled().size() + snapshot.discarded().size()) {
+            throw new ClassException("Invalid page token");
+        }
+
+        return new Cursor(snapshot, offset);
+    }
+
+    /**
+     * Cut a page from a snapshot
+     * @param cursor    Where the page starts
+     * @param pageSize  The max number of students in the page, default if not positive
+     * @return          The page
+     */
+    private Page getPage(Cursor cursor, int pageSize) {
+
+        int size = pageSize <= 0 ? DEFAULT_PAGE_SIZE : Math.min(pageSize, MAX_PAGE_SIZE);
+
+        Snapshot snapshot = cursor.snapshot();
+        int enrolledCount = snapshot.enrolled().size();
+        int total = enrolledCount + snapshot.discarded().size();
+
+        int start = cursor.offset();
+        int end = Math.min(start + size, total);
+
+        // Offsets past the enrolled students index the discarded students
+        List<Student> enrolled = snapshot.enrolled().subList(Math.min(start, enrolledCount), Math.min(end, enrolledCount));
+        List<Student> discarded = snapshot.discarded().subList(Math.max(start - enrolledCount, 0), Math.max(end - enrolledCount, 0));
+
+        String nextPageToken = end < total
+                ? studentsClass.getServerStatus().getServerId() + ":" + snapshot.version() + ":" + snapshot.order().getNumber() + ":" + end
+                : "";
+
+        return new Page(snapshot.capacity(), snapshot.openEnrollments(), enrolled, discarded, nextPageToken);
+    }
+
+    /**
+     * Get the snapshot of the current class version, building it if needed
+     * @param order The order of the students
+     * @return      The snapshot
+     */
+    private Snapshot currentSnapshot(PageOrder order) {
+
+        Snapshot snapshot = getSnapshot(key(studentsClass.getClassStateCache().getVersion(), order));
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        // Writes hold the class lock, so the snapshot matches exactly one version
+        studentsClass.getLock().lock();
+        try {
+            long version = studentsClass.getClassStateCache().getVersion();
+
+            Comparator<Map.Entry<String, String>> comparator = Map.Entry.comparingByKey();
+            if (order == PageOrder.BY_ENROLLMENT_TIME) {
+                Comparator<Map.Entry<String, String>> byTimestamp = Comparator.comparing(
+                        entry -> studentsClass.getStudentTimestamp(entry.getKey()),
+                        Comparator.nullsFirst(Comparator.<Instant>naturalOrder()));
+                comparator = byTimestamp.thenComparing(comparator);
+            }
+
+            snapshot = new Snapshot(
+                    version,
+                    order,
+                    studentsClass.getCapacity(),
+                    studentsClass.isOpenEnrollments(),
+                    sortStudents(studentsClass.getEnrolled(), comparator),
+                    sortStudents(studentsClass.getDiscarded(), comparator));
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+
+        synchronized (snapshots) {
+            snapshots.put(key(snapshot.version(), order), new HeldSnapshot(snapshot, Instant.now(studentsClass.getClock())));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Get a kept snapshot, keeping it for another TTL
+     * Snapshots not used for a TTL are dropped first
+     * @param key   The snapshot version and order
+     * @return      The snapshot, null if not kept
+     */
+    private Snapshot getSnapshot(String key) {
+
+        Instant now = Instant.now(studentsClass.getClock());
+
+        synchronized (snapshots) {
+            // Least recently used first, so the expired snapshots are at the start
+            Iterator<HeldSnapshot> iterator = snapshots.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().lastUsed().plus(SNAPSHOT_TTL).isAfter(now)) break;
+                iterator.remove();
+            }
+
+            HeldSnapshot held = snapshots.get(key);
+            if (held == null) {
+                return null;
+            }
+            snapshots.put(key, new HeldSnapshot(held.snapshot(), now));
+            return held.snapshot();
+        }
+    }
+
+    /**
+     * Sort students and convert them to Student
+     * @param students      The students by id
+     * @param comparator    The order of the students
+     * @return              The sorted students
+     */
+    private static List<Student> sortStudents(Map<String, String> students, Comparator<Map.Entry<String, String>> comparator) {
+
+        return students.entrySet().stream()
+                .sorted(comparator)
+                .map(entry -> Student.newBuilder()
+                        .setStudentId(entry.getKey())
+                        .setStudentName(entry.getValue())
+                        .build())
+                .toList();
+    }
+
+    private static String key(long version, PageOrder order) {
+        return version + ":" + order.getNumber();
+    }
+}
@@ -1,19 +1,47 @@
 package pt.ulisboa.tecnico.classes.classserver;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.TimerTask;
 import java.util.stream.Collectors;
-import java.util.Timer;
 
 import io.grpc.BindableService;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptor;
+import pt.ulisboa.tecnico.classes.ConnectionManager;
+import pt.ulisboa.tecnico.classes.ServerExecutors;
+import pt.ulisboa.tecnico.classes.capture.CaptureInterceptor;
+import pt.ulisboa.tecnico.classes.capture.TrafficLogWriter;
+import pt.ulisboa.tecnico.classes.contract.student.StudentServiceGrpc;
 
 public class ClassServer {
 
-  private static final int TIMER_PERIOD = 1000;
+  // Default time between gossip rounds (milliseconds)
+  public static final int TIMER_PERIOD = 1000;
+
+  private final String serviceName;
+  private final boolean debug;
+
+  private final ServerStatus serverStatus;
+  private final Class studentsClass;
+
+  private final NamingServerFrontend namingServerFrontend;
+  private final ClassServerFrontend classServerFrontend;
+
+  // Interceptors added to every service, in the order they were added
+  private final List<ServerInterceptor> interceptors = new ArrayList<>();
+
+  private long gossipPeriod = TIMER_PERIOD;
+  private double gossipJitter = GossipScheduler.DEFAULT_JITTER;
+  private ServerExecutors.Mode executorMode = ServerExecutors.Mode.CACHED;
+
+  private Server server;
+  private ExecutionLanes executionLanes;
+  private AdmissionController admissionController;
+  private GossipScheduler gossipScheduler;
 
   public static void main(String[] args) {
 
@@ -29,63 +57,37 @@ public class ClassServer {
     int port = Integer.parseInt(args[2]);
     List<String> qualifiers = parseQualifiers(args);
 
-    final NamingServerFrontend namingServerFrontend = new NamingServerFrontend();
-    final ClassServerFrontend classServerFrontend = new ClassServerFrontend(debug);
-
-    ServerStatus serverStatus = new ServerStatus(host,port,qualifiers);
-
-    Class studentsClass = new Class(serverStatus);
-    // create services all with the same studentsClass
-    final BindableService adminImpl = new AdminServiceImpl(studentsClass, classServerFrontend, debug);
-    final BindableService studentImpl = new StudentServiceImpl(studentsClass, classServerFrontend, debug);
-    final BindableService professorImpl = new ProfessorServiceImpl(studentsClass, classServerFrontend, debug);
-    final BindableService classServerImpl = new ClassServerServiceImpl(studentsClass, debug);
+    final ClassServer classServer = new ClassServer(args[0], host, port, qualifiers, debug);
+    classServer.setExecutorMode(ServerExecutors.parseMode(args));
 
     try {
 
-      // create new server to listen on port
-      Server server = ServerBuilder.forPort(port)
-        .addService(classServerImpl)
-        .addService(professorImpl)
-        .addService(studentImpl)
-        .addService(adminImpl)
-        .build();
-
-      // register server in the naming service and get server id
-      String serviceName = args[0];
-      int id = namingServerFrontend.register(serviceName, host, port, qualifiers);
-      serverStatus.setServerId(id);
-      serverStatus.getVectorClock().addServerId(id);
-
-      // start server after register
-      server.start();
-
-      // set timer task to gossip with other servers
-      Timer timer = new Timer();
-      timer.schedule(
-          new TimerTask() {
-            @Override
-            public void run() {
-              if (serverStatus.isChanged()) classServerFrontend.gossip(studentsClass, "timer");
-            }
-          },
-          0,
-          TIMER_PERIOD);
+      // record every call received, to replay it later
+      String capturePath = parseCapture(args);
+      final TrafficLogWriter capture = capturePath == null ? null : new TrafficLogWriter(Path.of(capturePath), System.currentTimeMillis());
+      if (capture != null) {
+        classServer.addInterceptor(new CaptureInterceptor(capture, () -> classServer.getServerStatus().getVectorClock()));
+      }
+
+      classServer.start();
 
       // Shutdownhook to unregister server from naming service
       Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-        namingServerFrontend.delete(serviceName, host, port);
-        namingServerFrontend.close();
-        classServerFrontend.close();
-        server.shutdown();
-        timer.cancel();
+        classServer.stop();
+        if (capture != null) {
+          try {
+            capture.close();
+          } catch (IOException e) {
+            System.err.println("Caught IOException when closing traffic capture: " + e.getMessage());
+          }
+        }
         System.out.println("Received SIGINT signal, closing server.");
       }));
 
-      System.out.println("Server started on port " + port + " with id " + id);
+      System.out.println("Server started on port " + port + " with id " + classServer.getServerStatus().getServerId());
 
       // prevent server from exiting the main thread
-      server.awaitTermination();
+      classServer.awaitTermination();
 
     } catch (IOException e) {
       System.err.println("Caught IOException when starting server: " + e.getMessage());
@@ -97,6 +99,144 @@ public class ClassServer {
     }
   }
 
+  public ClassServer(String serviceName, String host, int port, List<String> qualifiers, boolean debug) {
+    this(serviceName, host, port, qualifiers, ConnectionManager.DEFAULT_NAMING_HOST, ConnectionManager.DEFAULT_NAMING_PORT, debug);
+  }
+
+  public ClassServer(String serviceName, String host, int port, List<String> qualifiers,
+                     String namingHost, int namingPort, boolean debug) {
+
+    this.serviceName = serviceName;
+    this.debug = debug;
+
+    serverStatus = new ServerStatus(host, port, qualifiers);
+    studentsClass = new Class(serverStatus);
+
+    namingServerFrontend = new NamingServerFrontend(namingHost, namingPort);
+    classServerFrontend = new ClassServerFrontend(debug, namingHost, namingPort);
+  }
+
+  public ServerStatus getServerStatus() { return serverStatus; }
+
+  public Class getStudentsClass() { return studentsClass; }
+
+  public ClassServerFrontend getClassServerFrontend() { return classServerFrontend; }
+
+  public ExecutionLanes getExecutionLanes() { return executionLanes; }
+
+  public AdmissionController getAdmissionController() { return admissionController; }
+
+  public long getGossipPeriod() { return gossipPeriod; }
+
+  /**
+   * Change the time between gossip rounds, must be called before start
+   * @param gossipPeriod The period in milliseconds
+   */
+  public void setGossipPeriod(long gossipPeriod) {
+    if (gossipPeriod <= 0) {
+      throw new IllegalArgumentException("The gossip period must be positive.");
+    }
+    this.gossipPeriod = gossipPeriod;
+  }
+
+  public double getGossipJitter() { return gossipJitter; }
+
+  /**
+   * Change how much the time between gossip rounds varies, must be called before start
+   * @param gossipJitter The max deviation from the period, as a fraction of it
+   */
+  public void setGossipJitter(double gossipJitter) {
+    if (gossipJitter < 0 || gossipJitter >= 1) {
+      throw new IllegalArgumentException("The gossip jitter must be in [0, 1).");
+    }
+    this.gossipJitter = gossipJitter;
+  }
+
+  public ServerExecutors.Mode getExecutorMode() { return executorMode; }
+
+  /**
+   * Change the threads that run the handlers of each lane, must be called before start
+   * @param executorMode The executor mode
+   */
+  public void setExecutorMode(ServerExecutors.Mode executorMode) {
+    this.executorMode = executorMode;
+  }
+
+  /**
+   * Add an interceptor to every service, must be called before start
+   * @param interceptor The interceptor
+   */
+  public void addInterceptor(ServerInterceptor interceptor) {
+    interceptors.add(interceptor);
+  }
+
+  /**
+   * Register the server in the naming server, start listening and start gossiping
+   * @throws IOException If the port cannot be bound
+   */
+  public void start() throws IOException {
+
+    // timer and admin gossip rounds run one at a time on the scheduler
+    gossipScheduler = new GossipScheduler(studentsClass, classServerFrontend, gossipPeriod, gossipJitter);
+
+    // clients, other servers and admins are handled on separate threads
+    executionLanes = new ExecutionLanes(executorMode);
+    // writes over the limit wait their turn or are refused, instead of piling up on the class lock
+    admissionController = new AdmissionController();
+
+    // create services all with the same studentsClass
+    final BindableService adminImpl = new AdminServiceImpl(studentsClass, gossipScheduler, executionLanes, admissionController, debug);
+    final StudentServiceImpl studentImpl = new StudentServiceImpl(studentsClass, classServerFrontend, debug);
+    final BindableService professorImpl = new ProfessorServiceImpl(studentsClass, classServerFrontend, debug);
+    final BindableService classServerImpl = new ClassServerServiceImpl(studentsClass, debug);
+
+    // enrollments sure to fail are answered without the class lock, so they do not wait for a write slot
+    admissionController.bypass(StudentServiceGrpc.getEnrollMethod(), studentImpl::isRejectedWithoutLock);
+
+    // create new server to listen on port
+    ServerBuilder<?> serverBuilder = ServerBuilder.forPort(serverStatus.getPort())
+      .addService(classServerImpl)
+      .addService(professorImpl)
+      .addService(studentImpl)
+      .addService(adminImpl);
+    interceptors.forEach(serverBuilder::intercept);
+    // added last so they run first, calls leave the transport threads before any other interceptor
+    serverBuilder.intercept(admissionController);
+    serverBuilder.directExecutor().intercept(executionLanes);
+    server = serverBuilder.build();
+
+    // register server in the naming service and get server id
+    int id = namingServerFrontend.register(serviceName, serverStatus.getHost(), serverStatus.getPort(), serverStatus.getQualifiers());
+    serverStatus.setServerId(id);
+    serverStatus.getVectorClock().addServerId(id);
+
+    // start server after register
+    server.start();
+
+    // start gossiping with other servers
+    gossipScheduler.start();
+  }
+
+  /**
+   * Unregister the server from the naming server and stop it
+   */
+  public void stop() {
+
+    namingServerFrontend.delete(serviceName, serverStatus.getHost(), serverStatus.getPort());
+    namingServerFrontend.close();
+    classServerFrontend.close();
+    if (server != null) server.shutdown();
+    if (gossipScheduler != null) gossipScheduler.stop();
+    if (executionLanes != null) executionLanes.shutdown();
+  }
+
+  /**
+   * Wait until the server stops
+   */
+  public void awaitTermination() throws InterruptedException {
+    server.awaitTermination();
+  }
+
   /**
    * Check the validity of the command-line arguments
    * @param args  The command-line arguments
@@ -124,6 +264,14 @@ public class ClassServer {
       return false;
     }
 
+    // Verify executor mode
+    try{
+      ServerExecutors.parseMode(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println("Invalid executor mode, expected cached, fixed or virtual.");
+      return false;
+    }
+
     return true;
   }
 
@@ -135,4 +283,14 @@ public class ClassServer {
   public static List<String> parseQualifiers(String[] args) {
     return Arrays.stream(args).filter(arg -> arg.equals("P") || arg.equals("S")).collect(Collectors.toList());
   }
+
+  /**
+   * Parse the traffic capture file from the command-line arguments
+   * @param args  The command-line arguments
+   * @return      The file given with -capture=, null if none
+   */
+  public static String parseCapture(String[] args) {
+    return Arrays.stream(args).filter(arg -> arg.startsWith("-capture=")).map(arg -> arg.substring("-capture=".length()))
+        .findFirst().orElse(null);
+  }
 }
@@ -4,6 +4,7 @@ import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 
 import io.grpc.StatusRuntimeException;
+import pt.ulisboa.tecnico.classes.ConnectionManager;
 import pt.ulisboa.tecnico.classes.Convert;
 import pt.ulisboa.tecnico.classes.Debug;
 import pt.ulisboa.tecnico.classes.ServerLookup;
@@ -17,85 +18,44 @@ import pt.ulisboa.tecnico.classes.contract.naming.NamingServerServiceGrpc.*;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 
+/**
+ * Gossip rounds with the other servers
+ * Every round keeps its own peers and channels, so rounds started by the timer, admins and clients can run at once
+ */
 public class ClassServerFrontend {
 
     private final Debug debug;
 
-    private List<Address> addresses = new ArrayList<Address>();
-
     private final ManagedChannel namingServerChannel;
     private final NamingServerServiceBlockingStub namingServerStub;
 
-    private ManagedChannel classServerChannel;
-    private ClassServerServiceBlockingStub classServerStub;
-
     public ClassServerFrontend(boolean debugMode) {
+        this(debugMode, ConnectionManager.DEFAULT_NAMING_HOST, ConnectionManager.DEFAULT_NAMING_PORT);
+    }
+
+    public ClassServerFrontend(boolean debugMode, String namingHost, int namingPort) {
 
         // debug to log messages
         debug = new Debug(ClassServerFrontend.class.getName(),debugMode);
-        // create channel and stub to naming services at hardcoded address
-        namingServerChannel = ManagedChannelBuilder.forAddress("localhost", 5000).usePlaintext().build();
+        // create channel and stub to naming services
+        namingServerChannel = ManagedChannelBuilder.forAddress(namingHost, namingPort).usePlaintext().build();
         namingServerStub = NamingServerServiceGrpc.newBlockingStub(namingServerChannel);
     }
 
-    public List<Address>    getAddresses() { return addresses; }
-
-    public void setAddresses(List<Address> addresses) { this.addresses = addresses; }
-
     public NamingServerServiceBlockingStub getNamingServerStub() {
         return namingServerStub;
     }
 
-    public ClassServerServiceBlockingStub getClassServerStub() {
-        return classServerStub;
-    }
-
-    public void setClassServerStub(ClassServerServiceBlockingStub classServerStub) { this.classServerStub = classServerStub; }
-
-    public ManagedChannel getClassServerChannel() { return classServerChannel; }
-
-    public void setClassServerChannel(ManagedChannel classServerChannel) { this.classServerChannel = classServerChannel; }
-
     public ManagedChannel getNamingServerChannel() { return namingServerChannel; }
 
-
-    /**
-     * Get servers from naming server
-     * @param service       The server's service name
-     * @param qualifiers    The server's qualifiers
-     * @return              True if there are available servers, False otherwise
-     */
-    private boolean findServers(String service, String[] qualifiers) {
-
-        setAddresses(ServerLookup.getAvailableServers(service, qualifiers, getNamingServerStub()));
-        return getAddresses().isEmpty();
-    }
-
-    /**
-     * Create channel and stub to a server
-     */
-    public Address createChannelAndStub() {
-
-        // Select a random server from the list
-        int randomValue = ServerLookup.getRandomValue(getAddresses().size());
-        Address address = getAddresses().get(randomValue);
-
-        // Create channel and stub to the selected server
-        setClassServerChannel(ManagedChannelBuilder.forAddress(address.getHost(), address.getPort())
-                .usePlaintext()
-                .build());
-        setClassServerStub(ClassServerServiceGrpc.newBlockingStub(classServerChannel));
-
-        // Remove chosen server to avoid re-sending request to the same server
-        getAddresses().remove(address);
-
-        return address;
-    }
-
     /**
      * Gossip with other servers
      * @param studentsClass
@@ -108,56 +68,196 @@ public class ClassServerFrontend {
 
     /**
      * Gossip with other servers
+     * The timer only sends to the peers that may be missing local events, clients and admins ask every peer
      * @param studentsClass The class
      */
     public boolean gossip(Class studentsClass, String event, VectorClock clientVectorClock) {
 
-        if (!this.verifyServerStatus(studentsClass, event)) { return false; }
+        if (!verifyServerStatus(studentsClass, event)) { return false; }
 
-        if (findServers("turmas", new String[]{"P","S"})) { return false; }
+        List<Address> addresses = ServerLookup.getAvailableServers("turmas", new String[]{"P","S"}, getNamingServerStub());
+        if (addresses.isEmpty()) { return false; }
 
-        String host = studentsClass.getServerStatus().getHost();
-        int port = studentsClass.getServerStatus().getPort();
-        Address address = Address.newBuilder().setHost(host).setPort(port).build();
+        ServerStatus serverStatus = studentsClass.getServerStatus();
+        Address address = Address.newBuilder().setHost(serverStatus.getHost()).setPort(serverStatus.getPort()).build();
         // Remove himself from the list
-        getAddresses().remove(address);
+        addresses.remove(address);
+
+        PeerCursors peerCursors = serverStatus.getPeerCursors();
+        peerCursors.retain(addresses);
 
         // If there are no servers to gossip with, return
-        if(getAddresses().isEmpty()){
+        if(addresses.isEmpty()){
             debug.log("No server available to gossip with.");
             return false;
         }
 
+        List<Address> peers = new ArrayList<>(addresses);
+
+        if(event.equals("timer")){
+            VectorClock vectorClock = serverStatus.getVectorClock();
+            addresses.removeIf(peer -> !peerCursors.get(peer).isBehind(vectorClock));
+
+            if(addresses.isEmpty()){
+                debug.log("Every server already acknowledged clock " + vectorClock + ", nothing to send.");
+                finishGossipRound(studentsClass, peers);
+                return true;
+            }
+        }
+
+        // Contact the peers in random order
+        Collections.shuffle(addresses);
+
+        List<GossipResponse> responses = new ArrayList<>();
+
+        // A failed peer is only retried next round, the others still get the update
+        for(Address peer : addresses){
+
+            ManagedChannel channel = ManagedChannelBuilder.forAddress(peer.getHost(), peer.getPort())
+                    .usePlaintext()
+                    .build();
+
+            GossipResponse response = gossipWith(studentsClass, peer, ClassServerServiceGrpc.newBlockingStub(channel));
+            if(response != null){
+                responses.add(response);
+            }
+            channel.shutdown();
+        }
+
+        if(responses.isEmpty()){
+            return false;
+        }
+
+        GossipResponse gossipResponse = chooseGossipResponse(studentsClass, responses, clientVectorClock);
+
+        // If the response was OK then it's safe to update our server
+        if(gossipResponse.getCode() == ResponseCode.OK){
+
+            debug.log(
+                "Gossip finished successfully," +
+                " previous clock: " +
+                studentsClass.getServerStatus().getVectorClock() +
+                " updated clock: " +
+                Convert.toVectorClock(gossipResponse.getVectorClockState())
+            );
+
+            updateClass(studentsClass, gossipResponse);
+        }
+
+        finishGossipRound(studentsClass, peers);
+
+        return true;
+    }
+
+    /**
+     * Send the class to one peer, only the students it is missing if it answered before
+     * @param studentsClass The class
+     * @param address       The peer address
+     * @param stub          The stub to the peer
+     * @return              The peer response, null if the call failed
+     */
+    private GossipResponse gossipWith(Class studentsClass, Address address, ClassServerServiceBlockingStub stub) {
+
+        PeerCursors peerCursors = studentsClass.getServerStatus().getPeerCursors();
+        GossipRequest request = buildGossipRequest(studentsClass, peerCursors.get(address));
+
+        try {
+            debug.log("Gossip started with " + address.getHost() + ":" + address.getPort() + (request.hasBaseVectorClockState()
+                    ? ", sending " + (request.getClassState().getEnrolledCount() + request.getClassState().getDiscardedCount()) + " changed students"
+                    : ", sending the whole class"));
+            GossipResponse response = stub.gossip(request);
+
+            // The peer no longer holds the state the changes were based on
+            if(response.getCode() == ResponseCode.FULL_STATE_REQUIRED){
+                peerCursors.reset(address);
+                response = stub.gossip(buildGossipRequest(studentsClass));
+            }
+
+            if(response.getCode() == ResponseCode.OK){
+                peerCursors.acknowledge(address, response);
+            } else {
+                peerCursors.fail(address);
+            }
+            return response;
+
+        } catch (StatusRuntimeException e) {
+            System.err.println("Caught exception with description: " + e.getStatus().getDescription());
+            peerCursors.fail(address);
+            return null;
+        }
+    }
+
+    /**
+     * Build the gossip request carrying the whole state of a server
+     * @param studentsClass The class of the sending server
+     * @return              The request
+     */
+    public static GossipRequest buildGossipRequest(Class studentsClass) {
+
         int serverId = studentsClass.getServerStatus().getServerId();
-        ClassState classState = convertToClassState(studentsClass);
+        ClassState classState = studentsClass.getReplicaClassState();
         VectorClockState vectorClockState = Convert.toVectorClockState(studentsClass.getServerStatus().getVectorClock());
 
-        GossipRequest request = GossipRequest.newBuilder()
+        return GossipRequest.newBuilder()
                 .setClassState(classState)
                 .setServerQualifier(studentsClass.getServerStatus().getQualifiers().get(0))
                 .setVectorClockState(vectorClockState)
                 .setServerId(serverId)
                 .build();
+    }
 
-        List<GossipResponse> responses = new ArrayList<>();
+    /**
+     * Build the gossip request for one peer
+     * If the peer answered before, the request only holds the students that differ from the state it answered with
+     * @param studentsClass The class of the sending server
+     * @param cursor        What the peer is known to hold
+     * @return              The request
+     */
+    public static GossipRequest buildGossipRequest(Class studentsClass, PeerCursors.Cursor cursor) {
 
-        do {
-            address = createChannelAndStub();
+        GossipRequest request = buildGossipRequest(studentsClass);
+        if(cursor.ackedClassState() == null){
+            return request;
+        }
 
-            try {
-                debug.log("Gossip started with " + address.getHost() + ":" + address.getPort());
-                responses.add(getClassServerStub().gossip(request));
-            } catch (StatusRuntimeException e) {
-                System.err.println("Caught exception with description: " + e.getStatus().getDescription());
-                return false;
-            }
-            getClassServerChannel().shutdown();
+        ClassState classState = request.getClassState();
+        Set<Student> ackedEnrolled = new HashSet<>(cursor.ackedClassState().getEnrolledList());
+        Set<Student> ackedDiscarded = new HashSet<>(cursor.ackedClassState().getDiscardedList());
 
-        } while (!getAddresses().isEmpty());
+        // Capacity and enrollment status are always sent, they are cheap
+        ClassState.Builder changes = ClassState.newBuilder()
+                .setCapacity(classState.getCapacity())
+                .setOpenEnrollments(classState.getOpenEnrollments());
+        classState.getEnrolledList().stream().filter(student -> !ackedEnrolled.contains(student)).forEach(changes::addEnrolled);
+        classState.getDiscardedList().stream().filter(student -> !ackedDiscarded.contains(student)).forEach(changes::addDiscarded);
 
-        if(responses.stream().allMatch((response) -> response.getCode() == ResponseCode.OK)){
-            studentsClass.getServerStatus().setChanged(false);
-        }
+        return request.toBuilder()
+                .setClassState(changes)
+                .setBaseVectorClockState(Convert.toVectorClockState(cursor.ackedVectorClock()))
+                .build();
+    }
+
+    /**
+     * Keep the changed flag only while some peer may still be missing local events
+     * @param studentsClass The class of the sending server
+     * @param peers         Every other server
+     */
+    public static void finishGossipRound(Class studentsClass, Collection<Address> peers) {
+
+        ServerStatus serverStatus = studentsClass.getServerStatus();
+        serverStatus.setChanged(serverStatus.getPeerCursors().anyBehind(peers, serverStatus.getVectorClock()));
+    }
+
+    /**
+     * Handle the responses of every other server to a gossip request
+     * @param studentsClass     The class of the sending server
+     * @param responses         The responses, in the order they arrived
+     * @param clientVectorClock The clock of the client that triggered the gossip, null if none
+     * @return                  The response the server should update from, if its code is OK
+     */
+    public static GossipResponse chooseGossipResponse(Class studentsClass, List<GossipResponse> responses, VectorClock clientVectorClock) {
+
+        responses = new ArrayList<>(responses);
 
         // By deafault chose first response
         GossipResponse gossipResponse = responses.get(0);
@@ -182,21 +282,7 @@ public class ClassServerFrontend {
             } while(gossipResponse.getCode() != ResponseCode.OK && !responses.isEmpty());
         }
 
-        // If the response was OK then it's safe to update our server
-        if(gossipResponse.getCode() == ResponseCode.OK){
-
-            debug.log(
-                "Gossip finished successfully," +
-                " previous clock: " +
-                studentsClass.getServerStatus().getVectorClock() +
-                " updated clock: " +
-                Convert.toVectorClock(gossipResponse.getVectorClockState())
-            );
-
-            this.updateClass(studentsClass, gossipResponse);
-        }
-
-        return true;
+        return gossipResponse;
     }
 
     /**
@@ -212,7 +298,7 @@ public class ClassServerFrontend {
      * @param event         The event
      * @return result       True if conditions met, else false
      */
-    public boolean verifyServerStatus(Class studentsClass, String event){
+    public static boolean verifyServerStatus(Class studentsClass, String event){
 
         boolean result = true;
 
@@ -246,54 +332,36 @@ public class ClassServerFrontend {
 
     /**
      * Update studentsClass with gossip response
+     * The round runs without the class lock, so the class may have moved on since the request was built:
+     * the response only replaces it if it holds every local event, otherwise both are merged as received gossip is
      * @param currentStudentClass   The student's class
      * @param response              The gossip response
      */
-    public void updateClass(Class currentStudentClass, GossipResponse response){
+    public static void updateClass(Class currentStudentClass, GossipResponse response){
 
         Class updatedStudentClass = convertToClass(response.getClassState());
         VectorClock updatedVectorClock = Convert.toVectorClock(response.getVectorClockState());
 
-        currentStudentClass.setCapacity(updatedStudentClass.getCapacity());
-        currentStudentClass.setOpenEnrollments(updatedStudentClass.isOpenEnrollments());
-        currentStudentClass.setEnrolled(updatedStudentClass.getEnrolled());
-        currentStudentClass.setDiscarded(updatedStudentClass.getDiscarded());
-        currentStudentClass.setTimestamps(updatedStudentClass.getTimestamps());
-        currentStudentClass.getServerStatus().setVectorClock(updatedVectorClock);
-    }
-
-    /**
-     * Convert Class to ClassState
-     * @param studentsClass The student class
-     * @return              The ClassState
-     */
-    public static ClassState convertToClassState(Class studentsClass){
-
-        ClassState.Builder classState = ClassState.newBuilder()
-                .setCapacity(studentsClass.getCapacity())
-                .setOpenEnrollments(studentsClass.isOpenEnrollments());
-
-        // Add each enrolled student to state
-        studentsClass.getEnrolled().forEach((studentId, studentName) -> {
-            Student student = Student.newBuilder()
-                    .setStudentId(studentId)
-                    .setStudentName(studentName)
-                    .setTimestamp(Convert.toGoogleTimestamp(studentsClass.getStudentTimestamp(studentId)))
-                    .build();
-            classState.addEnrolled(student);
-        });
-
-        // Add each discarded student to state
-        studentsClass.getDiscarded().forEach((studentId, studentName) -> {
-            Student student = Student.newBuilder()
-                    .setStudentId(studentId)
-                    .setStudentName(studentName)
-                    .setTimestamp(Convert.toGoogleTimestamp(studentsClass.getStudentTimestamp(studentId)))
-                    .build();
-            classState.addDiscarded(student);
-        });
+        currentStudentClass.getLock().lock();
+        try {
+            VectorClock localVectorClock = currentStudentClass.getServerStatus().getVectorClock();
+            if(!localVectorClock.happensBefore(updatedVectorClock) && !localVectorClock.equals(updatedVectorClock)){
+                new GossipApplier(currentStudentClass, false).mergeResponse(response);
+                return;
+            }
 
-        return classState.build();
+            currentStudentClass.replace(
+                    updatedStudentClass.getCapacity(),
+                    updatedStudentClass.isOpenEnrollments(),
+                    updatedStudentClass.getEnrolled(),
+                    updatedStudentClass.getDiscarded(),
+                    updatedStudentClass.getTimestamps()
+            );
+            currentStudentClass.getServerStatus().setVectorClock(updatedVectorClock);
+            currentStudentClass.getWatchers().publishSnapshot();
+        } finally {
+            currentStudentClass.getLock().unlock();
+        }
     }
 
     /**
@@ -0,0 +1,133 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import pt.ulisboa.tecnico.classes.Convert;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ClassStateCache {
+
+    // States are rebuilt under the class lock and no other lock, so concurrent readers build a state once and
+    // rebuilds never wait in a different order than the writes calling them with the class lock held
+    private final Class studentsClass;
+
+    // Incremented after every write or merge to the class
+    private final AtomicLong version = new AtomicLong();
+
+    // Last built states, one without timestamps (clients) and one with timestamps (replicas)
+    private volatile CachedState clientState;
+    private volatile CachedState replicaState;
+
+    public ClassStateCache(Class studentsClass) {
+        this.studentsClass = studentsClass;
+    }
+
+    public long getVersion() { return version.get(); }
+
+    /**
+     * Invalidate cached states
+     * Must be called after the class is modified
+     */
+    public void invalidate() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * Get the class state sent to clients (without timestamps)
+     * @return The class state for the current version
+     */
+    public ClassState getClientClassState() {
+
+        CachedState cached = clientState;
+        if (cached != null && cached.version() == getVersion()) {
+            return cached.classState();
+        }
+
+        studentsClass.getLock().lock();
+        try {
+            // Another reader may have built the state while we waited
+            cached = clientState;
+            long currentVersion = getVersion();
+            if (cached == null || cached.version() != currentVersion) {
+                cached = new CachedState(currentVersion, convertToClassState(studentsClass, false));
+                clientState = cached;
+            }
+            return cached.classState();
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+    }
+
+    /**
+     * Get the class state sent to other servers (with timestamps)
+     * @return The class state for the current version
+     */
+    public ClassState getReplicaClassState() {
+
+        CachedState cached = replicaState;
+        if (cached != null && cached.version() == getVersion()) {
+            return cached.classState();
+        }
+
+        studentsClass.getLock().lock();
+        try {
+            // Another reader may have built the state while we waited
+            cached = replicaState;
+            long currentVersion = getVersion();
+            if (cached == null || cached.version() != currentVersion) {
+                cached = new CachedState(currentVersion, convertToClassState(studentsClass, true));
+                replicaState = cached;
+            }
+            return cached.classState();
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+    }
+
+    /**
+     * Convert Class to ClassState
+     * @param studentsClass     The class to be converted
+     * @param withTimestamps    True if student timestamps should be included
+     * @return                  The class state
+     */
+    public static ClassState convertToClassState(Class studentsClass, boolean withTimestamps) {
+
+        // Add enrollment status and class capacity
+        ClassState.Builder classState = ClassState.newBuilder()
+                .setCapacity(studentsClass.getCapacity())
+                .setOpenEnrollments(studentsClass.isOpenEnrollments());
+
+        // Add each enrolled student to state
+        studentsClass.getEnrolled().forEach((studentId, studentName) ->
+                classState.addEnrolled(convertToStudent(studentsClass, studentId, studentName, withTimestamps)));
+
+        // Add each discarded student to state
+        studentsClass.getDiscarded().forEach((studentId, studentName) ->
+                classState.addDiscarded(convertToStudent(studentsClass, studentId, studentName, withTimestamps)));
+
+        return classState.build();
+    }
+
+    /**
+     * Convert a class entry to Student
+     * @param studentsClass     The class
+     * @param studentId         The student id
+     * @param studentName       The student name
+     * @param withTimestamps    True if the student timestamp should be included
+     * @return                  The student
+     */
+    private static Student convertToStudent(Class studentsClass, String studentId, String studentName, boolean withTimestamps) {
+
+        Student.Builder student = Student.newBuilder()
+                .setStudentId(studentId)
+                .setStudentName(studentName);
+
+        if (withTimestamps) {
+            student.setTimestamp(Convert.toGoogleTimestamp(studentsClass.getStudentTimestamp(studentId)));
+        }
+
+        return student.build();
+    }
+
+    private record CachedState(long version, ClassState classState) {}
+}
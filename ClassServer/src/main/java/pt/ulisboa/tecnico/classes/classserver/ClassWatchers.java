@@ -0,0 +1,309 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import pt.ulisboa.tecnico.classes.Convert;
+import pt.ulisboa.tecnico.classes.VectorClock;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the changes of a class to its watchers
+ * Events are built by the writes, under the class lock, and queued to a single delivery thread, so a slow watcher
+ * never holds up the writes. Subscriptions go through the same queue, so a watcher gets every event after the
+ * ones it missed, in the order of the writes
+ * Each watcher is only sent events while it is ready for them, the others wait in a bounded backlog that a
+ * snapshot replaces once it overflows
+ */
+public class ClassWatchers {
+
+    // Max number of events kept to resume watchers
+    private static final int MAX_EVENTS = 1000;
+    // Max number of events waiting for a watcher that is not ready
+    static final int MAX_BACKLOG = 100;
+    // Time the delivery thread is kept without events (seconds)
+    private static final long DELIVERY_KEEP_ALIVE = 30;
+
+    private final Class studentsClass;
+
+    // Started on the first event and stopped when idle, classes built from gossip never publish
+    private final ExecutorService delivery = new ThreadPoolExecutor(0, 1, DELIVERY_KEEP_ALIVE, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "watchers");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // Only used by the delivery thread
+    private final Deque<ClassEvent> events = new ArrayDeque<>();
+    // Watchers are added and removed holding the map, so a watcher cancelled while subscribing is never added
+    private final Map<Watcher, Backlog> watchers = new ConcurrentHashMap<>();
+
+    // Events a watcher is not ready for yet, only used by the delivery thread
+    private static class Backlog {
+
+        private final Deque<ClassEvent> events = new ArrayDeque<>();
+        // Set from an overflow until the snapshot replacing the backlog is queued, events until then are in it
+        private boolean resyncing = false;
+    }
+
+    public interface Watcher {
+
+        /**
+         * Receive a class event
+         * @param event The event
+         */
+        void onEvent(ClassEvent event);
+
+        /**
+         * Stop watching
+         * @param responseCode The reason to stop
+         */
+        void onClose(ResponseCode responseCode);
+
+        /**
+         * Check if the watcher can take another event without buffering it
+         * @return True if an event can be sent now
+         */
+        default boolean isReady() { return true; }
+
+        /**
+         * Check if the watcher went away
+         * @return True if no event can be sent anymore
+         */
+        default boolean isCancelled() { return false; }
+    }
+
+    public ClassWatchers(Class studentsClass) {
+        this.studentsClass = studentsClass;
+    }
+
+    public int getWatcherCount() { return watchers.size(); }
+
+    /**
+     * Add a watcher, sending it the events it missed since the given clock
+     * If the events after the given clock are no longer known, a snapshot is sent instead
+     * @param watcher               The watcher
+     * @param vectorClockState      The clock of the last event received by the watcher
+     */
+    public void subscribe(Watcher watcher, VectorClockState vectorClockState) {
+
+        VectorClock fromVectorClock = Convert.toVectorClock(vectorClockState);
+
+        // The snapshot is taken with the writes stopped, so it matches the events queued before it
+        ClassEvent snapshot;
+        studentsClass.getLock().lock();
+        try {
+            snapshot = snapshot();
+            execute(() -> {
+                List<ClassEvent> missedEvents = new ArrayList<>();
+                boolean found = false;
+
+                if (!fromVectorClock.getVectorClock().isEmpty()) {
+                    for (ClassEvent event : events) {
+                        if (found) {
+                            missedEvents.add(event);
+                        } else if (fromVectorClock.equals(Convert.toVectorClock(event.getVectorClockState()))) {
+                            found = true;
+                        }
+                    }
+                }
+
+                if (!found || missedEvents.size() > MAX_BACKLOG) {
+                    missedEvents.clear();
+                    missedEvents.add(snapshot);
+                }
+
+                Backlog backlog = new Backlog();
+                synchronized (watchers) {
+                    if (watcher.isCancelled()) return;
+                    watchers.put(watcher, backlog);
+                }
+                missedEvents.forEach(event -> deliver(watcher, backlog, event));
+            });
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a watcher
+     * @param watcher The watcher
+     */
+    public void unsubscribe(Watcher watcher) {
+
+        synchronized (watchers) {
+            watchers.remove(watcher);
+        }
+    }
+
+    /**
+     * Send a watcher the events that waited for it to be ready
+     * @param watcher The watcher
+     */
+    public void onReady(Watcher watcher) {
+
+        execute(() -> {
+            Backlog backlog = watchers.get(watcher);
+            if (backlog != null) {
+                drain(watcher, backlog);
+            }
+        });
+    }
+
+    /**
+     * Stop all watchers, after the events already published
+     * @param responseCode The reason to stop
+     */
+    public void closeAll(ResponseCode responseCode) {
+
+        execute(() -> {
+            List<Watcher> closed;
+            synchronized (watchers) {
+                closed = new ArrayList<>(watchers.keySet());
+                watchers.clear();
+            }
+            closed.forEach(watcher -> {
+                try {
+                    watcher.onClose(responseCode);
+                } catch (RuntimeException e) {
+                    // Watcher already gone, nothing to do
+                }
+            });
+        });
+    }
+
+    /**
+     * Publish an event to all watchers
+     * The event is tagged with the current server clock, so it must be called under the class lock
+     * @param event The event to publish
+     */
+    public void publish(ClassEvent.Builder event) {
+
+        if (studentsClass.getServerStatus() == null) { return; }
+
+        ClassEvent classEvent = event
+                .setVectorClockState(Convert.toVectorClockState(studentsClass.getServerStatus().getVectorClock()))
+                .build();
+
+        execute(() -> {
+            events.addLast(classEvent);
+            if (events.size() > MAX_EVENTS) {
+                events.removeFirst();
+            }
+            watchers.forEach((watcher, backlog) -> deliver(watcher, backlog, classEvent));
+        });
+    }
+
+    /**
+     * Publish a snapshot of the whole class to all watchers
+     * Used after the class is replaced by gossip, older events can no longer be replayed
+     * Must be called under the class lock
+     */
+    public void publishSnapshot() {
+
+        if (studentsClass.getServerStatus() == null) { return; }
+
+        ClassEvent classEvent = snapshot();
+
+        execute(() -> {
+            events.clear();
+            events.addLast(classEvent);
+            watchers.forEach((watcher, backlog) -> deliver(watcher, backlog, classEvent));
+        });
+    }
+
+    /**
+     * Build a snapshot event of the current class
+     * @return The snapshot event
+     */
+    private ClassEvent snapshot() {
+
+        return ClassEvent.newBuilder()
+                .setType(ClassEventType.SNAPSHOT)
+                .setClassState(studentsClass.getClassState())
+                .setVectorClockState(Convert.toVectorClockState(studentsClass.getServerStatus().getVectorClock()))
+                .build();
+    }
+
+    /**
+     * Run a task on the delivery thread, after the tasks queued before it
+     * @param task The task
+     */
+    private void execute(Runnable task) {
+        delivery.execute(task);
+    }
+
+    /**
+     * Queue an event for a watcher and send it what it is ready for
+     * A snapshot makes the events before it useless, and a backlog past its limit is replaced by a snapshot
+     * @param watcher   The watcher
+     * @param backlog   The events waiting for the watcher
+     * @param event     The event
+     */
+    private void deliver(Watcher watcher, Backlog backlog, ClassEvent event) {
+
+        if (backlog.resyncing) return;
+
+        if (event.getType() == ClassEventType.SNAPSHOT) {
+            backlog.events.clear();
+        }
+        backlog.events.addLast(event);
+
+        if (backlog.events.size() > MAX_BACKLOG) {
+            backlog.events.clear();
+            backlog.resyncing = true;
+            resync(watcher, backlog);
+            return;
+        }
+        drain(watcher, backlog);
+    }
+
+    /**
+     * Send a watcher its waiting events while it is ready, removing it if it is gone
+     * @param watcher   The watcher
+     * @param backlog   The events waiting for the watcher
+     */
+    private void drain(Watcher watcher, Backlog backlog) {
+
+        ClassEvent event;
+        while (watcher.isReady() && (event = backlog.events.pollFirst()) != null) {
+            try {
+                watcher.onEvent(event);
+            } catch (RuntimeException e) {
+                unsubscribe(watcher);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Queue a snapshot for a watcher whose backlog overflowed
+     * It is taken with the writes stopped, so the events queued before it are the ones it holds
+     * @param watcher   The watcher
+     * @param backlog   The events waiting for the watcher, dropped until the snapshot
+     */
+    private void resync(Watcher watcher, Backlog backlog) {
+
+        studentsClass.getLock().lock();
+        try {
+            ClassEvent snapshot = snapshot();
+            execute(() -> {
+                backlog.resyncing = false;
+                if (watchers.get(watcher) == backlog) {
+                    deliver(watcher, backlog, snapshot);
+                }
+            });
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import io.grpc.Context;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import pt.ulisboa.tecnico.classes.ServerExecutors;
+import pt.ulisboa.tecnico.classes.contract.admin.AdminServiceGrpc;
+import pt.ulisboa.tecnico.classes.contract.classserver.ClassServerServiceGrpc;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the calls of clients, of other servers and of admins on separate executors, so gossip and admin commands
+ * never wait behind a spike of student requests
+ * The server must use a direct executor, every call then moves to the threads of its lane as it starts
+ * Replication and admin calls always run on platform threads of their own, even in the virtual mode, so client
+ * calls can never take the threads they need, only the CPU and the class lock they share. Replication threads
+ * also ask for a higher priority, a hint most systems ignore without extra privileges
+ * A lane with too many calls waiting refuses new ones with RESOURCE_EXHAUSTED
+ */
+public class ExecutionLanes implements ServerInterceptor {
+
+    public static final String CLIENT = "client";
+    public static final String REPLICATION = "replication";
+    public static final String ADMIN = "admin";
+
+    // Max tasks waiting for a thread before new calls are refused
+    public static final int CLIENT_MAX_QUEUED = 1000;
+    public static final int REPLICATION_MAX_QUEUED = 200;
+    public static final int ADMIN_MAX_QUEUED = 50;
+
+    // Threads of each lane in the fixed and virtual executor modes, client threads are per processor
+    public static final int REPLICATION_THREADS = 2;
+    public static final int ADMIN_THREADS = 1;
+
+    // Runs tasks of the call being handled on its lane, in order with the callbacks of the call
+    static final Context.Key<Executor> CALL_EXECUTOR_KEY = Context.key("lane-call-executor");
+
+    private final Lane client;
+    private final Lane replication;
+    private final Lane admin;
+
+    /**
+     * One kind of call, with its own threads and queue
+     */
+    public static class Lane {
+
+        private final String name;
+        private final ExecutorService executor;
+        private final int maxQueued;
+
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicInteger peakQueued = new AtomicInteger();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+
+        public Lane(String name, ExecutorService executor, int maxQueued) {
+            this.name = name;
+            this.executor = executor;
+            this.maxQueued = maxQueued;
+        }
+
+        public String getName() { return name; }
+
+        public int getMaxQueued() { return maxQueued; }
+
+        // Tasks of calls running on a thread of the lane
+        public int getRunning() { return running.get(); }
+
+        // Tasks of calls waiting for a thread of the lane
+        public int getQueued() { return queued.get(); }
+
+        public int getPeakQueued() { return peakQueued.get(); }
+
+        // Calls that finished, successfully or not
+        public long getCompleted() { return completed.get(); }
+
+        // Calls refused because too many tasks were waiting
+        public long getRejected() { return rejected.get(); }
+
+        /**
+         * Check if the lane takes a new call
+         * @return True if fewer than the max tasks are waiting
+         */
+        private boolean admit() {
+
+            if (queued.get() >= maxQueued) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        private void execute(Runnable task) {
+
+            peakQueued.accumulateAndGet(queued.incrementAndGet(), Math::max);
+            try {
+                executor.execute(() -> {
+                    queued.decrementAndGet();
+                    running.incrementAndGet();
+                    try {
+                        task.run();
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The server is stopping
+                queued.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @param executorMode  The threads of client calls, fixed pools are sized per lane
+     *                      Virtual threads share their carriers with every client call, so the other lanes get a
+     *                      fixed pool of platform threads instead
+     */
+    public ExecutionLanes(ServerExecutors.Mode executorMode) {
+
+        ServerExecutors.Mode platformMode = executorMode == ServerExecutors.Mode.VIRTUAL ? ServerExecutors.Mode.FIXED : executorMode;
+
+        int clientThreads = Runtime.getRuntime().availableProcessors() * ServerExecutors.FIXED_THREADS_PER_PROCESSOR;
+        client = new Lane(CLIENT, ServerExecutors.createPool(executorMode, CLIENT, clientThreads, Thread.NORM_PRIORITY),
+                CLIENT_MAX_QUEUED);
+        replication = new Lane(REPLICATION, ServerExecutors.createPool(platformMode, REPLICATION, REPLICATION_THREADS,
+                Thread.MAX_PRIORITY), REPLICATION_MAX_QUEUED);
+        admin = new Lane(ADMIN, ServerExecutors.createPool(platformMode, ADMIN, ADMIN_THREADS, Thread.NORM_PRIORITY),
+                ADMIN_MAX_QUEUED);
+    }
+
+    public List<Lane> getLanes() { return List.of(client, replication, admin); }
+
+    /**
+     * Get the executor of the call being handled, for work that must go back to its lane later
+     * Its tasks run one at a time with the callbacks of the call
+     * @return The executor, null if the call is not handled on a lane
+     */
+    public static Executor callExecutor() { return CALL_EXECUTOR_KEY.get(); }
+
+    /**
+     * Get the lane of a service
+     * @param serviceName   The full service name
+     * @return              Replication for other servers, admin for admins and client for students and professors
+     */
+    public Lane getLane(String serviceName) {
+
+        if (ClassServerServiceGrpc.SERVICE_NAME.equals(serviceName)) {
+            return replication;
+        } else if (AdminServiceGrpc.SERVICE_NAME.equals(serviceName)) {
+            return admin;
+        }
+        return client;
+    }
+
+    /**
+     * Stop the threads of every lane, calls still waiting are dropped
+     */
+    public void shutdown() {
+        getLanes().forEach(lane -> lane.executor.shutdown());
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+
+        Lane lane = getLane(call.getMethodDescriptor().getServiceName());
+
+        if (!lane.admit()) {
+            call.close(Status.RESOURCE_EXHAUSTED.withDescription("Too many " + lane.getName() + " requests waiting, retry later."),
+                    new Metadata());
+            return new ServerCall.Listener<>() {};
+        }
+
+        LaneListener<ReqT, RespT> listener = new LaneListener<>(lane, call, Context.current());
+        listener.dispatch(() -> listener.delegate = next.startCall(call, headers));
+        return listener;
+    }
+
+    /**
+     * Runs the callbacks of one call on its lane, in order and one at a time
+     */
+    private static class LaneListener<ReqT, RespT> extends ServerCall.Listener<ReqT> {
+
+        private final Lane lane;
+        private final ServerCall<ReqT, RespT> call;
+        private final Context context;
+
+        private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        // Only used by the tasks of the call, which never run at the same time
+        private ServerCall.Listener<ReqT> delegate;
+        private boolean failed = false;
+
+        private LaneListener(Lane lane, ServerCall<ReqT, RespT> call, Context context) {
+            this.lane = lane;
+            this.call = call;
+            this.context = context.withValue(CALL_EXECUTOR_KEY, this::dispatch);
+        }
+
+        private void dispatch(Runnable callback) {
+            pending.add(callback);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                lane.execute(context.wrap(this::drain));
+            }
+        }
+
+        private void drain() {
+
+            try {
+                Runnable callback;
+                while ((callback = pending.poll()) != null) {
+                    try {
+                        callback.run();
+                    } catch (RuntimeException e) {
+                        // Answer as gRPC does when a handler throws, then drop all but the end of the call
+                        failed = true;
+                        try {
+                            call.close(Status.UNKNOWN.withDescription("Application error processing RPC").withCause(e), new Metadata());
+                        } catch (IllegalStateException closed) {
+                            // The handler closed the call before throwing
+                        }
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            // A callback may have arrived after the queue was found empty
+            if (!pending.isEmpty()) schedule();
+        }
+
+        @Override
+        public void onMessage(ReqT message) {
+            dispatch(() -> {
+                if (!failed) delegate.onMessage(message);
+            });
+        }
+
+        @Override
+        public void onHalfClose() {
+            dispatch(() -> {
+                if (!failed) delegate.onHalfClose();
+            });
+        }
+
+        @Override
+        public void onCancel() {
+            lane.completed.incrementAndGet();
+            // Interceptors inside the lane release what they hold even if the handler failed
+            dispatch(() -> {
+                if (delegate != null) delegate.onCancel();
+            });
+        }
+
+        @Override
+        public void onComplete() {
+            lane.completed.incrementAndGet();
+            dispatch(() -> {
+                if (delegate != null) delegate.onComplete();
+            });
+        }
+
+        @Override
+        public void onReady() {
+            dispatch(() -> {
+                if (!failed) delegate.onReady();
+            });
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import io.grpc.stub.StreamObserver;
+
+import pt.ulisboa.tecnico.classes.Convert;
+import pt.ulisboa.tecnico.classes.Debug;
+import pt.ulisboa.tecnico.classes.VectorClock;
+import pt.ulisboa.tecnico.classes.classserver.exception.ClassException;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.*;
+import pt.ulisboa.tecnico.classes.contract.classserver.ClassServerClassServer.*;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.grpc.Status.INTERNAL;
+
+/**
+ * Applies the gossip received from other servers
+ * Requests are queued and the first caller to find no pass running becomes the applier: it takes every queued
+ * request and merges all their states with the local one in a single pass, then answers them all with the result
+ * Gossip arriving from several servers at once therefore costs one merge instead of one per sender
+ */
+public class GossipApplier {
+
+    private final Debug debug;
+    private final Class studentsClass;
+
+    private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean applying = new AtomicBoolean(false);
+
+    private final AtomicLong passes = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+
+    private record Pending(GossipRequest request, StreamObserver<GossipResponse> responseObserver) {}
+
+    // A class state taking part in a merge, with the server it came from
+    private record State(String qualifier, int serverId, VectorClock vectorClock, Class studentsClass) {}
+
+    public GossipApplier(Class studentsClass, boolean debugMode) {
+        this.studentsClass = studentsClass;
+        debug = new Debug(GossipApplier.class.getName(), debugMode);
+    }
+
+    /**
+     * Get the number of merge passes run so far
+     * @return The number of passes
+     */
+    public long getPasses() { return passes.get(); }
+
+    /**
+     * Get the number of requests applied so far, over all passes
+     * @return The number of requests
+     */
+    public long getApplied() { return applied.get(); }
+
+    /**
+     * Queue a request, applying it with any others waiting unless another thread is already applying
+     * The response is sent by whichever thread applies the request
+     * @param request           The request from ClassServerFrontend
+     * @param responseObserver  The stream where response will be sent
+     */
+    public void submit(GossipRequest request, StreamObserver<GossipResponse> responseObserver) {
+
+        queue.add(new Pending(request, responseObserver));
+
+        // Check the queue again after releasing, a request added while the last pass
+        // was finishing may have seen the flag still set
+        while(!queue.isEmpty() && applying.compareAndSet(false, true)) {
+            try {
+                drain();
+            } finally {
+                applying.set(false);
+            }
+        }
+    }
+
+    private void drain() {
+
+        List<Pending> batch = new ArrayList<>();
+        Pending pending;
+        while((pending = queue.poll()) != null) {
+            batch.add(pending);
+        }
+        if(batch.isEmpty()) return;
+
+        List<GossipResponse> responses;
+        try {
+            responses = apply(batch.stream().map(Pending::request).toList());
+        } catch (RuntimeException e) {
+            debug.log("gossip: Failed to apply " + batch.size() + " requests: " + e);
+            batch.forEach(failed -> failed.responseObserver().onError(
+                    INTERNAL.withDescription("Gossip could not be applied.").asRuntimeException()));
+            return;
+        }
+
+        for(int i = 0; i < batch.size(); i++) {
+            batch.get(i).responseObserver().onNext(responses.get(i));
+            batch.get(i).responseObserver().onCompleted();
+        }
+    }
+
+    /**
+     * Merge the states of several requests into the local class in one pass
+     * @param requests  The requests, in the order they arrived
+     * @return          The response to each request, in the same order
+     */
+    public List<GossipResponse> apply(List<GossipRequest> requests) {
+
+        studentsClass.getLock().lock();
+        try {
+
+            List<ResponseCode> responseCodes = new ArrayList<>(Collections.nCopies(requests.size(), ResponseCode.OK));
+
+            try {
+                // Don't process gossip if server is inactive
+                this.studentsClass.checkActiveServer();
+                merge(requests, responseCodes);
+
+            } catch (ClassException e) {
+
+                switch (e.getMessage()) {
+                    case "Server is inactive" ->
+                            Collections.fill(responseCodes, ResponseCode.INACTIVE_SERVER);
+                }
+            }
+
+            passes.incrementAndGet();
+            applied.addAndGet(requests.size());
+            debug.log("gossip: " + responseCodes + " for " + requests.size() + " requests");
+
+            // Every sender gets the state after the whole pass
+            List<GossipResponse> responses = new ArrayList<>();
+            for(int i = 0; i < requests.size(); i++) {
+
+                GossipRequest request = requests.get(i);
+                ResponseCode responseCode = responseCodes.get(i);
+                GossipResponse.Builder gossipResponse = GossipResponse.newBuilder()
+                        .setCode(responseCode)
+                        .setClassState(this.studentsClass.getReplicaClassState())
+                        .setServerId(this.studentsClass.getServerStatus().getServerId())
+                        .setServerQualifier(this.studentsClass.getServerStatus().getQualifiers().get(0));
+
+                if(responseCode == ResponseCode.OK) {
+                    gossipResponse.setVectorClockState(Convert.toVectorClockState(this.studentsClass.getServerStatus().getVectorClock()));
+                } else {
+                    gossipResponse.setVectorClockState(request.getVectorClockState());
+                }
+                responses.add(gossipResponse.build());
+            }
+            return responses;
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+    }
+
+    /**
+     * Merge the answer to a gossip round of this server into the local class, as if the peer had sent it
+     * Writes and gossip received while the round ran are not in the answer, so they are kept
+     * @param response  The answer of the peer, with code OK
+     */
+    public void mergeResponse(GossipResponse response) {
+
+        GossipRequest request = GossipRequest.newBuilder()
+                .setClassState(response.getClassState())
+                .setServerQualifier(response.getServerQualifier())
+                .setServerId(response.getServerId())
+                .setVectorClockState(response.getVectorClockState())
+                .build();
+
+        studentsClass.getLock().lock();
+        try {
+            merge(List.of(request), new ArrayList<>(List.of(ResponseCode.OK)));
+        } catch (ClassException e) {
+            debug.log("gossip: Failed to merge the response of " + response.getServerId() + ": " + e.getMessage());
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+    }
+
+    private void merge(List<GossipRequest> requests, List<ResponseCode> responseCodes) throws ClassException {
+
+        ServerStatus serverStatus = this.studentsClass.getServerStatus();
+        VectorClock localVectorClock = serverStatus.getVectorClock();
+
+        // Keep only the remote states that are not covered by the local one or by another state of the pass
+        List<State> remoteStates = new ArrayList<>();
+        for(int i = 0; i < requests.size(); i++) {
+
+            GossipRequest request = requests.get(i);
+            VectorClock remoteVectorClock = new VectorClock(new ConcurrentHashMap<>(request.getVectorClockState().getVectorClockMap()));
+
+            // Changes can only be applied on top of the state they were computed from, once the local class
+            // moved on the students left out may differ from what the sender holds
+            if(request.hasBaseVectorClockState()
+                    && !localVectorClock.equals(Convert.toVectorClock(request.getBaseVectorClockState()))) {
+                debug.log("gossip: Remote sender " + request.getServerId() + " sent changes since a clock the local class no longer holds.");
+                responseCodes.set(i, ResponseCode.FULL_STATE_REQUIRED);
+                continue;
+            }
+
+            if(localVectorClock.isAtLeast(remoteVectorClock)) {
+                debug.log("gossip: Local is ahead of remote sender " + request.getServerId() + ", no update necessary.");
+                continue;
+            }
+            if(remoteStates.stream().anyMatch(state -> state.vectorClock().isAtLeast(remoteVectorClock))) {
+                continue;
+            }
+            remoteStates.removeIf(state -> remoteVectorClock.isAtLeast(state.vectorClock()));
+            remoteStates.add(new State(request.getServerQualifier(), request.getServerId(), remoteVectorClock,
+                    request.hasBaseVectorClockState() ? withChanges(request.getClassState()) : ClassServerFrontend.convertToClass(request.getClassState())));
+        }
+
+        if(remoteStates.isEmpty()) {
+            return;
+        }
+
+        // Detect sequential events
+        // If a single remote state is ahead of everything else then simply update local class state to it
+        if(remoteStates.size() == 1 && localVectorClock.happensBefore(remoteStates.get(0).vectorClock())) {
+
+            State remote = remoteStates.get(0);
+            debug.log("gossip: Remote sender " + remote.serverId() + " is ahead of local, updating local data.");
+
+            Class remoteStudentsClass = remote.studentsClass();
+            studentsClass.update(
+                    remoteStudentsClass.getCapacity(),
+                    remoteStudentsClass.isOpenEnrollments(),
+                    remoteStudentsClass.getEnrolled(),
+                    remoteStudentsClass.getDiscarded(),
+                    remoteStudentsClass.getTimestamps()
+            );
+
+            // Update local vector clock to be the same as remote clock
+            serverStatus.setVectorClock(remote.vectorClock());
+            // Other peers may not have the new state yet
+            serverStatus.setChanged(true);
+
+            this.studentsClass.getWatchers().publishSnapshot();
+
+            debug.log("gossip: Update finished, local clock updated to: " + serverStatus.getVectorClock());
+            return;
+        }
+
+        // Detect concurrent events
+        debug.log("gossip: Concurrent events detected, resolving conflicts between local and " + remoteStates.size() + " remote states.");
+
+        // The local state only takes part if no remote state already covers it
+        List<State> states = new ArrayList<>();
+        if(remoteStates.stream().noneMatch(state -> state.vectorClock().isAtLeast(localVectorClock))) {
+            states.add(new State(serverStatus.getQualifiers().get(0), serverStatus.getServerId(), localVectorClock, this.studentsClass));
+        }
+        states.addAll(remoteStates);
+
+        // To merge OpenEnrollments and Capacity, always prioritize the primary server or the
+        // server with more up-to-date information about the primary
+        State chosen = states.get(0);
+        for(State state : states.subList(1, states.size())) {
+            if(chosen.qualifier().equals("P")) {
+                break;
+            } else if(state.qualifier().equals("P")
+                    || isMoreUpToDate(chosen.vectorClock(), chosen.serverId(), state.vectorClock(), state.serverId())) {
+                chosen = state;
+            }
+        }
+        int capacity = chosen.studentsClass().getCapacity();
+        boolean openEnrollments = chosen.studentsClass().isOpenEnrollments();
+
+        // Merge students lists
+
+        // Create a list of students containing all students from every state
+        // If student is present in several then keep the most recent timestamp and the state it came from,
+        // later states winning ties as remote did over local
+        ConcurrentHashMap<String, Instant> allStudents = new ConcurrentHashMap<>();
+        Map<String, Class> latest = new HashMap<>();
+        for(State state : states) {
+            state.studentsClass().getTimestamps().forEach((studentId, timestamp) -> {
+                Instant known = allStudents.get(studentId);
+                if(known == null || known.compareTo(timestamp) <= 0) {
+                    allStudents.put(studentId, timestamp);
+                    latest.put(studentId, state.studentsClass());
+                }
+            });
+        }
+
+        // Sort all students by timestamp
+        HashMap<String, Instant> allEnrolledSorted = ClassServerServiceImpl.sortByValue(allStudents);
+
+        ConcurrentHashMap<String, String> newEnrolled = new ConcurrentHashMap<>();
+        ConcurrentHashMap<String, String> newDiscarded = new ConcurrentHashMap<>();
+
+        // Iterate over sorted students, each one keeps the list of its most recent state
+        // while the class is not full, so earlier enrollments take the free places first
+        for(String studentId : allEnrolledSorted.keySet()) {
+
+            Class source = latest.get(studentId);
+            String studentName = source.getStudentName(studentId);
+
+            if(!source.getDiscarded().containsKey(studentId) && newEnrolled.size() < capacity) {
+                newEnrolled.put(studentId, studentName);
+            } else {
+                newDiscarded.put(studentId, studentName);
+            }
+        }
+
+        studentsClass.update(capacity, openEnrollments, newEnrolled, newDiscarded, allStudents);
+
+        // Update clock, one increment for the whole pass
+        for(State state : remoteStates) {
+            localVectorClock.merge(state.vectorClock());
+        }
+        localVectorClock.increment(serverStatus.getServerId());
+        serverStatus.setChanged(true);
+
+        this.studentsClass.getWatchers().publishSnapshot();
+
+        debug.log("gossip: Conflict resolved, local clock updated to: " + localVectorClock);
+    }
+
+    /**
+     * Rebuild the state of a sender from the students it changed since a state the local class already holds
+     * Students left out of the changes are taken from the local class
+     * @param changes   The changed students, with the sender capacity and enrollment status
+     * @return          The sender class
+     */
+    private Class withChanges(ClassState changes) {
+
+        Class remoteStudentsClass = ClassServerFrontend.convertToClass(changes);
+
+        this.studentsClass.getTimestamps().forEach((studentId, timestamp) -> {
+            if(remoteStudentsClass.getTimestamps().containsKey(studentId)) {
+                return;
+            }
+            String studentName = this.studentsClass.getEnrolled().get(studentId);
+            if(studentName != null) {
+                remoteStudentsClass.getEnrolled().put(studentId, studentName);
+            } else if((studentName = this.studentsClass.getDiscarded().get(studentId)) != null) {
+                remoteStudentsClass.getDiscarded().put(studentId, studentName);
+            } else {
+                return;
+            }
+            remoteStudentsClass.getTimestamps().put(studentId, timestamp);
+        });
+
+        return remoteStudentsClass;
+    }
+
+    /**
+     * Checks if a server is more up to date than another
+     * This is done by checking which of them has the biggest value
+     * in the primary server id entry (in their vector clock)
+     * @param vectorClock       VectorClock of the first server
+     * @param serverId          Id of the first server
+     * @param otherVectorClock  VectorClock of the other server
+     * @param otherServerId     Id of the other server
+     * @return true if the other server is more up to date
+     */
+    public static boolean isMoreUpToDate(VectorClock vectorClock, int serverId, VectorClock otherVectorClock, int otherServerId) {
+
+        for(Integer key : vectorClock.getVectorClock().keySet()) {
+            if(key != serverId && key != otherServerId) {
+
+                if(!vectorClock.getVectorClock().containsKey(key)) {
+                    return true;
+                } else if(!otherVectorClock.getVectorClock().containsKey(key)) {
+                    return false;
+                }
+                return vectorClock.getValue(key) <= otherVectorClock.getValue(key);
+            }
+        }
+        return true;
+    }
+}
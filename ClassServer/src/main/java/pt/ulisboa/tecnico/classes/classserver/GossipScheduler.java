@@ -0,0 +1,122 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the gossip rounds of the timer and of admins on a single thread, so they never overlap
+ * Each timer round is scheduled when the previous one ends, after the period plus a random jitter, so replicas
+ * started together drift apart instead of gossiping in bursts
+ * Admin requests made while another admin round is still queued share its result instead of queuing a new round
+ */
+public class GossipScheduler {
+
+    // Default jitter, as a fraction of the period
+    public static final double DEFAULT_JITTER = 0.2;
+
+    private final Class studentsClass;
+    private final ClassServerFrontend classServerFrontend;
+    private final long period;
+    private final double jitter;
+
+    private final Random random = new Random();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "gossip");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Admin round queued and not started yet
+    private CompletableFuture<Boolean> queuedAdminRound;
+
+    /**
+     * @param studentsClass         The class
+     * @param classServerFrontend   The frontend running the rounds
+     * @param period                The mean time between timer rounds (milliseconds)
+     * @param jitter                The max deviation from the period, as a fraction of it
+     */
+    public GossipScheduler(Class studentsClass, ClassServerFrontend classServerFrontend, long period, double jitter) {
+
+        if (period <= 0 || jitter < 0 || jitter >= 1) {
+            throw new IllegalArgumentException("The gossip period must be positive and the jitter in [0, 1).");
+        }
+        this.studentsClass = studentsClass;
+        this.classServerFrontend = classServerFrontend;
+        this.period = period;
+        this.jitter = jitter;
+    }
+
+    public long getPeriod() { return period; }
+
+    public double getJitter() { return jitter; }
+
+    /**
+     * Start the timer rounds
+     */
+    public void start() {
+        scheduleTimerRound();
+    }
+
+    /**
+     * Stop the timer rounds, a round already running is interrupted
+     */
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Run a round to every other server, after the round already running if any
+     * @return The result of the round, true if some server answered
+     */
+    public synchronized CompletableFuture<Boolean> forceRound() {
+
+        if (queuedAdminRound != null) {
+            return queuedAdminRound;
+        }
+
+        CompletableFuture<Boolean> round = new CompletableFuture<>();
+        queuedAdminRound = round;
+
+        try {
+            executor.execute(() -> {
+                // From now on a new request needs a new round, this one may have missed its changes
+                synchronized (this) {
+                    queuedAdminRound = null;
+                }
+                try {
+                    round.complete(classServerFrontend.gossip(studentsClass, "admin"));
+                } catch (RuntimeException e) {
+                    round.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The scheduler was stopped
+            queuedAdminRound = null;
+            round.complete(false);
+        }
+
+        return round;
+    }
+
+    private void scheduleTimerRound() {
+
+        long delay = period + Math.round((2 * random.nextDouble() - 1) * jitter * period);
+        executor.schedule(this::timerRound, Math.max(1, delay), TimeUnit.MILLISECONDS);
+    }
+
+    private void timerRound() {
+
+        try {
+            if (studentsClass.getServerStatus().isChanged()) classServerFrontend.gossip(studentsClass, "timer");
+        } catch (RuntimeException e) {
+            // A failed round must not stop the next ones
+            System.err.println("Caught exception when gossiping: " + e.getMessage());
+        } finally {
+            if (!executor.isShutdown()) scheduleTimerRound();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package pt.ulisboa.tecnico.classes.classserver;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.StatusRuntimeException;
+import pt.ulisboa.tecnico.classes.ConnectionManager;
 import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions;
 import pt.ulisboa.tecnico.classes.contract.naming.ClassServerNamingServer.*;
 import pt.ulisboa.tecnico.classes.contract.naming.NamingServerServiceGrpc;
@@ -15,9 +16,13 @@ public class NamingServerFrontend {
     private final NamingServerServiceGrpc.NamingServerServiceBlockingStub namingServerStub;
 
     public NamingServerFrontend() {
+        this(ConnectionManager.DEFAULT_NAMING_HOST, ConnectionManager.DEFAULT_NAMING_PORT);
+    }
+
+    public NamingServerFrontend(String namingHost, int namingPort) {
 
-        // create channel and stub to naming services at hardcoded address
-        namingServerChannel = ManagedChannelBuilder.forAddress("localhost", 5000).usePlaintext().build();
+        // create channel and stub to naming services
+        namingServerChannel = ManagedChannelBuilder.forAddress(namingHost, namingPort).usePlaintext().build();
         namingServerStub = NamingServerServiceGrpc.newBlockingStub(namingServerChannel);
     }
 
@@ -0,0 +1,121 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import pt.ulisboa.tecnico.classes.Convert;
+import pt.ulisboa.tecnico.classes.VectorClock;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.*;
+import pt.ulisboa.tecnico.classes.contract.classserver.ClassServerClassServer.GossipResponse;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What each other server is known to hold, from its last answer to a gossip request
+ * Gossip rounds only send to peers behind the local clock, and only the students they are missing
+ */
+public class PeerCursors {
+
+    private final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+
+    /**
+     * Replication state of one peer
+     * @param address           The peer address
+     * @param serverId          The peer server id, 0 until it answers
+     * @param ackedVectorClock  The peer clock when it last answered OK, null if it never did
+     * @param ackedClassState   The peer class state when it last answered OK, null if it never did
+     * @param lastAck           When the peer last answered OK, null if it never did
+     * @param failures          Requests to the peer that failed since its last OK
+     */
+    public record Cursor(Address address, int serverId, VectorClock ackedVectorClock, ClassState ackedClassState,
+                         Instant lastAck, int failures) {
+
+        /**
+         * Check if the peer may be missing local events
+         * @param vectorClock   The local clock
+         * @return              True if the peer never acknowledged a clock at least as recent
+         */
+        public boolean isBehind(VectorClock vectorClock) {
+            return ackedVectorClock == null || !ackedVectorClock.isAtLeast(vectorClock);
+        }
+
+        /**
+         * Count the local events the peer has not acknowledged
+         * @param vectorClock   The local clock
+         * @return              The sum of the entries where the local clock is ahead
+         */
+        public int lag(VectorClock vectorClock) {
+
+            int lag = 0;
+            for (Map.Entry<Integer, Integer> entry : vectorClock.getVectorClock().entrySet()) {
+                int acked = ackedVectorClock == null ? 0 : ackedVectorClock.getValue(entry.getKey());
+                lag += Math.max(0, entry.getValue() - acked);
+            }
+            return lag;
+        }
+    }
+
+    private static String key(Address address) {
+        return address.getHost() + ":" + address.getPort();
+    }
+
+    /**
+     * Get the cursor of a peer
+     * @param address   The peer address
+     * @return          The cursor, with nothing acknowledged if the peer is new
+     */
+    public Cursor get(Address address) {
+        return cursors.getOrDefault(key(address), new Cursor(address, 0, null, null, null, 0));
+    }
+
+    public Collection<Cursor> getCursors() { return cursors.values(); }
+
+    /**
+     * Record an OK answer of a peer
+     * @param address   The peer address
+     * @param response  The peer answer, with its state and clock after handling the request
+     */
+    public void acknowledge(Address address, GossipResponse response) {
+        cursors.put(key(address), new Cursor(address, response.getServerId(),
+                Convert.toVectorClock(response.getVectorClockState()), response.getClassState(), Instant.now(), 0));
+    }
+
+    /**
+     * Record a failed request to a peer, keeping what it acknowledged before
+     * @param address   The peer address
+     */
+    public void fail(Address address) {
+        cursors.compute(key(address), (key, cursor) -> cursor == null
+                ? new Cursor(address, 0, null, null, null, 1)
+                : new Cursor(address, cursor.serverId(), cursor.ackedVectorClock(), cursor.ackedClassState(),
+                        cursor.lastAck(), cursor.failures() + 1));
+    }
+
+    /**
+     * Forget what a peer acknowledged, so it is sent the whole state next time
+     * @param address   The peer address
+     */
+    public void reset(Address address) {
+        cursors.computeIfPresent(key(address), (key, cursor) ->
+                new Cursor(address, cursor.serverId(), null, null, null, cursor.failures()));
+    }
+
+    /**
+     * Forget the peers that are no longer registered
+     * @param addresses The registered peers
+     */
+    public void retain(Collection<Address> addresses) {
+        Set<String> keys = new HashSet<>();
+        addresses.forEach(address -> keys.add(key(address)));
+        cursors.keySet().retainAll(keys);
+    }
+
+    /**
+     * Check if any of the given peers may be missing local events
+     * @param addresses     The peers
+     * @param vectorClock   The local clock
+     * @return              True if some peer is behind
+     */
+    public boolean anyBehind(Collection<Address> addresses, VectorClock vectorClock) {
+        return addresses.stream().anyMatch(address -> get(address).isBehind(vectorClock));
+    }
+}
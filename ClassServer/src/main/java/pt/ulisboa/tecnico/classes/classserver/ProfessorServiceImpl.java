@@ -1,5 +1,6 @@
 package pt.ulisboa.tecnico.classes.classserver;
 
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
 import pt.ulisboa.tecnico.classes.Convert;
@@ -34,7 +35,8 @@ public class ProfessorServiceImpl extends ProfessorServiceImplBase {
     @Override
     public void openEnrollments(OpenEnrollmentsRequest request, StreamObserver<OpenEnrollmentsResponse> responseObserver) {
 
-        synchronized (studentsClass) {
+        studentsClass.getLock().lock();
+        try {
 
             boolean updatedServer = false;
 
@@ -81,6 +83,8 @@ public class ProfessorServiceImpl extends ProfessorServiceImplBase {
                 responseObserver.onNext(openEnrollmentsResponse.build());
                 responseObserver.onCompleted();
             }
+        } finally {
+            studentsClass.getLock().unlock();
         }
     }
 
@@ -92,7 +96,8 @@ public class ProfessorServiceImpl extends ProfessorServiceImplBase {
     @Override
     public void closeEnrollments(CloseEnrollmentsRequest request, StreamObserver<CloseEnrollmentsResponse> responseObserver) {
 
-        synchronized (studentsClass) {
+        studentsClass.getLock().lock();
+        try {
 
             boolean updatedServer = false;
 
@@ -137,6 +142,8 @@ public class ProfessorServiceImpl extends ProfessorServiceImplBase {
                 responseObserver.onNext(closeEnrollmentsResponse.build());
                 responseObserver.onCompleted();
             }
+        } finally {
+            studentsClass.getLock().unlock();
         }
     }
 
@@ -149,6 +156,7 @@ public class ProfessorServiceImpl extends ProfessorServiceImplBase {
     public void listClass(ListClassRequest request, StreamObserver<ListClassResponse> responseObserver) {
 
         boolean updatedServer;
+        VectorClockState serverVectorClockState = null;
 
         ResponseCode responseCode = ResponseCode.OK;
         ListClassResponse.Builder response = ListClassResponse.newBuilder();
@@ -164,19 +172,28 @@ public class ProfessorServiceImpl extends ProfessorServiceImplBase {
             // Force a gossip to the other server to update the information
             // if it's outdated in relation to the client's clock
             updatedServer = this.updateServer(clientVectorClock);
+
+            // Read before the class, so the client is never sent a clock newer than the state it was answered with
+            serverVectorClockState = Convert.toVectorClockState(studentsClass.getServerStatus().getVectorClock());
+
             if(!updatedServer){
                 responseCode = ResponseCode.SERVER_NOT_UPDATED;
                 debug.log("Server was unable to update. Data may be out of date.");
             }
+            // Don't send the class state if the client already holds this version
+            else if(this.isNotModified(request.getCachedVectorClockState(), serverVectorClockState)){
+                responseCode = ResponseCode.NOT_MODIFIED;
+            }
 
-            response.setClassState(convertToClassState(studentsClass));
+            if(responseCode != ResponseCode.NOT_MODIFIED)
+                response.setClassState(studentsClass.getClassState());
         }
 
         response.setCode(responseCode);
 
         // Only update client clock if server responded with updated information
         if(updatedServer)
-            response.setVectorClockState(Convert.toVectorClockState(studentsClass.getServerStatus().getVectorClock()));
+            response.setVectorClockState(serverVectorClockState);
         else
             response.setVectorClockState(request.getVectorClockState());
 
@@ -186,6 +203,162 @@ public class ProfessorServiceImpl extends ProfessorServiceImplBase {
         responseObserver.onCompleted();
     }
 
+    /**
+     * List one page of the class students, enrolled students first and then discarded students
+     * Every page of a listing belongs to the class version of its first page
+     * @param request           The request from ProfessorFrontend
+     * @param responseObserver  The stream where response will be sent
+     */
+    @Override
+    public void listClassPage(ListClassPageRequest request, StreamObserver<ListClassPageResponse> responseObserver) {
+
+        ResponseCode responseCode = ResponseCode.OK;
+        ListClassPageResponse.Builder response = ListClassPageResponse.newBuilder();
+
+        boolean updatedServer = false;
+
+        if(!studentsClass.getServerStatus().isActive()){
+            responseCode = ResponseCode.INACTIVE_SERVER;
+        }
+        else{
+            // Force a gossip to the other server to update the information
+            // if it's outdated in relation to the client's clock
+            updatedServer = this.updateServer(Convert.toVectorClock(request.getVectorClockState()));
+            if(!updatedServer){
+                responseCode = ResponseCode.SERVER_NOT_UPDATED;
+                debug.log("Server was unable to update. Data may be out of date.");
+            }
+
+            try{
+                ClassPages.Page page = studentsClass.getClassPages().getPage(request.getPageToken(), request.getPageSize(), request.getOrder());
+                response = this.convertToPageResponse(page);
+            } catch (ClassException e){
+                debug.log("listClassPage: ERROR " + e.getMessage() + " with argument: " + request.getPageToken());
+                responseObserver.onError(INVALID_ARGUMENT.withDescription(e.getMessage() + ".").asRuntimeException());
+                return;
+            }
+        }
+
+        response.setCode(responseCode);
+
+        // Only update client clock if server responded with updated information
+        if(updatedServer)
+            response.setVectorClockState(Convert.toVectorClockState(studentsClass.getServerStatus().getVectorClock()));
+        else
+            response.setVectorClockState(request.getVectorClockState());
+
+        debug.log("listClassPage: " + response.getCode() + " with argument: " + request.getPageToken());
+
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
+    /**
+     * Stream every page of the class students, all taken from the same class version
+     * @param request           The request from ProfessorFrontend
+     * @param responseObserver  The stream where pages will be sent
+     */
+    @Override
+    public void listClassStream(ListClassPageRequest request, StreamObserver<ListClassPageResponse> responseObserver) {
+
+        if(!studentsClass.getServerStatus().isActive()){
+            debug.log("listClassStream: " + ResponseCode.INACTIVE_SERVER);
+            responseObserver.onNext(ListClassPageResponse.newBuilder()
+                    .setCode(ResponseCode.INACTIVE_SERVER)
+                    .setVectorClockState(request.getVectorClockState())
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+
+        ResponseCode responseCode = ResponseCode.OK;
+        VectorClockState vectorClockState = request.getVectorClockState();
+
+        // Force a gossip to the other server to update the information
+        // if it's outdated in relation to the client's clock
+        if(this.updateServer(Convert.toVectorClock(request.getVectorClockState()))){
+            vectorClockState = Convert.toVectorClockState(studentsClass.getServerStatus().getVectorClock());
+        }
+        else{
+            responseCode = ResponseCode.SERVER_NOT_UPDATED;
+            debug.log("Server was unable to update. Data may be out of date.");
+        }
+
+        ResponseCode pageCode = responseCode;
+        VectorClockState pageVectorClockState = vectorClockState;
+
+        studentsClass.getClassPages().streamPages(
+                (ServerCallStreamObserver<ListClassPageResponse>) responseObserver,
+                request.getPageToken(),
+                request.getPageSize(),
+                request.getOrder(),
+                page -> this.convertToPageResponse(page)
+                        .setCode(pageCode)
+                        .setVectorClockState(pageVectorClockState)
+                        .build());
+
+        debug.log("listClassStream: " + responseCode + " with argument: " + request.getPageToken());
+    }
+
+    /**
+     * Watch class changes, sending a snapshot followed by each change
+     * @param request           The request from ProfessorFrontend
+     * @param responseObserver  The stream where events will be sent
+     */
+    @Override
+    public void watchClass(WatchClassRequest request, StreamObserver<WatchClassResponse> responseObserver) {
+
+        if(!studentsClass.getServerStatus().isActive()){
+            debug.log("watchClass: " + ResponseCode.INACTIVE_SERVER);
+            responseObserver.onNext(WatchClassResponse.newBuilder().setCode(ResponseCode.INACTIVE_SERVER).build());
+            responseObserver.onCompleted();
+            return;
+        }
+
+        ServerCallStreamObserver<WatchClassResponse> serverObserver =
+                (ServerCallStreamObserver<WatchClassResponse>) responseObserver;
+
+        ClassWatchers.Watcher watcher = new ClassWatchers.Watcher() {
+            @Override
+            public void onEvent(ClassEvent event) {
+                serverObserver.onNext(WatchClassResponse.newBuilder()
+                        .setCode(ResponseCode.OK)
+                        .setEvent(event)
+                        .build());
+            }
+
+            @Override
+            public void onClose(ResponseCode responseCode) {
+                serverObserver.onNext(WatchClassResponse.newBuilder().setCode(responseCode).build());
+                serverObserver.onCompleted();
+            }
+
+            @Override
+            public boolean isReady() { return serverObserver.isReady(); }
+
+            @Override
+            public boolean isCancelled() { return serverObserver.isCancelled(); }
+        };
+
+        // Stop sending events when the client goes away
+        serverObserver.setOnCancelHandler(() -> {
+            studentsClass.getWatchers().unsubscribe(watcher);
+            debug.log("watchClass: Watcher cancelled.");
+        });
+        // Events wait on the server while the client is not reading them
+        serverObserver.setOnReadyHandler(() -> studentsClass.getWatchers().onReady(watcher));
+
+        // Hold the class so the snapshot is not interleaved with a write
+        studentsClass.getLock().lock();
+        try {
+            studentsClass.getWatchers().subscribe(watcher, request.getVectorClockState());
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+
+        debug.log("watchClass: " + ResponseCode.OK + " from vector clock: " + Convert.toVectorClock(request.getVectorClockState()));
+    }
+
     /**
      * Cancel student enrollment
      * @param request           The request from ProfessorFrontend
@@ -194,7 +367,8 @@ public class ProfessorServiceImpl extends ProfessorServiceImplBase {
     @Override
     public void cancelEnrollment(CancelEnrollmentRequest request, StreamObserver<CancelEnrollmentResponse> responseObserver) {
 
-        synchronized (studentsClass) {
+        studentsClass.getLock().lock();
+        try {
 
             boolean updatedServer = false;
 
@@ -250,9 +424,84 @@ public class ProfessorServiceImpl extends ProfessorServiceImplBase {
                     responseObserver.onCompleted();
                 }
             }
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+    }
+
+    /**
+     * Cancel several student enrollments, advancing the clock once for the whole batch
+     * @param request           The request from ProfessorFrontend
+     * @param responseObserver  The stream where response will be sent
+     */
+    @Override
+    public void cancelEnrollmentBatch(CancelEnrollmentBatchRequest request, StreamObserver<CancelEnrollmentBatchResponse> responseObserver) {
+
+        studentsClass.getLock().lock();
+        try {
+
+            boolean updatedServer = false;
+
+            ResponseCode responseCode = ResponseCode.OK;
+            CancelEnrollmentBatchResponse.Builder response = CancelEnrollmentBatchResponse.newBuilder();
+
+            try{
+                VectorClock clientVectorClock = Convert.toVectorClock(request.getVectorClockState());
+
+                // Force a gossip to the other server to update the information
+                // if it's outdated in relation to the client's clock
+                updatedServer = this.updateServer(clientVectorClock);
+                if(!updatedServer){
+                    responseCode = ResponseCode.SERVER_NOT_UPDATED;
+                    debug.log("Server was unable to update. Data may be out of date.");
+                }
+
+                studentsClass.cancelEnrollmentBatch(request.getStudentIdsList(), request.getAtomic())
+                        .forEach(failure -> response.addCodes(this.toResponseCode(failure)));
+
+            } catch (ClassException e){
+
+                switch (e.getMessage()){
+                    case "Server is inactive" ->
+                        responseCode = ResponseCode.INACTIVE_SERVER;
+                    case "Invalid student id" -> {
+                        debug.log("cancelEnrollmentBatch: " + "ERROR Invalid student id");
+                        responseObserver.onError(INVALID_ARGUMENT.withDescription("Invalid student id.").asRuntimeException());
+                        return;
+                    }
+                }
+            }
+
+            response.setCode(responseCode);
+
+            // Only update client clock if server responded with updated information
+            if(updatedServer)
+                response.setVectorClockState(Convert.toVectorClockState(studentsClass.getServerStatus().getVectorClock()));
+            else
+                response.setVectorClockState(request.getVectorClockState());
+
+            debug.log("cancelEnrollmentBatch: " + responseCode + " with " + request.getStudentIdsCount() + " students");
+
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+        } finally {
+            studentsClass.getLock().unlock();
         }
     }
 
+    /**
+     * Verify if the client already holds the current class state
+     * @param cachedVectorClockState    The clock of the class state held by the client
+     * @param serverVectorClockState    The server clock, read before the class state
+     * @return notModified              True if the server clock equals the client's cached clock, else false
+     */
+    public boolean isNotModified(VectorClockState cachedVectorClockState, VectorClockState serverVectorClockState){
+
+        VectorClock cachedVectorClock = Convert.toVectorClock(cachedVectorClockState);
+        return !cachedVectorClock.getVectorClock().isEmpty()
+                && Convert.toVectorClock(serverVectorClockState).equals(cachedVectorClock);
+    }
+
     /**
      * Verify if server is ahead of client, if not force a gossip to update
      * @param clientVectorClock The client's clock
@@ -269,37 +518,34 @@ public class ProfessorServiceImpl extends ProfessorServiceImplBase {
     }
 
     /**
-     * Convert Class to ClassState
-     * @param studentsClass The class to be converted
-     * @return              The class state
+     * Convert a class page to a response without code and clock
+     * @param page The page
+     * @return The response builder
      */
-    public ClassState convertToClassState(Class studentsClass){
-
-        // Add enrollment status and class capacity
-        ClassState.Builder classState = ClassState.newBuilder()
-                .setOpenEnrollments(studentsClass.isOpenEnrollments())
-                .setCapacity(studentsClass.getCapacity());
-
-        // Add each enrolled student to state
-        studentsClass.getEnrolled().forEach((studentId, studentName) -> {
-
-            Student student = Student.newBuilder()
-                    .setStudentId(studentId)
-                    .setStudentName(studentName)
-                    .build();
-            classState.addEnrolled(student);
-        });
+    private ListClassPageResponse.Builder convertToPageResponse(ClassPages.Page page){
+
+        return ListClassPageResponse.newBuilder()
+                .setCapacity(page.capacity())
+                .setOpenEnrollments(page.openEnrollments())
+                .addAllEnrolled(page.enrolled())
+                .addAllDiscarded(page.discarded())
+                .setNextPageToken(page.nextPageToken());
+    }
 
-        // Add each discarded student to state
-        studentsClass.getDiscarded().forEach((studentId, studentName) -> {
+    /**
+     * Convert the failure of a batch item to a response code
+     * @param failure   The failure message, null if the item succeeded
+     * @return          The response code
+     */
+    private ResponseCode toResponseCode(String failure){
 
-            Student student = Student.newBuilder()
-                    .setStudentId(studentId)
-                    .setStudentName(studentName)
-                    .build();
-            classState.addDiscarded(student);
-        });
+        if(failure == null)
+            return ResponseCode.OK;
 
-        return classState.build();
+        return switch (failure){
+            case "Student not enrolled" -> ResponseCode.NON_EXISTING_STUDENT;
+            case "Batch aborted" -> ResponseCode.BATCH_ABORTED;
+            default -> throw new IllegalArgumentException("Unknown batch failure: " + failure);
+        };
     }
 }
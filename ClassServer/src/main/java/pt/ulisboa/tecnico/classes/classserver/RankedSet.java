@@ -0,0 +1,156 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import java.util.SplittableRandom;
+
+/**
+ * Sorted set that also counts the elements before a value
+ * A treap whose nodes keep the size of their subtree, so adding, removing and counting all take O(log n)
+ * Not thread safe, Class only uses it under its lock
+ * @param <E> The element type
+ */
+class RankedSet<E extends Comparable<E>> {
+
+    private static final class Node<E> {
+
+        private final E element;
+        private final int priority;
+        private Node<E> left;
+        private Node<E> right;
+        private int size = 1;
+
+        private Node(E element, int priority) {
+            this.element = element;
+            this.priority = priority;
+        }
+    }
+
+    // The elements of a subtree below a value and the rest
+    private record Split<E>(Node<E> less, Node<E> rest) {}
+
+    private final SplittableRandom random = new SplittableRandom();
+    private Node<E> root;
+
+    public int size() { return size(root); }
+
+    public void clear() { root = null; }
+
+    /**
+     * Check if an element is in the set
+     * @param element   The element
+     * @return          True if it is
+     */
+    public boolean contains(E element) {
+
+        Node<E> node = root;
+        while (node != null) {
+            int comparison = element.compareTo(node.element);
+            if (comparison == 0) {
+                return true;
+            }
+            node = comparison < 0 ? node.left : node.right;
+        }
+        return false;
+    }
+
+    /**
+     * Add an element
+     * @param element   The element
+     * @return          True if it was not in the set
+     */
+    public boolean add(E element) {
+
+        if (contains(element)) {
+            return false;
+        }
+        Split<E> split = split(root, element);
+        root = merge(merge(split.less(), new Node<>(element, random.nextInt())), split.rest());
+        return true;
+    }
+
+    /**
+     * Remove an element
+     * @param element   The element
+     * @return          True if it was in the set
+     */
+    public boolean remove(E element) {
+
+        if (!contains(element)) {
+            return false;
+        }
+        root = remove(root, element);
+        return true;
+    }
+
+    /**
+     * Count the elements before a value
+     * @param element   The value, in the set or not
+     * @return          The number of elements smaller than it
+     */
+    public int rank(E element) {
+
+        int rank = 0;
+        Node<E> node = root;
+        while (node != null) {
+            if (element.compareTo(node.element) <= 0) {
+                node = node.left;
+            } else {
+                rank += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return rank;
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static <E> Node<E> resize(Node<E> node) {
+        node.size = size(node.left) + size(node.right) + 1;
+        return node;
+    }
+
+    private Split<E> split(Node<E> node, E element) {
+
+        if (node == null) {
+            return new Split<>(null, null);
+        }
+        if (node.element.compareTo(element) < 0) {
+            Split<E> split = split(node.right, element);
+            node.right = split.less();
+            return new Split<>(resize(node), split.rest());
+        }
+        Split<E> split = split(node.left, element);
+        node.left = split.rest();
+        return new Split<>(split.less(), resize(node));
+    }
+
+    // Every element of left is smaller than every element of right
+    private Node<E> merge(Node<E> left, Node<E> right) {
+
+        if (left == null) {
+            return right;
+        } else if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            return resize(left);
+        }
+        right.left = merge(left, right.left);
+        return resize(right);
+    }
+
+    private Node<E> remove(Node<E> node, E element) {
+
+        int comparison = element.compareTo(node.element);
+        if (comparison == 0) {
+            return merge(node.left, node.right);
+        } else if (comparison < 0) {
+            node.left = remove(node.left, element);
+        } else {
+            node.right = remove(node.right, element);
+        }
+        return resize(node);
+    }
+}
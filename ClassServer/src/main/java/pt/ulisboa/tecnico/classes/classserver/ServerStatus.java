@@ -6,7 +6,8 @@ import java.util.List;
 
 public class ServerStatus {
 
-    private boolean active = true;
+    // Volatile, with the clock, as enrollments read them without the class lock
+    private volatile boolean active = true;
     private boolean changed = false;
     private boolean gossipActive = true;
     private boolean deactivateGossip = true;
@@ -16,7 +17,10 @@ public class ServerStatus {
     private final List<String> qualifiers;
 
     private int serverId;
-    private VectorClock vectorClock;
+    private volatile VectorClock vectorClock;
+
+    // What every other server acknowledged, changed stays set while any of them is behind
+    private final PeerCursors peerCursors = new PeerCursors();
 
     public ServerStatus(String host, int port, List<String> qualifiers) {
 
@@ -58,6 +62,8 @@ public class ServerStatus {
 
     public VectorClock getVectorClock() { return vectorClock; }
 
+    public PeerCursors getPeerCursors() { return peerCursors; }
+
     public void setVectorClock(VectorClock vectorClock) {
         this.vectorClock = this.vectorClock.copyVectorClock(vectorClock);
     }
@@ -1,5 +1,6 @@
 package pt.ulisboa.tecnico.classes.classserver;
 
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
 import pt.ulisboa.tecnico.classes.Convert;
@@ -35,6 +36,7 @@ public class StudentServiceImpl extends StudentServiceImplBase {
     public void listClass(ListClassRequest request, StreamObserver<ListClassResponse> responseObserver) {
 
         boolean updatedServer;
+        VectorClockState serverVectorClockState = null;
 
         ResponseCode responseCode = ResponseCode.OK;
         ListClassResponse.Builder response = ListClassResponse.newBuilder();
@@ -49,19 +51,28 @@ public class StudentServiceImpl extends StudentServiceImplBase {
             // Force a gossip to the other server to update the information
             // if it's outdated in relation to the client's clock
             updatedServer = this.updateServer(clientVectorClock);
+
+            // Read before the class, so the client is never sent a clock newer than the state it was answered with
+            serverVectorClockState = Convert.toVectorClockState(studentsClass.getServerStatus().getVectorClock());
+
             if(!updatedServer){
                 responseCode = ResponseCode.SERVER_NOT_UPDATED;
                 debug.log("Server was unable to update. Data may be out of date.");
             }
+            // Don't send the class state if the client already holds this version
+            else if(this.isNotModified(request.getCachedVectorClockState(), serverVectorClockState)){
+                responseCode = ResponseCode.NOT_MODIFIED;
+            }
 
-            response.setClassState(convertToClassState(studentsClass));
+            if(responseCode != ResponseCode.NOT_MODIFIED)
+                response.setClassState(studentsClass.getClassState());
         }
 
         response.setCode(responseCode);
 
         // Only update client clock if server responded with updated information
         if(updatedServer)
-            response.setVectorClockState(Convert.toVectorClockState(studentsClass.getServerStatus().getVectorClock()));
+            response.setVectorClockState(serverVectorClockState);
         else
             response.setVectorClockState(request.getVectorClockState());
 
@@ -71,6 +82,225 @@ public class StudentServiceImpl extends StudentServiceImplBase {
         responseObserver.onCompleted();
     }
 
+    /**
+     * List one page of the class students, enrolled students first and then discarded students
+     * Every page of a listing belongs to the class version of its first page
+     * @param request           The request from StudentFrontend
+     * @param responseObserver  The stream where response will be sent
+     */
+    @Override
+    public void listClassPage(ListClassPageRequest request, StreamObserver<ListClassPageResponse> responseObserver) {
+
+        ResponseCode responseCode = ResponseCode.OK;
+        ListClassPageResponse.Builder response = ListClassPageResponse.newBuilder();
+
+        boolean updatedServer = false;
+
+        if(!studentsClass.getServerStatus().isActive()){
+            responseCode = ResponseCode.INACTIVE_SERVER;
+        }
+        else{
+            // Force a gossip to the other server to update the information
+            // if it's outdated in relation to the client's clock
+            updatedServer = this.updateServer(Convert.toVectorClock(request.getVectorClockState()));
+            if(!updatedServer){
+                responseCode = ResponseCode.SERVER_NOT_UPDATED;
+                debug.log("Server was unable to update. Data may be out of date.");
+            }
+
+            try{
+                ClassPages.Page page = studentsClass.getClassPages().getPage(request.getPageToken(), request.getPageSize(), request.getOrder());
+                response = this.convertToPageResponse(page);
+            } catch (ClassException e){
+                debug.log("listClassPage: ERROR " + e.getMessage() + " with argument: " + request.getPageToken());
+                responseObserver.onError(INVALID_ARGUMENT.withDescription(e.getMessage() + ".").asRuntimeException());
+                return;
+            }
+        }
+
+        response.setCode(responseCode);
+
+        // Only update client clock if server responded with updated information
+        if(updatedServer)
+            response.setVectorClockState(Convert.toVectorClockState(studentsClass.getServerStatus().getVectorClock()));
+        else
+            response.setVectorClockState(request.getVectorClockState());
+
+        debug.log("listClassPage: " + response.getCode() + " with argument: " + request.getPageToken());
+
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
+    /**
+     * Stream every page of the class students, all taken from the same class version
+     * @param request           The request from StudentFrontend
+     * @param responseObserver  The stream where pages will be sent
+     */
+    @Override
+    public void listClassStream(ListClassPageRequest request, StreamObserver<ListClassPageResponse> responseObserver) {
+
+        if(!studentsClass.getServerStatus().isActive()){
+            debug.log("listClassStream: " + ResponseCode.INACTIVE_SERVER);
+            responseObserver.onNext(ListClassPageResponse.newBuilder()
+                    .setCode(ResponseCode.INACTIVE_SERVER)
+                    .setVectorClockState(request.getVectorClockState())
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+
+        ResponseCode responseCode = ResponseCode.OK;
+        VectorClockState vectorClockState = request.getVectorClockState();
+
+        // Force a gossip to the other server to update the information
+        // if it's outdated in relation to the client's clock
+        if(this.updateServer(Convert.toVectorClock(request.getVectorClockState()))){
+            vectorClockState = Convert.toVectorClockState(studentsClass.getServerStatus().getVectorClock());
+        }
+        else{
+            responseCode = ResponseCode.SERVER_NOT_UPDATED;
+            debug.log("Server was unable to update. Data may be out of date.");
+        }
+
+        ResponseCode pageCode = responseCode;
+        VectorClockState pageVectorClockState = vectorClockState;
+
+        studentsClass.getClassPages().streamPages(
+                (ServerCallStreamObserver<ListClassPageResponse>) responseObserver,
+                request.getPageToken(),
+                request.getPageSize(),
+                request.getOrder(),
+                page -> this.convertToPageResponse(page)
+                        .setCode(pageCode)
+                        .setVectorClockState(pageVectorClockState)
+                        .build());
+
+        debug.log("listClassStream: " + responseCode + " with argument: " + request.getPageToken());
+    }
+
+    /**
+     * Watch class changes, sending a snapshot followed by each change
+     * @param request           The request from StudentFrontend
+     * @param responseObserver  The stream where events will be sent
+     */
+    @Override
+    public void watchClass(WatchClassRequest request, StreamObserver<WatchClassResponse> responseObserver) {
+
+        if(!studentsClass.getServerStatus().isActive()){
+            debug.log("watchClass: " + ResponseCode.INACTIVE_SERVER);
+            responseObserver.onNext(WatchClassResponse.newBuilder().setCode(ResponseCode.INACTIVE_SERVER).build());
+            responseObserver.onCompleted();
+            return;
+        }
+
+        ServerCallStreamObserver<WatchClassResponse> serverObserver =
+                (ServerCallStreamObserver<WatchClassResponse>) responseObserver;
+
+        ClassWatchers.Watcher watcher = new ClassWatchers.Watcher() {
+            @Override
+            public void onEvent(ClassEvent event) {
+                serverObserver.onNext(WatchClassResponse.newBuilder()
+                        .setCode(ResponseCode.OK)
+                        .setEvent(event)
+                        .build());
+            }
+
+            @Override
+            public void onClose(ResponseCode responseCode) {
+                serverObserver.onNext(WatchClassResponse.newBuilder().setCode(responseCode).build());
+                serverObserver.onCompleted();
+            }
+
+            @Override
+            public boolean isReady() { return serverObserver.isReady(); }
+
+            @Override
+            public boolean isCancelled() { return serverObserver.isCancelled(); }
+        };
+
+        // Stop sending events when the client goes away
+        serverObserver.setOnCancelHandler(() -> {
+            studentsClass.getWatchers().unsubscribe(watcher);
+            debug.log("watchClass: Watcher cancelled.");
+        });
+        // Events wait on the server while the client is not reading them
+        serverObserver.setOnReadyHandler(() -> studentsClass.getWatchers().onReady(watcher));
+
+        // Hold the class so the snapshot is not interleaved with a write
+        studentsClass.getLock().lock();
+        try {
+            studentsClass.getWatchers().subscribe(watcher, request.getVectorClockState());
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+
+        debug.log("watchClass: " + ResponseCode.OK + " from vector clock: " + Convert.toVectorClock(request.getVectorClockState()));
+    }
+
+    /**
+     * Get the enrollment state, timestamp and position of a single student
+     * @param request           The request from StudentFrontend
+     * @param responseObserver  The stream where response will be sent
+     */
+    @Override
+    public void getEnrollment(GetEnrollmentRequest request, StreamObserver<GetEnrollmentResponse> responseObserver) {
+
+        boolean updatedServer = false;
+
+        ResponseCode responseCode = ResponseCode.OK;
+        GetEnrollmentResponse.Builder response = GetEnrollmentResponse.newBuilder();
+
+        try{
+            if(studentsClass.getServerStatus().isActive()){
+                // Force a gossip to the other server to update the information
+                // if it's outdated in relation to the client's clock
+                updatedServer = this.updateServer(Convert.toVectorClock(request.getVectorClockState()));
+                if(!updatedServer){
+                    responseCode = ResponseCode.SERVER_NOT_UPDATED;
+                    debug.log("Server was unable to update. Data may be out of date.");
+                }
+            }
+
+            Class.Enrollment enrollment = studentsClass.getEnrollment(request.getStudentId());
+
+            if(enrollment == null){
+                response.setState(EnrollmentState.ABSENT);
+            }
+            else{
+                response.setState(enrollment.enrolled() ? EnrollmentState.ENROLLED : EnrollmentState.DISCARDED)
+                        .setPosition(enrollment.position());
+                if(enrollment.timestamp() != null)
+                    response.setTimestamp(Convert.toGoogleTimestamp(enrollment.timestamp()));
+            }
+
+        } catch (ClassException e){
+
+            switch (e.getMessage()){
+                case "Server is inactive" ->
+                    responseCode = ResponseCode.INACTIVE_SERVER;
+                case "Invalid student id" -> {
+                    debug.log("getEnrollment: " + "ERROR Invalid student id" + " with argument " + request.getStudentId());
+                    responseObserver.onError(INVALID_ARGUMENT.withDescription("Invalid student id.").asRuntimeException());
+                    return;
+                }
+            }
+        }
+
+        response.setCode(responseCode);
+
+        // Only update client clock if server responded with updated information
+        if(updatedServer)
+            response.setVectorClockState(Convert.toVectorClockState(studentsClass.getServerStatus().getVectorClock()));
+        else
+            response.setVectorClockState(request.getVectorClockState());
+
+        debug.log("getEnrollment: " + responseCode + " with argument " + request.getStudentId());
+
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
     /**
      * Enroll student in class
      * @param request           The request from ProfessorFrontend
@@ -79,7 +309,12 @@ public class StudentServiceImpl extends StudentServiceImplBase {
     @Override
     public void enroll(EnrollRequest request, StreamObserver<EnrollResponse> responseObserver) {
 
-        synchronized (studentsClass) {
+        // Enrollments in a full or closed class are answered without waiting for the writers holding the lock
+        if(this.rejectWithoutLock(request, responseObserver))
+            return;
+
+        studentsClass.getLock().lock();
+        try {
 
             boolean updatedServer = false;
 
@@ -142,9 +377,84 @@ public class StudentServiceImpl extends StudentServiceImplBase {
                     responseObserver.onCompleted();
                 }
             }
+        } finally {
+            studentsClass.getLock().unlock();
         }
     }
 
+    /**
+     * Enroll several students in class, advancing the clock once for the whole batch
+     * @param request           The request from StudentFrontend
+     * @param responseObserver  The stream where response will be sent
+     */
+    @Override
+    public void enrollBatch(EnrollBatchRequest request, StreamObserver<EnrollBatchResponse> responseObserver) {
+
+        studentsClass.getLock().lock();
+        try {
+
+            boolean updatedServer = false;
+
+            ResponseCode responseCode = ResponseCode.OK;
+            EnrollBatchResponse.Builder response = EnrollBatchResponse.newBuilder();
+
+            try{
+                VectorClock clientVectorClock = Convert.toVectorClock(request.getVectorClockState());
+
+                // Force a gossip to the other server to update the information
+                // if it's outdated in relation to the client's clock
+                updatedServer = this.updateServer(clientVectorClock);
+                if(!updatedServer){
+                    responseCode = ResponseCode.SERVER_NOT_UPDATED;
+                    debug.log("Server was unable to update. Data may be out of date.");
+                }
+
+                studentsClass.enrollBatch(request.getStudentsList(), request.getAtomic())
+                        .forEach(failure -> response.addCodes(this.toResponseCode(failure)));
+
+            } catch (ClassException e){
+
+                switch (e.getMessage()){
+                    case "Server is inactive" ->
+                        responseCode = ResponseCode.INACTIVE_SERVER;
+                    case "Invalid student id", "Invalid student name" -> {
+                        debug.log("enrollBatch: " + "ERROR " + e.getMessage());
+                        responseObserver.onError(INVALID_ARGUMENT.withDescription(e.getMessage() + ".").asRuntimeException());
+                        return;
+                    }
+                }
+            }
+
+            response.setCode(responseCode);
+
+            // Only update client clock if server responded with updated information
+            if(updatedServer)
+                response.setVectorClockState(Convert.toVectorClockState(studentsClass.getServerStatus().getVectorClock()));
+            else
+                response.setVectorClockState(request.getVectorClockState());
+
+            debug.log("enrollBatch: " + responseCode + " with " + request.getStudentsCount() + " students");
+
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+    }
+
+    /**
+     * Verify if the client already holds the current class state
+     * @param cachedVectorClockState    The clock of the class state held by the client
+     * @param serverVectorClockState    The server clock, read before the class state
+     * @return notModified              True if the server clock equals the client's cached clock, else false
+     */
+    public boolean isNotModified(VectorClockState cachedVectorClockState, VectorClockState serverVectorClockState){
+
+        VectorClock cachedVectorClock = Convert.toVectorClock(cachedVectorClockState);
+        return !cachedVectorClock.getVectorClock().isEmpty()
+                && Convert.toVectorClock(serverVectorClockState).equals(cachedVectorClock);
+    }
+
     /**
      * Verify if server is ahead of client, if not force a gossip to update
      * @param clientVectorClock The client's clock
@@ -161,37 +471,79 @@ public class StudentServiceImpl extends StudentServiceImplBase {
     }
 
     /**
-     * Convert Class to ClassState
-     * @param studentsClass The class to be converted
-     * @return              The class state
+     * Check if an enrollment is sure to fail and can be answered without taking the class lock
+     * The admission controller uses it to let such enrollments skip the write limit
+     * @param request   The request from StudentFrontend
+     * @return          True if the server is not behind the client and the enrollment is sure to fail
      */
-    public ClassState convertToClassState(Class studentsClass){
+    public boolean isRejectedWithoutLock(EnrollRequest request){
 
-        // Add enrollment status and class capacity
-        ClassState.Builder classState = ClassState.newBuilder()
-                .setOpenEnrollments(studentsClass.isOpenEnrollments())
-                .setCapacity(studentsClass.getCapacity());
-
-        // Add each enrolled student to state
-        studentsClass.getEnrolled().forEach((studentId, studentName) -> {
-
-            Student student = Student.newBuilder()
-                    .setStudentId(studentId)
-                    .setStudentName(studentName)
-                    .build();
-            classState.addEnrolled(student);
-        });
+        return !studentsClass.getServerStatus().getVectorClock().happensBefore(Convert.toVectorClock(request.getVectorClockState()))
+                && studentsClass.rejectEnrollment(request.getStudent().getStudentId()) != null;
+    }
 
-        // Add each discarded student to state
-        studentsClass.getDiscarded().forEach((studentId, studentName) -> {
+    /**
+     * Answer an enrollment that is sure to fail without taking the class lock
+     * Only when the server is not behind the client, otherwise it has to gossip first
+     * @param request           The request from StudentFrontend
+     * @param responseObserver  The stream where response will be sent
+     * @return                  True if the enrollment was answered
+     */
+    private boolean rejectWithoutLock(EnrollRequest request, StreamObserver<EnrollResponse> responseObserver){
+
+        // Read before the class, so the client is never sent a clock newer than the state it was answered with
+        VectorClockState serverVectorClockState = Convert.toVectorClockState(studentsClass.getServerStatus().getVectorClock());
+        if(Convert.toVectorClock(serverVectorClockState).happensBefore(Convert.toVectorClock(request.getVectorClockState())))
+            return false;
+
+        Student student = request.getStudent();
+        String failure = studentsClass.rejectEnrollment(student.getStudentId());
+        if(failure == null)
+            return false;
+
+        AdmissionController.ignoreLatency();
+        ResponseCode responseCode = this.toResponseCode(failure);
+        debug.log("enroll: " + responseCode + " without lock with arguments " + student.getStudentId() + " " + student.getStudentName());
+
+        responseObserver.onNext(EnrollResponse.newBuilder()
+                .setCode(responseCode)
+                .setVectorClockState(serverVectorClockState)
+                .build());
+        responseObserver.onCompleted();
+        return true;
+    }
 
-            Student student = Student.newBuilder()
-                    .setStudentId(studentId)
-                    .setStudentName(studentName)
-                    .build();
-            classState.addDiscarded(student);
-        });
+    /**
+     * Convert a class page to a response without code and clock
+     * @param page The page
+     * @return The response builder
+     */
+    private ListClassPageResponse.Builder convertToPageResponse(ClassPages.Page page){
+
+        return ListClassPageResponse.newBuilder()
+                .setCapacity(page.capacity())
+                .setOpenEnrollments(page.openEnrollments())
+                .addAllEnrolled(page.enrolled())
+                .addAllDiscarded(page.discarded())
+                .setNextPageToken(page.nextPageToken());
+    }
 
-        return classState.build();
+    /**
+     * Convert the failure of an enrollment or of a batch item to a response code
+     * @param failure   The failure message, null if the item succeeded
+     * @return          The response code
+     */
+    private ResponseCode toResponseCode(String failure){
+
+        if(failure == null)
+            return ResponseCode.OK;
+
+        return switch (failure){
+            case "Enrollments are closed" -> ResponseCode.ENROLLMENTS_ALREADY_CLOSED;
+            case "Student already enrolled" -> ResponseCode.STUDENT_ALREADY_ENROLLED;
+            case "Class is full" -> ResponseCode.FULL_CLASS;
+            case "Batch aborted" -> ResponseCode.BATCH_ABORTED;
+            default -> throw new IllegalArgumentException("Unknown enrollment failure: " + failure);
+        };
     }
 }
@@ -0,0 +1,64 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import io.grpc.Context;
+import org.junit.jupiter.api.Test;
+import pt.ulisboa.tecnico.classes.ServerExecutors;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ResponseCode;
+import pt.ulisboa.tecnico.classes.contract.admin.AdminClassServer.*;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdminServiceImplTest {
+
+    @Test
+    void forceGossipDoesNotHoldTheAdminLane() throws Exception {
+
+        Class studentsClass = Classes.newClass(1, 10);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // Round that lasts until the test releases it
+        ClassServerFrontend classServerFrontend = new ClassServerFrontend(false, "localhost", 1) {
+            @Override
+            public boolean gossip(Class studentsClass, String event) {
+                try {
+                    return release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        };
+        GossipScheduler gossipScheduler = new GossipScheduler(studentsClass, classServerFrontend, 1000, 0);
+        ExecutionLanes executionLanes = new ExecutionLanes(ServerExecutors.Mode.FIXED);
+        AdminServiceImpl adminService = new AdminServiceImpl(studentsClass, gossipScheduler, executionLanes,
+                new AdmissionController(), false);
+
+        BlockingQueue<Runnable> lane = new LinkedBlockingQueue<>();
+        RecordingObserver<ForceGossipResponse> observer = new RecordingObserver<>();
+        try {
+            Context.current().withValue(ExecutionLanes.CALL_EXECUTOR_KEY, (Executor) lane::add)
+                    .run(() -> adminService.forceGossip(ForceGossipRequest.getDefaultInstance(), observer));
+
+            // The handler returned while the round runs
+            assertFalse(observer.isDone());
+
+            release.countDown();
+            Runnable answer = lane.poll(10, TimeUnit.SECONDS);
+            assertNotNull(answer, "Answer not handed to the lane of the call");
+            assertFalse(observer.isDone());
+
+            answer.run();
+            assertTrue(observer.isDone());
+            assertEquals(ResponseCode.OK, observer.getValue().getCode());
+        } finally {
+            gossipScheduler.stop();
+            executionLanes.shutdown();
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import io.grpc.Context;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerCall;
+import io.grpc.Status;
+import org.junit.jupiter.api.Test;
+import pt.ulisboa.tecnico.classes.RetryAfter;
+import pt.ulisboa.tecnico.classes.ServerExecutors;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ResponseCode;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.Student;
+import pt.ulisboa.tecnico.classes.contract.professor.ProfessorServiceGrpc;
+import pt.ulisboa.tecnico.classes.contract.student.StudentClassServer.EnrollRequest;
+import pt.ulisboa.tecnico.classes.contract.student.StudentClassServer.EnrollResponse;
+import pt.ulisboa.tecnico.classes.contract.student.StudentServiceGrpc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControllerTest {
+
+    private static final EnrollRequest REQUEST = enrollRequest(1);
+    // Request the checks below answer without the class lock
+    private static final EnrollRequest REJECTED = enrollRequest(0);
+
+    private final AtomicLong nanoTime = new AtomicLong();
+    private final AdmissionController admissionController = new AdmissionController(nanoTime::get);
+
+    /**
+     * Enrollment going through the admission controller, with a handler that records its callbacks
+     */
+    private class Write {
+
+        private final RecordingCall call;
+        private final List<String> callbacks = new CopyOnWriteArrayList<>();
+        private volatile boolean started = false;
+        private final ServerCall.Listener<Object> listener;
+
+        Write() { this(StudentServiceGrpc.getEnrollMethod()); }
+
+        Write(MethodDescriptor<?, ?> method) {
+            call = new RecordingCall(method);
+            listener = admissionController.interceptCall(call, new Metadata(), (serverCall, headers) -> {
+                started = true;
+                return new ServerCall.Listener<>() {
+                    @Override
+                    public void onMessage(Object message) { callbacks.add("message"); }
+
+                    @Override
+                    public void onHalfClose() { callbacks.add("halfClose"); }
+
+                    @Override
+                    public void onComplete() { callbacks.add("complete"); }
+                };
+            });
+        }
+    }
+
+    private static EnrollRequest enrollRequest(int student) {
+        return EnrollRequest.newBuilder()
+                .setStudent(Student.newBuilder().setStudentId(Classes.studentId(student)).setStudentName("Student " + student))
+                .build();
+    }
+
+    private void advance(long millis) {
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private List<Write> start(int writes) {
+
+        List<Write> started = new ArrayList<>();
+        for (int i = 0; i < writes; i++) {
+            started.add(new Write());
+        }
+        return started;
+    }
+
+    @Test
+    void limitGrowsWhileWritesTakeTheFastestTime() {
+
+        List<Write> writes = start(AdmissionController.INITIAL_LIMIT);
+        assertEquals(AdmissionController.INITIAL_LIMIT, admissionController.getInFlight());
+
+        advance(10);
+        writes.forEach(write -> write.listener.onComplete());
+
+        assertTrue(admissionController.getLimit() > AdmissionController.INITIAL_LIMIT);
+        assertEquals(0, admissionController.getInFlight());
+    }
+
+    @Test
+    void limitShrinksWhileWritesWaitOnTheClass() {
+
+        List<Write> writes = start(AdmissionController.INITIAL_LIMIT);
+
+        advance(10);
+        writes.get(0).listener.onComplete();
+        int limit = admissionController.getLimit();
+
+        // Ten times slower than the fastest write, most of the limit is waiting
+        advance(90);
+        for (int i = 1; i <= 5; i++) {
+            writes.get(i).listener.onComplete();
+        }
+        assertEquals(limit - 5, admissionController.getLimit());
+    }
+
+    @Test
+    void limitIgnoresLatencyOfFewWrites() {
+
+        for (int i = 0; i < 5; i++) {
+            Write write = new Write();
+            advance(10 * (i + 1));
+            write.listener.onComplete();
+        }
+        assertEquals(AdmissionController.INITIAL_LIMIT, admissionController.getLimit());
+    }
+
+    @Test
+    void refusedWriteGetsTimeToDrainQueue() throws Exception {
+
+        List<Write> writes = start(AdmissionController.INITIAL_LIMIT);
+        advance(10);
+        writes.get(0).listener.onComplete();
+        int limit = admissionController.getLimit();
+
+        start(limit - admissionController.getInFlight());
+        List<Write> queued = start(AdmissionController.MAX_QUEUED);
+        assertTrue(queued.stream().noneMatch(write -> write.started));
+        assertEquals(AdmissionController.MAX_QUEUED, admissionController.getQueued());
+
+        Write refused = new Write();
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, refused.call.awaitClose().getCode());
+        assertEquals(1, admissionController.getRejected());
+
+        // The writes queued and the refused one each take the average latency over the limit
+        long retryAfter = (long) (10.0 * (AdmissionController.MAX_QUEUED + 1) / limit);
+        assertEquals(String.valueOf(retryAfter), refused.call.getTrailers().get(RetryAfter.KEY));
+    }
+
+    @Test
+    void queuedWriteExpiresWithoutStarting() throws Exception {
+
+        List<Write> writes = start(AdmissionController.INITIAL_LIMIT);
+        Write queued = new Write();
+
+        advance(AdmissionController.MAX_WAIT + 1);
+        writes.get(0).listener.onComplete();
+
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, queued.call.awaitClose().getCode());
+        assertNotNull(queued.call.getTrailers().get(RetryAfter.KEY));
+        assertFalse(queued.started);
+        assertEquals(1, admissionController.getExpired());
+        assertEquals(AdmissionController.INITIAL_LIMIT - 1, admissionController.getInFlight());
+
+        // The end of the expired call frees no slot
+        queued.listener.onComplete();
+        assertEquals(AdmissionController.INITIAL_LIMIT - 1, admissionController.getInFlight());
+    }
+
+    @Test
+    void queuedWriteGetsCallbacksReceivedBeforeItStarts() {
+
+        List<Write> writes = start(AdmissionController.INITIAL_LIMIT);
+        Write queued = new Write();
+
+        queued.listener.onMessage(REQUEST);
+        queued.listener.onHalfClose();
+        assertFalse(queued.started);
+
+        writes.get(0).listener.onComplete();
+        assertTrue(queued.started);
+        assertEquals(List.of("message", "halfClose"), queued.callbacks);
+
+        queued.listener.onComplete();
+        assertEquals(List.of("message", "halfClose", "complete"), queued.callbacks);
+    }
+
+    @Test
+    void queuedWriteStartsOnItsOwnCall() throws Exception {
+
+        List<Write> writes = start(AdmissionController.INITIAL_LIMIT);
+
+        Queue<Runnable> lane = new ConcurrentLinkedQueue<>();
+        Write queued = Context.current().withValue(ExecutionLanes.CALL_EXECUTOR_KEY, (Executor) lane::add).call(Write::new);
+
+        // The write that frees the slot only hands the start to the lane of the queued write
+        writes.get(0).listener.onComplete();
+        assertFalse(queued.started);
+        assertEquals(1, lane.size());
+
+        lane.poll().run();
+        assertTrue(queued.started);
+    }
+
+    @Test
+    void writePassingCheckSkipsFullLimit() {
+
+        admissionController.bypass(StudentServiceGrpc.getEnrollMethod(), REJECTED::equals);
+        List<Write> writes = start(AdmissionController.INITIAL_LIMIT);
+        writes.forEach(write -> write.listener.onMessage(REQUEST));
+        assertTrue(writes.stream().allMatch(write -> write.started));
+
+        // The decision waits for the request, which the interceptor asks for itself
+        Write rejected = new Write();
+        assertFalse(rejected.started);
+        assertEquals(1, rejected.call.getRequested());
+
+        rejected.listener.onMessage(REJECTED);
+        rejected.listener.onHalfClose();
+        assertTrue(rejected.started);
+        assertEquals(List.of("message", "halfClose"), rejected.callbacks);
+        assertEquals(1, admissionController.getBypassed());
+        assertEquals(0, admissionController.getQueued());
+
+        // It holds no slot, so its end frees none
+        rejected.listener.onComplete();
+        assertEquals(AdmissionController.INITIAL_LIMIT, admissionController.getInFlight());
+    }
+
+    @Test
+    void writeFailingCheckWaitsForSlot() {
+
+        admissionController.bypass(StudentServiceGrpc.getEnrollMethod(), REJECTED::equals);
+        List<Write> writes = start(AdmissionController.INITIAL_LIMIT);
+        writes.forEach(write -> write.listener.onMessage(REQUEST));
+
+        Write queued = new Write();
+        queued.listener.onMessage(REQUEST);
+        assertFalse(queued.started);
+        assertEquals(1, admissionController.getQueued());
+
+        writes.get(0).listener.onComplete();
+        assertTrue(queued.started);
+        assertEquals(List.of("message"), queued.callbacks);
+        assertEquals(0, admissionController.getBypassed());
+    }
+
+    @Test
+    void writeCancelledBeforeItsRequestHoldsNoSlot() {
+
+        admissionController.bypass(StudentServiceGrpc.getEnrollMethod(), request -> true);
+        Write cancelled = new Write();
+        cancelled.listener.onCancel();
+
+        assertFalse(cancelled.started);
+        assertEquals(0, admissionController.getInFlight());
+        assertEquals(0, admissionController.getBypassed());
+    }
+
+    @Test
+    void otherWritesAreDecidedAtOnce() {
+
+        admissionController.bypass(StudentServiceGrpc.getEnrollMethod(), request -> true);
+        Write write = new Write(ProfessorServiceGrpc.getCloseEnrollmentsMethod());
+
+        assertTrue(write.started);
+        assertEquals(0, write.call.getRequested());
+        assertEquals(1, admissionController.getInFlight());
+    }
+
+    @Test
+    void enrollmentInFullClassSkipsLimitOverServer() throws Exception {
+
+        Class studentsClass = Classes.newClass(1, 1);
+        studentsClass.getLock().lock();
+        try {
+            studentsClass.enroll(Classes.studentId(0), "Student 0");
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+
+        StudentServiceImpl studentService = new StudentServiceImpl(studentsClass, new ClassServerFrontend(false, "localhost", 1), false);
+        admissionController.bypass(StudentServiceGrpc.getEnrollMethod(), studentService::isRejectedWithoutLock);
+        ExecutionLanes executionLanes = new ExecutionLanes(ServerExecutors.Mode.FIXED);
+
+        Server server = ServerBuilder.forPort(0).addService(studentService)
+                .intercept(admissionController).directExecutor().intercept(executionLanes).build().start();
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+        try {
+            // Every slot is taken by writes that never end
+            start(AdmissionController.INITIAL_LIMIT);
+
+            EnrollResponse response = StudentServiceGrpc.newBlockingStub(channel).withDeadlineAfter(10, TimeUnit.SECONDS)
+                    .enroll(enrollRequest(1));
+
+            assertEquals(ResponseCode.FULL_CLASS, response.getCode());
+            assertEquals(1, admissionController.getBypassed());
+            assertEquals(0, admissionController.getQueued());
+        } finally {
+            channel.shutdownNow();
+            server.shutdownNow();
+            executionLanes.shutdown();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import org.junit.jupiter.api.Test;
+import pt.ulisboa.tecnico.classes.classserver.exception.ClassException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassEnrollmentTest {
+
+    private static void enroll(Class studentsClass, int student) throws ClassException {
+
+        studentsClass.getLock().lock();
+        try {
+            studentsClass.enroll(Classes.studentId(student), "Student " + student);
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+    }
+
+    private static void cancel(Class studentsClass, int student) throws ClassException {
+
+        studentsClass.getLock().lock();
+        try {
+            studentsClass.cancelEnrollment(Classes.studentId(student));
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+    }
+
+    private static int position(Class studentsClass, int student) throws ClassException {
+        return studentsClass.getEnrollment(Classes.studentId(student)).position();
+    }
+
+    @Test
+    void positionsFollowEnrollmentTime() throws Exception {
+
+        ManualClock clock = new ManualClock();
+        Class studentsClass = Classes.newClass(1, 10, clock);
+        for (int i = 0; i < 5; i++) {
+            enroll(studentsClass, i);
+            clock.advance(Duration.ofSeconds(1));
+        }
+
+        cancel(studentsClass, 1);
+        assertFalse(studentsClass.getEnrollment(Classes.studentId(1)).enrolled());
+        assertEquals(1, position(studentsClass, 1));
+        assertEquals(1, position(studentsClass, 0));
+        assertEquals(2, position(studentsClass, 2));
+        assertEquals(4, position(studentsClass, 4));
+
+        clock.advance(Duration.ofSeconds(1));
+        enroll(studentsClass, 1);
+        assertTrue(studentsClass.getEnrollment(Classes.studentId(1)).enrolled());
+        assertEquals(5, position(studentsClass, 1));
+        assertNull(studentsClass.getEnrollment(Classes.studentId(9)));
+    }
+
+    @Test
+    void positionsFollowReplacedClass() throws Exception {
+
+        ManualClock clock = new ManualClock();
+        Class studentsClass = Classes.newClass(1, 10, clock);
+        for (int i = 0; i < 3; i++) {
+            enroll(studentsClass, i);
+            clock.advance(Duration.ofSeconds(1));
+        }
+        assertEquals(1, position(studentsClass, 0));
+
+        // Gossip replaces the lists, with the enrollment order reversed
+        ConcurrentHashMap<String, String> enrolled = new ConcurrentHashMap<>();
+        ConcurrentHashMap<String, Instant> timestamps = new ConcurrentHashMap<>();
+        for (int i = 0; i < 3; i++) {
+            enrolled.put(Classes.studentId(i), "Student " + i);
+            timestamps.put(Classes.studentId(i), Instant.ofEpochSecond(10 - i));
+        }
+        studentsClass.getLock().lock();
+        try {
+            studentsClass.update(10, true, enrolled, new ConcurrentHashMap<>(), timestamps);
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+
+        assertEquals(3, position(studentsClass, 0));
+        assertEquals(1, position(studentsClass, 2));
+
+        clock.advance(Duration.ofSeconds(100));
+        enroll(studentsClass, 3);
+        assertEquals(4, position(studentsClass, 3));
+    }
+
+    @Test
+    void positionsMatchSortedLists() throws Exception {
+
+        ManualClock clock = new ManualClock();
+        Class studentsClass = Classes.newClass(1, 20, clock);
+        Random random = new Random(1);
+
+        for (int step = 0; step < 500; step++) {
+            // Students written in the same instant are ordered by id
+            if (random.nextBoolean()) {
+                clock.advance(Duration.ofMillis(1));
+            }
+
+            int student = random.nextInt(30);
+            try {
+                if (random.nextInt(3) == 0) {
+                    cancel(studentsClass, student);
+                } else {
+                    enroll(studentsClass, student);
+                }
+            } catch (ClassException e) {
+                // Full class, already enrolled or not enrolled, the class is unchanged
+            }
+
+            assertPositions(studentsClass, studentsClass.getEnrolled(), true);
+            assertPositions(studentsClass, studentsClass.getDiscarded(), false);
+        }
+    }
+
+    private static void assertPositions(Class studentsClass, Map<String, String> students, boolean enrolled) throws ClassException {
+
+        List<String> sorted = students.keySet().stream()
+                .sorted(Comparator.comparing(studentsClass::getStudentTimestamp).thenComparing(Comparator.naturalOrder()))
+                .toList();
+
+        for (int i = 0; i < sorted.size(); i++) {
+            Class.Enrollment enrollment = studentsClass.getEnrollment(sorted.get(i));
+            assertEquals(enrolled, enrollment.enrolled());
+            assertEquals(i + 1, enrollment.position(), sorted.get(i));
+        }
+    }
+}
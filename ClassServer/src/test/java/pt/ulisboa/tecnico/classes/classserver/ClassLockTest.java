@@ -0,0 +1,33 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassLockTest {
+
+    @Test
+    void readsWaitForClassLockNotMonitor() throws Exception {
+
+        Class studentsClass = Classes.newClass(1, 10);
+
+        // The monitor is not used, so holding it blocks nothing
+        synchronized (studentsClass) {
+            assertEquals(10, CompletableFuture.supplyAsync(studentsClass::getCapacity).get(5, TimeUnit.SECONDS));
+        }
+
+        CompletableFuture<Integer> capacity;
+        studentsClass.getLock().lock();
+        try {
+            capacity = CompletableFuture.supplyAsync(studentsClass::getCapacity);
+            assertThrows(TimeoutException.class, () -> capacity.get(200, TimeUnit.MILLISECONDS));
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+        assertEquals(10, capacity.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,95 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import org.junit.jupiter.api.Test;
+import pt.ulisboa.tecnico.classes.classserver.exception.ClassException;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.*;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassPagesTest {
+
+    private static void enroll(Class studentsClass, int student) throws ClassException {
+
+        studentsClass.getLock().lock();
+        try {
+            studentsClass.enroll(Classes.studentId(student), "Student " + student);
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+    }
+
+    private static Class classWith(int students, Clock clock) throws ClassException {
+
+        Class studentsClass = Classes.newClass(1, 1000, clock);
+        for (int i = 0; i < students; i++) {
+            enroll(studentsClass, i);
+        }
+        return studentsClass;
+    }
+
+    @Test
+    void listingKeepsItsVersionThroughOtherListingsAndWrites() throws Exception {
+
+        Class studentsClass = classWith(10, Clock.systemUTC());
+        ClassPages classPages = studentsClass.getClassPages();
+
+        ClassPages.Page page = classPages.getPage("", 4, PageOrder.BY_STUDENT_ID);
+        List<Student> listed = new ArrayList<>(page.enrolled());
+
+        // Each write followed by a new listing keeps another version
+        for (int i = 10; i < 50; i++) {
+            enroll(studentsClass, i);
+            classPages.getPage("", 4, PageOrder.BY_STUDENT_ID);
+        }
+
+        while (!page.nextPageToken().isEmpty()) {
+            page = classPages.getPage(page.nextPageToken(), 4, PageOrder.BY_STUDENT_ID);
+            listed.addAll(page.enrolled());
+        }
+
+        assertEquals(10, listed.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Classes.studentId(i), listed.get(i).getStudentId());
+        }
+    }
+
+    @Test
+    void tokenIsRejectedByAnotherServer() throws Exception {
+
+        Class primary = classWith(10, Clock.systemUTC());
+        Class secondary = Classes.newClass(2, 1000);
+
+        String pageToken = primary.getClassPages().getPage("", 4, PageOrder.BY_STUDENT_ID).nextPageToken();
+
+        ClassException e = assertThrows(ClassException.class,
+                () -> secondary.getClassPages().getPage(pageToken, 4, PageOrder.BY_STUDENT_ID));
+        assertEquals("Page token from another server", e.getMessage());
+    }
+
+    @Test
+    void versionExpiresAfterTtlWithoutPages() throws Exception {
+
+        ManualClock clock = new ManualClock();
+        Class studentsClass = classWith(10, clock);
+        ClassPages classPages = studentsClass.getClassPages();
+
+        ClassPages.Page page = classPages.getPage("", 2, PageOrder.BY_STUDENT_ID);
+
+        // Each page keeps the version for another TTL
+        for (int i = 0; i < 3; i++) {
+            clock.advance(Duration.ofSeconds(50));
+            page = classPages.getPage(page.nextPageToken(), 2, PageOrder.BY_STUDENT_ID);
+        }
+
+        clock.advance(Duration.ofSeconds(61));
+        String pageToken = page.nextPageToken();
+        ClassException e = assertThrows(ClassException.class,
+                () -> classPages.getPage(pageToken, 2, PageOrder.BY_STUDENT_ID));
+        assertEquals("Page token expired", e.getMessage());
+    }
+}
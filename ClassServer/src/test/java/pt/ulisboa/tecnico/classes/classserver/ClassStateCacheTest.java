@@ -0,0 +1,124 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import org.junit.jupiter.api.Test;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.*;
+import pt.ulisboa.tecnico.classes.contract.professor.ProfessorClassServer;
+import pt.ulisboa.tecnico.classes.contract.student.StudentClassServer.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassStateCacheTest {
+
+    @Test
+    void stateIsRebuiltOnlyAfterWrites() throws Exception {
+
+        Class studentsClass = Classes.newClass(1, 10);
+
+        ClassState first = studentsClass.getClassState();
+        assertSame(first, studentsClass.getClassState());
+
+        studentsClass.getLock().lock();
+        try {
+            studentsClass.enroll(Classes.studentId(1), "Student 1");
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+
+        ClassState second = studentsClass.getClassState();
+        assertNotSame(first, second);
+        assertEquals(1, second.getEnrolledCount());
+        assertFalse(second.getEnrolled(0).hasTimestamp());
+        assertTrue(studentsClass.getReplicaClassState().getEnrolled(0).hasTimestamp());
+    }
+
+    @Test
+    void listClassAndGossipDoNotDeadlock() throws Exception {
+
+        Class studentsClass = Classes.newClass(2, 1000);
+        StudentServiceImpl studentService = new StudentServiceImpl(studentsClass, new ClassServerFrontend(false, "localhost", 1), false);
+        GossipApplier gossipApplier = new GossipApplier(studentsClass, false);
+
+        // Every gossip replaces the class, so each listing after it rebuilds the state
+        // Daemon threads, so a deadlock fails the test instead of hanging the build
+        ExecutorService executor = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Future<?> listings = executor.submit(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    RecordingObserver<ListClassResponse> observer = new RecordingObserver<>();
+                    studentService.listClass(ListClassRequest.getDefaultInstance(), observer);
+                    assertEquals(ResponseCode.OK, observer.getValue().getCode());
+                }
+            });
+            Future<?> gossips = executor.submit(() -> {
+                List<Student> enrolled = new ArrayList<>();
+                for (int i = 0; i < 2000; i++) {
+                    enrolled.add(Classes.student(i, i));
+                    gossipApplier.apply(List.of(Classes.gossip(1, Map.of(1, i + 1), 1000, enrolled, List.of())));
+                }
+            });
+
+            listings.get(60, TimeUnit.SECONDS);
+            gossips.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(2000, studentsClass.getClassState().getEnrolledCount());
+    }
+
+    @Test
+    void listedStateIsNeverOlderThanItsClock() throws Exception {
+
+        Class studentsClass = Classes.newClass(1, 10000);
+        StudentServiceImpl studentService = new StudentServiceImpl(studentsClass, new ClassServerFrontend(false, "localhost", 1), false);
+        ProfessorServiceImpl professorService = new ProfessorServiceImpl(studentsClass, new ClassServerFrontend(false, "localhost", 1), false);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            // Every enrollment adds one to the primary entry of the clock
+            Future<?> writes = executor.submit(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    studentsClass.getLock().lock();
+                    try {
+                        studentsClass.enroll(Classes.studentId(i), "Student " + i);
+                    } finally {
+                        studentsClass.getLock().unlock();
+                    }
+                }
+                return null;
+            });
+
+            // A client caches the state with the clock, so the clock must not be ahead of the state
+            while (!writes.isDone()) {
+                RecordingObserver<ListClassResponse> student = new RecordingObserver<>();
+                studentService.listClass(ListClassRequest.getDefaultInstance(), student);
+                assertTrue(student.getValue().getClassState().getEnrolledCount()
+                        >= student.getValue().getVectorClockState().getVectorClockOrDefault(1, 0));
+
+                RecordingObserver<ProfessorClassServer.ListClassResponse> professor = new RecordingObserver<>();
+                professorService.listClass(ProfessorClassServer.ListClassRequest.getDefaultInstance(), professor);
+                assertTrue(professor.getValue().getClassState().getEnrolledCount()
+                        >= professor.getValue().getVectorClockState().getVectorClockOrDefault(1, 0));
+            }
+            writes.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import org.junit.jupiter.api.Test;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.*;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassWatchersTest {
+
+    /**
+     * Watcher that records its events, optionally waiting on a latch before each one
+     */
+    private static class QueueWatcher implements ClassWatchers.Watcher {
+
+        private final BlockingQueue<ClassEvent> events = new LinkedBlockingQueue<>();
+        private final CountDownLatch release;
+        private volatile boolean ready = true;
+        private volatile boolean cancelled = false;
+
+        QueueWatcher(CountDownLatch release) { this.release = release; }
+
+        QueueWatcher() { this(new CountDownLatch(0)); }
+
+        @Override
+        public void onEvent(ClassEvent event) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            events.add(event);
+        }
+
+        @Override
+        public void onClose(ResponseCode responseCode) {}
+
+        @Override
+        public boolean isReady() { return ready; }
+
+        @Override
+        public boolean isCancelled() { return cancelled; }
+
+        ClassEvent next() throws InterruptedException {
+            ClassEvent event = events.poll(10, TimeUnit.SECONDS);
+            assertNotNull(event, "No event delivered");
+            return event;
+        }
+    }
+
+    private static void enroll(Class studentsClass, int student) throws Exception {
+
+        studentsClass.getLock().lock();
+        try {
+            studentsClass.enroll(Classes.studentId(student), "Student " + student);
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+    }
+
+    @Test
+    void slowWatcherDoesNotHoldUpWrites() throws Exception {
+
+        Class studentsClass = Classes.newClass(1, 10);
+        CountDownLatch release = new CountDownLatch(1);
+        QueueWatcher watcher = new QueueWatcher(release);
+        studentsClass.getWatchers().subscribe(watcher, VectorClockState.getDefaultInstance());
+
+        // The watcher is stuck on the snapshot, the writes still finish
+        for (int i = 0; i < 3; i++) {
+            enroll(studentsClass, i);
+        }
+        assertEquals(3, studentsClass.getEnrolled().size());
+
+        release.countDown();
+        assertEquals(ClassEventType.SNAPSHOT, watcher.next().getType());
+        for (int i = 0; i < 3; i++) {
+            ClassEvent event = watcher.next();
+            assertEquals(ClassEventType.ENROLLED, event.getType());
+            assertEquals(Classes.studentId(i), event.getStudent().getStudentId());
+        }
+    }
+
+    @Test
+    void watcherResumesAfterLastEvent() throws Exception {
+
+        Class studentsClass = Classes.newClass(1, 10);
+        QueueWatcher first = new QueueWatcher();
+        studentsClass.getWatchers().subscribe(first, VectorClockState.getDefaultInstance());
+        for (int i = 0; i < 3; i++) {
+            enroll(studentsClass, i);
+        }
+
+        first.next();
+        ClassEvent firstEnrollment = first.next();
+        studentsClass.getWatchers().unsubscribe(first);
+
+        QueueWatcher second = new QueueWatcher();
+        studentsClass.getWatchers().subscribe(second, firstEnrollment.getVectorClockState());
+
+        assertEquals(Classes.studentId(1), second.next().getStudent().getStudentId());
+        assertEquals(Classes.studentId(2), second.next().getStudent().getStudentId());
+        enroll(studentsClass, 3);
+        assertEquals(Classes.studentId(3), second.next().getStudent().getStudentId());
+    }
+
+    /**
+     * Wait until the delivery thread handled everything queued so far
+     * @param studentsClass The class
+     */
+    private static void awaitDelivery(Class studentsClass) throws Exception {
+
+        QueueWatcher barrier = new QueueWatcher();
+        studentsClass.getWatchers().subscribe(barrier, VectorClockState.getDefaultInstance());
+        barrier.next();
+        studentsClass.getWatchers().unsubscribe(barrier);
+    }
+
+    @Test
+    void watcherNotReadyGetsEventsOnceReady() throws Exception {
+
+        Class studentsClass = Classes.newClass(1, 10);
+        QueueWatcher watcher = new QueueWatcher();
+        watcher.ready = false;
+        studentsClass.getWatchers().subscribe(watcher, VectorClockState.getDefaultInstance());
+        enroll(studentsClass, 0);
+
+        awaitDelivery(studentsClass);
+        assertTrue(watcher.events.isEmpty());
+
+        watcher.ready = true;
+        studentsClass.getWatchers().onReady(watcher);
+        assertEquals(ClassEventType.SNAPSHOT, watcher.next().getType());
+        assertEquals(Classes.studentId(0), watcher.next().getStudent().getStudentId());
+    }
+
+    @Test
+    void overflowingBacklogIsReplacedBySnapshot() throws Exception {
+
+        int students = ClassWatchers.MAX_BACKLOG + 10;
+        Class studentsClass = Classes.newClass(1, students);
+        QueueWatcher watcher = new QueueWatcher();
+        watcher.ready = false;
+        studentsClass.getWatchers().subscribe(watcher, VectorClockState.getDefaultInstance());
+        for (int i = 0; i < students; i++) {
+            enroll(studentsClass, i);
+        }
+
+        awaitDelivery(studentsClass);
+        watcher.ready = true;
+        studentsClass.getWatchers().onReady(watcher);
+
+        // The snapshot holds the events dropped from the backlog, the ones after it follow
+        ClassEvent snapshot = watcher.next();
+        assertEquals(ClassEventType.SNAPSHOT, snapshot.getType());
+        assertTrue(snapshot.getClassState().getEnrolledCount() > 0);
+        for (int i = snapshot.getClassState().getEnrolledCount(); i < students; i++) {
+            assertEquals(Classes.studentId(i), watcher.next().getStudent().getStudentId());
+        }
+        awaitDelivery(studentsClass);
+        assertTrue(watcher.events.isEmpty());
+    }
+
+    @Test
+    void watcherCancelledBeforeSubscribingIsNotAdded() throws Exception {
+
+        Class studentsClass = Classes.newClass(1, 10);
+        QueueWatcher watcher = new QueueWatcher();
+
+        // The cancel handler ran before the subscription
+        watcher.cancelled = true;
+        studentsClass.getWatchers().unsubscribe(watcher);
+        studentsClass.getWatchers().subscribe(watcher, VectorClockState.getDefaultInstance());
+
+        awaitDelivery(studentsClass);
+        assertEquals(0, studentsClass.getWatchers().getWatcherCount());
+        assertTrue(watcher.events.isEmpty());
+    }
+
+    @Test
+    void unknownClockGetsSnapshot() throws Exception {
+
+        Class studentsClass = Classes.newClass(1, 10);
+        for (int i = 0; i < 2; i++) {
+            enroll(studentsClass, i);
+        }
+
+        QueueWatcher watcher = new QueueWatcher();
+        studentsClass.getWatchers().subscribe(watcher, VectorClockState.newBuilder().putVectorClock(1, 100).build());
+
+        ClassEvent snapshot = watcher.next();
+        assertEquals(ClassEventType.SNAPSHOT, snapshot.getType());
+        assertEquals(2, snapshot.getClassState().getEnrolledCount());
+    }
+}
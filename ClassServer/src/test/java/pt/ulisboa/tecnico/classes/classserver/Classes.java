@@ -0,0 +1,80 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import pt.ulisboa.tecnico.classes.Convert;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.*;
+import pt.ulisboa.tecnico.classes.contract.classserver.ClassServerClassServer.GossipRequest;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Classes and gossip the tests start from
+ */
+final class Classes {
+
+    private Classes() {}
+
+    static String studentId(int student) {
+        return String.format("aluno%04d", student);
+    }
+
+    /**
+     * Create an empty open class of a replica
+     * @param serverId  The replica server id, 1 is the primary
+     * @param capacity  The capacity
+     */
+    static Class newClass(int serverId, int capacity) {
+        return newClass(serverId, capacity, Clock.systemUTC());
+    }
+
+    /**
+     * Create an empty open class of a replica
+     * @param serverId  The replica server id, 1 is the primary
+     * @param capacity  The capacity
+     * @param clock     The source of the enrollment timestamps
+     */
+    static Class newClass(int serverId, int capacity, Clock clock) {
+
+        ServerStatus serverStatus = new ServerStatus("localhost", 5000 + serverId, List.of(serverId == 1 ? "P" : "S"));
+        serverStatus.setServerId(serverId);
+
+        Class studentsClass = new Class(serverStatus, clock);
+        studentsClass.setCapacity(capacity);
+        studentsClass.setOpenEnrollments(true);
+        return studentsClass;
+    }
+
+    static Student student(int student, long timestamp) {
+
+        return Student.newBuilder()
+                .setStudentId(studentId(student))
+                .setStudentName("Student " + student)
+                .setTimestamp(Convert.toGoogleTimestamp(Instant.ofEpochMilli(timestamp)))
+                .build();
+    }
+
+    /**
+     * Create the gossip a replica sends with its whole class
+     * @param serverId      The sender server id
+     * @param vectorClock   The sender clock, by server id
+     * @param capacity      The sender capacity
+     * @param enrolled      The sender enrolled students
+     * @param discarded     The sender discarded students
+     */
+    static GossipRequest gossip(int serverId, Map<Integer, Integer> vectorClock, int capacity,
+                                List<Student> enrolled, List<Student> discarded) {
+
+        return GossipRequest.newBuilder()
+                .setServerId(serverId)
+                .setServerQualifier(serverId == 1 ? "P" : "S")
+                .setVectorClockState(VectorClockState.newBuilder().putAllVectorClock(vectorClock))
+                .setClassState(ClassState.newBuilder()
+                        .setCapacity(capacity)
+                        .setOpenEnrollments(true)
+                        .addAllEnrolled(enrolled)
+                        .addAllDiscarded(discarded))
+                .build();
+    }
+}
@@ -0,0 +1,117 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.Status;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import pt.ulisboa.tecnico.classes.ServerExecutors;
+import pt.ulisboa.tecnico.classes.contract.classserver.ClassServerServiceGrpc;
+import pt.ulisboa.tecnico.classes.contract.student.StudentServiceGrpc;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExecutionLanesTest {
+
+    private final ExecutionLanes executionLanes = new ExecutionLanes(ServerExecutors.Mode.FIXED);
+
+    @AfterEach
+    void shutdown() {
+        executionLanes.shutdown();
+    }
+
+    /**
+     * Handler listener that fails on half close and records the callbacks it gets
+     */
+    private static class FailingListener extends ServerCall.Listener<Object> {
+
+        private final List<String> callbacks = new CopyOnWriteArrayList<>();
+        private final CountDownLatch ended = new CountDownLatch(1);
+
+        @Override
+        public void onMessage(Object message) { callbacks.add("message"); }
+
+        @Override
+        public void onHalfClose() {
+            callbacks.add("halfClose");
+            throw new IllegalStateException("Handler failed");
+        }
+
+        @Override
+        public void onCancel() {
+            callbacks.add("cancel");
+            ended.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            callbacks.add("complete");
+            ended.countDown();
+        }
+
+        List<String> awaitEnd() throws InterruptedException {
+            assertTrue(ended.await(10, TimeUnit.SECONDS), "End of the call not delivered");
+            return callbacks;
+        }
+    }
+
+    private ServerCall.Listener<Object> start(RecordingCall call, FailingListener handler) {
+        return executionLanes.interceptCall(call, new Metadata(), (serverCall, headers) -> handler);
+    }
+
+    @Test
+    void completeIsDeliveredAfterHandlerFails() throws Exception {
+
+        RecordingCall call = new RecordingCall(StudentServiceGrpc.getEnrollMethod());
+        FailingListener handler = new FailingListener();
+        ServerCall.Listener<Object> listener = start(call, handler);
+
+        listener.onMessage("request");
+        listener.onHalfClose();
+        assertEquals(Status.Code.UNKNOWN, call.awaitClose().getCode());
+
+        // Messages after the failure are dropped, the end of the call is not
+        listener.onMessage("late");
+        listener.onComplete();
+        assertEquals(List.of("message", "halfClose", "complete"), handler.awaitEnd());
+        assertEquals(1, executionLanes.getLane(StudentServiceGrpc.SERVICE_NAME).getCompleted());
+    }
+
+    @Test
+    void cancelIsDeliveredAfterHandlerFails() throws Exception {
+
+        RecordingCall call = new RecordingCall(ClassServerServiceGrpc.getGossipMethod());
+        FailingListener handler = new FailingListener();
+        ServerCall.Listener<Object> listener = start(call, handler);
+
+        listener.onHalfClose();
+        assertEquals(Status.Code.UNKNOWN, call.awaitClose().getCode());
+
+        listener.onCancel();
+        assertEquals(List.of("halfClose", "cancel"), handler.awaitEnd());
+        assertEquals(1, executionLanes.getLane(ClassServerServiceGrpc.SERVICE_NAME).getCompleted());
+    }
+
+    @Test
+    void callExecutorRunsOnTheLaneOfTheCall() throws Exception {
+
+        RecordingCall call = new RecordingCall(ClassServerServiceGrpc.getGossipMethod());
+        CompletableFuture<Executor> callExecutor = new CompletableFuture<>();
+        executionLanes.interceptCall(call, new Metadata(), (serverCall, headers) -> {
+            callExecutor.complete(ExecutionLanes.callExecutor());
+            return new ServerCall.Listener<>() {};
+        });
+
+        CompletableFuture<String> thread = new CompletableFuture<>();
+        callExecutor.get(10, TimeUnit.SECONDS).execute(() -> thread.complete(Thread.currentThread().getName()));
+        assertTrue(thread.get(10, TimeUnit.SECONDS).startsWith(ExecutionLanes.REPLICATION));
+        assertNull(ExecutionLanes.callExecutor());
+    }
+}
@@ -0,0 +1,114 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import org.junit.jupiter.api.Test;
+import pt.ulisboa.tecnico.classes.Convert;
+import pt.ulisboa.tecnico.classes.VectorClock;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.*;
+import pt.ulisboa.tecnico.classes.contract.classserver.ClassServerClassServer.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GossipApplierTest {
+
+    @Test
+    void concurrentStatesOfSeveralPeersMergeInOnePass() throws Exception {
+
+        ManualClock clock = new ManualClock();
+        clock.advance(Duration.ofMillis(1));
+        Class studentsClass = Classes.newClass(1, 3, clock);
+        studentsClass.getLock().lock();
+        try {
+            studentsClass.enroll(Classes.studentId(0), "Student 0");
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+
+        GossipApplier gossipApplier = new GossipApplier(studentsClass, false);
+        List<GossipResponse> responses = gossipApplier.apply(List.of(
+                Classes.gossip(2, Map.of(2, 1), 3, List.of(Classes.student(1, 2)), List.of()),
+                Classes.gossip(3, Map.of(3, 1), 3, List.of(Classes.student(2, 3), Classes.student(3, 4)), List.of())));
+
+        assertEquals(1, gossipApplier.getPasses());
+        assertEquals(2, gossipApplier.getApplied());
+
+        // The earliest enrollments of every state take the places
+        assertEquals(Set.of(Classes.studentId(0), Classes.studentId(1), Classes.studentId(2)), studentsClass.getEnrolled().keySet());
+        assertEquals(Set.of(Classes.studentId(3)), studentsClass.getDiscarded().keySet());
+
+        // Both remote clocks merged, with one local increment for the pass
+        assertEquals(new VectorClock(Map.of(1, 2, 2, 1, 3, 1)), studentsClass.getServerStatus().getVectorClock());
+        for (GossipResponse response : responses) {
+            assertEquals(ResponseCode.OK, response.getCode());
+            assertEquals(Map.of(1, 2, 2, 1, 3, 1), response.getVectorClockState().getVectorClockMap());
+        }
+    }
+
+    @Test
+    void writeDuringGossipRoundSurvivesResponse() throws Exception {
+
+        Class studentsClass = Classes.newClass(2, 10);
+        Class peer = Classes.newClass(1, 10);
+        studentsClass.getLock().lock();
+        try {
+            studentsClass.enroll(Classes.studentId(0), "Student 0");
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+
+        GossipRequest request = ClassServerFrontend.buildGossipRequest(studentsClass);
+
+        // Accepted while the round waits for the peer
+        studentsClass.getLock().lock();
+        try {
+            studentsClass.enroll(Classes.studentId(1), "Student 1");
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+        VectorClock before = new VectorClock(studentsClass.getServerStatus().getVectorClock().getVectorClock());
+
+        GossipResponse response = new GossipApplier(peer, false).apply(List.of(request)).get(0);
+        ClassServerFrontend.updateClass(studentsClass, response);
+
+        assertEquals(Set.of(Classes.studentId(0), Classes.studentId(1)), studentsClass.getEnrolled().keySet());
+        assertTrue(studentsClass.getServerStatus().getVectorClock().isAtLeast(before));
+        assertTrue(studentsClass.getServerStatus().getVectorClock().isAtLeast(Convert.toVectorClock(response.getVectorClockState())));
+    }
+
+    @Test
+    void stateCoveredByAnotherOfThePassIsSkipped() {
+
+        Class studentsClass = Classes.newClass(2, 10);
+        GossipApplier gossipApplier = new GossipApplier(studentsClass, false);
+
+        gossipApplier.apply(List.of(
+                Classes.gossip(1, Map.of(1, 2), 10, List.of(Classes.student(1, 1), Classes.student(2, 2)), List.of()),
+                Classes.gossip(1, Map.of(1, 1), 10, List.of(Classes.student(1, 1)), List.of(Classes.student(3, 3)))));
+
+        // The newer state alone is ahead of the local one, so it replaces it
+        assertEquals(Set.of(Classes.studentId(1), Classes.studentId(2)), studentsClass.getEnrolled().keySet());
+        assertTrue(studentsClass.getDiscarded().isEmpty());
+        assertEquals(new VectorClock(Map.of(1, 2)), studentsClass.getServerStatus().getVectorClock());
+    }
+
+    @Test
+    void submitAnswersEverySender() throws Exception {
+
+        Class studentsClass = Classes.newClass(2, 10);
+        GossipApplier gossipApplier = new GossipApplier(studentsClass, false);
+
+        RecordingObserver<GossipResponse> first = new RecordingObserver<>();
+        RecordingObserver<GossipResponse> second = new RecordingObserver<>();
+        gossipApplier.submit(Classes.gossip(1, Map.of(1, 1), 10, List.of(Classes.student(1, 1)), List.of()), first);
+        gossipApplier.submit(Classes.gossip(3, Map.of(3, 1), 10, List.of(Classes.student(2, 2)), List.of()), second);
+
+        assertTrue(first.isDone() && second.isDone());
+        assertEquals(ResponseCode.OK, first.getValue().getCode());
+        assertEquals(ResponseCode.OK, second.getValue().getCode());
+        assertEquals(2, second.getValue().getClassState().getEnrolledCount());
+    }
+}
@@ -0,0 +1,142 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import org.junit.jupiter.api.Test;
+import pt.ulisboa.tecnico.classes.Convert;
+import pt.ulisboa.tecnico.classes.VectorClock;
+import pt.ulisboa.tecnico.classes.classserver.exception.ClassException;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.*;
+import pt.ulisboa.tecnico.classes.contract.classserver.ClassServerClassServer.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PeerCursorsTest {
+
+    private static final Address PEER = Address.newBuilder().setHost("localhost").setPort(5002).build();
+
+    private static void enroll(Class studentsClass, int student) throws ClassException {
+
+        studentsClass.getLock().lock();
+        try {
+            studentsClass.enroll(Classes.studentId(student), "Student " + student);
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+    }
+
+    @Test
+    void peerIsBehindUntilItAcknowledges() {
+
+        PeerCursors peerCursors = new PeerCursors();
+        VectorClock vectorClock = new VectorClock(Map.of(1, 3, 2, 1));
+        assertTrue(peerCursors.get(PEER).isBehind(vectorClock));
+        assertEquals(4, peerCursors.get(PEER).lag(vectorClock));
+
+        peerCursors.acknowledge(PEER, GossipResponse.newBuilder()
+                .setServerId(2)
+                .setVectorClockState(VectorClockState.newBuilder().putAllVectorClock(Map.of(1, 2, 2, 1)))
+                .build());
+        assertTrue(peerCursors.get(PEER).isBehind(vectorClock));
+        assertEquals(1, peerCursors.get(PEER).lag(vectorClock));
+        assertFalse(peerCursors.get(PEER).isBehind(new VectorClock(Map.of(1, 2))));
+        assertEquals(2, peerCursors.get(PEER).serverId());
+    }
+
+    @Test
+    void failureKeepsAcknowledgedStateAndResetForgetsIt() {
+
+        PeerCursors peerCursors = new PeerCursors();
+        peerCursors.acknowledge(PEER, GossipResponse.newBuilder()
+                .setVectorClockState(VectorClockState.newBuilder().putVectorClock(1, 1))
+                .build());
+
+        peerCursors.fail(PEER);
+        peerCursors.fail(PEER);
+        assertEquals(2, peerCursors.get(PEER).failures());
+        assertNotNull(peerCursors.get(PEER).ackedVectorClock());
+
+        peerCursors.reset(PEER);
+        assertNull(peerCursors.get(PEER).ackedVectorClock());
+        assertNull(peerCursors.get(PEER).ackedClassState());
+        assertEquals(2, peerCursors.get(PEER).failures());
+
+        peerCursors.retain(List.of());
+        assertTrue(peerCursors.getCursors().isEmpty());
+    }
+
+    @Test
+    void peerIsSentOnlyTheStudentsItMisses() throws Exception {
+
+        Class sender = Classes.newClass(1, 10);
+        Class receiver = Classes.newClass(2, 10);
+        GossipApplier receiverApplier = new GossipApplier(receiver, false);
+        PeerCursors peerCursors = sender.getServerStatus().getPeerCursors();
+
+        enroll(sender, 0);
+        enroll(sender, 1);
+
+        // Nothing acknowledged yet, the whole state is sent
+        GossipRequest full = ClassServerFrontend.buildGossipRequest(sender, peerCursors.get(PEER));
+        assertFalse(full.hasBaseVectorClockState());
+        assertEquals(2, full.getClassState().getEnrolledCount());
+        peerCursors.acknowledge(PEER, receiverApplier.apply(List.of(full)).get(0));
+
+        enroll(sender, 2);
+
+        GossipRequest changes = ClassServerFrontend.buildGossipRequest(sender, peerCursors.get(PEER));
+        assertEquals(Map.of(1, 2), changes.getBaseVectorClockState().getVectorClockMap());
+        assertEquals(List.of(Classes.studentId(2)),
+                changes.getClassState().getEnrolledList().stream().map(Student::getStudentId).toList());
+
+        // The students left out are taken from the state the receiver already holds
+        GossipResponse response = receiverApplier.apply(List.of(changes)).get(0);
+        assertEquals(ResponseCode.OK, response.getCode());
+        assertEquals(Set.of(Classes.studentId(0), Classes.studentId(1), Classes.studentId(2)), receiver.getEnrolled().keySet());
+        assertEquals(sender.getServerStatus().getVectorClock(), Convert.toVectorClock(response.getVectorClockState()));
+    }
+
+    @Test
+    void changesFromUnknownClockNeedFullState() throws Exception {
+
+        Class sender = Classes.newClass(1, 10);
+        PeerCursors peerCursors = sender.getServerStatus().getPeerCursors();
+        enroll(sender, 0);
+        peerCursors.acknowledge(PEER, GossipResponse.newBuilder()
+                .setClassState(sender.getReplicaClassState())
+                .setVectorClockState(Convert.toVectorClockState(sender.getServerStatus().getVectorClock()))
+                .build());
+        enroll(sender, 1);
+
+        // The receiver lost the state the cursor says it holds
+        Class receiver = Classes.newClass(2, 10);
+        GossipRequest changes = ClassServerFrontend.buildGossipRequest(sender, peerCursors.get(PEER));
+        GossipResponse response = new GossipApplier(receiver, false).apply(List.of(changes)).get(0);
+
+        assertEquals(ResponseCode.FULL_STATE_REQUIRED, response.getCode());
+        assertTrue(receiver.getEnrolled().isEmpty());
+    }
+
+    @Test
+    void changesToReceiverThatMovedOnNeedFullState() throws Exception {
+
+        Class sender = Classes.newClass(1, 10);
+        Class receiver = Classes.newClass(2, 10);
+        GossipApplier receiverApplier = new GossipApplier(receiver, false);
+        PeerCursors peerCursors = sender.getServerStatus().getPeerCursors();
+
+        enroll(sender, 0);
+        peerCursors.acknowledge(PEER, receiverApplier.apply(List.of(ClassServerFrontend.buildGossipRequest(sender))).get(0));
+
+        // The receiver no longer holds the state the sender computes its changes from
+        enroll(receiver, 1);
+        enroll(sender, 2);
+
+        GossipRequest changes = ClassServerFrontend.buildGossipRequest(sender, peerCursors.get(PEER));
+        assertTrue(changes.hasBaseVectorClockState());
+        assertEquals(ResponseCode.FULL_STATE_REQUIRED, receiverApplier.apply(List.of(changes)).get(0).getCode());
+        assertEquals(Set.of(Classes.studentId(0), Classes.studentId(1)), receiver.getEnrolled().keySet());
+    }
+}
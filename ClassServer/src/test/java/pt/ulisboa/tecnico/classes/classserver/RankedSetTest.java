@@ -0,0 +1,37 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RankedSetTest {
+
+    @Test
+    void ranksFollowSortedSet() {
+
+        RankedSet<Integer> rankedSet = new RankedSet<>();
+        TreeSet<Integer> sorted = new TreeSet<>();
+        Random random = new Random(7);
+
+        for (int i = 0; i < 5000; i++) {
+            int value = random.nextInt(500);
+            if (random.nextInt(3) == 0) {
+                assertEquals(sorted.remove(value), rankedSet.remove(value));
+            } else {
+                assertEquals(sorted.add(value), rankedSet.add(value));
+            }
+
+            int probe = random.nextInt(520) - 10;
+            assertEquals(sorted.headSet(probe).size(), rankedSet.rank(probe));
+            assertEquals(sorted.contains(probe), rankedSet.contains(probe));
+            assertEquals(sorted.size(), rankedSet.size());
+        }
+
+        rankedSet.clear();
+        assertEquals(0, rankedSet.size());
+        assertEquals(0, rankedSet.rank(100));
+    }
+}
@@ -0,0 +1,57 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import io.grpc.Attributes;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.Status;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server call that records how it was closed, for tests calling interceptors directly
+ */
+class RecordingCall extends ServerCall<Object, Object> {
+
+    private final MethodDescriptor<Object, Object> method;
+    private final CompletableFuture<Status> closed = new CompletableFuture<>();
+    private volatile Metadata trailers;
+    private final AtomicInteger requested = new AtomicInteger();
+
+    @SuppressWarnings("unchecked")
+    RecordingCall(MethodDescriptor<?, ?> method) { this.method = (MethodDescriptor<Object, Object>) method; }
+
+    @Override
+    public void request(int numMessages) { requested.addAndGet(numMessages); }
+
+    @Override
+    public void sendHeaders(Metadata headers) {}
+
+    @Override
+    public void sendMessage(Object message) {}
+
+    @Override
+    public void close(Status status, Metadata trailers) {
+        if (closed.isDone()) throw new IllegalStateException("Call already closed");
+        this.trailers = trailers;
+        closed.complete(status);
+    }
+
+    @Override
+    public boolean isCancelled() { return false; }
+
+    @Override
+    public Attributes getAttributes() { return Attributes.EMPTY; }
+
+    @Override
+    public MethodDescriptor<Object, Object> getMethodDescriptor() { return method; }
+
+    // Messages asked for by the interceptors and the handler
+    int getRequested() { return requested.get(); }
+
+    Metadata getTrailers() { return trailers; }
+
+    Status awaitClose() throws Exception { return closed.get(10, TimeUnit.SECONDS); }
+}
@@ -0,0 +1,40 @@
+package pt.ulisboa.tecnico.classes.classserver;
+
+import io.grpc.stub.StreamObserver;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps what a service sends to a client, for tests calling the services directly
+ */
+class RecordingObserver<T> implements StreamObserver<T> {
+
+    private final List<T> values = new CopyOnWriteArrayList<>();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Throwable error;
+
+    @Override
+    public void onNext(T value) { values.add(value); }
+
+    @Override
+    public void onError(Throwable t) {
+        error = t;
+        done.countDown();
+    }
+
+    @Override
+    public void onCompleted() { done.countDown(); }
+
+    List<T> getValues() { return values; }
+
+    T getValue() { return values.get(values.size() - 1); }
+
+    Throwable getError() { return error; }
+
+    boolean isDone() { return done.getCount() == 0; }
+
+    boolean await(long timeout, TimeUnit unit) throws InterruptedException { return done.await(timeout, unit); }
+}
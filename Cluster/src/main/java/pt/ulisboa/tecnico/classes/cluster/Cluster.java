@@ -0,0 +1,227 @@
+package pt.ulisboa.tecnico.classes.cluster;
+
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import pt.ulisboa.tecnico.classes.ConnectionManager;
+import pt.ulisboa.tecnico.classes.ServerExecutors;
+import pt.ulisboa.tecnico.classes.classserver.ClassServer;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.Address;
+import pt.ulisboa.tecnico.classes.namingserver.NamingServerServiceImpl;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A naming server and several class server replicas running in one JVM over loopback sockets
+ * Ports are chosen free at start, so several clusters and a normal deployment can run side by side
+ * Replicas can be made inactive, stop gossiping or become slow, to measure throughput,
+ * replication lag and convergence in repeatable conditions
+ */
+public class Cluster implements AutoCloseable {
+
+  public static final String SERVICE = "turmas";
+  public static final String HOST = "localhost";
+
+  private final boolean debug;
+
+  private Server namingServer;
+  private ExecutorService namingExecutor;
+  private int namingPort;
+
+  // Executor of the handlers of the naming server and of every replica
+  private ServerExecutors.Mode executorMode = ServerExecutors.Mode.CACHED;
+
+  // Time between gossip rounds of every replica (milliseconds)
+  private long gossipPeriod = ClassServer.TIMER_PERIOD;
+
+  // The first replica is the primary, the others are secondaries
+  private final List<ClassServer> replicas = new ArrayList<>();
+  private final List<DelayInterceptor> delays = new ArrayList<>();
+
+  public static void main(String[] args) {
+
+    int size;
+    ServerExecutors.Mode executorMode;
+    try {
+      size = Integer.parseInt(args[0]);
+      executorMode = ServerExecutors.parseMode(args);
+    } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+      System.err.println("Usage: Cluster <replicas> [-executor=cached|fixed|virtual] [-debug]");
+      return;
+    }
+
+    boolean debug = Arrays.asList(args).contains("-debug");
+
+    final Cluster cluster = new Cluster(debug);
+    cluster.setExecutorMode(executorMode);
+
+    try {
+      cluster.start(size);
+
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        cluster.close();
+        System.out.println("Received SIGINT signal, closing cluster.");
+      }));
+
+      System.out.println("Naming server started on port " + cluster.getNamingPort());
+      for (int i = 0; i < cluster.size(); i++) {
+        ClassServer replica = cluster.getReplica(i);
+        System.out.println("Server started on port " + replica.getServerStatus().getPort()
+            + " with id " + replica.getServerStatus().getServerId() + " " + replica.getServerStatus().getQualifiers());
+      }
+
+      // prevent cluster from exiting the main thread
+      cluster.namingServer.awaitTermination();
+
+    } catch (IOException e) {
+      System.err.println("Caught IOException when starting cluster: " + e.getMessage());
+      cluster.close();
+    } catch (InterruptedException e) {
+      System.err.println("Caught InterruptedException when waiting for cluster termination: " + e.getMessage());
+    }
+  }
+
+  public Cluster(boolean debug) {
+    this.debug = debug;
+  }
+
+  /**
+   * Start the naming server and the replicas
+   * @param size The number of replicas, at least 1
+   * @throws IOException If a port cannot be bound
+   */
+  public void start(int size) throws IOException {
+    start(size, ClassServer.TIMER_PERIOD);
+  }
+
+  /**
+   * Start the naming server and the replicas, gossiping at the given period
+   * @param size          The number of replicas, at least 1
+   * @param gossipPeriod  The time between gossip rounds (milliseconds)
+   * @throws IOException  If a port cannot be bound
+   */
+  public void start(int size, long gossipPeriod) throws IOException {
+
+    if (size < 1) {
+      throw new IllegalArgumentException("A cluster needs at least one replica.");
+    }
+    this.gossipPeriod = gossipPeriod;
+
+    namingPort = freePort();
+    ServerBuilder<?> namingBuilder = ServerBuilder.forPort(namingPort)
+        .addService(new NamingServerServiceImpl(debug, new ConcurrentHashMap<>()));
+    namingExecutor = ServerExecutors.configure(namingBuilder, executorMode, "namingserver");
+    namingServer = namingBuilder.build().start();
+
+    for (int i = 0; i < size; i++) {
+      addReplica(i == 0 ? "P" : "S");
+    }
+  }
+
+  /**
+   * Start one more replica
+   * @param qualifier   The replica qualifier, P or S
+   * @return            The index of the replica
+   * @throws IOException If the port cannot be bound
+   */
+  public synchronized int addReplica(String qualifier) throws IOException {
+
+    ClassServer replica = new ClassServer(SERVICE, HOST, freePort(), List.of(qualifier), HOST, namingPort, debug);
+    DelayInterceptor delay = new DelayInterceptor();
+    replica.addInterceptor(delay);
+    replica.setGossipPeriod(gossipPeriod);
+    replica.setExecutorMode(executorMode);
+    replica.start();
+
+    replicas.add(replica);
+    delays.add(delay);
+    return replicas.size() - 1;
+  }
+
+  public int getNamingPort() { return namingPort; }
+
+  public long getGossipPeriod() { return gossipPeriod; }
+
+  public ServerExecutors.Mode getExecutorMode() { return executorMode; }
+
+  /**
+   * Change the executor that runs the handlers of the servers, must be called before start
+   * @param executorMode The executor mode
+   */
+  public void setExecutorMode(ServerExecutors.Mode executorMode) { this.executorMode = executorMode; }
+
+  public synchronized int size() { return replicas.size(); }
+
+  public synchronized ClassServer getReplica(int replica) { return replicas.get(replica); }
+
+  public synchronized List<ClassServer> getReplicas() { return List.copyOf(replicas); }
+
+  /**
+   * Get the address clients use to reach a replica
+   * @param replica The replica index
+   * @return        The address
+   */
+  public Address getAddress(int replica) {
+    return Address.newBuilder().setHost(HOST).setPort(getReplica(replica).getServerStatus().getPort()).build();
+  }
+
+  /**
+   * Create a connection manager that looks servers up in this cluster
+   * @return The connection manager, to be closed by the caller
+   */
+  public ConnectionManager newConnectionManager() {
+    return new ConnectionManager(HOST, namingPort, ConnectionManager.DEFAULT_MEMBERSHIP_TTL);
+  }
+
+  /**
+   * Make a replica answer INACTIVE_SERVER and stop gossiping, as the admin deactivate command does
+   * @param replica The replica index
+   */
+  public void deactivate(int replica) { getReplica(replica).getStudentsClass().deactivate(); }
+
+  public void activate(int replica) { getReplica(replica).getStudentsClass().activate(); }
+
+  /**
+   * Stop a replica from gossiping while it keeps serving clients
+   * @param replica The replica index
+   */
+  public void pauseGossip(int replica) { getReplica(replica).getStudentsClass().deactivateGossip(); }
+
+  public void resumeGossip(int replica) { getReplica(replica).getStudentsClass().activateGossip(); }
+
+  /**
+   * Delay every call a replica receives, from clients and from other replicas
+   * @param replica   The replica index
+   * @param delay     The delay in milliseconds, 0 for none
+   */
+  public synchronized void setDelay(int replica, long delay) { delays.get(replica).setDelay(delay); }
+
+  /**
+   * Stop the replicas and the naming server
+   */
+  @Override
+  public synchronized void close() {
+
+    replicas.forEach(ClassServer::stop);
+    replicas.clear();
+    delays.clear();
+    if (namingServer != null) namingServer.shutdown();
+    if (namingExecutor != null) namingExecutor.shutdown();
+  }
+
+  /**
+   * Find a port no one is listening on
+   * @return The port
+   * @throws IOException If no port is available
+   */
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
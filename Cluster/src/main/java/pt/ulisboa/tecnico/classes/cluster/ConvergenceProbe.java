@@ -0,0 +1,280 @@
+package pt.ulisboa.tecnico.classes.cluster;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.StatusRuntimeException;
+import pt.ulisboa.tecnico.classes.LatencyHistogram;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ClassState;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ResponseCode;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.Student;
+import pt.ulisboa.tecnico.classes.contract.admin.AdminClassServer.*;
+import pt.ulisboa.tecnico.classes.contract.admin.AdminServiceGrpc;
+import pt.ulisboa.tecnico.classes.contract.admin.AdminServiceGrpc.AdminServiceBlockingStub;
+import pt.ulisboa.tecnico.classes.contract.professor.ProfessorClassServer.OpenEnrollmentsRequest;
+import pt.ulisboa.tecnico.classes.contract.professor.ProfessorServiceGrpc;
+import pt.ulisboa.tecnico.classes.contract.student.StudentClassServer.EnrollRequest;
+import pt.ulisboa.tecnico.classes.contract.student.StudentServiceGrpc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Measures how long a write takes to reach every replica
+ * Each probe enrolls a new student on one replica and polls the dump of the others until they show it,
+ * for every combination of cluster size, gossip period, gossip mode and fault, each on a fresh cluster
+ * Faults move between random secondaries through the admin service, as an administrator would
+ */
+public class ConvergenceProbe {
+
+  // Time between dumps of a replica while waiting for a probe (milliseconds)
+  private static final long POLL_PERIOD = 2;
+
+  // Max time of a single call (milliseconds)
+  private static final long CALL_DEADLINE = 5000;
+
+  private final ProbeConfig config;
+
+  // Replica that has a fault right now, -1 for none
+  private volatile int faulty = -1;
+
+  private record Result(LatencyHistogram convergence, LatencyHistogram lag, int timeouts, int inactive) {}
+
+  public static void main(String[] args) {
+
+    ProbeConfig config;
+    try {
+      config = ProbeConfig.fromArgs(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(ProbeConfig.USAGE);
+      return;
+    }
+
+    new ConvergenceProbe(config).run();
+  }
+
+  public ConvergenceProbe(ProbeConfig config) {
+    this.config = config;
+  }
+
+  /**
+   * Measure every combination of the settings and print a line for each
+   */
+  public void run() {
+
+    System.out.println("Times in milliseconds, convergence is the time until every replica shows a probe"
+        + " and lag the time until a single replica does.");
+    System.out.printf("%5s %7s %6s %10s %6s %8s %8s | %8s %8s %8s %8s | %8s %8s %8s%n",
+        "size", "period", "mode", "fault", "probes", "timeouts", "inactive",
+        "conv p50", "conv p90", "conv p99", "conv max", "lag p50", "lag p99", "lag max");
+
+    for (int size : config.getSizes()) {
+      for (long period : config.getPeriods()) {
+        for (String mode : config.getModes()) {
+          for (String fault : config.getFaults()) {
+            try {
+              Result result = measure(size, period, mode, fault);
+              System.out.printf("%5d %7d %6s %10s %6d %8d %8d | %8.1f %8.1f %8.1f %8.1f | %8.1f %8.1f %8.1f%n",
+                  size, period, mode, fault, result.convergence().getCount(), result.timeouts(), result.inactive(),
+                  result.convergence().getPercentile(0.5) / 1e6,
+                  result.convergence().getPercentile(0.9) / 1e6,
+                  result.convergence().getPercentile(0.99) / 1e6,
+                  result.convergence().getMax() / 1e6,
+                  result.lag().getPercentile(0.5) / 1e6,
+                  result.lag().getPercentile(0.99) / 1e6,
+                  result.lag().getMax() / 1e6);
+            } catch (IOException e) {
+              System.err.println("Caught IOException when starting cluster: " + e.getMessage());
+            } catch (StatusRuntimeException e) {
+              System.err.println("Caught exception with description: " + e.getStatus().getDescription());
+            } catch (IllegalStateException e) {
+              System.err.println(e.getMessage());
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              return;
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Start a cluster and send the probes of one combination of the settings
+   * @param size    The number of replicas
+   * @param period  The time between gossip rounds (milliseconds)
+   * @param mode    timer to wait for the gossip rounds, admin to force gossip after each probe
+   * @param fault   none, deactivate to deactivate secondaries or gossip to deactivate their gossip
+   * @return        The times each probe took to reach the replicas
+   */
+  private Result measure(int size, long period, String mode, String fault) throws IOException, InterruptedException {
+
+    LatencyHistogram convergence = new LatencyHistogram();
+    LatencyHistogram lag = new LatencyHistogram();
+    int timeouts = 0;
+    int inactive = 0;
+
+    List<ManagedChannel> channels = new ArrayList<>();
+    ScheduledExecutorService faults = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "probe-faults");
+      thread.setDaemon(true);
+      return thread;
+    });
+    faulty = -1;
+
+    try (Cluster cluster = new Cluster(config.isDebug())) {
+
+      try {
+        cluster.start(size, period);
+        for (int replica = 0; replica < size; replica++) {
+          channels.add(ManagedChannelBuilder.forAddress(Cluster.HOST, cluster.getAddress(replica).getPort()).usePlaintext().build());
+        }
+        List<AdminServiceBlockingStub> admins = channels.stream().map(AdminServiceGrpc::newBlockingStub).toList();
+
+        // Probes can only be enrolled once every replica knows enrollments are open
+        ResponseCode code = ProfessorServiceGrpc.newBlockingStub(channels.get(0))
+            .withDeadlineAfter(CALL_DEADLINE, TimeUnit.MILLISECONDS)
+            .openEnrollments(OpenEnrollmentsRequest.newBuilder().setCapacity(config.getProbes()).build())
+            .getCode();
+        if (code != ResponseCode.OK) {
+          throw new IllegalStateException("Could not open enrollments: " + code);
+        }
+        for (int replica = 0; replica < size; replica++) {
+          if (awaitState(admins.get(replica), ClassState::getOpenEnrollments, System.nanoTime()) < 0) {
+            throw new IllegalStateException("Enrollments did not open on every replica in time.");
+          }
+        }
+
+        if (!fault.equals("none") && size > 1) {
+          faults.scheduleAtFixedRate(() -> moveFault(admins, fault), 0, config.getCycle(), TimeUnit.MILLISECONDS);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int probe = 0; probe < config.getProbes(); probe++) {
+
+          // Probes start at random points of the gossip period, so they do not all wait the same for a round
+          TimeUnit.MILLISECONDS.sleep(random.nextLong(period));
+
+          String studentId = String.format("aluno%04d", probe);
+          EnrollRequest request = EnrollRequest.newBuilder()
+              .setStudent(Student.newBuilder().setStudentId(studentId).setStudentName("Probe " + probe))
+              .build();
+
+          // Write on a random replica, moving to the next one while they are inactive
+          int writer = random.nextInt(size);
+          long start = System.nanoTime();
+          code = ResponseCode.INACTIVE_SERVER;
+          for (int attempt = 0; attempt < size && code == ResponseCode.INACTIVE_SERVER; attempt++) {
+            if (attempt > 0) {
+              writer = (writer + 1) % size;
+              inactive++;
+            }
+            start = System.nanoTime();
+            code = StudentServiceGrpc.newBlockingStub(channels.get(writer))
+                .withDeadlineAfter(CALL_DEADLINE, TimeUnit.MILLISECONDS)
+                .enroll(request)
+                .getCode();
+          }
+          if (code != ResponseCode.OK) {
+            throw new IllegalStateException("Could not enroll probe " + studentId + ": " + code);
+          }
+
+          if (mode.equals("admin")) {
+            admins.get(writer).withDeadlineAfter(CALL_DEADLINE, TimeUnit.MILLISECONDS).forceGossip(ForceGossipRequest.getDefaultInstance());
+          }
+
+          Predicate<ClassState> enrolled = state -> state.getEnrolledList().stream()
+              .anyMatch(student -> student.getStudentId().equals(studentId));
+
+          long slowest = 0;
+          boolean timedOut = false;
+          for (int replica = 0; replica < size && !timedOut; replica++) {
+            if (replica == writer) continue;
+            long replicaLag = awaitState(admins.get(replica), enrolled, start);
+            if (replicaLag < 0) {
+              timedOut = true;
+            } else {
+              lag.record(replicaLag);
+              slowest = Math.max(slowest, replicaLag);
+            }
+          }
+
+          if (timedOut) {
+            timeouts++;
+          } else {
+            convergence.record(slowest);
+          }
+        }
+
+      } finally {
+        // Stop moving faults before the cluster stops
+        faults.shutdownNow();
+        faults.awaitTermination(CALL_DEADLINE, TimeUnit.MILLISECONDS);
+        channels.forEach(ManagedChannel::shutdownNow);
+      }
+    }
+
+    return new Result(convergence, lag, timeouts, inactive);
+  }
+
+  /**
+   * Poll the dump of a replica until its class state matches
+   * Replicas are polled in turn, so the time of a replica includes the time spent waiting for the ones before it,
+   * which is the time that replica would have been polled anyway
+   * @param admin     The admin stub of the replica
+   * @param condition The condition the class state must match
+   * @param start     The time the wait counts from (nanoseconds)
+   * @return          The time until the state matched (nanoseconds), -1 if it did not before the timeout
+   */
+  private long awaitState(AdminServiceBlockingStub admin, Predicate<ClassState> condition, long start) throws InterruptedException {
+
+    long deadline = start + TimeUnit.MILLISECONDS.toNanos(config.getTimeout());
+
+    while (System.nanoTime() < deadline) {
+      ClassState state = admin.withDeadlineAfter(CALL_DEADLINE, TimeUnit.MILLISECONDS)
+          .dump(DumpRequest.getDefaultInstance())
+          .getClassState();
+      long now = System.nanoTime();
+      if (condition.test(state)) {
+        return now - start;
+      }
+      TimeUnit.MILLISECONDS.sleep(POLL_PERIOD);
+    }
+    return -1;
+  }
+
+  /**
+   * Clear the fault of the current faulty secondary and put it on another random one
+   * @param admins  The admin stubs of the replicas, the first one is the primary
+   * @param fault   deactivate or gossip
+   */
+  private void moveFault(List<AdminServiceBlockingStub> admins, String fault) {
+
+    try {
+      if (faulty >= 0) {
+        AdminServiceBlockingStub admin = admins.get(faulty).withDeadlineAfter(CALL_DEADLINE, TimeUnit.MILLISECONDS);
+        if (fault.equals("deactivate")) {
+          admin.activate(ActivateRequest.getDefaultInstance());
+        } else {
+          admin.activateGossip(ActivateGossipRequest.getDefaultInstance());
+        }
+      }
+
+      faulty = 1 + ThreadLocalRandom.current().nextInt(admins.size() - 1);
+      AdminServiceBlockingStub admin = admins.get(faulty).withDeadlineAfter(CALL_DEADLINE, TimeUnit.MILLISECONDS);
+      if (fault.equals("deactivate")) {
+        admin.deactivate(DeactivateRequest.getDefaultInstance());
+      } else {
+        admin.deactivateGossip(DeactivateGossipRequest.getDefaultInstance());
+      }
+    } catch (StatusRuntimeException e) {
+      System.err.println("Caught exception with description: " + e.getStatus().getDescription());
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package pt.ulisboa.tecnico.classes.cluster;
+
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+/**
+ * Holds every call to a server for a time before handling it, to simulate a slow or distant replica
+ * Gossip from other replicas is delayed too, since it arrives as calls
+ */
+public class DelayInterceptor implements ServerInterceptor {
+
+    // Delay in milliseconds, 0 for none
+    private volatile long delay = 0;
+
+    public long getDelay() { return delay; }
+
+    public void setDelay(long delay) { this.delay = Math.max(delay, 0); }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+
+        long currentDelay = delay;
+        if (currentDelay > 0) {
+            try {
+                Thread.sleep(currentDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return next.startCall(call, headers);
+    }
+}
@@ -0,0 +1,129 @@
+package pt.ulisboa.tecnico.classes.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Settings of a convergence probe run, read from -name=value arguments
+ * Lists are comma separated and every combination of their values is measured
+ */
+public class ProbeConfig {
+
+    public static final String USAGE = """
+            Usage: ConvergenceProbe [-name=value]...
+              -sizes=N,...      Cluster sizes (default 3)
+              -periods=MS,...   Time between gossip rounds (default 1000)
+              -modes=M,...      How writes are propagated: timer or admin (default timer)
+              -faults=F,...     Faults injected on secondaries: none, deactivate or gossip (default none)
+              -probes=N         Probe writes per combination, at most 10000 (default 20)
+              -cycle=MS         Time between fault changes (default 2000)
+              -timeout=MS       Max wait for a probe to reach every replica (default 30000)
+              -debug            Log the servers requests""";
+
+    public static final List<String> MODES = List.of("timer", "admin");
+    public static final List<String> FAULTS = List.of("none", "deactivate", "gossip");
+
+    // Student ids have 4 digits
+    public static final int MAX_PROBES = 10000;
+
+    private List<Integer> sizes = List.of(3);
+    private List<Long> periods = List.of(1000L);
+    private List<String> modes = List.of("timer");
+    private List<String> faults = List.of("none");
+    private int probes = 20;
+    private long cycle = 2000;
+    private long timeout = 30000;
+    private boolean debug = false;
+
+    public List<Integer> getSizes() { return sizes; }
+
+    public List<Long> getPeriods() { return periods; }
+
+    public List<String> getModes() { return modes; }
+
+    public List<String> getFaults() { return faults; }
+
+    public int getProbes() { return probes; }
+
+    public long getCycle() { return cycle; }
+
+    public long getTimeout() { return timeout; }
+
+    public boolean isDebug() { return debug; }
+
+    /**
+     * Read the settings from the command-line arguments
+     * @param args  The command-line arguments
+     * @return      The settings
+     * @throws IllegalArgumentException If an argument is unknown or has an invalid value
+     */
+    public static ProbeConfig fromArgs(String[] args) {
+
+        ProbeConfig config = new ProbeConfig();
+
+        for (String arg : args) {
+
+            if (arg.equals("-debug")) {
+                config.debug = true;
+                continue;
+            }
+
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("-") || separator == -1) {
+                throw new IllegalArgumentException("Invalid argument: " + arg);
+            }
+            String name = arg.substring(1, separator);
+            String value = arg.substring(separator + 1);
+
+            try {
+                switch (name) {
+                    case "sizes" -> config.sizes = parseList(value, Integer::parseInt);
+                    case "periods" -> config.periods = parseList(value, Long::parseLong);
+                    case "modes" -> config.modes = parseList(value, Function.identity());
+                    case "faults" -> config.faults = parseList(value, Function.identity());
+                    case "probes" -> config.probes = Integer.parseInt(value);
+                    case "cycle" -> config.cycle = Long.parseLong(value);
+                    case "timeout" -> config.timeout = Long.parseLong(value);
+                    default -> throw new IllegalArgumentException("Unknown argument: " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value: " + arg);
+            }
+        }
+
+        config.validate();
+        return config;
+    }
+
+    private static <T> List<T> parseList(String value, Function<String, T> parser) {
+
+        List<T> values = new ArrayList<>();
+        for (String item : value.split(",")) {
+            values.add(parser.apply(item.trim()));
+        }
+        return values;
+    }
+
+    private void validate() {
+
+        if (sizes.stream().anyMatch(size -> size < 1)) {
+            throw new IllegalArgumentException("Sizes must be at least 1.");
+        }
+        if (periods.stream().anyMatch(period -> period <= 0)) {
+            throw new IllegalArgumentException("Periods must be positive.");
+        }
+        modes.stream().filter(mode -> !MODES.contains(mode)).findFirst().ifPresent(mode -> {
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        });
+        faults.stream().filter(fault -> !FAULTS.contains(fault)).findFirst().ifPresent(fault -> {
+            throw new IllegalArgumentException("Unknown fault: " + fault);
+        });
+        if (probes < 1 || probes > MAX_PROBES) {
+            throw new IllegalArgumentException("Probes must be between 1 and " + MAX_PROBES + ".");
+        }
+        if (cycle <= 0 || timeout <= 0) {
+            throw new IllegalArgumentException("Cycle and timeout must be positive.");
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package pt.ulisboa.tecnico.classes.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings of a traffic replay, read from -name=value arguments
+ */
+public class ReplayConfig {
+
+    public static final String USAGE = """
+            Usage: TrafficReplay -logs=FILE,... [-name=value]...
+              -logs=FILE,...    Traffic logs captured with ClassServer -capture=FILE, the n-th is replayed on the n-th replica
+              -replicas=N       Replicas of the test cluster, the first one is the primary (default the number of logs)
+              -speed=S          Replay speed: 1 for real time, N for N times faster, or max (default 1)
+              -concurrency=N    Max calls in flight at max speed (default 64)
+              -gossip           Also replay the gossip captured between servers
+              -clocks=C         keep or clear the client clocks of the captured requests (default keep)
+              -debug            Log the servers requests""";
+
+    private final List<String> logs = new ArrayList<>();
+    private int replicas = 0;
+    private double speed = 1;
+    private int concurrency = 64;
+    private boolean gossip = false;
+    private boolean clearClocks = false;
+    private boolean debug = false;
+
+    public List<String> getLogs() { return logs; }
+
+    public int getReplicas() { return replicas > 0 ? replicas : logs.size(); }
+
+    public double getSpeed() { return speed; }
+
+    public boolean isMaxSpeed() { return Double.isInfinite(speed); }
+
+    public int getConcurrency() { return concurrency; }
+
+    public boolean isGossip() { return gossip; }
+
+    public boolean isClearClocks() { return clearClocks; }
+
+    public boolean isDebug() { return debug; }
+
+    /**
+     * Read the settings from the command-line arguments
+     * @param args  The command-line arguments
+     * @return      The settings
+     * @throws IllegalArgumentException If an argument is unknown or has an invalid value
+     */
+    public static ReplayConfig fromArgs(String[] args) {
+
+        ReplayConfig config = new ReplayConfig();
+
+        for (String arg : args) {
+
+            if (arg.equals("-debug")) {
+                config.debug = true;
+                continue;
+            }
+            if (arg.equals("-gossip")) {
+                config.gossip = true;
+                continue;
+            }
+
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("-") || separator == -1) {
+                throw new IllegalArgumentException("Invalid argument: " + arg);
+            }
+            String name = arg.substring(1, separator);
+            String value = arg.substring(separator + 1);
+
+            try {
+                switch (name) {
+                    case "logs" -> config.logs.addAll(List.of(value.split(",")));
+                    case "replicas" -> config.replicas = Integer.parseInt(value);
+                    case "speed" -> config.speed = value.equals("max") ? Double.POSITIVE_INFINITY : Double.parseDouble(value);
+                    case "concurrency" -> config.concurrency = Integer.parseInt(value);
+                    case "clocks" -> {
+                        if (!value.equals("keep") && !value.equals("clear")) {
+                            throw new IllegalArgumentException("Unknown clocks option: " + value);
+                        }
+                        config.clearClocks = value.equals("clear");
+                    }
+                    default -> throw new IllegalArgumentException("Unknown argument: " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value: " + arg);
+            }
+        }
+
+        config.validate();
+        return config;
+    }
+
+    private void validate() {
+
+        if (logs.isEmpty()) {
+            throw new IllegalArgumentException("At least one traffic log is needed.");
+        }
+        if (replicas < 0 || speed <= 0 || concurrency < 1) {
+            throw new IllegalArgumentException("Replicas must not be negative and speed and concurrency must be positive.");
+        }
+    }
+}
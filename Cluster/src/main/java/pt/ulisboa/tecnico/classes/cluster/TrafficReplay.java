@@ -0,0 +1,285 @@
+package pt.ulisboa.tecnico.classes.cluster;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServiceDescriptor;
+import io.grpc.Status;
+import io.grpc.stub.ClientCalls;
+import pt.ulisboa.tecnico.classes.LatencyHistogram;
+import pt.ulisboa.tecnico.classes.capture.CapturedCall;
+import pt.ulisboa.tecnico.classes.capture.TrafficLog;
+import pt.ulisboa.tecnico.classes.capture.TrafficLogReader;
+import pt.ulisboa.tecnico.classes.contract.admin.AdminServiceGrpc;
+import pt.ulisboa.tecnico.classes.contract.classserver.ClassServerServiceGrpc;
+import pt.ulisboa.tecnico.classes.contract.professor.ProfessorServiceGrpc;
+import pt.ulisboa.tecnico.classes.contract.student.StudentServiceGrpc;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays traffic captured on real servers back against a test cluster and compares the outcome
+ * Calls keep their captured spacing, scaled by the speed, or are sent as fast as the concurrency allows
+ * Captured latencies were measured inside the server and replayed ones at the client, so replays of two builds
+ * are best compared with each other, while the captured codes should match exactly
+ */
+public class TrafficReplay {
+
+  // Max time waiting for calls still running at the end (milliseconds)
+  private static final long DRAIN_TIMEOUT = 30000;
+
+  // Max time of a single call (milliseconds)
+  private static final long CALL_DEADLINE = 10000;
+
+  private final ReplayConfig config;
+
+  // Every method the servers offer, by full name
+  private final Map<String, MethodDescriptor<?, ?>> methods = new HashMap<>();
+
+  private final Map<String, MethodStats> stats = new ConcurrentSkipListMap<>();
+  private final Map<String, Integer> skipped = new HashMap<>();
+  private final LatencyHistogram lateness = new LatencyHistogram();
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final Semaphore permits;
+
+  private record Replayed(CapturedCall call, long time, int replica) {}
+
+  private static class MethodStats {
+    private final LatencyHistogram captured = new LatencyHistogram();
+    private final LatencyHistogram replayed = new LatencyHistogram();
+    private final LongAdder mismatches = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+  }
+
+  public static void main(String[] args) {
+
+    ReplayConfig config;
+    try {
+      config = ReplayConfig.fromArgs(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(ReplayConfig.USAGE);
+      return;
+    }
+
+    List<Replayed> calls;
+    try {
+      calls = readLogs(config);
+    } catch (IOException e) {
+      System.err.println("Caught IOException when reading traffic logs: " + e.getMessage());
+      return;
+    }
+
+    TrafficReplay replay = new TrafficReplay(config);
+    List<ManagedChannel> channels = new ArrayList<>();
+
+    try (Cluster cluster = new Cluster(config.isDebug())) {
+
+      cluster.start(config.getReplicas());
+      for (int replica = 0; replica < cluster.size(); replica++) {
+        channels.add(ManagedChannelBuilder.forAddress(Cluster.HOST, cluster.getAddress(replica).getPort()).usePlaintext().build());
+      }
+
+      long start = System.nanoTime();
+      replay.run(calls, channels);
+      replay.print((System.nanoTime() - start) / 1e9, calls.size());
+
+    } catch (IOException e) {
+      System.err.println("Caught IOException when starting cluster: " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      channels.forEach(ManagedChannel::shutdownNow);
+    }
+  }
+
+  public TrafficReplay(ReplayConfig config) {
+
+    this.config = config;
+    this.permits = new Semaphore(config.getConcurrency());
+
+    for (ServiceDescriptor service : List.of(StudentServiceGrpc.getServiceDescriptor(), ProfessorServiceGrpc.getServiceDescriptor(),
+        AdminServiceGrpc.getServiceDescriptor(), ClassServerServiceGrpc.getServiceDescriptor())) {
+      service.getMethods().forEach(method -> methods.put(method.getFullMethodName(), method));
+    }
+  }
+
+  /**
+   * Read the logs and merge their calls in the order they started
+   * Logs are aligned by the time their captures started
+   * @param config  The settings, with the logs
+   * @return        The calls, each with the replica it is replayed on
+   */
+  private static List<Replayed> readLogs(ReplayConfig config) throws IOException {
+
+    List<Long> starts = new ArrayList<>();
+    List<List<CapturedCall>> logs = new ArrayList<>();
+    for (String log : config.getLogs()) {
+      try (TrafficLogReader reader = new TrafficLogReader(Path.of(log))) {
+        starts.add(reader.getStartTime());
+        List<CapturedCall> calls = new ArrayList<>();
+        for (CapturedCall call = reader.next(); call != null; call = reader.next()) {
+          calls.add(call);
+        }
+        logs.add(calls);
+      }
+    }
+
+    long firstStart = starts.stream().mapToLong(Long::longValue).min().orElse(0);
+    List<Replayed> calls = new ArrayList<>();
+    for (int log = 0; log < logs.size(); log++) {
+      long offset = TimeUnit.MILLISECONDS.toNanos(starts.get(log) - firstStart);
+      for (CapturedCall call : logs.get(log)) {
+        calls.add(new Replayed(call, offset + call.time(), log % config.getReplicas()));
+      }
+    }
+    calls.sort(Comparator.comparingLong(Replayed::time));
+    return calls;
+  }
+
+  /**
+   * Send the calls on schedule and wait for them to finish
+   * @param calls     The calls in order
+   * @param channels  The channels to the replicas
+   */
+  private void run(List<Replayed> calls, List<ManagedChannel> channels) throws InterruptedException {
+
+    if (calls.isEmpty()) return;
+
+    long first = calls.get(0).time();
+    long start = System.nanoTime();
+
+    for (Replayed replayed : calls) {
+
+      CapturedCall call = replayed.call();
+      MethodDescriptor<?, ?> method = methods.get(call.method());
+      String skip = method == null ? "unknown method"
+          : method.getType() != MethodDescriptor.MethodType.UNARY ? "streaming"
+          : !config.isGossip() && call.service().equals(ClassServerServiceGrpc.SERVICE_NAME) ? "gossip"
+          : null;
+      if (skip != null) {
+        skipped.merge(skip, 1, Integer::sum);
+        continue;
+      }
+
+      if (config.isMaxSpeed()) {
+        permits.acquire();
+      } else {
+        long target = start + (long) ((replayed.time() - first) / config.getSpeed());
+        for (long now = System.nanoTime(); now < target; now = System.nanoTime()) {
+          LockSupport.parkNanos(target - now);
+        }
+        lateness.record(System.nanoTime() - target);
+      }
+
+      inFlight.incrementAndGet();
+      send(method, channels.get(replayed.replica()), call);
+    }
+
+    long drainEnd = System.currentTimeMillis() + DRAIN_TIMEOUT;
+    while (inFlight.get() > 0 && System.currentTimeMillis() < drainEnd) {
+      Thread.sleep(10);
+    }
+  }
+
+  /**
+   * Send a captured call and compare its outcome with the captured one when it finishes
+   */
+  @SuppressWarnings("unchecked")
+  private <ReqT, RespT> void send(MethodDescriptor<ReqT, RespT> method, Channel channel, CapturedCall call) {
+
+    MethodStats methodStats = stats.computeIfAbsent(call.method(), key -> new MethodStats());
+    methodStats.captured.record(call.latency());
+
+    ReqT request = method.parseRequest(new ByteArrayInputStream(call.request()));
+    if (config.isClearClocks() && request instanceof Message message) {
+      FieldDescriptor field = message.getDescriptorForType().findFieldByName("vectorClockState");
+      if (field != null) {
+        request = (ReqT) message.toBuilder().clearField(field).build();
+      }
+    }
+
+    long start = System.nanoTime();
+    ListenableFuture<RespT> future = ClientCalls.futureUnaryCall(
+        channel.newCall(method, CallOptions.DEFAULT.withDeadlineAfter(CALL_DEADLINE, TimeUnit.MILLISECONDS)), request);
+
+    Futures.addCallback(future, new FutureCallback<>() {
+      @Override
+      public void onSuccess(RespT response) {
+        finish(methodStats, call, System.nanoTime() - start, Status.Code.OK.value(), TrafficLog.responseCode(response));
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        methodStats.errors.increment();
+        finish(methodStats, call, System.nanoTime() - start, Status.fromThrowable(t).getCode().value(), -1);
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
+  private void finish(MethodStats methodStats, CapturedCall call, long latency, int status, int responseCode) {
+
+    methodStats.replayed.record(latency);
+    if (status != call.status() || responseCode != call.responseCode()) {
+      methodStats.mismatches.increment();
+    }
+    inFlight.decrementAndGet();
+    if (config.isMaxSpeed()) permits.release();
+  }
+
+  /**
+   * Print the latency of each method, captured and replayed, and how many outcomes differ
+   * @param seconds The duration of the replay
+   * @param total   The number of calls in the logs
+   */
+  private void print(double seconds, int total) {
+
+    int sent = total - skipped.values().stream().mapToInt(Integer::intValue).sum();
+    System.out.printf("Replayed %d of %d calls in %.1f s at %s speed%n", sent, total, seconds,
+        config.isMaxSpeed() ? "max" : config.getSpeed() + "x");
+    skipped.forEach((reason, count) -> System.out.printf("  skipped %d %s calls%n", count, reason));
+    if (inFlight.get() > 0) {
+      System.out.println("  " + inFlight.get() + " calls did not finish in time");
+    }
+    if (!config.isMaxSpeed()) {
+      System.out.printf("Sends behind schedule (ms): p50 %.2f, p99 %.2f, max %.2f%n",
+          lateness.getPercentile(0.5) / 1e6, lateness.getPercentile(0.99) / 1e6, lateness.getMax() / 1e6);
+    }
+
+    System.out.println();
+    System.out.printf("%-34s %8s | %9s %9s | %9s %9s | %8s | %10s %8s%n", "Method (latency in ms)", "calls",
+        "capt p50", "capt p99", "repl p50", "repl p99", "p50 diff", "mismatches", "errors");
+    stats.forEach((method, methodStats) -> {
+      double captured = methodStats.captured.getPercentile(0.5) / 1e6;
+      double replayed = methodStats.replayed.getPercentile(0.5) / 1e6;
+      System.out.printf("%-34s %8d | %9.2f %9.2f | %9.2f %9.2f | %7.0f%% | %10d %8d%n",
+          method.substring(method.lastIndexOf('.') + 1), methodStats.captured.getCount(),
+          captured, methodStats.captured.getPercentile(0.99) / 1e6,
+          replayed, methodStats.replayed.getPercentile(0.99) / 1e6,
+          captured == 0 ? 0 : (replayed - captured) / captured * 100,
+          methodStats.mismatches.sum(), methodStats.errors.sum());
+    });
+  }
+}
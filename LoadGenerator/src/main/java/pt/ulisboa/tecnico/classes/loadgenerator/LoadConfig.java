@@ -0,0 +1,140 @@
+package pt.ulisboa.tecnico.classes.loadgenerator;
+
+import pt.ulisboa.tecnico.classes.ConnectionManager;
+
+/**
+ * Settings of a load generator run, read from -name=value arguments
+ */
+public class LoadConfig {
+
+    public static final String USAGE = """
+            Usage: LoadGenerator [-name=value]...
+              -students=N       Simulated students, at most 10000 (default 1000)
+              -professors=N     Simulated professors (default 10)
+              -reads=F          Fraction of requests that are reads (default 0.9)
+              -rate=N           Open loop: requests per second over all users, 0 for closed loop (default 0)
+              -think=MS         Closed loop: pause of each user between requests (default 0)
+              -duration=S       Measured time in seconds (default 30)
+              -warmup=S         Time before measuring in seconds (default 5)
+              -policy=P         Replica selection: p2c, random or hedge (default p2c)
+              -capacity=N       Class capacity opened at the start (default the number of students)
+              -naming=HOST:PORT Naming server (default localhost:5000)
+              -report=S         Seconds between progress lines, 0 for none (default 5)
+              -debug            Log every request""";
+
+    // Student ids have 4 digits
+    public static final int MAX_STUDENTS = 10000;
+
+    private int students = 1000;
+    private int professors = 10;
+    private double readRatio = 0.9;
+    private double rate = 0;
+    private long thinkTime = 0;
+    private long duration = 30;
+    private long warmup = 5;
+    private String policy = "p2c";
+    private int capacity = -1;
+    private String namingHost = ConnectionManager.DEFAULT_NAMING_HOST;
+    private int namingPort = ConnectionManager.DEFAULT_NAMING_PORT;
+    private long reportInterval = 5;
+    private boolean debug = false;
+
+    public int getStudents() { return students; }
+
+    public int getProfessors() { return professors; }
+
+    public double getReadRatio() { return readRatio; }
+
+    public double getRate() { return rate; }
+
+    public boolean isOpenLoop() { return rate > 0; }
+
+    public long getThinkTime() { return thinkTime; }
+
+    public long getDuration() { return duration; }
+
+    public long getWarmup() { return warmup; }
+
+    public String getPolicy() { return policy; }
+
+    public int getCapacity() { return capacity >= 0 ? capacity : students; }
+
+    public String getNamingHost() { return namingHost; }
+
+    public int getNamingPort() { return namingPort; }
+
+    public long getReportInterval() { return reportInterval; }
+
+    public boolean isDebug() { return debug; }
+
+    /**
+     * Read the settings from the command-line arguments
+     * @param args  The command-line arguments
+     * @return      The settings
+     * @throws IllegalArgumentException If an argument is unknown or has an invalid value
+     */
+    public static LoadConfig fromArgs(String[] args) {
+
+        LoadConfig config = new LoadConfig();
+
+        for (String arg : args) {
+
+            if (arg.equals("-debug")) {
+                config.debug = true;
+                continue;
+            }
+
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("-") || separator == -1) {
+                throw new IllegalArgumentException("Invalid argument: " + arg);
+            }
+            String name = arg.substring(1, separator);
+            String value = arg.substring(separator + 1);
+
+            try {
+                switch (name) {
+                    case "students" -> config.students = Integer.parseInt(value);
+                    case "professors" -> config.professors = Integer.parseInt(value);
+                    case "reads" -> config.readRatio = Double.parseDouble(value);
+                    case "rate" -> config.rate = Double.parseDouble(value);
+                    case "think" -> config.thinkTime = Long.parseLong(value);
+                    case "duration" -> config.duration = Long.parseLong(value);
+                    case "warmup" -> config.warmup = Long.parseLong(value);
+                    case "policy" -> config.policy = value;
+                    case "capacity" -> config.capacity = Integer.parseInt(value);
+                    case "naming" -> {
+                        int colon = value.lastIndexOf(':');
+                        config.namingHost = value.substring(0, colon);
+                        config.namingPort = Integer.parseInt(value.substring(colon + 1));
+                    }
+                    case "report" -> config.reportInterval = Long.parseLong(value);
+                    default -> throw new IllegalArgumentException("Unknown argument: " + arg);
+                }
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Invalid value: " + arg);
+            }
+        }
+
+        config.validate();
+        return config;
+    }
+
+    private void validate() {
+
+        if (students < 0 || students > MAX_STUDENTS) {
+            throw new IllegalArgumentException("Students must be between 0 and " + MAX_STUDENTS + ".");
+        }
+        if (professors < 0 || students + professors == 0) {
+            throw new IllegalArgumentException("There must be at least one student or professor.");
+        }
+        if (readRatio < 0 || readRatio > 1) {
+            throw new IllegalArgumentException("Reads must be between 0 and 1.");
+        }
+        if (rate < 0 || thinkTime < 0 || duration <= 0 || warmup < 0 || reportInterval < 0) {
+            throw new IllegalArgumentException("Rate, think time, warm up and report interval must not be negative and duration must be positive.");
+        }
+        if (!policy.equals("p2c") && !policy.equals("random") && !policy.equals("hedge")) {
+            throw new IllegalArgumentException("Unknown policy: " + policy);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package pt.ulisboa.tecnico.classes.loadgenerator;
+
+import io.grpc.Status;
+import pt.ulisboa.tecnico.classes.ConnectionManager;
+import pt.ulisboa.tecnico.classes.HedgedReads;
+import pt.ulisboa.tecnico.classes.ReplicaPicker;
+import pt.ulisboa.tecnico.classes.client.ClassClient;
+import pt.ulisboa.tecnico.classes.client.ClientResult;
+import pt.ulisboa.tecnico.classes.client.ProfessorClient;
+import pt.ulisboa.tecnico.classes.client.StudentClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulates many students and professors sending requests at once and reports throughput and latency
+ * In closed loop each user waits for its response before the next request, in open loop requests
+ * arrive at a fixed mean rate whatever the response times, and latency counts from the planned start
+ */
+public class LoadGenerator {
+
+  // Max time waiting for requests still running at the end (milliseconds)
+  private static final long DRAIN_TIMEOUT = 10000;
+
+  private final LoadConfig config;
+  private final LoadStats stats = new LoadStats();
+
+  private final ConnectionManager connectionManager;
+
+  // Runs the naming lookups of the clients and the next request of each user
+  private final ExecutorService executor;
+  private final ScheduledExecutorService scheduler;
+
+  // Students first, then professors, each with its own clock like a real client
+  private final List<ClassClient> users = new ArrayList<>();
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private volatile boolean running = false;
+
+  private record Request(String operation, CompletableFuture<? extends ClientResult<?>> result) {}
+
+  public static void main(String[] args) {
+
+    LoadConfig config;
+    try {
+      config = LoadConfig.fromArgs(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(LoadConfig.USAGE);
+      return;
+    }
+
+    LoadGenerator generator = new LoadGenerator(config);
+    try {
+      generator.run();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      generator.close();
+    }
+  }
+
+  public LoadGenerator(LoadConfig config) {
+
+    this.config = config;
+    this.connectionManager = new ConnectionManager(config.getNamingHost(), config.getNamingPort(), ConnectionManager.DEFAULT_MEMBERSHIP_TTL);
+    this.executor = Executors.newCachedThreadPool(daemon("load-client"));
+    this.scheduler = Executors.newScheduledThreadPool(1, daemon("load-scheduler"));
+
+    if (config.getPolicy().equals("random")) {
+      connectionManager.getReplicaPicker().setPolicy(ReplicaPicker.Policy.RANDOM);
+    }
+    HedgedReads hedgedReads = config.getPolicy().equals("hedge") ? new HedgedReads(-1) : null;
+
+    for (int i = 0; i < config.getStudents() + config.getProfessors(); i++) {
+      ClassClient user = i < config.getStudents()
+          ? new StudentClient(connectionManager, executor, config.isDebug())
+          : new ProfessorClient(connectionManager, executor, config.isDebug());
+      user.setHedgedReads(hedgedReads);
+      user.setRetryListener(stats::recordRetry);
+      users.add(user);
+    }
+  }
+
+  public LoadStats getStats() { return stats; }
+
+  /**
+   * Open enrollments, send requests for the warm up and measured time, then print the results
+   */
+  public void run() throws InterruptedException {
+
+    if (config.getStudents() > 0) {
+      openEnrollments();
+    }
+
+    System.out.println("Running " + config.getStudents() + " students and " + config.getProfessors() + " professors, "
+        + (config.isOpenLoop() ? "open loop at " + config.getRate() + " req/s" : "closed loop")
+        + ", " + config.getPolicy() + " replica selection.");
+
+    running = true;
+    long start = System.nanoTime();
+
+    if (config.getReportInterval() > 0) {
+      long[] last = {0};
+      scheduler.scheduleAtFixedRate(() -> {
+        long finished = stats.getFinished();
+        System.out.printf("[%4d s] %.1f req/s, %d in flight%n",
+            TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start),
+            (finished - last[0]) / (double) config.getReportInterval(), inFlight.get());
+        last[0] = finished;
+      }, config.getReportInterval(), config.getReportInterval(), TimeUnit.SECONDS);
+    }
+
+    long measureStart = start + TimeUnit.SECONDS.toNanos(config.getWarmup());
+    long measureEnd = measureStart + TimeUnit.SECONDS.toNanos(config.getDuration());
+
+    scheduler.schedule(() -> stats.setRecording(true), measureStart - System.nanoTime(), TimeUnit.NANOSECONDS);
+
+    if (config.isOpenLoop()) {
+      runOpenLoop(measureEnd);
+    } else {
+      for (int user = 0; user < users.size(); user++) {
+        runClosedLoop(user);
+      }
+      TimeUnit.NANOSECONDS.sleep(measureEnd - System.nanoTime());
+    }
+
+    // Requests finishing after the measured time are not counted
+    stats.setRecording(false);
+    running = false;
+
+    long drainEnd = System.currentTimeMillis() + DRAIN_TIMEOUT;
+    while (inFlight.get() > 0 && System.currentTimeMillis() < drainEnd) {
+      Thread.sleep(10);
+    }
+
+    System.out.println();
+    stats.print(System.out, config.getDuration());
+  }
+
+  /**
+   * Release the clients and channels
+   */
+  public void close() {
+
+    running = false;
+    scheduler.shutdownNow();
+    users.forEach(ClassClient::close);
+    executor.shutdownNow();
+    connectionManager.close();
+  }
+
+  private void openEnrollments() {
+
+    ProfessorClient professor = new ProfessorClient(connectionManager, executor, config.isDebug());
+    try {
+      ClientResult<Void> result = professor.openEnrollments(config.getCapacity()).join();
+      System.out.println("Opening enrollments with capacity " + config.getCapacity() + ": " + result.code());
+    } catch (RuntimeException e) {
+      System.err.println("Caught exception with description: " + Status.fromThrowable(e).getDescription());
+    }
+  }
+
+  /**
+   * Send the next request of a user as soon as its last one finished
+   * @param user The user index
+   */
+  private void runClosedLoop(int user) {
+
+    if (!running) return;
+
+    long start = System.nanoTime();
+    send(user, start).whenComplete((result, error) -> {
+      if (!running) {
+        return;
+      }
+      if (config.getThinkTime() > 0) {
+        scheduler.schedule(() -> executor.execute(() -> runClosedLoop(user)), config.getThinkTime(), TimeUnit.MILLISECONDS);
+      } else {
+        executor.execute(() -> runClosedLoop(user));
+      }
+    });
+  }
+
+  /**
+   * Send requests from random users with exponential gaps between them, until the end time
+   * @param end The end time (nanoseconds)
+   */
+  private void runOpenLoop(long end) {
+
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long next = System.nanoTime();
+
+    while (running && next < end) {
+
+      long now = System.nanoTime();
+      if (next > now) {
+        LockSupport.parkNanos(next - now);
+        continue;
+      }
+
+      // Latency counts from the planned start, so a slow system is not hidden by late sends
+      send(random.nextInt(users.size()), next);
+      next += (long) (-Math.log(1 - random.nextDouble()) / config.getRate() * 1e9);
+    }
+  }
+
+  /**
+   * Send the next request of a user and record its outcome
+   * @param user  The user index
+   * @param start The time the request counts from (nanoseconds)
+   * @return      The request result
+   */
+  private CompletableFuture<? extends ClientResult<?>> send(int user, long start) {
+
+    Request request;
+    try {
+      request = nextRequest(user, ThreadLocalRandom.current());
+    } catch (RuntimeException e) {
+      stats.recordError("invalid", System.nanoTime() - start, Status.fromThrowable(e));
+      return CompletableFuture.failedFuture(e);
+    }
+
+    inFlight.incrementAndGet();
+    return request.result().whenComplete((result, error) -> {
+      long latency = System.nanoTime() - start;
+      if (error != null) {
+        stats.recordError(request.operation(), latency, Status.fromThrowable(error));
+      } else {
+        stats.record(request.operation(), latency, result.code());
+      }
+      inFlight.decrementAndGet();
+    });
+  }
+
+  /**
+   * Choose the next request of a user
+   * Students read the class or their own enrollment and write by enrolling themselves,
+   * professors read the class and write by cancelling a random enrollment
+   * @param user      The user index
+   * @param random    The random generator
+   * @return          The request sent
+   */
+  private Request nextRequest(int user, ThreadLocalRandom random) {
+
+    boolean read = random.nextDouble() < config.getReadRatio();
+
+    if (users.get(user) instanceof StudentClient student) {
+      String studentId = studentId(user);
+      if (!read) {
+        return new Request("enroll", student.enroll(studentId, "Student " + user));
+      }
+      return random.nextBoolean()
+          ? new Request("listClass", student.listClass())
+          : new Request("getEnrollment", student.getEnrollment(studentId));
+    }
+
+    ProfessorClient professor = (ProfessorClient) users.get(user);
+    if (!read && config.getStudents() > 0) {
+      return new Request("cancelEnrollment", professor.cancelEnrollment(studentId(random.nextInt(config.getStudents()))));
+    }
+    return new Request("listClass", professor.listClass());
+  }
+
+  private static String studentId(int student) {
+    return String.format("aluno%04d", student);
+  }
+
+  private static ThreadFactory daemon(String name) {
+    return runnable -> {
+      Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
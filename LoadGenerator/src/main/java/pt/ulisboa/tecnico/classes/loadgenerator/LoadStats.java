@@ -0,0 +1,117 @@
+package pt.ulisboa.tecnico.classes.loadgenerator;
+
+import io.grpc.Status;
+import pt.ulisboa.tecnico.classes.LatencyHistogram;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ResponseCode;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and outcomes of the requests sent by the load generator
+ */
+public class LoadStats {
+
+    // Latencies of each operation and of all of them together
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final LatencyHistogram total = new LatencyHistogram();
+
+    // Responses received by code, and requests that got no response by gRPC status
+    private final Map<ResponseCode, LongAdder> codes = new ConcurrentHashMap<>();
+    private final Map<Status.Code, LongAdder> errors = new ConcurrentHashMap<>();
+
+    // Requests sent again to another server because the first one was down
+    private final LongAdder retries = new LongAdder();
+
+    // Requests finished since the start, recorded or not, for the periodic report
+    private final LongAdder finished = new LongAdder();
+
+    // Off during the warm up
+    private volatile boolean recording = false;
+
+    public void setRecording(boolean recording) { this.recording = recording; }
+
+    public long getFinished() { return finished.sum(); }
+
+    /**
+     * Record a request answered by a server
+     * @param operation     The operation name
+     * @param latency       The latency in nanoseconds
+     * @param responseCode  The response code
+     */
+    public void record(String operation, long latency, ResponseCode responseCode) {
+
+        finished.increment();
+        if (!recording) return;
+
+        latencies.computeIfAbsent(operation, key -> new LatencyHistogram()).record(latency);
+        total.record(latency);
+        codes.computeIfAbsent(responseCode, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Record a request sent again because its server answered INACTIVE_SERVER
+     */
+    public void recordRetry() {
+        if (recording) retries.increment();
+    }
+
+    /**
+     * Record a request that got no response
+     * @param operation The operation name
+     * @param latency   The latency in nanoseconds
+     * @param status    The gRPC status of the failure
+     */
+    public void recordError(String operation, long latency, Status status) {
+
+        finished.increment();
+        if (!recording) return;
+
+        latencies.computeIfAbsent(operation, key -> new LatencyHistogram()).record(latency);
+        total.record(latency);
+        errors.computeIfAbsent(status.getCode(), key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Print throughput, latency percentiles and response counts
+     * @param out       The stream to print to
+     * @param seconds   The time the recorded requests took
+     */
+    public void print(PrintStream out, double seconds) {
+
+        out.printf("Requests: %d in %.1f s, %.1f req/s%n", total.getCount(), seconds, total.getCount() / seconds);
+        out.println();
+
+        out.printf("%-18s %10s %10s %10s %10s %10s %10s%n", "Operation", "Count", "Mean(ms)", "p50(ms)", "p99(ms)", "p999(ms)", "Max(ms)");
+        new TreeMap<>(latencies).forEach((operation, histogram) -> printLatencies(out, operation, histogram));
+        printLatencies(out, "all", total);
+        out.println();
+
+        // Replicas that are behind or down are always reported, even when there were none
+        Map<ResponseCode, Long> counts = new TreeMap<>();
+        counts.put(ResponseCode.SERVER_NOT_UPDATED, 0L);
+        counts.put(ResponseCode.INACTIVE_SERVER, 0L);
+        codes.forEach((code, count) -> counts.put(code, count.sum()));
+
+        out.println("Responses:");
+        counts.forEach((code, count) -> out.printf("  %-28s %d%n", code, count));
+        out.printf("  %-28s %d%n", "Retried after INACTIVE_SERVER", retries.sum());
+
+        if (!errors.isEmpty()) {
+            out.println("Failed requests:");
+            new TreeMap<>(errors).forEach((code, count) -> out.printf("  %-28s %d%n", code, count.sum()));
+        }
+    }
+
+    private static void printLatencies(PrintStream out, String operation, LatencyHistogram histogram) {
+        out.printf("%-18s %10d %10.2f %10.2f %10.2f %10.2f %10.2f%n", operation, histogram.getCount(),
+                histogram.getMean() / 1e6,
+                histogram.getPercentile(0.5) / 1e6,
+                histogram.getPercentile(0.99) / 1e6,
+                histogram.getPercentile(0.999) / 1e6,
+                histogram.getMax() / 1e6);
+    }
+}
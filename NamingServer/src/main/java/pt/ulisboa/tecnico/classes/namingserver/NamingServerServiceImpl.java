@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 
@@ -21,6 +22,8 @@ public class NamingServerServiceImpl extends NamingServerServiceImplBase {
     Random RANDOM = new Random();
     private final ConcurrentHashMap<String, ServiceEntry> namingServices;
     List<Integer> serverIds = new ArrayList<>();
+    // Guards the services and the server ids, a lock so virtual threads do not pin their carrier while they wait
+    private final ReentrantLock lock = new ReentrantLock();
 
     public NamingServerServiceImpl(boolean debugMode, ConcurrentHashMap<String, ServiceEntry> namingServices) {
         debug = new Debug(NamingServerServiceImpl.class.getName(), debugMode);
@@ -35,7 +38,8 @@ public class NamingServerServiceImpl extends NamingServerServiceImplBase {
     @Override
     public void register(RegisterRequest request, StreamObserver<RegisterResponse> responseObserver) {
 
-        synchronized (namingServices) {
+        lock.lock();
+        try {
 
             String serviceName = request.getServiceName();
             String host = request.getAddress().getHost();
@@ -78,6 +82,8 @@ public class NamingServerServiceImpl extends NamingServerServiceImplBase {
 
             responseObserver.onNext(RegisterResponse.newBuilder().setServerId(id).build());
             responseObserver.onCompleted();
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -89,7 +95,8 @@ public class NamingServerServiceImpl extends NamingServerServiceImplBase {
     @Override
     public void delete(DeleteRequest request, StreamObserver<DeleteResponse> responseObserver) {
 
-        synchronized (namingServices) {
+        lock.lock();
+        try {
 
             String serviceName = request.getServiceName();
             String host = request.getAddress().getHost();
@@ -104,6 +111,8 @@ public class NamingServerServiceImpl extends NamingServerServiceImplBase {
 
             responseObserver.onNext(DeleteResponse.getDefaultInstance());
             responseObserver.onCompleted();
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -115,7 +124,8 @@ public class NamingServerServiceImpl extends NamingServerServiceImplBase {
     @Override
     public void lookup(LookupRequest request, StreamObserver<LookupResponse> responseObserver) {
 
-        synchronized (namingServices) {
+        lock.lock();
+        try {
 
             LookupResponse.Builder response = LookupResponse.newBuilder();
 
@@ -158,6 +168,8 @@ public class NamingServerServiceImpl extends NamingServerServiceImplBase {
 
             responseObserver.onNext(response.build());
             responseObserver.onCompleted();
+        } finally {
+            lock.unlock();
         }
     }
 }
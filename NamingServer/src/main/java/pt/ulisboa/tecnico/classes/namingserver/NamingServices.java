@@ -3,6 +3,7 @@ package pt.ulisboa.tecnico.classes.namingserver;
 import io.grpc.BindableService;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import pt.ulisboa.tecnico.classes.ServerExecutors;
 
 import java.io.IOException;
 
@@ -30,9 +31,10 @@ public class NamingServices {
         try{
 
             // create new server to listen on port
-            Server namingServer = ServerBuilder.forPort(port)
-                    .addService(namingServerImpl)
-                    .build();
+            ServerBuilder<?> serverBuilder = ServerBuilder.forPort(port)
+                    .addService(namingServerImpl);
+            ServerExecutors.configure(serverBuilder, ServerExecutors.parseMode(args), "namingserver");
+            Server namingServer = serverBuilder.build();
 
             namingServer.start();
 
@@ -71,6 +73,14 @@ public class NamingServices {
             return false;
         }
 
+        // Verify executor mode
+        try{
+            ServerExecutors.parseMode(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid executor mode, expected cached, fixed or virtual.");
+            return false;
+        }
+
         return true;
     }
 }
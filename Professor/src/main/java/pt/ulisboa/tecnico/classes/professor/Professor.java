@@ -3,7 +3,10 @@ package pt.ulisboa.tecnico.classes.professor;
 import static java.lang.System.exit;
 import static pt.ulisboa.tecnico.classes.professor.ProfessorCommands.*;
 
+import pt.ulisboa.tecnico.classes.HedgedReads;
+
 import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
 public class Professor {
@@ -14,6 +17,7 @@ public class Professor {
 
     final Scanner scanner = new Scanner(System.in);
     final ProfessorFrontend frontend = new ProfessorFrontend(debug);
+    frontend.setHedgedReads(HedgedReads.fromArgs(args));
 
     while(true) {
       System.out.printf("%n> ");
@@ -35,9 +39,14 @@ public class Professor {
         case CLOSE_ENROLLMENTS -> closeEnrollments(frontend);
 
         case LIST -> listClass(frontend);
+        case LIST_STREAM -> listClassStream(frontend);
+
+        case WATCH -> watchClass(frontend);
 
         case CANCEL_ENROLLMENT -> cancelEnrollment(frontend, cmdArgs);
 
+        case CANCEL_ENROLLMENTS -> cancelEnrollments(frontend, cmdArgs);
+
         case EXIT -> {
           scanner.close();
           frontend.close();
@@ -97,6 +106,24 @@ public class Professor {
     frontend.listClass();
   }
 
+  /**
+   * Call listClassStream method from frontend
+   * @param frontend  The professor frontend
+   */
+  public static void listClassStream(ProfessorFrontend frontend) {
+
+    frontend.listClassStream();
+  }
+
+  /**
+   * Call watchClass method from frontend
+   * @param frontend  The professor frontend
+   */
+  public static void watchClass(ProfessorFrontend frontend) {
+
+    frontend.watchClass();
+  }
+
   /**
    * Call cancelEnrollment method from frontend
    * @param frontend  The professor frontend
@@ -112,4 +139,24 @@ public class Professor {
 
     frontend.cancelEnrollment(cmdArgs[1]);
   }
+
+  /**
+   * Call cancelEnrollments method from frontend
+   * Usage: cancelEnrollments [-atomic] studentId...
+   * @param frontend  The professor frontend
+   * @param cmdArgs   The command arguments
+   */
+  public static void cancelEnrollments(ProfessorFrontend frontend, String[] cmdArgs) {
+
+    boolean atomic = cmdArgs.length > 1 && cmdArgs[1].equals("-atomic");
+    List<String> studentIds = Arrays.asList(cmdArgs).subList(atomic ? 2 : 1, cmdArgs.length);
+
+    // check arguments
+    if(studentIds.isEmpty()){
+      System.out.println("Student Ids missing.");
+      return;
+    }
+
+    frontend.cancelEnrollments(studentIds, atomic);
+  }
 }
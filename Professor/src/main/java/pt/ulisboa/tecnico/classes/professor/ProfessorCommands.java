@@ -2,8 +2,11 @@ package pt.ulisboa.tecnico.classes.professor;
 
 public class ProfessorCommands {
     public static final String LIST = "list";
+    public static final String LIST_STREAM = "listStream";
+    public static final String WATCH = "watch";
     public static final String OPEN_ENROLLMENTS = "openEnrollments";
     public static final String CLOSE_ENROLLMENTS = "closeEnrollments";
     public static final String CANCEL_ENROLLMENT = "cancelEnrollment";
+    public static final String CANCEL_ENROLLMENTS = "cancelEnrollments";
     public static final String EXIT = "exit";
 }
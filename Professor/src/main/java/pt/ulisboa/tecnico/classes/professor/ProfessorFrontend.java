@@ -1,100 +1,89 @@
 package pt.ulisboa.tecnico.classes.professor;
 
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
-import io.grpc.StatusRuntimeException;
+import io.grpc.Status;
 
 import pt.ulisboa.tecnico.classes.*;
-import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.Address;
+import pt.ulisboa.tecnico.classes.client.ClassWatch;
+import pt.ulisboa.tecnico.classes.client.ClientResult;
+import pt.ulisboa.tecnico.classes.client.ProfessorClient;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ClassState;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.PageOrder;
 import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ResponseCode;
-import pt.ulisboa.tecnico.classes.contract.naming.NamingServerServiceGrpc;
-import pt.ulisboa.tecnico.classes.contract.naming.NamingServerServiceGrpc.*;
 import pt.ulisboa.tecnico.classes.contract.professor.ProfessorServiceGrpc;
-import pt.ulisboa.tecnico.classes.contract.professor.ProfessorServiceGrpc.*;
 import pt.ulisboa.tecnico.classes.contract.professor.ProfessorClassServer.*;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 
+/**
+ * Command-line side of the professor client
+ * Requests go through the non-blocking ProfessorClient, this class waits for them and prints the results
+ */
 public class ProfessorFrontend {
 
+    // Number of students in each page of a streamed listing
+    private static final int PAGE_SIZE = 100;
+
     private final Debug debug;
 
-    private VectorClock vectorClock;
-    private List<Address> addresses = new ArrayList<>();
+    // Watch stream of the class changes
+    private final ClassWatch<WatchClassRequest, WatchClassResponse> watch;
 
-    private final ManagedChannel namingServerChannel;
-    private final NamingServerServiceBlockingStub namingServerStub;
+    // Naming server lookups and server channels, kept between requests
+    private final ConnectionManager connectionManager;
 
-    private ManagedChannel classServerChannel;
-    private ProfessorServiceBlockingStub classServerStub;
+    private final ProfessorClient client;
 
 
     public ProfessorFrontend(boolean debugMode) {
-
-        // debug to log messages
-        debug = new Debug(ProfessorFrontend.class.getName(), debugMode);
-        // initialize client vector clock
-        vectorClock = new VectorClock();
-        // create channel and stub to naming services at hardcoded address
-        namingServerChannel = ManagedChannelBuilder.forAddress("localhost", 5000).usePlaintext().build();
-        namingServerStub = NamingServerServiceGrpc.newBlockingStub(namingServerChannel);
+        this(debugMode, new ConnectionManager());
     }
 
-    public List<Address> getAddresses() { return addresses; }
-
-    public void setAddresses(List<Address> addresses) { this.addresses = addresses; }
-
-    public void setVectorClock(VectorClock vectorClock) { this.vectorClock = vectorClock; }
-
-    public VectorClock getVectorClock() { return vectorClock; }
+    public ProfessorFrontend(boolean debugMode, ConnectionManager connectionManager) {
 
-    public NamingServerServiceBlockingStub getNamingServerStub() {
-        return namingServerStub;
+        // debug to log messages
+        debug = new Debug(ProfessorFrontend.class.getName(), debugMode);
+        this.connectionManager = connectionManager;
+
+        client = new ProfessorClient(connectionManager, debugMode);
+        client.setRetryListener(() -> {
+            System.out.println(Stringify.format(ResponseCode.INACTIVE_SERVER));
+            System.out.println("Trying another server...");
+        });
+
+        watch = new ClassWatch<>(connectionManager,
+                (channel, vectorClockState, observer) -> ProfessorServiceGrpc.newStub(channel).watchClass(
+                        WatchClassRequest.newBuilder().setVectorClockState(vectorClockState).build(), observer),
+                WatchClassResponse::getCode, WatchClassResponse::getEvent,
+                event -> System.out.println(Stringify.format(event)),
+                code -> System.out.println(Stringify.format(code)),
+                debug);
     }
 
-    public ProfessorServiceBlockingStub getClassServerStub() { return classServerStub; }
-
-    public void setClassServerStub(ProfessorServiceBlockingStub classServerStub) { this.classServerStub = classServerStub; }
-
-    public ManagedChannel getClassServerChannel() { return classServerChannel; }
+    public ProfessorClient getClient() { return client; }
 
-    public void setClassServerChannel(ManagedChannel classServerChannel) { this.classServerChannel = classServerChannel; }
+    public VectorClock getVectorClock() { return client.getVectorClock(); }
 
-    public ManagedChannel getNamingServerChannel() { return namingServerChannel; }
-
-    /**
-     * Get servers from naming server
-     * @param service       The server's service name
-     * @param qualifiers    The server's qualifiers
-     * @return              True if there are available servers, False otherwise
-     */
-    private boolean findServers(String service, String[] qualifiers) {
+    public void setHedgedReads(HedgedReads hedgedReads) { client.setHedgedReads(hedgedReads); }
 
-        setAddresses(ServerLookup.getAvailableServers(service, qualifiers, getNamingServerStub()));
-        return getAddresses().isEmpty();
-    }
+    public ConnectionManager getConnectionManager() { return connectionManager; }
 
     /**
-     * Create channel and stub to a server
+     * Wait for a request to finish
+     * @param request   The request
+     * @param <T>       The result value type
+     * @return          The result, null if no server could be reached
      */
-    private void createChannelAndStub() {
-
-        // Select a random server from the list
-        int randomValue = ServerLookup.getRandomValue(getAddresses().size());
-        Address address = getAddresses().get(randomValue);
-
-        // Create channel and stub to the selected server
-        setClassServerChannel(ManagedChannelBuilder.forAddress(address.getHost(), address.getPort())
-                .usePlaintext()
-                .build());
-        setClassServerStub(ProfessorServiceGrpc.newBlockingStub(classServerChannel));
-
-        debug.log("Contacting server at " + address.getHost() + ":" + address.getPort());
+    private <T> ClientResult<T> await(CompletableFuture<ClientResult<T>> request) {
 
-        // Remove chosen server to avoid re-sending request to the same server
-        getAddresses().remove(address);
+        try {
+            return request.join();
+        } catch (CompletionException e) {
+            System.err.println("Caught exception with description: " + Status.fromThrowable(e).getDescription());
+            return null;
+        }
     }
 
     /**
@@ -103,39 +92,12 @@ public class ProfessorFrontend {
      */
     public void openEnrollments(Integer capacity){
 
-        if (findServers("turmas", new String[]{"P"})) return;
-
-        OpenEnrollmentsRequest request = OpenEnrollmentsRequest.newBuilder()
-                .setCapacity(capacity)
-                .setVectorClockState(Convert.toVectorClockState(vectorClock))
-                .build();
-        OpenEnrollmentsResponse response;
-        ResponseCode responseCode;
-
-        do {
-            createChannelAndStub();
+        ClientResult<Void> result = await(client.openEnrollments(capacity));
+        if(result == null) return;
 
-            try {
-                response = getClassServerStub().openEnrollments(request);
-            } catch (StatusRuntimeException e){
-                System.err.println("Caught exception with description: " + e.getStatus().getDescription());
-                return;
-            }
-
-            responseCode = response.getCode();
-            System.out.println(Stringify.format(responseCode));
-
-            if(responseCode == ResponseCode.INACTIVE_SERVER && !addresses.isEmpty()) {
-                System.out.println("Trying another server...");
-            }
-            getClassServerChannel().shutdown();
+        System.out.println(Stringify.format(result.code()));
 
-        } while(responseCode == ResponseCode.INACTIVE_SERVER && !getAddresses().isEmpty());
-
-        // Update client vector clock to match the server's vector clock
-        setVectorClock(Convert.toVectorClock(response.getVectorClockState()));
-
-        debug.log("openEnrollments: " + responseCode + " with argument: " + capacity + " and vector clock: " + getVectorClock());
+        debug.log("openEnrollments: " + result.code() + " with argument: " + capacity + " and vector clock: " + getVectorClock());
     }
 
     /**
@@ -143,38 +105,12 @@ public class ProfessorFrontend {
      */
     public void closeEnrollments(){
 
-        if (findServers("turmas", new String[]{"P"})) return;
-
-        CloseEnrollmentsRequest request = CloseEnrollmentsRequest.newBuilder()
-                .setVectorClockState(Convert.toVectorClockState(vectorClock))
-                .build();
-        CloseEnrollmentsResponse response;
-        ResponseCode responseCode;
+        ClientResult<Void> result = await(client.closeEnrollments());
+        if(result == null) return;
 
-        do {
-            createChannelAndStub();
+        System.out.println(Stringify.format(result.code()));
 
-            try {
-                response = getClassServerStub().closeEnrollments(request);
-            } catch (StatusRuntimeException e){
-                System.err.println("Caught exception with description: " + e.getStatus().getDescription());
-                return;
-            }
-
-            responseCode = response.getCode();
-            System.out.println(Stringify.format(responseCode));
-
-            if(responseCode == ResponseCode.INACTIVE_SERVER && !addresses.isEmpty()) {
-                System.out.println("Trying another server...");
-            }
-            getClassServerChannel().shutdown();
-
-        } while(responseCode == ResponseCode.INACTIVE_SERVER && !getAddresses().isEmpty());
-
-        // Update client vector clock to match the server's vector clock
-        setVectorClock(Convert.toVectorClock(response.getVectorClockState()));
-
-        debug.log("closeEnrollments: " + responseCode + " and vector clock: " + getVectorClock());
+        debug.log("closeEnrollments: " + result.code() + " and vector clock: " + getVectorClock());
     }
 
     /**
@@ -182,49 +118,58 @@ public class ProfessorFrontend {
      */
     public void listClass(){
 
-        if(findServers("turmas", new String[]{"P","S"})) return;
+        ClientResult<ClassState> result = await(client.listClass());
+        if(result == null) return;
 
-        ListClassRequest request = ListClassRequest.newBuilder()
-                .setVectorClockState(Convert.toVectorClockState(vectorClock))
-                .build();
-        ListClassResponse response;
-        ResponseCode responseCode;
-
-        do {
-            createChannelAndStub();
-
-            try{
-                response = getClassServerStub().listClass(request);
-            } catch (StatusRuntimeException e){
-                System.err.println("Caught exception with description: " + e.getStatus().getDescription());
-                return;
+        switch (result.code()) {
+            case OK, NOT_MODIFIED -> System.out.println(Stringify.format(result.value()));
+            case SERVER_NOT_UPDATED -> {
+                System.out.println(Stringify.format(result.value()));
+                System.out.println(Stringify.format(result.code()));
             }
+            default -> System.out.println(Stringify.format(result.code()));
+        }
 
-            responseCode = response.getCode();
-
-            if(responseCode == ResponseCode.INACTIVE_SERVER && !addresses.isEmpty()){
-                System.out.println(Stringify.format(responseCode));
-                System.out.println("Trying another server...");
-            }
-            getClassServerChannel().shutdown();
-
-        } while (responseCode == ResponseCode.INACTIVE_SERVER && !getAddresses().isEmpty());
-
-        // Update client vector clock to match the server's vector clock
-        setVectorClock(Convert.toVectorClock(response.getVectorClockState()));
+        debug.log("listClass: " + result.code() + " and vector clock: " + getVectorClock());
+    }
 
-        if(responseCode == ResponseCode.OK){
-            System.out.println(Stringify.format(response.getClassState()));
+    /**
+     * List class state page by page from a single server
+     * The class is printed as pages arrive, so large classes are never held in memory
+     */
+    public void listClassStream() {
+
+        Stringify.ClassStateWriter[] writer = new Stringify.ClassStateWriter[1];
+
+        // Every page carries the same code and clock, only the students change
+        CompletableFuture<ClientResult<Void>> request = client.listClassStream(PAGE_SIZE, PageOrder.BY_STUDENT_ID, page -> {
+            if(page.getCode() != ResponseCode.OK && page.getCode() != ResponseCode.SERVER_NOT_UPDATED) return;
+            if(writer[0] == null)
+                writer[0] = new Stringify.ClassStateWriter(System.out, page.getCapacity(), page.getOpenEnrollments());
+            writer[0].addEnrolled(page.getEnrolledList());
+            writer[0].addDiscarded(page.getDiscardedList());
+        });
+
+        ClientResult<Void> result;
+        try {
+            result = request.join();
+        } catch (CompletionException e) {
+            // End the line of a listing cut in the middle
+            if(writer[0] != null) System.out.println();
+            System.err.println("Caught exception with description: " + Status.fromThrowable(e).getDescription());
+            return;
         }
-        else if(responseCode == ResponseCode.SERVER_NOT_UPDATED){
-            System.out.println(Stringify.format(response.getClassState()));
-            System.out.println(Stringify.format(responseCode));
+
+        if(writer[0] != null){
+            writer[0].end();
+            if(result.code() == ResponseCode.SERVER_NOT_UPDATED)
+                System.out.println(Stringify.format(result.code()));
         }
-        else{
-            System.out.println(Stringify.format(responseCode));
+        else {
+            System.out.println(Stringify.format(result.code()));
         }
 
-        debug.log("listClass: " + responseCode + " and vector clock: " + getVectorClock());
+        debug.log("listClassStream: " + result.code() + " and vector clock: " + getVectorClock());
     }
 
     /**
@@ -233,45 +178,55 @@ public class ProfessorFrontend {
      */
     public void cancelEnrollment(String studentId){
 
-        if (findServers("turmas", new String[]{"P","S"})) return;
+        ClientResult<Void> result = await(client.cancelEnrollment(studentId));
+        if(result == null) return;
 
-        CancelEnrollmentRequest request = CancelEnrollmentRequest.newBuilder()
-                .setStudentId(studentId)
-                .setVectorClockState(Convert.toVectorClockState(vectorClock))
-                .build();
-        CancelEnrollmentResponse response;
-        ResponseCode responseCode;
+        System.out.println(Stringify.format(result.code()));
 
-        do {
-            createChannelAndStub();
+        debug.log("cancelEnrollment: " + result.code() + " with arguments " + studentId + " and vector clock: " + getVectorClock());
+    }
 
-            try {
-                response = getClassServerStub().cancelEnrollment(request);
-            } catch (StatusRuntimeException e){
-                System.err.println("Caught exception with description: " + e.getStatus().getDescription());
-                return;
-            }
+    /**
+     * Cancel several student enrollments with a single request
+     * @param studentIds    The student ids
+     * @param atomic        If true, no enrollment is cancelled unless all of them can be
+     */
+    public void cancelEnrollments(List<String> studentIds, boolean atomic){
 
-            responseCode = response.getCode();
-            System.out.println(Stringify.format(responseCode));
+        ClientResult<List<ResponseCode>> result = await(client.cancelEnrollmentBatch(studentIds, atomic));
+        if(result == null) return;
 
-            if(responseCode == ResponseCode.INACTIVE_SERVER && !addresses.isEmpty()) {
-                System.out.println("Trying another server...");
+        if (result.code() == ResponseCode.INACTIVE_SERVER) {
+            System.out.println(Stringify.format(result.code()));
+        } else {
+            if (result.code() == ResponseCode.SERVER_NOT_UPDATED) {
+                System.out.println(Stringify.format(result.code()));
+            }
+            for (int i = 0; i < result.value().size(); i++) {
+                System.out.println(studentIds.get(i) + ": " + Stringify.format(result.value().get(i)));
             }
-            getClassServerChannel().shutdown();
+        }
 
-        } while(responseCode == ResponseCode.INACTIVE_SERVER && !getAddresses().isEmpty());
+        debug.log("cancelEnrollments: " + result.code() + " with arguments " + studentIds + " and vector clock: " + getVectorClock());
+    }
 
-        // Update client vector clock to match the server's vector clock
-        setVectorClock(Convert.toVectorClock(response.getVectorClockState()));
+    /**
+     * Watch class changes
+     * Prints a snapshot of the class followed by each change as it happens
+     */
+    public void watchClass() {
 
-        debug.log("cancelEnrollment: " + responseCode + " with arguments " + studentId + " and vector clock: " + getVectorClock());
+        if(!watch.start()){
+            System.out.println("Already watching the class.");
+        }
     }
 
     /**
      * Close channel
      */
     public void close(){
-        getNamingServerChannel().shutdown();
+        watch.stop();
+        client.close();
+        connectionManager.close();
     }
 }
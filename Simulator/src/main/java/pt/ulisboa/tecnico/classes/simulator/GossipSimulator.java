@@ -0,0 +1,102 @@
+package pt.ulisboa.tecnico.classes.simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Runs many seeded gossip scenarios and reports how many rounds and bytes the replicas needed to converge
+ * Scenarios that did not converge or lost an accepted enrollment are listed by seed, so they can be replayed
+ * alone with -trace, and make the run exit with status 1
+ */
+public class GossipSimulator {
+
+  // Seeds listed for each kind of failed scenario
+  private static final int MAX_LISTED = 10;
+
+  public static void main(String[] args) {
+
+    SimConfig config;
+    try {
+      config = SimConfig.fromArgs(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(SimConfig.USAGE);
+      return;
+    }
+
+    long start = System.nanoTime();
+    List<Scenario.Result> results = new ArrayList<>();
+    for (int i = 0; i < config.getScenarios(); i++) {
+      results.add(new Scenario(config, config.getSeed() + i).run());
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    print(config, results, seconds);
+
+    // Fail the run too, so scripts notice
+    if (results.stream().anyMatch(result -> !result.converged() || result.lostWrites() > 0 || result.handlerErrors() > 0)) {
+      System.exit(1);
+    }
+  }
+
+  private static void print(SimConfig config, List<Scenario.Result> results, double seconds) {
+
+    List<Scenario.Result> converged = results.stream().filter(Scenario.Result::converged).toList();
+    List<Scenario.Result> diverged = results.stream().filter(result -> !result.converged()).toList();
+    List<Scenario.Result> lost = results.stream().filter(result -> result.lostWrites() > 0).toList();
+    List<Scenario.Result> failed = results.stream().filter(result -> result.handlerErrors() > 0).toList();
+
+    System.out.printf("%d scenarios in %.1f s (%.0f per minute), %d replicas, %d writes%n",
+        results.size(), seconds, results.size() / seconds * 60, config.getReplicas(), config.getWrites());
+    System.out.printf("Converged: %d, not converged after %d rounds: %d, lost enrollments: %d, gossip handler exceptions: %d%n",
+        converged.size(), config.getRounds(), diverged.size(), lost.size(), failed.size());
+    System.out.println();
+
+    System.out.printf("%-28s %10s %10s %10s %10s %10s%n", "Per scenario", "mean", "p50", "p90", "p99", "max");
+    printDistribution("Rounds to converge", converged, Scenario.Result::rounds);
+    printDistribution("Time to converge (ms)", converged, Scenario.Result::convergenceTime);
+    printDistribution("Bytes sent", results, Scenario.Result::bytes);
+    printDistribution("Messages sent", results, Scenario.Result::messages);
+    printDistribution("Messages lost", results, Scenario.Result::dropped);
+    printDistribution("Gossip rounds", results, Scenario.Result::gossipRounds);
+    printDistribution("Failed gossip rounds", results, Scenario.Result::failedRounds);
+    printDistribution("Rejected writes", results, Scenario.Result::rejectedWrites);
+    printDistribution("Gossip handler exceptions", results, Scenario.Result::handlerErrors);
+
+    printSeeds("Not converged", diverged);
+    printSeeds("Lost enrollments", lost);
+    printSeeds("Gossip handler exceptions", failed);
+  }
+
+  private static void printDistribution(String name, List<Scenario.Result> results, ToLongFunction<Scenario.Result> value) {
+
+    if (results.isEmpty()) {
+      System.out.printf("%-28s %10s%n", name, "-");
+      return;
+    }
+
+    long[] values = results.stream().mapToLong(value).sorted().toArray();
+    System.out.printf("%-28s %10.1f %10d %10d %10d %10d%n", name, Arrays.stream(values).average().orElse(0),
+        percentile(values, 0.5), percentile(values, 0.9), percentile(values, 0.99), values[values.length - 1]);
+  }
+
+  private static long percentile(long[] sorted, double percentile) {
+    return sorted[Math.max(0, (int) Math.ceil(percentile * sorted.length) - 1)];
+  }
+
+  private static void printSeeds(String name, List<Scenario.Result> results) {
+
+    if (results.isEmpty()) return;
+
+    System.out.println();
+    System.out.println(name + ", replay with the same arguments and -seed=<seed> -scenarios=1 -trace:");
+    results.stream().limit(MAX_LISTED).forEach(result ->
+        System.out.printf("  seed %d: %d rounds, %d lost enrollments, %d handler exceptions%n",
+          result.seed(), result.rounds(), result.lostWrites(), result.handlerErrors()));
+    if (results.size() > MAX_LISTED) {
+      System.out.println("  and " + (results.size() - MAX_LISTED) + " more");
+    }
+  }
+}
@@ -0,0 +1,432 @@
+package pt.ulisboa.tecnico.classes.simulator;
+
+import io.grpc.stub.StreamObserver;
+import pt.ulisboa.tecnico.classes.VectorClock;
+import pt.ulisboa.tecnico.classes.classserver.Class;
+import pt.ulisboa.tecnico.classes.classserver.ClassServerFrontend;
+import pt.ulisboa.tecnico.classes.classserver.ClassServerServiceImpl;
+import pt.ulisboa.tecnico.classes.classserver.PeerCursors;
+import pt.ulisboa.tecnico.classes.classserver.ServerStatus;
+import pt.ulisboa.tecnico.classes.classserver.exception.ClassException;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.Address;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ResponseCode;
+import pt.ulisboa.tecnico.classes.contract.classserver.ClassServerClassServer.GossipRequest;
+import pt.ulisboa.tecnico.classes.contract.classserver.ClassServerClassServer.GossipResponse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * One seeded run of the replicas' gossip over a virtual network and clock
+ * Replicas run the real class and gossip code, only the transport and the timer are simulated, so a seed
+ * always replays the same interleaving of writes, messages, losses and partitions
+ * A round follows ClassServerFrontend: a request built for each replica behind the sender, with only the students
+ * it is missing, sent one at a time in random order, skipping failed replicas, and the changed flag kept while
+ * any replica has not acknowledged the sender clock
+ */
+public class Scenario {
+
+    public record Result(long seed, boolean converged, int rounds, long convergenceTime, long bytes, long messages,
+                         long dropped, long gossipRounds, long failedRounds, long rejectedWrites, long handlerErrors,
+                         int lostWrites) {}
+
+    private record Event(long time, long sequence, Runnable action) {}
+
+    // Data every replica must agree on once converged
+    private record State(int capacity, boolean openEnrollments, Map<String, String> enrolled, Map<String, String> discarded) {}
+
+    private static class Replica {
+
+        private final int index;
+        private final Address address;
+        private final Class studentsClass;
+        private final ClassServerServiceImpl service;
+
+        // True while a round is running, the timer thread of a server cannot start another one
+        private boolean gossiping = false;
+
+        private Replica(int index, Class studentsClass, ClassServerServiceImpl service) {
+            this.index = index;
+            this.address = Address.newBuilder().setHost("sim").setPort(index).build();
+            this.studentsClass = studentsClass;
+            this.service = service;
+        }
+    }
+
+    private final SimConfig config;
+    private final long seed;
+    private final Random random;
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>(
+            Comparator.comparingLong(Event::time).thenComparingLong(Event::sequence));
+    private long sequence = 0;
+    private long now = 0;
+
+    private final List<Replica> replicas = new ArrayList<>();
+
+    // Side of the partition of each replica, replicas on different sides cannot reach each other
+    private final int[] sides;
+    private long healTime = 0;
+
+    // Students whose enrollment some replica accepted, they must never disappear
+    private final Set<String> acceptedEnrollments = new HashSet<>();
+
+    private long bytes = 0;
+    private long messages = 0;
+    private long dropped = 0;
+    private long gossipRounds = 0;
+    private long failedRounds = 0;
+    private long rejectedWrites = 0;
+    private long handlerErrors = 0;
+
+    private boolean finished = false;
+    private Result result;
+
+    public Scenario(SimConfig config, long seed) {
+
+        this.config = config;
+        this.seed = seed;
+        this.random = new Random(seed);
+        this.sides = new int[config.getReplicas()];
+
+        for (int i = 0; i < config.getReplicas(); i++) {
+
+            ServerStatus serverStatus = new ServerStatus("sim", i, List.of(i == 0 ? "P" : "S"));
+            serverStatus.setServerId(i + 1);
+            serverStatus.getVectorClock().addServerId(i + 1);
+
+            long offset = config.getSkew() > 0 ? random.nextLong() % (config.getSkew() + 1) : 0;
+            Class studentsClass = new Class(serverStatus, new VirtualClock(() -> now, offset));
+
+            replicas.add(new Replica(i, studentsClass, new ClassServerServiceImpl(studentsClass, false)));
+        }
+    }
+
+    /**
+     * Run the scenario until every replica holds the same data or the rounds run out
+     * @return The result
+     */
+    public Result run() {
+
+        schedule(0, () -> write(replicas.get(0), () -> replicas.get(0).studentsClass.openEnrollments(config.getCapacity()),
+                "openEnrollments " + config.getCapacity(), null));
+
+        long lastWrite = 0;
+        for (int i = 0; i < config.getWrites(); i++) {
+            long time = config.getWindow() == 0 ? 0 : (long) (random.nextDouble() * config.getWindow());
+            lastWrite = Math.max(lastWrite, time);
+            schedule(time, this::randomWrite);
+        }
+
+        if (random.nextDouble() < config.getPartition()) {
+            long start = config.getWindow() == 0 ? 0 : (long) (random.nextDouble() * config.getWindow());
+            healTime = start + config.getHeal();
+            schedule(start, this::partition);
+            schedule(healTime, this::heal);
+        }
+
+        // Timers start at random phases, as servers are not started at the same time
+        for (Replica replica : replicas) {
+            schedule((long) (random.nextDouble() * config.getPeriod()), () -> tick(replica));
+        }
+
+        long quiet = Math.max(lastWrite, healTime);
+        for (int round = 0; round <= config.getRounds(); round++) {
+            int checked = round;
+            schedule(quiet + round * config.getPeriod(), () -> check(checked, quiet));
+        }
+
+        while (!finished && !events.isEmpty()) {
+            Event event = events.poll();
+            now = event.time();
+            event.action().run();
+        }
+
+        return result;
+    }
+
+    private void schedule(long time, Runnable action) {
+        events.add(new Event(time, sequence++, action));
+    }
+
+    private void trace(String message) {
+        if (config.isTrace()) {
+            System.out.printf("[%7d ms] %s%n", now, message);
+        }
+    }
+
+    /**
+     * Enroll or cancel the enrollment of a random student on a random replica
+     */
+    private void randomWrite() {
+
+        Replica replica = replicas.get(random.nextInt(replicas.size()));
+        String studentId = String.format("aluno%04d", random.nextInt(config.getStudents()));
+
+        if (random.nextDouble() < 0.8) {
+            write(replica, () -> replica.studentsClass.enroll(studentId, "Student " + studentId.substring(5)),
+                    "enroll " + studentId, studentId);
+        } else {
+            write(replica, () -> replica.studentsClass.cancelEnrollment(studentId), "cancelEnrollment " + studentId, null);
+        }
+    }
+
+    private interface Write {
+        void apply() throws ClassException;
+    }
+
+    /**
+     * Apply a client write as the service implementations do, under the class lock
+     */
+    private void write(Replica replica, Write write, String description, String enrolledStudent) {
+
+        replica.studentsClass.getLock().lock();
+        try {
+            try {
+                write.apply();
+                if (enrolledStudent != null) acceptedEnrollments.add(enrolledStudent);
+                trace("r" + replica.index + " " + description + ": OK " + replica.studentsClass.getServerStatus().getVectorClock());
+            } catch (ClassException e) {
+                rejectedWrites++;
+                trace("r" + replica.index + " " + description + ": " + e.getMessage());
+            }
+        } finally {
+            replica.studentsClass.getLock().unlock();
+        }
+    }
+
+    private void partition() {
+
+        // The primary stays on one side and a random replica on the other, the rest are split at random
+        int other = 1 + random.nextInt(replicas.size() - 1);
+        for (int i = 1; i < sides.length; i++) {
+            sides[i] = i == other ? 1 : random.nextInt(2);
+        }
+        trace("partition " + Arrays.toString(sides));
+    }
+
+    private void heal() {
+        Arrays.fill(sides, 0);
+        trace("partition healed");
+    }
+
+    /**
+     * Timer task of a replica, gossiping if it has changes as the server timer does
+     */
+    private void tick(Replica replica) {
+
+        schedule(now + config.getPeriod(), () -> tick(replica));
+
+        if (replica.gossiping || !ClassServerFrontend.verifyServerStatus(replica.studentsClass, "timer")) {
+            return;
+        }
+
+        // Like the server timer, only peers that did not acknowledge the local clock are sent to
+        List<Replica> peers = new ArrayList<>(replicas);
+        peers.remove(replica);
+        List<Address> addresses = peers.stream().map(peer -> peer.address).toList();
+        PeerCursors peerCursors = replica.studentsClass.getServerStatus().getPeerCursors();
+        VectorClock vectorClock = replica.studentsClass.getServerStatus().getVectorClock();
+        peers.removeIf(peer -> !peerCursors.get(peer.address).isBehind(vectorClock));
+
+        if (peers.isEmpty()) {
+            ClassServerFrontend.finishGossipRound(replica.studentsClass, addresses);
+            return;
+        }
+        Collections.shuffle(peers, random);
+
+        replica.gossiping = true;
+        gossipRounds++;
+        trace("r" + replica.index + " starts gossip " + vectorClock + " to " + peers.size() + " peers");
+        sendNext(replica, peers, addresses, new ArrayList<>(), false);
+    }
+
+    /**
+     * Send the round request to the next replica, or finish the round if there are none left
+     * A failed peer is skipped, the round goes on with the others
+     */
+    private void sendNext(Replica sender, List<Replica> peers, List<Address> addresses, List<GossipResponse> responses,
+                          boolean failed) {
+
+        if (peers.isEmpty()) {
+            finishRound(sender, addresses, responses, failed);
+            return;
+        }
+
+        Replica receiver = peers.remove(0);
+        PeerCursors peerCursors = sender.studentsClass.getServerStatus().getPeerCursors();
+        exchange(sender, receiver, ClassServerFrontend.buildGossipRequest(sender.studentsClass, peerCursors.get(receiver.address)), response -> {
+
+            if (response == null) {
+                peerCursors.fail(receiver.address);
+                sendNext(sender, peers, addresses, responses, true);
+            } else if (response.getCode() == ResponseCode.FULL_STATE_REQUIRED) {
+                // The receiver no longer holds the base of the changes, send it the whole class
+                peerCursors.reset(receiver.address);
+                exchange(sender, receiver, ClassServerFrontend.buildGossipRequest(sender.studentsClass), retry -> {
+                    if (retry == null || retry.getCode() != ResponseCode.OK) {
+                        peerCursors.fail(receiver.address);
+                    } else {
+                        peerCursors.acknowledge(receiver.address, retry);
+                    }
+                    if (retry != null) responses.add(retry);
+                    sendNext(sender, peers, addresses, responses, failed || retry == null);
+                });
+            } else {
+                if (response.getCode() == ResponseCode.OK) {
+                    peerCursors.acknowledge(receiver.address, response);
+                } else {
+                    peerCursors.fail(receiver.address);
+                }
+                responses.add(response);
+                sendNext(sender, peers, addresses, responses, failed);
+            }
+        });
+    }
+
+    /**
+     * Send a request to a replica and hand its response back to the sender
+     * @param then  Called on the sender with the response, or with null if the request or response was lost
+     */
+    private void exchange(Replica sender, Replica receiver, GossipRequest request, Consumer<GossipResponse> then) {
+
+        if (!transmit(sender, receiver, request.getSerializedSize())) {
+            schedule(now + config.getTimeout(), () -> then.accept(null));
+            return;
+        }
+
+        schedule(now + delay(), () -> {
+            GossipResponse response = receive(receiver, request);
+            if (response == null) {
+                schedule(now + delay(), () -> then.accept(null));
+                return;
+            }
+            trace("r" + receiver.index + " handles gossip from r" + sender.index
+                    + (request.hasBaseVectorClockState() ? " (" + (request.getClassState().getEnrolledCount()
+                    + request.getClassState().getDiscardedCount()) + " changed students)" : "")
+                    + ": " + response.getCode() + " " + receiver.studentsClass.getServerStatus().getVectorClock());
+
+            if (!transmit(receiver, sender, response.getSerializedSize())) {
+                schedule(now + config.getTimeout(), () -> then.accept(null));
+                return;
+            }
+            schedule(now + delay(), () -> then.accept(response));
+        });
+    }
+
+    /**
+     * Count a message and decide if it arrives
+     * @return False if it is lost or crosses the partition
+     */
+    private boolean transmit(Replica from, Replica to, int size) {
+
+        messages++;
+        bytes += size;
+        if (sides[from.index] != sides[to.index] || random.nextDouble() < config.getDrop()) {
+            dropped++;
+            trace("r" + from.index + " -> r" + to.index + " lost (" + size + " bytes)");
+            return false;
+        }
+        return true;
+    }
+
+    private long delay() {
+
+        long delay = config.getDelay() + (config.getJitter() > 0 ? (long) (random.nextDouble() * (config.getJitter() + 1)) : 0);
+        if (random.nextDouble() < config.getReorder()) {
+            delay += (long) (random.nextDouble() * config.getPeriod());
+        }
+        return delay;
+    }
+
+    /**
+     * Handle a request on the receiver with the real service implementation
+     * @return The response, null if the handler failed before sending one
+     */
+    private GossipResponse receive(Replica receiver, GossipRequest request) {
+
+        GossipResponse[] response = new GossipResponse[1];
+        try {
+            receiver.service.gossip(request, new StreamObserver<>() {
+                @Override
+                public void onNext(GossipResponse value) { response[0] = value; }
+
+                @Override
+                public void onError(Throwable t) {}
+
+                @Override
+                public void onCompleted() {}
+            });
+        } catch (RuntimeException e) {
+            // As in gRPC, a response sent before the exception still reaches the sender, otherwise the call fails
+            handlerErrors++;
+            trace("r" + receiver.index + " gossip handler threw " + e);
+        }
+        return response[0];
+    }
+
+    private void finishRound(Replica sender, List<Address> addresses, List<GossipResponse> responses, boolean failed) {
+
+        sender.gossiping = false;
+        if (failed) failedRounds++;
+
+        if (!responses.isEmpty()) {
+            GossipResponse response = ClassServerFrontend.chooseGossipResponse(sender.studentsClass, responses, null);
+            if (response.getCode() == ResponseCode.OK) {
+                ClassServerFrontend.updateClass(sender.studentsClass, response);
+            }
+        }
+        ClassServerFrontend.finishGossipRound(sender.studentsClass, addresses);
+
+        trace("r" + sender.index + " finishes gossip " + sender.studentsClass.getServerStatus().getVectorClock()
+                + (failed ? ", some peers failed" : "")
+                + (sender.studentsClass.getServerStatus().isChanged() ? ", still changed" : ""));
+    }
+
+    /**
+     * Finish the scenario if no round is running and every replica holds the same data
+     * @param round The gossip periods since the last write or heal
+     * @param quiet The time of the last write or heal
+     */
+    private void check(int round, long quiet) {
+
+        boolean idle = replicas.stream().noneMatch(replica -> replica.gossiping);
+        State state = stateOf(replicas.get(0));
+        boolean converged = idle && replicas.stream().allMatch(replica -> stateOf(replica).equals(state));
+
+        if (converged || round == config.getRounds()) {
+
+            int lost = 0;
+            for (String studentId : acceptedEnrollments) {
+                if (!state.enrolled().containsKey(studentId) && !state.discarded().containsKey(studentId)) lost++;
+            }
+
+            result = new Result(seed, converged, round, converged ? now - quiet : -1, bytes, messages, dropped,
+                    gossipRounds, failedRounds, rejectedWrites, handlerErrors, converged ? lost : 0);
+            finished = true;
+            trace(converged ? "converged after " + round + " rounds" : "not converged after " + round + " rounds");
+        }
+    }
+
+    private static State stateOf(Replica replica) {
+
+        Class studentsClass = replica.studentsClass;
+        studentsClass.getLock().lock();
+        try {
+            return new State(studentsClass.getCapacity(), studentsClass.isOpenEnrollments(),
+                    new TreeMap<>(studentsClass.getEnrolled()), new TreeMap<>(studentsClass.getDiscarded()));
+        } finally {
+            studentsClass.getLock().unlock();
+        }
+    }
+}
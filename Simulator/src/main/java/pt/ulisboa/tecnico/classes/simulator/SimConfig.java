@@ -0,0 +1,163 @@
+package pt.ulisboa.tecnico.classes.simulator;
+
+/**
+ * Settings of a gossip simulation, read from -name=value arguments
+ * Times are virtual, in milliseconds
+ */
+public class SimConfig {
+
+    public static final String USAGE = """
+            Usage: GossipSimulator [-name=value]...
+              -scenarios=N      Scenarios to run, each with its own seed (default 1000)
+              -seed=N           Seed of the first scenario (default 1)
+              -replicas=N       Replicas, the first one is the primary (default 3)
+              -writes=N         Client writes on random replicas (default 20)
+              -students=N       Distinct students the writes pick from, at most 10000 (default 10)
+              -capacity=N       Class capacity opened on the primary (default 5)
+              -window=MS        Time over which the writes are spread (default 5000)
+              -period=MS        Time between gossip rounds of a replica (default 1000)
+              -delay=MS         Minimum one-way message delay (default 2)
+              -jitter=MS        Random extra delay of each message, up to this value (default 5)
+              -timeout=MS       Time until the sender sees a lost message as failed (default 50)
+              -drop=F           Probability a message is lost (default 0.01)
+              -reorder=F        Probability a message is held up to a period, so later ones overtake it (default 0.05)
+              -partition=F      Probability a scenario splits the replicas in two for a while (default 0.2)
+              -heal=MS          Time until a partition heals (default 3000)
+              -skew=MS          Max offset of the replicas' clocks (default 0)
+              -rounds=N         Gossip periods to wait for convergence after the last write or heal (default 100)
+              -trace            Print every event, best with -scenarios=1""";
+
+    // Student ids have 4 digits
+    public static final int MAX_STUDENTS = 10000;
+
+    private int scenarios = 1000;
+    private long seed = 1;
+    private int replicas = 3;
+    private int writes = 20;
+    private int students = 10;
+    private int capacity = 5;
+    private long window = 5000;
+    private long period = 1000;
+    private long delay = 2;
+    private long jitter = 5;
+    private long timeout = 50;
+    private double drop = 0.01;
+    private double reorder = 0.05;
+    private double partition = 0.2;
+    private long heal = 3000;
+    private long skew = 0;
+    private int rounds = 100;
+    private boolean trace = false;
+
+    public int getScenarios() { return scenarios; }
+
+    public long getSeed() { return seed; }
+
+    public int getReplicas() { return replicas; }
+
+    public int getWrites() { return writes; }
+
+    public int getStudents() { return students; }
+
+    public int getCapacity() { return capacity; }
+
+    public long getWindow() { return window; }
+
+    public long getPeriod() { return period; }
+
+    public long getDelay() { return delay; }
+
+    public long getJitter() { return jitter; }
+
+    public long getTimeout() { return timeout; }
+
+    public double getDrop() { return drop; }
+
+    public double getReorder() { return reorder; }
+
+    public double getPartition() { return partition; }
+
+    public long getHeal() { return heal; }
+
+    public long getSkew() { return skew; }
+
+    public int getRounds() { return rounds; }
+
+    public boolean isTrace() { return trace; }
+
+    /**
+     * Read the settings from the command-line arguments
+     * @param args  The command-line arguments
+     * @return      The settings
+     * @throws IllegalArgumentException If an argument is unknown or has an invalid value
+     */
+    public static SimConfig fromArgs(String[] args) {
+
+        SimConfig config = new SimConfig();
+
+        for (String arg : args) {
+
+            if (arg.equals("-trace")) {
+                config.trace = true;
+                continue;
+            }
+
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("-") || separator == -1) {
+                throw new IllegalArgumentException("Invalid argument: " + arg);
+            }
+            String name = arg.substring(1, separator);
+            String value = arg.substring(separator + 1);
+
+            try {
+                switch (name) {
+                    case "scenarios" -> config.scenarios = Integer.parseInt(value);
+                    case "seed" -> config.seed = Long.parseLong(value);
+                    case "replicas" -> config.replicas = Integer.parseInt(value);
+                    case "writes" -> config.writes = Integer.parseInt(value);
+                    case "students" -> config.students = Integer.parseInt(value);
+                    case "capacity" -> config.capacity = Integer.parseInt(value);
+                    case "window" -> config.window = Long.parseLong(value);
+                    case "period" -> config.period = Long.parseLong(value);
+                    case "delay" -> config.delay = Long.parseLong(value);
+                    case "jitter" -> config.jitter = Long.parseLong(value);
+                    case "timeout" -> config.timeout = Long.parseLong(value);
+                    case "drop" -> config.drop = Double.parseDouble(value);
+                    case "reorder" -> config.reorder = Double.parseDouble(value);
+                    case "partition" -> config.partition = Double.parseDouble(value);
+                    case "heal" -> config.heal = Long.parseLong(value);
+                    case "skew" -> config.skew = Long.parseLong(value);
+                    case "rounds" -> config.rounds = Integer.parseInt(value);
+                    default -> throw new IllegalArgumentException("Unknown argument: " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value: " + arg);
+            }
+        }
+
+        config.validate();
+        return config;
+    }
+
+    private void validate() {
+
+        if (scenarios < 1) {
+            throw new IllegalArgumentException("There must be at least one scenario.");
+        }
+        if (replicas < 2) {
+            throw new IllegalArgumentException("There must be at least two replicas to gossip.");
+        }
+        if (students < 1 || students > MAX_STUDENTS) {
+            throw new IllegalArgumentException("Students must be between 1 and " + MAX_STUDENTS + ".");
+        }
+        if (writes < 0 || capacity < 0 || rounds < 1) {
+            throw new IllegalArgumentException("Writes and capacity must not be negative and rounds must be positive.");
+        }
+        if (window < 0 || period <= 0 || delay < 0 || jitter < 0 || timeout < 0 || heal < 0 || skew < 0) {
+            throw new IllegalArgumentException("Times must not be negative and the period must be positive.");
+        }
+        if (drop < 0 || drop >= 1 || reorder < 0 || reorder > 1 || partition < 0 || partition > 1) {
+            throw new IllegalArgumentException("Drop must be in [0, 1) and reorder and partition in [0, 1].");
+        }
+    }
+}
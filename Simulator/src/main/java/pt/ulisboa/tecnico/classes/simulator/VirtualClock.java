@@ -0,0 +1,42 @@
+package pt.ulisboa.tecnico.classes.simulator;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.function.LongSupplier;
+
+/**
+ * Clock of a simulated replica, following the virtual time of the simulation
+ * Each replica can be skewed by a fixed offset, as real machines are
+ */
+public class VirtualClock extends Clock {
+
+    // Virtual time of the simulation (milliseconds)
+    private final LongSupplier time;
+    private final long offset;
+
+    public VirtualClock(LongSupplier time, long offset) {
+        this.time = time;
+        this.offset = offset;
+    }
+
+    public long getOffset() { return offset; }
+
+    @Override
+    public long millis() { return time.getAsLong() + offset; }
+
+    @Override
+    public Instant instant() { return Instant.ofEpochMilli(millis()); }
+
+    @Override
+    public ZoneId getZone() { return ZoneOffset.UTC; }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        if (zone.equals(ZoneOffset.UTC)) {
+            return this;
+        }
+        throw new UnsupportedOperationException("Virtual clocks are always in UTC.");
+    }
+}
@@ -0,0 +1,41 @@
+package pt.ulisboa.tecnico.classes.simulator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScenarioTest {
+
+    /**
+     * Run every scenario of the settings, each must converge without losing an accepted enrollment
+     * @param args  The settings, as given to GossipSimulator
+     */
+    private static void assertEveryScenarioConverges(String... args) {
+
+        SimConfig config = SimConfig.fromArgs(args);
+        for (int i = 0; i < config.getScenarios(); i++) {
+
+            Scenario.Result result = new Scenario(config, config.getSeed() + i).run();
+            String replay = ", replay with -seed=" + result.seed() + " -scenarios=1 -trace";
+
+            assertTrue(result.converged(), "Not converged" + replay);
+            assertEquals(0, result.lostWrites(), "Lost accepted enrollments" + replay);
+            assertEquals(0, result.handlerErrors(), "Gossip handler exceptions" + replay);
+        }
+    }
+
+    @Test
+    void defaultScenarios() {
+        assertEveryScenarioConverges("-scenarios=500");
+    }
+
+    @Test
+    void scenariosWithMoreReplicasAndStudents() {
+        assertEveryScenarioConverges("-scenarios=200", "-replicas=5", "-students=30", "-writes=60");
+    }
+
+    @Test
+    void scenariosWithSkewedClocksAndLossyNetwork() {
+        assertEveryScenarioConverges("-scenarios=200", "-skew=500", "-drop=0.05", "-reorder=0.3", "-partition=0.5");
+    }
+}
@@ -3,6 +3,8 @@ package pt.ulisboa.tecnico.classes.student;
 import static java.lang.System.exit;
 import static pt.ulisboa.tecnico.classes.student.StudentCommands.*;
 
+import pt.ulisboa.tecnico.classes.HedgedReads;
+
 import java.util.Arrays;
 import java.util.Scanner;
 import java.util.stream.Collectors;
@@ -21,6 +23,7 @@ public class Student {
 
     final Scanner scanner = new Scanner(System.in);
     final StudentFrontend frontend = new StudentFrontend(debug);
+    frontend.setHedgedReads(HedgedReads.fromArgs(args));
 
     while(true) {
       System.out.printf("%n> ");
@@ -38,6 +41,11 @@ public class Student {
       switch (cmd[0]) {
 
         case LIST -> listClass(frontend);
+        case LIST_STREAM -> listClassStream(frontend);
+
+        case WATCH -> watchClass(frontend);
+
+        case STATUS -> getEnrollment(frontend, args);
 
         case ENROLL -> enroll(frontend, args);
 
@@ -59,7 +67,8 @@ public class Student {
    */
   public static boolean validArguments(String[] args) {
 
-    if(args.length < 2) {
+    // Flags such as -debug are not part of the student id or name
+    if(Arrays.stream(args).filter(arg -> !arg.startsWith("-")).count() < 2) {
       System.err.println("Incorrect number of arguments.");
       return false;
     }
@@ -98,16 +107,11 @@ public class Student {
    */
   private static String parseStudentName(String[] args) {
 
-    boolean debug = Arrays.asList(args).contains("-debug");
     // Concat every string from args starting at index 1 separated with space
-    // If debug mode is active, don't add the last string ("-debug") to the student name
-    if(debug){
-      return java.util.Arrays.stream(args, 1, args.length-1)
-              .collect(Collectors.joining(" "));
-    } else {
-      return java.util.Arrays.stream(args, 1, args.length)
-              .collect(Collectors.joining(" "));
-    }
+    // Flags such as -debug or -hedge are not added to the student name
+    return Arrays.stream(args, 1, args.length)
+            .filter(arg -> !arg.startsWith("-"))
+            .collect(Collectors.joining(" "));
   }
 
   /**
@@ -119,6 +123,34 @@ public class Student {
     frontend.listClass();
   }
 
+  /**
+   * Call listClassStream method from frontend
+   * @param frontend  The student frontend
+   */
+  public static void listClassStream(StudentFrontend frontend) {
+
+    frontend.listClassStream();
+  }
+
+  /**
+   * Call watchClass method from frontend
+   * @param frontend  The student frontend
+   */
+  public static void watchClass(StudentFrontend frontend) {
+
+    frontend.watchClass();
+  }
+
+  /**
+   * Call getEnrollment method from frontend
+   * @param frontend  The student frontend
+   * @param args      The command-line arguments
+   */
+  public static void getEnrollment(StudentFrontend frontend, String[] args) {
+
+    frontend.getEnrollment(args[0]);
+  }
+
   /**
    * Call enroll method from frontend
    * @param frontend  The student frontend
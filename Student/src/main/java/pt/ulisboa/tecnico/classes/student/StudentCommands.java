@@ -2,6 +2,9 @@ package pt.ulisboa.tecnico.classes.student;
 
 public class StudentCommands {
     public static final String LIST = "list";
+    public static final String LIST_STREAM = "listStream";
+    public static final String WATCH = "watch";
+    public static final String STATUS = "status";
     public static final String ENROLL = "enroll";
     public static final String EXIT = "exit";
 }
@@ -1,147 +1,172 @@
 package pt.ulisboa.tecnico.classes.student;
 
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
-import io.grpc.StatusRuntimeException;
+import io.grpc.Status;
 
 import pt.ulisboa.tecnico.classes.*;
+import pt.ulisboa.tecnico.classes.client.ClassWatch;
+import pt.ulisboa.tecnico.classes.client.ClientResult;
+import pt.ulisboa.tecnico.classes.client.StudentClient;
 import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions;
 import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.*;
-import pt.ulisboa.tecnico.classes.contract.naming.NamingServerServiceGrpc.*;
-import pt.ulisboa.tecnico.classes.contract.naming.NamingServerServiceGrpc;
 import pt.ulisboa.tecnico.classes.contract.student.StudentClassServer.*;
 import pt.ulisboa.tecnico.classes.contract.student.StudentServiceGrpc;
-import pt.ulisboa.tecnico.classes.contract.student.StudentServiceGrpc.StudentServiceBlockingStub;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 
+/**
+ * Command-line side of the student client
+ * Requests go through the non-blocking StudentClient, this class waits for them and prints the results
+ */
 public class StudentFrontend {
 
+    // Number of students in each page of a streamed listing
+    private static final int PAGE_SIZE = 100;
+
     private final Debug debug;
 
-    private VectorClock vectorClock;
-    private List<Address> addresses = new ArrayList<>();
+    // Watch stream of the class changes
+    private final ClassWatch<WatchClassRequest, WatchClassResponse> watch;
 
-    private final ManagedChannel namingServerChannel;
-    private final NamingServerServiceBlockingStub namingServerStub;
+    // Naming server lookups and server channels, kept between requests
+    private final ConnectionManager connectionManager;
 
-    private ManagedChannel classServerChannel;
-    private StudentServiceBlockingStub classServerStub;
+    private final StudentClient client;
 
     public StudentFrontend(boolean debugMode) {
+        this(debugMode, new ConnectionManager());
+    }
+
+    public StudentFrontend(boolean debugMode, ConnectionManager connectionManager) {
 
         // debug to log messages
         debug = new Debug(StudentFrontend.class.getName(), debugMode);
-        // initialize client vector clock
-        vectorClock = new VectorClock();
-        // create channel and stub to naming services at hardcoded address
-        namingServerChannel = ManagedChannelBuilder.forAddress("localhost", 5000).usePlaintext().build();
-        namingServerStub = NamingServerServiceGrpc.newBlockingStub(namingServerChannel);
+        this.connectionManager = connectionManager;
+
+        client = new StudentClient(connectionManager, debugMode);
+        client.setRetryListener(() -> {
+            System.out.println(Stringify.format(ResponseCode.INACTIVE_SERVER));
+            System.out.println("Trying another server...");
+        });
+
+        watch = new ClassWatch<>(connectionManager,
+                (channel, vectorClockState, observer) -> StudentServiceGrpc.newStub(channel).watchClass(
+                        WatchClassRequest.newBuilder().setVectorClockState(vectorClockState).build(), observer),
+                WatchClassResponse::getCode, WatchClassResponse::getEvent,
+                event -> System.out.println(Stringify.format(event)),
+                code -> System.out.println(Stringify.format(code)),
+                debug);
     }
 
-    public List<Address> getAddresses() { return addresses; }
-
-    public void setAddresses(List<Address> addresses) { this.addresses = addresses; }
-
-    public void setVectorClock(VectorClock vectorClock) { this.vectorClock = vectorClock; }
-
-    public VectorClock getVectorClock() { return vectorClock; }
+    public StudentClient getClient() { return client; }
 
-    public NamingServerServiceBlockingStub getNamingServerStub() { return namingServerStub; }
+    public VectorClock getVectorClock() { return client.getVectorClock(); }
 
-    public StudentServiceBlockingStub getClassServerStub() { return classServerStub; }
+    public void setHedgedReads(HedgedReads hedgedReads) { client.setHedgedReads(hedgedReads); }
 
-    public void setClassServerStub(StudentServiceBlockingStub classServerStub) { this.classServerStub = classServerStub; }
-
-    public ManagedChannel getClassServerChannel() { return classServerChannel; }
-
-    public void setClassServerChannel(ManagedChannel classServerChannel) { this.classServerChannel = classServerChannel; }
-
-    public ManagedChannel getNamingServerChannel() { return namingServerChannel; }
+    public ConnectionManager getConnectionManager() { return connectionManager; }
 
     /**
-     * Get servers from naming server
-     * @param service       The server's service name
-     * @param qualifiers    The server's qualifiers
-     * @return              True if there are available servers, False otherwise
+     * Wait for a request to finish
+     * @param request   The request
+     * @param <T>       The result value type
+     * @return          The result, null if no server could be reached
      */
-    private boolean findServers(String service, String[] qualifiers) {
+    private <T> ClientResult<T> await(CompletableFuture<ClientResult<T>> request) {
 
-        setAddresses(ServerLookup.getAvailableServers(service, qualifiers, getNamingServerStub()));
-        return getAddresses().isEmpty();
+        try {
+            return request.join();
+        } catch (CompletionException e) {
+            System.err.println("Caught exception with description: " + Status.fromThrowable(e).getDescription());
+            return null;
+        }
     }
 
     /**
-     * Create channel and stub to a server
+     * List class state with class capacity, enrollment status and enrolled/discarded students
      */
-    private void createChannelAndStub() {
-
-        // Select a random server from the list
-        int randomValue = ServerLookup.getRandomValue(getAddresses().size());
-        Address address = getAddresses().get(randomValue);
+    public void listClass() {
 
-        // Create channel and stub to the selected server
-        setClassServerChannel(ManagedChannelBuilder.forAddress(address.getHost(), address.getPort())
-                .usePlaintext()
-                .build());
-        setClassServerStub(StudentServiceGrpc.newBlockingStub(classServerChannel));
+        ClientResult<ClassState> result = await(client.listClass());
+        if(result == null) return;
 
-        debug.log("Contacting server at " + address.getHost() + ":" + address.getPort());
+        switch (result.code()) {
+            case OK, NOT_MODIFIED -> System.out.println(Stringify.format(result.value()));
+            case SERVER_NOT_UPDATED -> {
+                System.out.println(Stringify.format(result.value()));
+                System.out.println(Stringify.format(result.code()));
+            }
+            default -> System.out.println(Stringify.format(result.code()));
+        }
 
-        // Remove chosen server to avoid re-sending request to the same server
-        getAddresses().remove(address);
+        debug.log("listClass: " + result.code() + " and vector clock: " + getVectorClock());
     }
 
     /**
-     * List class state with class capacity, enrollment status and enrolled/discarded students
+     * List class state page by page from a single server
+     * The class is printed as pages arrive, so large classes are never held in memory
      */
-    public void listClass() {
-
-        if(findServers("turmas",new String[]{"P","S"})) return;
-
-        ListClassRequest request = ListClassRequest.newBuilder()
-                .setVectorClockState(Convert.toVectorClockState(vectorClock))
-                .build();
-        ListClassResponse response;
-        ResponseCode responseCode;
-
-        do {
-            createChannelAndStub();
+    public void listClassStream() {
+
+        Stringify.ClassStateWriter[] writer = new Stringify.ClassStateWriter[1];
+
+        // Every page carries the same code and clock, only the students change
+        CompletableFuture<ClientResult<Void>> request = client.listClassStream(PAGE_SIZE, PageOrder.BY_STUDENT_ID, page -> {
+            if(page.getCode() != ResponseCode.OK && page.getCode() != ResponseCode.SERVER_NOT_UPDATED) return;
+            if(writer[0] == null)
+                writer[0] = new Stringify.ClassStateWriter(System.out, page.getCapacity(), page.getOpenEnrollments());
+            writer[0].addEnrolled(page.getEnrolledList());
+            writer[0].addDiscarded(page.getDiscardedList());
+        });
+
+        ClientResult<Void> result;
+        try {
+            result = request.join();
+        } catch (CompletionException e) {
+            // End the line of a listing cut in the middle
+            if(writer[0] != null) System.out.println();
+            System.err.println("Caught exception with description: " + Status.fromThrowable(e).getDescription());
+            return;
+        }
 
-            try{
-                response = getClassServerStub().listClass(request);
-            } catch (StatusRuntimeException e){
-                System.err.println("Caught exception with description: " + e.getStatus().getDescription());
-                return;
-            }
+        if(writer[0] != null){
+            writer[0].end();
+            if(result.code() == ResponseCode.SERVER_NOT_UPDATED)
+                System.out.println(Stringify.format(result.code()));
+        }
+        else {
+            System.out.println(Stringify.format(result.code()));
+        }
 
-            responseCode = response.getCode();
+        debug.log("listClassStream: " + result.code() + " and vector clock: " + getVectorClock());
+    }
 
-            if(responseCode == ResponseCode.INACTIVE_SERVER && !addresses.isEmpty()){
-                System.out.println(Stringify.format(responseCode));
-                System.out.println("Trying another server...");
+    /**
+     * Get the enrollment state of a single student, without listing the whole class
+     * @param studentId The student id
+     */
+    public void getEnrollment(String studentId) {
+
+        ClientResult<GetEnrollmentResponse> result = await(client.getEnrollment(studentId));
+        if(result == null) return;
+
+        if(result.isApplied()){
+            GetEnrollmentResponse response = result.value();
+            switch (response.getState()) {
+                case ENROLLED -> System.out.println("Student " + studentId + " is enrolled, position "
+                        + response.getPosition() + " in enrollment order, since " + Convert.toInstant(response.getTimestamp()) + ".");
+                case DISCARDED -> System.out.println("Student " + studentId + " was discarded, position "
+                        + response.getPosition() + " in discard order, since " + Convert.toInstant(response.getTimestamp()) + ".");
+                default -> System.out.println("Student " + studentId + " is not in the class.");
             }
-            getClassServerChannel().shutdown();
-
-        } while(responseCode == ResponseCode.INACTIVE_SERVER && !getAddresses().isEmpty());
-
-        // Update client vector clock to match the server's vector clock
-        setVectorClock(Convert.toVectorClock(response.getVectorClockState()));
-
-        if (responseCode == ResponseCode.OK) {
-            System.out.println(Stringify.format(response.getClassState()));
         }
-        else if(responseCode == ResponseCode.SERVER_NOT_UPDATED){
-            System.out.println(Stringify.format(response.getClassState()));
-            System.out.println(Stringify.format(responseCode));
-        }
-        else {
-            System.out.println(Stringify.format(responseCode));
+        if(result.code() != ResponseCode.OK){
+            System.out.println(Stringify.format(result.code()));
         }
 
-        debug.log("listClass: " + responseCode + " and vector clock: " + getVectorClock());
+        debug.log("getEnrollment: " + result.code() + " with argument: " + studentId + " and vector clock: " + getVectorClock());
     }
 
     /**
@@ -151,52 +176,55 @@ public class StudentFrontend {
      */
     public void enroll(String studentId, String studentName) {
 
-        if(findServers("turmas", new String[]{"P","S"})) return;
+        ClientResult<Void> result = await(client.enroll(studentId, studentName));
+        if(result == null) return;
 
-        // Explicit use of ClassesDefinitions to prevent conflicts with Student class
-        ClassesDefinitions.Student student = ClassesDefinitions.Student.newBuilder()
-                .setStudentId(studentId)
-                .setStudentName(studentName)
-                .build();
+        System.out.println(Stringify.format(result.code()));
 
-        EnrollRequest request = EnrollRequest.newBuilder()
-                .setStudent(student)
-                .setVectorClockState(Convert.toVectorClockState(vectorClock))
-                .build();
+        debug.log("enroll: " + result.code() + " with arguments: " + studentId + " " + studentName + " and vector clock: " + getVectorClock());
+    }
 
-        EnrollResponse response;
-        ResponseCode responseCode;
+    /**
+     * Enroll several students with a single request, used for bulk registrations
+     * @param students  The students to enroll
+     * @param atomic    If true, no student is enrolled unless all of them can be
+     */
+    public void enrollBatch(List<ClassesDefinitions.Student> students, boolean atomic) {
 
-        do {
-            createChannelAndStub();
+        ClientResult<List<ResponseCode>> result = await(client.enrollBatch(students, atomic));
+        if(result == null) return;
 
-            try {
-                response = getClassServerStub().enroll(request);
-            } catch (StatusRuntimeException e) {
-                System.err.println("Caught exception with description: " + e.getStatus().getDescription());
-                return;
+        if(result.code() == ResponseCode.INACTIVE_SERVER) {
+            System.out.println(Stringify.format(result.code()));
+        } else {
+            if(result.code() == ResponseCode.SERVER_NOT_UPDATED) {
+                System.out.println(Stringify.format(result.code()));
             }
-
-            responseCode = response.getCode();
-            System.out.println(Stringify.format(responseCode));
-
-            if(responseCode == ResponseCode.INACTIVE_SERVER && !addresses.isEmpty()) {
-                System.out.println("Trying another server...");
+            for(int i = 0; i < result.value().size(); i++) {
+                System.out.println(students.get(i).getStudentId() + ": " + Stringify.format(result.value().get(i)));
             }
-            getClassServerChannel().shutdown();
+        }
 
-        } while(responseCode == ResponseCode.INACTIVE_SERVER && !getAddresses().isEmpty());
+        debug.log("enrollBatch: " + result.code() + " with " + students.size() + " students and vector clock: " + getVectorClock());
+    }
 
-        // Update client vector clock to match the server's vector clock
-        setVectorClock(Convert.toVectorClock(response.getVectorClockState()));
+    /**
+     * Watch class changes
+     * Prints a snapshot of the class followed by each change as it happens
+     */
+    public void watchClass() {
 
-        debug.log("enroll: " + responseCode + " with arguments: " + studentId + " " + studentName + " and vector clock: " + getVectorClock());
+        if(!watch.start()){
+            System.out.println("Already watching the class.");
+        }
     }
 
     /**
      * Close channel
      */
     public void close(){
-        getNamingServerChannel().shutdown();
+        watch.stop();
+        client.close();
+        connectionManager.close();
     }
 }
@@ -0,0 +1,169 @@
+package pt.ulisboa.tecnico.classes;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.Address;
+import pt.ulisboa.tecnico.classes.contract.naming.NamingServerServiceGrpc;
+import pt.ulisboa.tecnico.classes.contract.naming.NamingServerServiceGrpc.NamingServerServiceBlockingStub;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ConnectionManager {
+
+    public static final String DEFAULT_NAMING_HOST = "localhost";
+    public static final int DEFAULT_NAMING_PORT = 5000;
+
+    // How long a naming server lookup is reused before asking again (milliseconds)
+    public static final long DEFAULT_MEMBERSHIP_TTL = 5000;
+
+    private final String namingHost;
+    private final int namingPort;
+    private final long membershipTtl;
+
+    private final ManagedChannel namingServerChannel;
+    private final NamingServerServiceBlockingStub namingServerStub;
+
+    // Last lookup of each service and qualifiers
+    private final Map<String, Membership> memberships = new HashMap<>();
+
+    // One channel per server, kept open between requests
+    private final Map<Address, ManagedChannel> channels = new HashMap<>();
+
+    // Channels over every server of a service, by target and load balancing policy
+    private final Map<String, ManagedChannel> serviceChannels = new HashMap<>();
+
+    // Latency and load of each server, used to choose where requests go
+    private final ReplicaPicker replicaPicker = new ReplicaPicker();
+
+    private record Membership(List<Address> addresses, long expiresAt) {}
+
+    public ConnectionManager() {
+        this(DEFAULT_NAMING_HOST, DEFAULT_NAMING_PORT, DEFAULT_MEMBERSHIP_TTL);
+    }
+
+    public ConnectionManager(String namingHost, int namingPort, long membershipTtl) {
+        this.namingHost = namingHost;
+        this.namingPort = namingPort;
+        this.membershipTtl = membershipTtl;
+        namingServerChannel = ManagedChannelBuilder.forAddress(namingHost, namingPort).usePlaintext().build();
+        namingServerStub = NamingServerServiceGrpc.newBlockingStub(namingServerChannel);
+    }
+
+    public NamingServerServiceBlockingStub getNamingServerStub() { return namingServerStub; }
+
+    public ManagedChannel getNamingServerChannel() { return namingServerChannel; }
+
+    public ReplicaPicker getReplicaPicker() { return replicaPicker; }
+
+    /**
+     * Get servers from naming server, reusing the last lookup while it is fresh
+     * @param service       The server's service name
+     * @param qualifiers    The server's qualifiers
+     * @return              A copy of the list of available servers, free to be changed by the caller
+     */
+    public synchronized List<Address> getAvailableServers(String service, String[] qualifiers) {
+
+        String key = service + "/" + String.join(",", qualifiers);
+
+        Membership membership = memberships.get(key);
+        if (membership == null || membership.expiresAt() < System.currentTimeMillis()) {
+
+            List<Address> addresses = ServerLookup.getAvailableServers(service, qualifiers, namingServerStub);
+
+            // Failed or empty lookups are not kept, the next request asks again
+            if (addresses.isEmpty()) {
+                memberships.remove(key);
+                return addresses;
+            }
+
+            membership = new Membership(List.copyOf(addresses), System.currentTimeMillis() + membershipTtl);
+            memberships.put(key, membership);
+        }
+
+        return new ArrayList<>(membership.addresses());
+    }
+
+    /**
+     * Get the channel to a server, creating it on first use
+     * @param address The server address
+     * @return        The channel
+     */
+    public synchronized ManagedChannel getChannel(Address address) {
+
+        ManagedChannel channel = channels.get(address);
+        if (channel == null || channel.isShutdown()) {
+            channel = ManagedChannelBuilder.forAddress(address.getHost(), address.getPort())
+                    .usePlaintext()
+                    .build();
+            channels.put(address, channel);
+        }
+        return channel;
+    }
+
+    /**
+     * Get a channel over every server of a service, resolved through the naming server
+     * The channel follows servers joining and leaving and picks one for each call
+     * @param service       The server's service name
+     * @param qualifiers    The server's qualifiers
+     * @param policy        The load balancing policy, such as pick_first or round_robin
+     * @return              The channel
+     */
+    public synchronized ManagedChannel getServiceChannel(String service, String[] qualifiers, String policy) {
+
+        String target = NamingNameResolverProvider.target(namingHost, namingPort, service, qualifiers);
+
+        ManagedChannel channel = serviceChannels.get(target + "#" + policy);
+        if (channel == null || channel.isShutdown()) {
+            channel = ManagedChannelBuilder.forTarget(target)
+                    .defaultLoadBalancingPolicy(policy)
+                    .usePlaintext()
+                    .build();
+            serviceChannels.put(target + "#" + policy, channel);
+        }
+        return channel;
+    }
+
+    /**
+     * Forget a server that failed, closing its channel and dropping cached lookups
+     * so the next request asks the naming server again
+     * @param address The server address
+     */
+    public synchronized void invalidate(Address address) {
+
+        ManagedChannel channel = channels.remove(address);
+        if (channel != null) {
+            channel.shutdown();
+        }
+        memberships.clear();
+    }
+
+    /**
+     * Forget a server if a request to it failed because it could not be reached
+     * @param address   The server address
+     * @param status    The status of the failed request
+     */
+    public void reportFailure(Address address, Status status) {
+
+        if (address != null && (status.getCode() == Status.Code.UNAVAILABLE
+                || status.getCode() == Status.Code.DEADLINE_EXCEEDED)) {
+            invalidate(address);
+        }
+    }
+
+    /**
+     * Close every channel
+     */
+    public synchronized void close() {
+
+        channels.values().forEach(ManagedChannel::shutdown);
+        channels.clear();
+        serviceChannels.values().forEach(ManagedChannel::shutdown);
+        serviceChannels.clear();
+        memberships.clear();
+        namingServerChannel.shutdown();
+    }
+}
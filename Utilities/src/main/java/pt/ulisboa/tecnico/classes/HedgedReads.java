@@ -0,0 +1,222 @@
+package pt.ulisboa.tecnico.classes;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+public class HedgedReads {
+
+    public static final String FLAG = "-hedge";
+
+    // Delay used with automatic delay until enough latencies are known (milliseconds)
+    private static final long DEFAULT_DELAY = 100;
+
+    // Number of recent latencies kept for the automatic delay and how many are needed to use them
+    private static final int WINDOW_SIZE = 100;
+    private static final int MIN_SAMPLES = 20;
+
+    private static final double PERCENTILE = 0.95;
+
+    // Starts the second calls, shared by every client as it never blocks
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "hedged-reads");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Fixed delay in milliseconds, or negative to use the p95 of recent latencies
+    private final long fixedDelay;
+
+    private final long[] latencies = new long[WINDOW_SIZE];
+    private int samples = 0;
+    private int nextSample = 0;
+
+    public HedgedReads(long fixedDelay) {
+        this.fixedDelay = fixedDelay;
+    }
+
+    /**
+     * Create hedged reads from the command-line arguments
+     * -hedge uses the p95 of recent latencies as delay, -hedge=ms uses a fixed delay
+     * @param args  The command-line arguments
+     * @return      The hedged reads, or null if hedging is off
+     */
+    public static HedgedReads fromArgs(String[] args) {
+
+        for (String arg : args) {
+            if (arg.equals(FLAG)) {
+                return new HedgedReads(-1);
+            }
+            if (arg.startsWith(FLAG + "=")) {
+                try {
+                    return new HedgedReads(Long.parseLong(arg.substring(FLAG.length() + 1)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid hedge delay, using automatic delay.");
+                    return new HedgedReads(-1);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the time to wait for the first server before asking a second one
+     * @return The delay in milliseconds
+     */
+    public synchronized long getDelay() {
+
+        if (fixedDelay >= 0) {
+            return fixedDelay;
+        }
+        if (samples < MIN_SAMPLES) {
+            return DEFAULT_DELAY;
+        }
+
+        long[] sorted = Arrays.copyOf(latencies, samples);
+        Arrays.sort(sorted);
+        return TimeUnit.NANOSECONDS.toMillis(sorted[(int) Math.ceil(PERCENTILE * samples) - 1]);
+    }
+
+    /**
+     * Record the latency of a read
+     * @param latency The latency in nanoseconds
+     */
+    public synchronized void record(long latency) {
+
+        latencies[nextSample] = latency;
+        nextSample = (nextSample + 1) % WINDOW_SIZE;
+        samples = Math.min(samples + 1, WINDOW_SIZE);
+    }
+
+    /**
+     * Send a read to a first server and, if it is slow or its answer is not acceptable, to a second one
+     * Nothing blocks, the second call is started by a timer or by the answer of the first one
+     * The first acceptable response is returned and the other call is cancelled
+     * @param primary       Starts the call to the first server
+     * @param hedge         Starts the call to the second server
+     * @param acceptable    Tells if a response can be returned to the client
+     * @param <T>           The response type
+     * @return              The first acceptable response, or else the first response received,
+     *                      or a StatusRuntimeException if both calls failed
+     */
+    public <T> CompletableFuture<Response<T>> call(Supplier<ListenableFuture<T>> primary, Supplier<ListenableFuture<T>> hedge,
+                                                   Predicate<T> acceptable) {
+        return new Race<>(hedge, acceptable).start(primary);
+    }
+
+    /**
+     * A response and the call that received it
+     * @param value     The response
+     * @param hedged    True if the response came from the second server
+     * @param <T>       The response type
+     */
+    public record Response<T>(T value, boolean hedged) {}
+
+    /**
+     * The calls of one hedged read
+     * @param <T> The response type
+     */
+    private class Race<T> {
+
+        private final long start = System.nanoTime();
+        private final Supplier<ListenableFuture<T>> hedge;
+        private final Predicate<T> acceptable;
+        private final CompletableFuture<Response<T>> result = new CompletableFuture<>();
+
+        private final List<ListenableFuture<T>> calls = new ArrayList<>(2);
+        private ScheduledFuture<?> timer;
+        private boolean hedged = false;
+        private int pending = 0;
+        private Response<T> fallback;
+        private StatusRuntimeException error;
+
+        private Race(Supplier<ListenableFuture<T>> hedge, Predicate<T> acceptable) {
+            this.hedge = hedge;
+            this.acceptable = acceptable;
+        }
+
+        private synchronized CompletableFuture<Response<T>> start(Supplier<ListenableFuture<T>> primary) {
+
+            startCall(primary, false);
+            if (!result.isDone() && !hedged) {
+                timer = TIMER.schedule(this::startHedge, getDelay(), TimeUnit.MILLISECONDS);
+            }
+            return result;
+        }
+
+        /**
+         * Ask the second server, once
+         */
+        private synchronized void startHedge() {
+
+            if (hedged || result.isDone()) return;
+
+            hedged = true;
+            if (timer != null) timer.cancel(false);
+            startCall(hedge, true);
+        }
+
+        private void startCall(Supplier<ListenableFuture<T>> supplier, boolean isHedge) {
+
+            pending++;
+            ListenableFuture<T> call = supplier.get();
+            calls.add(call);
+            call.addListener(() -> finished(call, isHedge), MoreExecutors.directExecutor());
+        }
+
+        private synchronized void finished(ListenableFuture<T> call, boolean isHedge) {
+
+            pending--;
+            if (result.isDone()) return;
+
+            try {
+                T response = Futures.getDone(call);
+                if (acceptable.test(response)) {
+                    record(System.nanoTime() - start);
+                    complete(new Response<>(response, isHedge));
+                    return;
+                }
+                if (fallback == null) fallback = new Response<>(response, isHedge);
+            } catch (ExecutionException e) {
+                if (error == null) error = Status.fromThrowable(e.getCause()).asRuntimeException();
+            } catch (CancellationException e) {
+                if (error == null) error = Status.CANCELLED.withDescription("Call cancelled").asRuntimeException();
+            }
+
+            // The first server answered but its answer is not usable, ask the second one at once
+            if (!hedged) {
+                startHedge();
+            } else if (pending == 0) {
+                if (fallback != null) {
+                    complete(fallback);
+                } else {
+                    result.completeExceptionally(error);
+                }
+            }
+        }
+
+        private void complete(Response<T> response) {
+
+            // Completed first, so the cancelled call finds the race over
+            result.complete(response);
+            if (timer != null) timer.cancel(false);
+            // Cancel the call that lost, cancelling a finished call does nothing
+            calls.forEach(call -> call.cancel(true));
+        }
+    }
+}
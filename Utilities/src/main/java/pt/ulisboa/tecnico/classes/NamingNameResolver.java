@@ -0,0 +1,175 @@
+package pt.ulisboa.tecnico.classes;
+
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.NameResolver;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.SynchronizationContext;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.Address;
+import pt.ulisboa.tecnico.classes.contract.naming.ClassServerNamingServer.LookupRequest;
+import pt.ulisboa.tecnico.classes.contract.naming.NamingServerServiceGrpc;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class NamingNameResolver extends NameResolver {
+
+    // Interval between lookups to pick up servers joining or leaving (milliseconds)
+    private static final long REFRESH_INTERVAL = 5000;
+
+    // Max time waiting for the naming server (milliseconds)
+    private static final long LOOKUP_TIMEOUT = 5000;
+
+    private final String namingHost;
+    private final int namingPort;
+    private final String service;
+    private final List<String> qualifiers;
+
+    private final SynchronizationContext syncContext;
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+    private final ExecutorService ownExecutor;
+
+    // The fields below are only used inside the synchronization context
+    private Listener2 listener;
+    private ManagedChannel namingServerChannel;
+    private ScheduledFuture<?> refreshTask;
+    private List<Address> lastAddresses;
+    private boolean resolving = false;
+    private boolean forceUpdate = false;
+    private boolean shutdown = false;
+
+    public NamingNameResolver(String namingHost, int namingPort, String service, List<String> qualifiers, Args args) {
+        this.namingHost = namingHost;
+        this.namingPort = namingPort;
+        this.service = service;
+        this.qualifiers = qualifiers;
+        this.syncContext = args.getSynchronizationContext();
+        this.scheduler = args.getScheduledExecutorService();
+
+        // Lookups block, so they run outside the channel threads
+        if (args.getOffloadExecutor() != null) {
+            this.executor = args.getOffloadExecutor();
+            this.ownExecutor = null;
+        } else {
+            this.ownExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "naming-resolver-" + service);
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.executor = ownExecutor;
+        }
+    }
+
+    @Override
+    public String getServiceAuthority() {
+        return service;
+    }
+
+    @Override
+    public void start(Listener2 listener) {
+
+        this.listener = listener;
+        namingServerChannel = ManagedChannelBuilder.forAddress(namingHost, namingPort).usePlaintext().build();
+
+        resolve();
+        refreshTask = scheduler.scheduleWithFixedDelay(
+                () -> syncContext.execute(this::resolve), REFRESH_INTERVAL, REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called by the channel when a connection fails, the next result is always sent
+     */
+    @Override
+    public void refresh() {
+        forceUpdate = true;
+        resolve();
+    }
+
+    @Override
+    public void shutdown() {
+
+        if (shutdown) return;
+        shutdown = true;
+
+        if (refreshTask != null) refreshTask.cancel(false);
+        if (namingServerChannel != null) namingServerChannel.shutdown();
+        if (ownExecutor != null) ownExecutor.shutdown();
+    }
+
+    /**
+     * Look up the servers in the naming server, unless a lookup is already running
+     */
+    private void resolve() {
+
+        if (resolving || shutdown) return;
+        resolving = true;
+
+        LookupRequest request = LookupRequest.newBuilder()
+                .setServiceName(service)
+                .addAllQualifiers(qualifiers)
+                .build();
+        ManagedChannel channel = namingServerChannel;
+
+        executor.execute(() -> {
+            List<Address> addresses = null;
+            Status status = Status.OK;
+            try {
+                addresses = NamingServerServiceGrpc.newBlockingStub(channel)
+                        .withDeadlineAfter(LOOKUP_TIMEOUT, TimeUnit.MILLISECONDS)
+                        .lookup(request)
+                        .getAddressList();
+            } catch (StatusRuntimeException e) {
+                status = e.getStatus();
+            }
+
+            List<Address> result = addresses;
+            Status error = status;
+            syncContext.execute(() -> onLookup(result, error));
+        });
+    }
+
+    /**
+     * Send the lookup result to the channel, only if the servers changed or an update was asked for
+     * @param addresses The servers found, null if the lookup failed
+     * @param status    The lookup status
+     */
+    private void onLookup(List<Address> addresses, Status status) {
+
+        resolving = false;
+        if (shutdown) return;
+
+        if (!status.isOk()) {
+            lastAddresses = null;
+            listener.onError(Status.UNAVAILABLE
+                    .withDescription("Naming server lookup failed: " + status.getDescription())
+                    .withCause(status.getCause()));
+            return;
+        }
+        if (addresses.isEmpty()) {
+            lastAddresses = null;
+            listener.onError(Status.UNAVAILABLE.withDescription("No server found for " + service + " " + qualifiers));
+            return;
+        }
+        if (!forceUpdate && addresses.equals(lastAddresses)) {
+            return;
+        }
+
+        forceUpdate = false;
+        lastAddresses = addresses;
+
+        listener.onResult(ResolutionResult.newBuilder()
+                .setAddresses(addresses.stream()
+                        .map(address -> new EquivalentAddressGroup(new InetSocketAddress(address.getHost(), address.getPort())))
+                        .toList())
+                .build());
+    }
+}
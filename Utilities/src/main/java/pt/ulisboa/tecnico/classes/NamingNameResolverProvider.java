@@ -0,0 +1,71 @@
+package pt.ulisboa.tecnico.classes;
+
+import io.grpc.NameResolver;
+import io.grpc.NameResolverProvider;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Resolves targets of the form turmas://namingHost:namingPort/service/qualifier,qualifier
+ * through the naming server, so a single channel can reach every server of a service
+ * The naming server address is optional and defaults to localhost:5000
+ */
+public class NamingNameResolverProvider extends NameResolverProvider {
+
+    public static final String SCHEME = "turmas";
+
+    /**
+     * Build a target resolved by this provider
+     * @param namingHost    The naming server host
+     * @param namingPort    The naming server port
+     * @param service       The service name
+     * @param qualifiers    The server qualifiers
+     * @return              The target
+     */
+    public static String target(String namingHost, int namingPort, String service, String[] qualifiers) {
+        return SCHEME + "://" + namingHost + ":" + namingPort + "/" + service + "/" + String.join(",", qualifiers);
+    }
+
+    @Override
+    public NameResolver newNameResolver(URI targetUri, NameResolver.Args args) {
+
+        if (!SCHEME.equals(targetUri.getScheme()) || targetUri.getPath() == null) {
+            return null;
+        }
+
+        // Path is /service or /service/qualifiers
+        String[] path = targetUri.getPath().split("/");
+        if (path.length < 2 || path.length > 3 || path[1].isEmpty()) {
+            return null;
+        }
+
+        String service = path[1];
+        List<String> qualifiers = path.length == 3 ? Arrays.asList(path[2].split(",")) : List.of();
+
+        String namingHost = targetUri.getHost() != null ? targetUri.getHost() : ConnectionManager.DEFAULT_NAMING_HOST;
+        int namingPort = targetUri.getPort() != -1 ? targetUri.getPort() : ConnectionManager.DEFAULT_NAMING_PORT;
+
+        return new NamingNameResolver(namingHost, namingPort, service, qualifiers, args);
+    }
+
+    @Override
+    public String getDefaultScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    protected boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * Below the DNS provider (5), so the registry keeps DNS as the default scheme of targets without one
+     * and this provider only resolves explicit turmas:// targets
+     */
+    @Override
+    protected int priority() {
+        return 4;
+    }
+}
@@ -0,0 +1,142 @@
+package pt.ulisboa.tecnico.classes;
+
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.Address;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ResponseCode;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ReplicaPicker {
+
+    // Weight of the newest latency sample in the moving average
+    private static final double ALPHA = 0.3;
+
+    // Latency assumed for a server never contacted, low so new servers get tried (nanoseconds)
+    private static final double INITIAL_LATENCY = 1_000_000;
+
+    // Extra latency given to a server that is down or failed to update (nanoseconds)
+    private static final double INACTIVE_PENALTY = 1_000_000_000;
+    private static final double NOT_UPDATED_PENALTY = 200_000_000;
+
+    // Time for a penalty to fall to about a third, so penalized servers are tried again (nanoseconds)
+    private static final double PENALTY_DECAY = 5_000_000_000.0;
+
+    private final Map<Address, Stats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * How a server is chosen among the candidates
+     * POWER_OF_TWO compares two random servers by expected cost, RANDOM ignores cost
+     */
+    public enum Policy { POWER_OF_TWO, RANDOM }
+
+    private volatile Policy policy = Policy.POWER_OF_TWO;
+
+    private static class Stats {
+        private double latency = INITIAL_LATENCY;
+        private double penalty = 0;
+        private long penaltyTime = 0;
+        private int inFlight = 0;
+
+        /**
+         * Expected cost of sending one more request to the server
+         * @param now The current time (nanoseconds)
+         * @return    The cost
+         */
+        private synchronized double cost(long now) {
+            double currentPenalty = penalty * Math.exp(-(now - penaltyTime) / PENALTY_DECAY);
+            return (latency + currentPenalty) * (inFlight + 1);
+        }
+    }
+
+    public Policy getPolicy() { return policy; }
+
+    public void setPolicy(Policy policy) { this.policy = policy; }
+
+    /**
+     * Pick a server using the power of two choices
+     * Two random servers are compared and the one with the lowest expected cost is chosen
+     * @param addresses The candidate servers, not empty
+     * @return          The chosen server
+     */
+    public Address pick(List<Address> addresses) {
+
+        if (addresses.size() == 1) {
+            return addresses.get(0);
+        }
+        if (policy == Policy.RANDOM) {
+            return addresses.get(ServerLookup.getRandomValue(addresses.size()));
+        }
+
+        int first = ServerLookup.getRandomValue(addresses.size());
+        int second = ServerLookup.getRandomValue(addresses.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+
+        long now = System.nanoTime();
+        Address firstAddress = addresses.get(first);
+        Address secondAddress = addresses.get(second);
+
+        return getStats(firstAddress).cost(now) <= getStats(secondAddress).cost(now) ? firstAddress : secondAddress;
+    }
+
+    /**
+     * Record the start of a request to a server
+     * @param address   The server
+     * @return          The start time to give to finish
+     */
+    public long start(Address address) {
+
+        Stats serverStats = getStats(address);
+        synchronized (serverStats) {
+            serverStats.inFlight++;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the end of a request to a server
+     * @param address       The server
+     * @param startTime     The time returned by start
+     * @param responseCode  The response code, null if the request failed
+     */
+    public void finish(Address address, long startTime, ResponseCode responseCode) {
+
+        long now = System.nanoTime();
+        Stats serverStats = getStats(address);
+
+        synchronized (serverStats) {
+            serverStats.inFlight = Math.max(serverStats.inFlight - 1, 0);
+            serverStats.latency = ALPHA * (now - startTime) + (1 - ALPHA) * serverStats.latency;
+
+            if (responseCode == null || responseCode == ResponseCode.INACTIVE_SERVER) {
+                penalize(serverStats, INACTIVE_PENALTY, now);
+            } else if (responseCode == ResponseCode.SERVER_NOT_UPDATED) {
+                penalize(serverStats, NOT_UPDATED_PENALTY, now);
+            }
+        }
+    }
+
+    /**
+     * Record the end of a request cancelled before its response, such as the losing call of a hedged read
+     * Its latency is unknown, so only the pending requests change
+     * @param address   The server
+     */
+    public void cancel(Address address) {
+
+        Stats serverStats = getStats(address);
+        synchronized (serverStats) {
+            serverStats.inFlight = Math.max(serverStats.inFlight - 1, 0);
+        }
+    }
+
+    private Stats getStats(Address address) {
+        return stats.computeIfAbsent(address, key -> new Stats());
+    }
+
+    private static void penalize(Stats serverStats, double penalty, long now) {
+        serverStats.penalty = penalty;
+        serverStats.penaltyTime = now;
+    }
+}
@@ -0,0 +1,46 @@
+package pt.ulisboa.tecnico.classes;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+
+/**
+ * Trailer of the calls a busy server refuses with RESOURCE_EXHAUSTED, with the time to wait before retrying
+ */
+public final class RetryAfter {
+
+    public static final Metadata.Key<String> KEY = Metadata.Key.of("retry-after-ms", Metadata.ASCII_STRING_MARSHALLER);
+
+    private RetryAfter() {}
+
+    /**
+     * Build the trailers of a refused call
+     * @param retryAfter    The time to wait (milliseconds)
+     * @return              The trailers
+     */
+    public static Metadata trailers(long retryAfter) {
+
+        Metadata trailers = new Metadata();
+        trailers.put(KEY, String.valueOf(retryAfter));
+        return trailers;
+    }
+
+    /**
+     * Get the time to wait before retrying a failed call
+     * @param t The failure of the call
+     * @return  The time to wait (milliseconds), -1 if the server was not busy or gave no valid time
+     */
+    public static long of(Throwable t) {
+
+        if (Status.fromThrowable(t).getCode() != Status.Code.RESOURCE_EXHAUSTED) return -1;
+
+        Metadata trailers = Status.trailersFromThrowable(t);
+        String retryAfter = trailers != null ? trailers.get(KEY) : null;
+        if (retryAfter == null) return -1;
+
+        try {
+            return Math.max(0, Long.parseLong(retryAfter));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package pt.ulisboa.tecnico.classes;
+
+import io.grpc.ServerBuilder;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors that run the handlers of a gRPC server
+ * Handlers block while they hold the class lock and while they gossip, so with the default cached pool every
+ * request in flight holds a platform thread. Virtual threads only need a few carrier threads for the same requests
+ */
+public final class ServerExecutors {
+
+    public enum Mode {
+        // The gRPC default, a cached pool that grows with the requests in flight
+        CACHED,
+        // A pool with a fixed number of platform threads, requests queue when they are all busy
+        FIXED,
+        // A virtual thread per request, needs Java 21
+        VIRTUAL
+    }
+
+    // Threads of the fixed pool per available processor
+    public static final int FIXED_THREADS_PER_PROCESSOR = 2;
+
+    private ServerExecutors() {}
+
+    /**
+     * Parse the executor mode from the command-line arguments
+     * @param args  The command-line arguments
+     * @return      The mode given with -executor=, CACHED if none
+     * @throws IllegalArgumentException If the mode is not cached, fixed or virtual
+     */
+    public static Mode parseMode(String[] args) {
+        return Arrays.stream(args).filter(arg -> arg.startsWith("-executor=")).map(arg -> arg.substring("-executor=".length()))
+                .map(mode -> Mode.valueOf(mode.toUpperCase())).findFirst().orElse(Mode.CACHED);
+    }
+
+    /**
+     * Check if this JVM can run virtual threads
+     * @return True from Java 21 on
+     */
+    public static boolean isVirtualAvailable() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Create the executor of a mode
+     * Virtual threads fall back to the cached pool when the JVM does not have them
+     * @param mode  The mode
+     * @param name  The prefix of the platform thread names
+     * @return      The executor, null for the gRPC default
+     */
+    public static ExecutorService create(Mode mode, String name) {
+
+        return switch (mode) {
+            case FIXED -> Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * FIXED_THREADS_PER_PROCESSOR,
+                    namedThreads(name, Thread.NORM_PRIORITY));
+            case VIRTUAL -> newVirtualExecutor(name);
+            default -> null;
+        };
+    }
+
+    /**
+     * Create a pool for one kind of request, with its own threads
+     * Unlike create, the cached mode has its own cached pool instead of the gRPC default
+     * @param mode      The mode
+     * @param name      The prefix of the platform thread names
+     * @param threads   The number of threads in the fixed mode
+     * @param priority  The priority of the platform threads, virtual threads ignore it
+     * @return          The executor
+     */
+    public static ExecutorService createPool(Mode mode, String name, int threads, int priority) {
+
+        ExecutorService executor = switch (mode) {
+            case FIXED -> Executors.newFixedThreadPool(threads, namedThreads(name, priority));
+            case VIRTUAL -> newVirtualExecutor(name);
+            default -> null;
+        };
+        return executor != null ? executor : Executors.newCachedThreadPool(namedThreads(name, priority));
+    }
+
+    /**
+     * Create an executor with a virtual thread per task
+     * @param name  The prefix of the handlers it runs, for the fallback message
+     * @return      The executor, null if the JVM does not have virtual threads
+     */
+    private static ExecutorService newVirtualExecutor(String name) {
+
+        // Looked up at runtime, the modules are compiled for Java 17
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            System.err.println("Virtual threads need Java 21, running " + name + " handlers on platform threads.");
+            return null;
+        }
+    }
+
+    /**
+     * Make a server run its handlers on the executor of a mode
+     * @param serverBuilder The server builder
+     * @param mode          The mode
+     * @param name          The prefix of the platform thread names
+     * @return              The executor, to shut down after the server, null for the gRPC default
+     */
+    public static ExecutorService configure(ServerBuilder<?> serverBuilder, Mode mode, String name) {
+
+        ExecutorService executor = create(mode, name);
+        if (executor != null) {
+            serverBuilder.executor(executor);
+        }
+        return executor;
+    }
+
+    private static ThreadFactory namedThreads(String name, int priority) {
+
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
+        };
+    }
+}
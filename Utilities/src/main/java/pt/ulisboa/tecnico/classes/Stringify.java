@@ -1,10 +1,16 @@
 package pt.ulisboa.tecnico.classes;
 
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ClassEvent;
 import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ClassState;
 import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ResponseCode;
 import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.Student;
+import pt.ulisboa.tecnico.classes.contract.admin.AdminClassServer.Admission;
+import pt.ulisboa.tecnico.classes.contract.admin.AdminClassServer.Lane;
+import pt.ulisboa.tecnico.classes.contract.admin.AdminClassServer.Peer;
 
+import java.io.PrintStream;
 import java.util.Comparator;
+import java.util.List;
 import java.util.stream.Collectors;
 
 public class Stringify {
@@ -30,6 +36,100 @@ public class Stringify {
         student.getStudentId(), student.getStudentName());
   }
 
+  public static String format(Peer peer) {
+    return String.format(
+        "Peer{\n\taddress=%s:%d,\n\tserverId=%d,\n\tackedClock=%s,\n\tlag=%d,\n\tlastAck=%s,\n\tfailures=%d\n}",
+        peer.getAddress().getHost(),
+        peer.getAddress().getPort(),
+        peer.getServerId(),
+        peer.hasAckedVectorClockState() ? Convert.toVectorClock(peer.getAckedVectorClockState()) : "none",
+        peer.getLag(),
+        peer.hasLastAck() ? Convert.toInstant(peer.getLastAck()) : "never",
+        peer.getFailures());
+  }
+
+  public static String format(Lane lane) {
+    return String.format(
+        "Lane{\n\tname=%s,\n\trunning=%d,\n\tqueued=%d/%d,\n\tpeakQueued=%d,\n\tcompleted=%d,\n\trejected=%d\n}",
+        lane.getName(),
+        lane.getRunning(),
+        lane.getQueued(),
+        lane.getMaxQueued(),
+        lane.getPeakQueued(),
+        lane.getCompleted(),
+        lane.getRejected());
+  }
+
+  public static String format(Admission admission) {
+    return String.format(
+        "Admission{\n\tlimit=%d,\n\tinFlight=%d,\n\tqueued=%d,\n\tadmitted=%d,\n\trejected=%d,\n\texpired=%d\n}",
+        admission.getLimit(),
+        admission.getInFlight(),
+        admission.getQueued(),
+        admission.getAdmitted(),
+        admission.getRejected(),
+        admission.getExpired());
+  }
+
+  public static String format(ClassEvent classEvent) {
+    return switch (classEvent.getType()) {
+      case SNAPSHOT -> format(classEvent.getClassState());
+      case ENROLLED -> "Student enrolled:" + format(classEvent.getStudent());
+      case DISCARDED -> "Student discarded:" + format(classEvent.getStudent());
+      case OPENED -> "Enrollments opened with capacity " + classEvent.getCapacity() + ".";
+      case CLOSED -> "Enrollments closed.";
+      default -> "Unknown event.";
+    };
+  }
+
+  /**
+   * Prints a class state as its pages arrive, with the same output as format(ClassState) when
+   * students arrive sorted by id, without holding the whole class in memory.
+   */
+  public static class ClassStateWriter {
+
+    private final PrintStream out;
+    private boolean writingEnrolled = true;
+    private boolean firstStudent = true;
+
+    public ClassStateWriter(PrintStream out, int capacity, boolean openEnrollments) {
+      this.out = out;
+      out.printf("ClassState{\n\tcapacity=%d,\n\topenEnrollments=%s,\n\tenrolled=[", capacity, openEnrollments);
+    }
+
+    public void addEnrolled(List<Student> students) {
+      students.forEach(this::write);
+    }
+
+    public void addDiscarded(List<Student> students) {
+      if (!students.isEmpty()) {
+        startDiscarded();
+      }
+      students.forEach(this::write);
+    }
+
+    public void end() {
+      startDiscarded();
+      out.println("]\n}");
+    }
+
+    private void startDiscarded() {
+      if (writingEnrolled) {
+        writingEnrolled = false;
+        firstStudent = true;
+        out.print("],\n\tdiscarded=[");
+      }
+    }
+
+    private void write(Student student) {
+      if (!firstStudent) {
+        out.print(", ");
+      }
+      firstStudent = false;
+      out.print(format(student));
+    }
+  }
+
   public static String format(ResponseCode responseCode) {
     return switch (responseCode) {
       case OK -> "The action completed successfully.";
@@ -41,6 +141,9 @@ public class Stringify {
       case INACTIVE_SERVER -> "The server is down.";
       case WRITING_NOT_SUPPORTED -> "The server you contacted does not support writes.";
       case SERVER_NOT_UPDATED -> "The action completed successfully but data might be out of date.";
+      case NOT_MODIFIED -> "The class has not changed since the last request.";
+      case BATCH_ABORTED -> "The action was not applied because another item of the batch failed.";
+      case FULL_STATE_REQUIRED -> "The server needs the whole class state.";
       default -> "Unknown error.";
     };
   }
@@ -111,6 +111,21 @@ public class VectorClock {
         return notEqual;
     }
 
+    /**
+     * Compare this vector clock with the given vector clock
+     * @param v         The other clock to compare with
+     * @return boolean  True if every entry of the given clock is lower or equal to this clock
+     */
+    public boolean isAtLeast(VectorClock v) {
+
+        for(int serverId : v.getVectorClock().keySet()){
+            if(v.getValue(serverId) > this.getValue(serverId)){
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Test if vectors are concurrent
      * @param v The other vector clock
@@ -0,0 +1,107 @@
+package pt.ulisboa.tecnico.classes.capture;
+
+import com.google.protobuf.MessageLite;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import pt.ulisboa.tecnico.classes.Convert;
+import pt.ulisboa.tecnico.classes.VectorClock;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * Records every call a server receives to a traffic log, to be replayed later
+ * Capturing stops at the first write error, so a full disk never fails the calls themselves
+ */
+public class CaptureInterceptor implements ServerInterceptor {
+
+    private final TrafficLogWriter writer;
+    private final Supplier<VectorClock> clock;
+    private final long start = System.nanoTime();
+
+    private volatile boolean failed = false;
+
+    // Request and response of a call, filled in as its messages pass
+    private static class Capture {
+        private byte[] request = new byte[0];
+        private boolean requested = false;
+        private int responseCode = -1;
+        private boolean responded = false;
+    }
+
+    /**
+     * @param writer    The log the calls are written to
+     * @param clock     The clock of the server, stored with each call
+     */
+    public CaptureInterceptor(TrafficLogWriter writer, Supplier<VectorClock> clock) {
+        this.writer = writer;
+        this.clock = clock;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+
+        if (failed) {
+            return next.startCall(call, headers);
+        }
+
+        long callStart = System.nanoTime();
+        Capture capture = new Capture();
+
+        ServerCall<ReqT, RespT> capturingCall = new ForwardingServerCall.SimpleForwardingServerCall<>(call) {
+
+            @Override
+            public void sendMessage(RespT message) {
+                synchronized (capture) {
+                    if (!capture.responded) {
+                        capture.responded = true;
+                        capture.responseCode = TrafficLog.responseCode(message);
+                    }
+                }
+                super.sendMessage(message);
+            }
+
+            @Override
+            public void close(Status status, Metadata trailers) {
+                super.close(status, trailers);
+                long now = System.nanoTime();
+                synchronized (capture) {
+                    write(new CapturedCall(getMethodDescriptor().getFullMethodName(), getMethodDescriptor().getType(),
+                            callStart - start, now - callStart, status.getCode().value(), capture.responseCode,
+                            Convert.toVectorClockState(clock.get()), capture.request));
+                }
+            }
+        };
+
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(next.startCall(capturingCall, headers)) {
+
+            @Override
+            public void onMessage(ReqT message) {
+                synchronized (capture) {
+                    if (!capture.requested && message instanceof MessageLite request) {
+                        capture.requested = true;
+                        capture.request = request.toByteArray();
+                    }
+                }
+                super.onMessage(message);
+            }
+        };
+    }
+
+    private void write(CapturedCall call) {
+
+        if (failed) return;
+        try {
+            writer.write(call);
+        } catch (IOException e) {
+            failed = true;
+            System.err.println("Caught IOException when capturing traffic, capture stopped: " + e.getMessage());
+        }
+    }
+}
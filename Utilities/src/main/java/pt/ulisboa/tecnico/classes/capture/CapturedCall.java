@@ -0,0 +1,27 @@
+package pt.ulisboa.tecnico.classes.capture;
+
+import io.grpc.MethodDescriptor.MethodType;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.VectorClockState;
+
+/**
+ * A call received by a server, as stored in a traffic log
+ * @param method        The full method name, as service/method
+ * @param type          The method type, only unary calls can be replayed
+ * @param time          When the call started, since the start of the capture (nanoseconds)
+ * @param latency       How long the server took to close the call (nanoseconds)
+ * @param status        The status code the call closed with
+ * @param responseCode  The code of the first response, -1 if there was none
+ * @param clock         The server clock when the call closed
+ * @param request       The first request message, serialized
+ */
+public record CapturedCall(String method, MethodType type, long time, long latency, int status, int responseCode,
+                           VectorClockState clock, byte[] request) {
+
+    /**
+     * Get the service of the call
+     * @return The full service name
+     */
+    public String service() {
+        return method.substring(0, method.lastIndexOf('/'));
+    }
+}
@@ -0,0 +1,42 @@
+package pt.ulisboa.tecnico.classes.capture;
+
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Layout of traffic log files
+ * A log starts with MAGIC, the version and the capture start (epoch milliseconds), followed by records
+ * A METHOD record gives an id to a method name the first time it appears, a CALL record holds a call with
+ * its method id, start as a difference from the previous call, latency, status, response code, clock and request
+ * Numbers are protobuf varints, so most records take a few bytes plus the request
+ */
+public final class TrafficLog {
+
+    public static final byte[] MAGIC = "CLASSTRAFFIC".getBytes(StandardCharsets.US_ASCII);
+    public static final int VERSION = 1;
+
+    static final int METHOD = 1;
+    static final int CALL = 2;
+
+    private TrafficLog() {}
+
+    /**
+     * Get the response code of a response message
+     * @param message   The response message
+     * @return          The number of its code field, -1 if it has none
+     */
+    public static int responseCode(Object message) {
+
+        if (!(message instanceof Message response)) {
+            return -1;
+        }
+        FieldDescriptor field = response.getDescriptorForType().findFieldByName("code");
+        if (field == null || field.getType() != FieldDescriptor.Type.ENUM) {
+            return -1;
+        }
+        return ((EnumValueDescriptor) response.getField(field)).getNumber();
+    }
+}
@@ -0,0 +1,100 @@
+package pt.ulisboa.tecnico.classes.capture;
+
+import com.google.protobuf.CodedInputStream;
+import io.grpc.MethodDescriptor.MethodType;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.VectorClockState;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the calls of a traffic log, in the order they were written
+ */
+public class TrafficLogReader implements AutoCloseable {
+
+    private record Method(String name, MethodType type) {}
+
+    private final InputStream file;
+    private final CodedInputStream in;
+    private final long startTime;
+
+    private final Map<Integer, Method> methods = new HashMap<>();
+    private long lastTime = 0;
+
+    /**
+     * Open a log
+     * @param path          The log path
+     * @throws IOException  If the file cannot be read or is not a traffic log
+     */
+    public TrafficLogReader(Path path) throws IOException {
+
+        file = new BufferedInputStream(Files.newInputStream(path));
+        in = CodedInputStream.newInstance(file);
+
+        if (!Arrays.equals(in.readRawBytes(TrafficLog.MAGIC.length), TrafficLog.MAGIC)) {
+            throw new IOException("Not a traffic log: " + path);
+        }
+        int version = in.readUInt32();
+        if (version != TrafficLog.VERSION) {
+            throw new IOException("Unsupported traffic log version " + version + ": " + path);
+        }
+        startTime = in.readInt64();
+    }
+
+    /**
+     * Get when the capture started
+     * @return The start (epoch milliseconds)
+     */
+    public long getStartTime() { return startTime; }
+
+    /**
+     * Read the next call
+     * @return The call, null at the end of the log
+     * @throws IOException If the file cannot be read or is corrupted
+     */
+    public CapturedCall next() throws IOException {
+
+        while (!in.isAtEnd()) {
+
+            // Records are small, so the size limit is only checked within one
+            in.resetSizeCounter();
+
+            int record = in.readUInt32();
+            if (record == TrafficLog.METHOD) {
+                int methodId = in.readUInt32();
+                MethodType type = MethodType.values()[in.readUInt32()];
+                methods.put(methodId, new Method(in.readString(), type));
+                continue;
+            }
+            if (record != TrafficLog.CALL) {
+                throw new IOException("Corrupted traffic log, unknown record " + record);
+            }
+
+            Method method = methods.get(in.readUInt32());
+            if (method == null) {
+                throw new IOException("Corrupted traffic log, call of an unknown method");
+            }
+            long time = lastTime + in.readSInt64();
+            long latency = in.readUInt64();
+            int status = in.readUInt32();
+            int responseCode = in.readSInt32();
+            VectorClockState clock = VectorClockState.parseFrom(in.readByteArray());
+            byte[] request = in.readByteArray();
+            lastTime = time;
+
+            return new CapturedCall(method.name(), method.type(), time, latency, status, responseCode, clock, request);
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
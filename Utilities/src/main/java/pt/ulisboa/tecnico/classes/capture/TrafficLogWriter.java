@@ -0,0 +1,83 @@
+package pt.ulisboa.tecnico.classes.capture;
+
+import com.google.protobuf.CodedOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes calls to a traffic log, from any number of threads
+ */
+public class TrafficLogWriter implements AutoCloseable {
+
+    private final OutputStream file;
+    private final CodedOutputStream out;
+
+    private final Map<String, Integer> methodIds = new HashMap<>();
+    private long lastTime = 0;
+
+    /**
+     * Create a log, replacing any file at the path
+     * @param path          The log path
+     * @param startTime     When the capture started (epoch milliseconds)
+     * @throws IOException  If the file cannot be written
+     */
+    public TrafficLogWriter(Path path, long startTime) throws IOException {
+
+        file = new BufferedOutputStream(Files.newOutputStream(path));
+        out = CodedOutputStream.newInstance(file);
+
+        out.writeRawBytes(TrafficLog.MAGIC);
+        out.writeUInt32NoTag(TrafficLog.VERSION);
+        out.writeInt64NoTag(startTime);
+    }
+
+    /**
+     * Append a call to the log
+     * @param call          The call
+     * @throws IOException  If the file cannot be written
+     */
+    public synchronized void write(CapturedCall call) throws IOException {
+
+        Integer methodId = methodIds.get(call.method());
+        if (methodId == null) {
+            methodId = methodIds.size();
+            methodIds.put(call.method(), methodId);
+
+            out.writeUInt32NoTag(TrafficLog.METHOD);
+            out.writeUInt32NoTag(methodId);
+            out.writeUInt32NoTag(call.type().ordinal());
+            out.writeStringNoTag(call.method());
+        }
+
+        // Calls are written when they close, so starts are not always in order
+        out.writeUInt32NoTag(TrafficLog.CALL);
+        out.writeUInt32NoTag(methodId);
+        out.writeSInt64NoTag(call.time() - lastTime);
+        out.writeUInt64NoTag(call.latency());
+        out.writeUInt32NoTag(call.status());
+        out.writeSInt32NoTag(call.responseCode());
+        out.writeByteArrayNoTag(call.clock().toByteArray());
+        out.writeByteArrayNoTag(call.request());
+        lastTime = call.time();
+    }
+
+    /**
+     * Write any buffered calls to the file
+     */
+    public synchronized void flush() throws IOException {
+        out.flush();
+        file.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        file.close();
+    }
+}
@@ -0,0 +1,596 @@
+package pt.ulisboa.tecnico.classes.client;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.Channel;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import pt.ulisboa.tecnico.classes.ConnectionManager;
+import pt.ulisboa.tecnico.classes.Convert;
+import pt.ulisboa.tecnico.classes.Debug;
+import pt.ulisboa.tecnico.classes.HedgedReads;
+import pt.ulisboa.tecnico.classes.ReplicaPicker;
+import pt.ulisboa.tecnico.classes.RetryAfter;
+import pt.ulisboa.tecnico.classes.VectorClock;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.Address;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ClassState;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ResponseCode;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.VectorClockState;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Non-blocking client of the class servers, shared by the student and professor clients
+ * Requests go to the server expected to answer fastest, move to another server while
+ * servers are down or busy, and carry the client clock so reads are never older than its writes
+ * Every method is safe to call from several threads at once
+ */
+public abstract class ClassClient {
+
+    protected static final String SERVICE = "turmas";
+    protected static final String[] QUALIFIERS = {"P", "S"};
+
+    // Servers that accept changes to the enrollment settings
+    protected static final String[] PRIMARY_QUALIFIERS = {"P"};
+
+    // Times a request refused by busy servers is sent again
+    private static final int MAX_BUSY_RETRIES = 3;
+    // Wait before retrying a busy server that gave no time, and the longest wait accepted (milliseconds)
+    private static final long DEFAULT_RETRY_AFTER = 100;
+    private static final long MAX_RETRY_AFTER = 2000;
+
+    protected final Debug debug;
+
+    private final ConnectionManager connectionManager;
+
+    // Runs naming server lookups, which block
+    private final Executor executor;
+    private final ExecutorService ownExecutor;
+
+    // Highest server clock seen by the client
+    private final VectorClock vectorClock = new VectorClock();
+
+    // Last class state received and the server clock it corresponds to
+    private volatile CachedClassState cachedClassState;
+
+    // Sends slow listClass requests to a second server, null if off
+    private volatile HedgedReads hedgedReads;
+
+    // Server that served the last write, used while it stays healthy so it never has to catch up
+    private volatile Address stickyAddress;
+
+    // Called before a request is sent again because the server was down
+    private volatile Runnable retryListener = () -> {};
+
+    protected record CachedClassState(ClassState classState, VectorClock vectorClock) {}
+
+    // A response and the server that sent it
+    private record Served<R>(Address address, R response) {}
+
+    /**
+     * A request to send to the servers
+     * @param method        The method name, for debugging
+     * @param qualifiers    The qualifiers of the servers that can answer
+     * @param stub          Sends the request on a channel
+     * @param code          Gets the code of a response
+     * @param clock         Gets the server clock of a response
+     * @param write         True if the request changes the class
+     * @param hedge         True if the request may also be sent to a second server
+     * @param <R>           The response type
+     */
+    protected record Call<R>(String method, String[] qualifiers, Function<Channel, ListenableFuture<R>> stub,
+                             Function<R, ResponseCode> code, Function<R, VectorClockState> clock,
+                             boolean write, boolean hedge) {}
+
+    /**
+     * @param connectionManager The naming lookups and channels to use
+     * @param executor          The executor for blocking work, or null to use one owned by the client
+     * @param debug             The debug logger
+     */
+    protected ClassClient(ConnectionManager connectionManager, Executor executor, Debug debug) {
+        this.connectionManager = connectionManager;
+        this.debug = debug;
+
+        if (executor != null) {
+            this.executor = executor;
+            this.ownExecutor = null;
+        } else {
+            this.ownExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "class-client");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.executor = ownExecutor;
+        }
+    }
+
+    public ConnectionManager getConnectionManager() { return connectionManager; }
+
+    public void setHedgedReads(HedgedReads hedgedReads) { this.hedgedReads = hedgedReads; }
+
+    public void setRetryListener(Runnable retryListener) { this.retryListener = retryListener; }
+
+    Address getStickyAddress() { return stickyAddress; }
+
+    /**
+     * Get the client clock
+     * @return A copy of the highest server clock seen by the client
+     */
+    public VectorClock getVectorClock() {
+        synchronized (vectorClock) {
+            return new VectorClock().copyVectorClock(vectorClock);
+        }
+    }
+
+    /**
+     * Get the client clock in the form sent with requests
+     * @return The client clock
+     */
+    protected VectorClockState getVectorClockState() {
+        synchronized (vectorClock) {
+            return Convert.toVectorClockState(vectorClock);
+        }
+    }
+
+    /**
+     * Get the last class state received
+     * @return The class state and its clock, null if none was received
+     */
+    protected CachedClassState getCachedClassState() { return cachedClassState; }
+
+    /**
+     * Turn a listClass response into a result, keeping the class state to avoid receiving it again while unchanged
+     * @param code          The response code
+     * @param classState    The class state of the response
+     * @param clock         The server clock of the response
+     * @return              The result, with the cached class state if the class did not change
+     */
+    protected ClientResult<ClassState> toClassStateResult(ResponseCode code, ClassState classState, VectorClockState clock) {
+
+        VectorClock serverVectorClock = Convert.toVectorClock(clock);
+
+        return switch (code) {
+            case OK -> {
+                cachedClassState = new CachedClassState(classState, serverVectorClock);
+                yield new ClientResult<>(code, classState, serverVectorClock);
+            }
+            case NOT_MODIFIED -> {
+                CachedClassState cached = cachedClassState;
+                yield new ClientResult<>(code, cached != null ? cached.classState() : null, serverVectorClock);
+            }
+            case SERVER_NOT_UPDATED -> new ClientResult<>(code, classState, serverVectorClock);
+            default -> new ClientResult<>(code, null, serverVectorClock);
+        };
+    }
+
+    /**
+     * Send a request to the servers
+     * The request moves to another server while the chosen one is down, and waits for a busy server
+     * when no other is left
+     * @param call  The request
+     * @param <R>   The response type
+     * @return      The response, or a StatusRuntimeException if no server could be reached
+     */
+    protected <R> CompletableFuture<R> send(Call<R> call) {
+
+        return findServers(call.qualifiers()).thenCompose(addresses -> {
+            CompletableFuture<R> result = new CompletableFuture<>();
+            attempt(call, addresses, 0, result);
+            return result;
+        });
+    }
+
+    /**
+     * Send a request answered with a stream, giving each response to the consumer as it arrives
+     * The request moves to another server while the chosen one is down, before any response is given
+     * @param method        The method name, for debugging
+     * @param stub          Starts the request on a channel
+     * @param code          Gets the code of a response
+     * @param clock         Gets the server clock of a response
+     * @param onResponse    Receives each response, in order
+     * @param <R>           The response type
+     * @return              The first response once the stream ends, or a StatusRuntimeException if it failed
+     */
+    protected <R> CompletableFuture<R> stream(String method, BiConsumer<Channel, StreamObserver<R>> stub,
+                                              Function<R, ResponseCode> code, Function<R, VectorClockState> clock,
+                                              Consumer<R> onResponse) {
+
+        return findServers(QUALIFIERS).thenCompose(addresses -> {
+            CompletableFuture<R> result = new CompletableFuture<>();
+            attemptStream(method, stub, code, clock, onResponse, addresses, result);
+            return result;
+        });
+    }
+
+    /**
+     * Send a request answered page by page, every page of the listing from the same server
+     * Page tokens only work on the server that returned them, so the listing only moves to another server,
+     * from the first page, while the chosen one is down before any page is given
+     * @param method        The method name, for debugging
+     * @param stub          Requests the page of a token on a channel, the token is empty for the first page
+     * @param code          Gets the code of a response
+     * @param clock         Gets the server clock of a response
+     * @param nextPageToken Gets the token of the next page of a response, empty on the last page
+     * @param onPage        Receives each page, in order
+     * @param <R>           The response type
+     * @return              The first page once the last page arrived, or a StatusRuntimeException if it failed
+     */
+    protected <R> CompletableFuture<R> pages(String method, BiFunction<Channel, String, ListenableFuture<R>> stub,
+                                             Function<R, ResponseCode> code, Function<R, VectorClockState> clock,
+                                             Function<R, String> nextPageToken, Consumer<R> onPage) {
+
+        return findServers(QUALIFIERS).thenCompose(addresses -> {
+            CompletableFuture<R> result = new CompletableFuture<>();
+            attemptPages(method, stub, code, clock, nextPageToken, onPage, pickServer(addresses), addresses, "", null, result);
+            return result;
+        });
+    }
+
+    /**
+     * Release the threads of the client
+     * The channels belong to the connection manager and stay open
+     */
+    public void close() {
+        if (ownExecutor != null) ownExecutor.shutdown();
+    }
+
+    /**
+     * Get servers from the naming server, without blocking the caller
+     * @param qualifiers    The server's qualifiers
+     * @return              The available servers, or a StatusRuntimeException if there are none
+     */
+    private CompletableFuture<List<Address>> findServers(String[] qualifiers) {
+
+        return CompletableFuture
+                .supplyAsync(() -> connectionManager.getAvailableServers(SERVICE, qualifiers), executor)
+                .thenCompose(addresses -> addresses.isEmpty()
+                        ? CompletableFuture.failedFuture(Status.UNAVAILABLE.withDescription("No server found.").asRuntimeException())
+                        : CompletableFuture.completedFuture(addresses));
+    }
+
+    /**
+     * Choose the server for the next attempt and remove it from the candidates
+     * @param addresses The candidate servers, not empty
+     * @return          The chosen server
+     */
+    private Address pickServer(List<Address> addresses) {
+
+        // Stay on the server of the last write if it can serve this request,
+        // else select the server expected to answer fastest, based on its latency and pending requests
+        Address sticky = stickyAddress;
+        Address address = sticky != null && addresses.contains(sticky)
+                ? sticky
+                : connectionManager.getReplicaPicker().pick(addresses);
+
+        // Remove chosen server to avoid re-sending request to the same server
+        addresses.remove(address);
+
+        debug.log("Contacting server at " + address.getHost() + ":" + address.getPort());
+        return address;
+    }
+
+    /**
+     * Send a request to one server, and to the next one if it is down or busy
+     * @param call          The request
+     * @param addresses     The servers not tried yet
+     * @param busyRetries   The times the request was refused by busy servers
+     * @param result        Completed with the response
+     * @param <R>           The response type
+     */
+    private <R> void attempt(Call<R> call, List<Address> addresses, int busyRetries, CompletableFuture<R> result) {
+
+        Address address = pickServer(addresses);
+
+        HedgedReads hedging = hedgedReads;
+        CompletableFuture<Served<R>> response = call.hedge() && hedging != null && !addresses.isEmpty()
+                ? hedge(call, address, addresses, hedging)
+                : toCompletableFuture(sendTo(call, address)).thenApply(r -> new Served<>(address, r));
+
+        response.whenComplete((served, t) -> {
+
+            if (t != null) {
+                if (Status.fromThrowable(t).getCode() == Status.Code.RESOURCE_EXHAUSTED && busyRetries < MAX_BUSY_RETRIES) {
+                    retryBusy(call, address, addresses, busyRetries, RetryAfter.of(t), result);
+                    return;
+                }
+                result.completeExceptionally(Status.fromThrowable(t).asRuntimeException());
+                return;
+            }
+
+            R r = served.response();
+            ResponseCode responseCode = call.code().apply(r);
+
+            if (responseCode == ResponseCode.INACTIVE_SERVER && !addresses.isEmpty()) {
+                retryListener.run();
+                attempt(call, addresses, busyRetries, result);
+                return;
+            }
+
+            // Update client vector clock with the server's vector clock
+            mergeVectorClock(call.clock().apply(r));
+            // Only a write the server applied makes it the one to stay on, a server that could not update or
+            // refused the write may be behind the others
+            if (call.write() && responseCode == ResponseCode.OK) {
+                stickyAddress = served.address();
+            }
+
+            debug.log(call.method() + ": " + responseCode + " and vector clock: " + getVectorClock());
+            result.complete(r);
+        });
+    }
+
+    /**
+     * Send a request refused by a busy server to another server at once, or else back to the same server
+     * after the time it asked to wait
+     * @param call          The request
+     * @param address       The busy server
+     * @param addresses     The servers not tried yet
+     * @param busyRetries   The times the request was refused by busy servers
+     * @param retryAfter    The time the server asked to wait (milliseconds), -1 if none
+     * @param result        Completed with the response
+     * @param <R>           The response type
+     */
+    private <R> void retryBusy(Call<R> call, Address address, List<Address> addresses, int busyRetries, long retryAfter,
+                               CompletableFuture<R> result) {
+
+        if (!addresses.isEmpty()) {
+            debug.log(call.method() + ": Server busy, trying another server");
+            attempt(call, addresses, busyRetries + 1, result);
+            return;
+        }
+
+        long delay = Math.min(MAX_RETRY_AFTER, retryAfter >= 0 ? retryAfter : DEFAULT_RETRY_AFTER);
+        debug.log(call.method() + ": Server busy, retrying in " + delay + " ms");
+
+        // Sending does not block, so the retry runs on the default async pool
+        addresses.add(address);
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(
+                () -> attempt(call, addresses, busyRetries + 1, result));
+    }
+
+    /**
+     * Send a request to a server, recording its outcome against that server
+     * @param call      The request
+     * @param address   The server
+     * @param <R>       The response type
+     * @return          The gRPC call, cancelling it only releases the server
+     */
+    private <R> ListenableFuture<R> sendTo(Call<R> call, Address address) {
+
+        long start = connectionManager.getReplicaPicker().start(address);
+        ListenableFuture<R> future = call.stub().apply(connectionManager.getChannel(address));
+
+        Futures.addCallback(future, new FutureCallback<>() {
+            @Override
+            public void onSuccess(R response) { recordResponse(address, start, call.code().apply(response)); }
+
+            @Override
+            public void onFailure(Throwable t) {
+
+                if (t instanceof CancellationException) {
+                    connectionManager.getReplicaPicker().cancel(address);
+                    return;
+                }
+
+                Status status = Status.fromThrowable(t);
+                debug.log(call.method() + ": " + status.getDescription());
+                connectionManager.reportFailure(address, status);
+                recordResponse(address, start, null);
+            }
+        }, MoreExecutors.directExecutor());
+
+        return future;
+    }
+
+    /**
+     * Send a read to a first server and, if it is slow or out of date, to a second one
+     * Each call is recorded against its own server, and the response tells which server answered
+     * @param call          The request
+     * @param address       The first server
+     * @param addresses     The servers not tried yet, the second server is taken from them
+     * @param hedging       The hedged reads
+     * @param <R>           The response type
+     * @return              The first response at least as recent as the client, or else the first response received
+     */
+    private <R> CompletableFuture<Served<R>> hedge(Call<R> call, Address address, List<Address> addresses, HedgedReads hedging) {
+
+        Address hedgeAddress = connectionManager.getReplicaPicker().pick(addresses);
+        addresses.remove(hedgeAddress);
+
+        VectorClock clientVectorClock = getVectorClock();
+
+        return hedging.call(
+                () -> sendTo(call, address),
+                () -> {
+                    debug.log(call.method() + ": Hedging to server at " + hedgeAddress.getHost() + ":" + hedgeAddress.getPort());
+                    return sendTo(call, hedgeAddress);
+                },
+                response -> {
+                    ResponseCode code = call.code().apply(response);
+                    return (code == ResponseCode.OK || code == ResponseCode.NOT_MODIFIED)
+                            && Convert.toVectorClock(call.clock().apply(response)).isAtLeast(clientVectorClock);
+                })
+                .thenApply(served -> new Served<>(served.hedged() ? hedgeAddress : address, served.value()));
+    }
+
+    /**
+     * Send a request answered with a stream to one server, and to the next one if it is down
+     */
+    private <R> void attemptStream(String method, BiConsumer<Channel, StreamObserver<R>> stub,
+                                   Function<R, ResponseCode> code, Function<R, VectorClockState> clock,
+                                   Consumer<R> onResponse, List<Address> addresses, CompletableFuture<R> result) {
+
+        Address address = pickServer(addresses);
+        long start = connectionManager.getReplicaPicker().start(address);
+
+        stub.accept(connectionManager.getChannel(address), new StreamObserver<>() {
+
+            private R first;
+            private boolean retry = false;
+
+            @Override
+            public void onNext(R response) {
+
+                if (first == null) {
+                    first = response;
+                    ResponseCode responseCode = code.apply(response);
+                    recordResponse(address, start, responseCode);
+
+                    if (responseCode == ResponseCode.INACTIVE_SERVER && !addresses.isEmpty()) {
+                        retry = true;
+                        return;
+                    }
+                }
+                if (!retry) onResponse.accept(response);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+
+                Status status = Status.fromThrowable(t);
+                debug.log(method + ": " + status.getDescription());
+
+                if (retry) {
+                    retryListener.run();
+                    attemptStream(method, stub, code, clock, onResponse, addresses, result);
+                    return;
+                }
+                if (first == null) {
+                    connectionManager.reportFailure(address, status);
+                    recordResponse(address, start, null);
+                }
+                result.completeExceptionally(status.asRuntimeException());
+            }
+
+            @Override
+            public void onCompleted() {
+
+                if (retry) {
+                    retryListener.run();
+                    attemptStream(method, stub, code, clock, onResponse, addresses, result);
+                    return;
+                }
+                if (first == null) {
+                    recordResponse(address, start, null);
+                    result.completeExceptionally(Status.INTERNAL.withDescription("Empty response stream").asRuntimeException());
+                    return;
+                }
+
+                // Every response carries the same code and clock
+                mergeVectorClock(clock.apply(first));
+                debug.log(method + ": " + code.apply(first) + " and vector clock: " + getVectorClock());
+                result.complete(first);
+            }
+        });
+    }
+
+    /**
+     * Request one page of a listing from its server, then the next page from the same server
+     * @param address   The server of the listing
+     * @param addresses The servers not tried yet, used if the server is down before the first page
+     * @param pageToken The token of the page, empty for the first page
+     * @param first     The first page, null if not received yet
+     */
+    private <R> void attemptPages(String method, BiFunction<Channel, String, ListenableFuture<R>> stub,
+                                  Function<R, ResponseCode> code, Function<R, VectorClockState> clock,
+                                  Function<R, String> nextPageToken, Consumer<R> onPage, Address address,
+                                  List<Address> addresses, String pageToken, R first, CompletableFuture<R> result) {
+
+        long start = connectionManager.getReplicaPicker().start(address);
+
+        toCompletableFuture(stub.apply(connectionManager.getChannel(address), pageToken)).whenComplete((r, t) -> {
+
+            if (t != null) {
+                Status status = Status.fromThrowable(t);
+                debug.log(method + ": " + status.getDescription());
+                connectionManager.reportFailure(address, status);
+                recordResponse(address, start, null);
+                result.completeExceptionally(status.asRuntimeException());
+                return;
+            }
+
+            ResponseCode responseCode = code.apply(r);
+            recordResponse(address, start, responseCode);
+
+            if (first == null && responseCode == ResponseCode.INACTIVE_SERVER && !addresses.isEmpty()) {
+                retryListener.run();
+                attemptPages(method, stub, code, clock, nextPageToken, onPage, pickServer(addresses), addresses, "", null, result);
+                return;
+            }
+
+            onPage.accept(r);
+            R listingFirst = first != null ? first : r;
+
+            String next = nextPageToken.apply(r);
+            if (responseCode != ResponseCode.INACTIVE_SERVER && !next.isEmpty()) {
+                attemptPages(method, stub, code, clock, nextPageToken, onPage, address, addresses, next, listingFirst, result);
+                return;
+            }
+
+            mergeVectorClock(clock.apply(listingFirst));
+            debug.log(method + ": " + code.apply(listingFirst) + " and vector clock: " + getVectorClock());
+            result.complete(listingFirst);
+        });
+    }
+
+    /**
+     * Record the outcome of a request to a server
+     * @param address       The server
+     * @param start         The start time of the request
+     * @param responseCode  The response code, null if the request failed
+     */
+    private void recordResponse(Address address, long start, ResponseCode responseCode) {
+
+        ReplicaPicker picker = connectionManager.getReplicaPicker();
+        picker.finish(address, start, responseCode);
+
+        // Fail over if the server of the last write is down or behind, the next server catches up through gossip
+        if (address.equals(stickyAddress) && (responseCode == null
+                || responseCode == ResponseCode.INACTIVE_SERVER || responseCode == ResponseCode.SERVER_NOT_UPDATED)) {
+            debug.log("Leaving server at " + address.getHost() + ":" + address.getPort());
+            stickyAddress = null;
+        }
+    }
+
+    /**
+     * Merge a server clock into the client clock
+     * Merging instead of replacing keeps the clock from going back when concurrent responses arrive out of order
+     * @param clock The server clock
+     */
+    private void mergeVectorClock(VectorClockState clock) {
+        synchronized (vectorClock) {
+            vectorClock.merge(Convert.toVectorClock(clock));
+        }
+    }
+
+    /**
+     * Adapt a gRPC future to a CompletableFuture
+     * @param future    The gRPC future
+     * @param <T>       The result type
+     * @return          The CompletableFuture, completed when the gRPC future is
+     */
+    private static <T> CompletableFuture<T> toCompletableFuture(ListenableFuture<T> future) {
+
+        CompletableFuture<T> completableFuture = new CompletableFuture<>();
+        Futures.addCallback(future, new FutureCallback<>() {
+            @Override
+            public void onSuccess(T result) { completableFuture.complete(result); }
+
+            @Override
+            public void onFailure(Throwable t) { completableFuture.completeExceptionally(t); }
+        }, MoreExecutors.directExecutor());
+        return completableFuture;
+    }
+}
@@ -0,0 +1,180 @@
+package pt.ulisboa.tecnico.classes.client;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import pt.ulisboa.tecnico.classes.ConnectionManager;
+import pt.ulisboa.tecnico.classes.Convert;
+import pt.ulisboa.tecnico.classes.Debug;
+import pt.ulisboa.tecnico.classes.VectorClock;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ClassEvent;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ResponseCode;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.VectorClockState;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Watch stream of the class changes, shared by the student and professor clients
+ * A lost stream is opened again after a delay, possibly on another server, resuming from the last event received
+ * @param <ReqT>    The watch request type
+ * @param <RespT>   The watch response type
+ */
+public class ClassWatch<ReqT, RespT> {
+
+    private static final String SERVICE = "turmas";
+    private static final String[] QUALIFIERS = {"P", "S"};
+
+    // Delay before reconnecting a lost watch stream
+    private static final int RETRY_DELAY = 1000;
+
+    /**
+     * Opens a watch stream on a channel
+     * @param <ReqT>    The watch request type
+     * @param <RespT>   The watch response type
+     */
+    public interface Opener<ReqT, RespT> {
+
+        /**
+         * Open a watch stream
+         * @param channel           The channel to a server
+         * @param vectorClockState  The clock of the last event received
+         * @param observer          Receives the responses
+         */
+        void open(ManagedChannel channel, VectorClockState vectorClockState, ClientResponseObserver<ReqT, RespT> observer);
+    }
+
+    private final Debug debug;
+    private final ConnectionManager connectionManager;
+    private final Opener<ReqT, RespT> opener;
+    private final Function<RespT, ResponseCode> code;
+    private final Function<RespT, ClassEvent> event;
+    private final Consumer<ClassEvent> onEvent;
+    private final Consumer<ResponseCode> onFailure;
+
+    // Stream state, the clock is the one of the last event received
+    private boolean watching = false;
+    private ClientCallStreamObserver<ReqT> call;
+    private volatile VectorClock vectorClock = new VectorClock();
+
+    // Created for each watch, a cancelled timer can not schedule again
+    private Timer timer;
+
+    /**
+     * @param connectionManager The connection manager that gives the server channels
+     * @param opener            Opens the stream on a channel
+     * @param code              Gets the code of a response
+     * @param event             Gets the event of a response
+     * @param onEvent           Called with each event received
+     * @param onFailure         Called with the code of each failed response
+     * @param debug             Debug logger of the client
+     */
+    public ClassWatch(ConnectionManager connectionManager, Opener<ReqT, RespT> opener, Function<RespT, ResponseCode> code,
+                      Function<RespT, ClassEvent> event, Consumer<ClassEvent> onEvent, Consumer<ResponseCode> onFailure,
+                      Debug debug) {
+
+        this.connectionManager = connectionManager;
+        this.opener = opener;
+        this.code = code;
+        this.event = event;
+        this.onEvent = onEvent;
+        this.onFailure = onFailure;
+        this.debug = debug;
+    }
+
+    public synchronized boolean isWatching() { return watching; }
+
+    /**
+     * Start watching class changes
+     * @return False if already watching
+     */
+    public synchronized boolean start() {
+
+        if (watching) return false;
+
+        watching = true;
+        timer = new Timer("watch", true);
+        open();
+        return true;
+    }
+
+    /**
+     * Stop watching class changes
+     */
+    public synchronized void stop() {
+
+        if (!watching) return;
+
+        watching = false;
+        if (call != null) call.cancel("Stopped watching", null);
+        call = null;
+        timer.cancel();
+        timer = null;
+    }
+
+    /**
+     * Open a watch stream, resuming from the last event received
+     * The stream goes through a channel over every server, so each reconnection may use another server
+     */
+    private synchronized void open() {
+
+        if (!watching) return;
+
+        ManagedChannel channel = connectionManager.getServiceChannel(SERVICE, QUALIFIERS, "round_robin");
+
+        debug.log("watchClass: Watching class from vector clock: " + vectorClock);
+
+        opener.open(channel, Convert.toVectorClockState(vectorClock), new ClientResponseObserver<ReqT, RespT>() {
+
+            private ClientCallStreamObserver<ReqT> requestStream;
+
+            @Override
+            public void beforeStart(ClientCallStreamObserver<ReqT> requestStream) {
+                this.requestStream = requestStream;
+                call = requestStream;
+            }
+
+            @Override
+            public void onNext(RespT response) {
+                if (code.apply(response) == ResponseCode.OK) {
+                    ClassEvent classEvent = event.apply(response);
+                    vectorClock = Convert.toVectorClock(classEvent.getVectorClockState());
+                    onEvent.accept(classEvent);
+                } else {
+                    onFailure.accept(code.apply(response));
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                debug.log("watchClass: " + Status.fromThrowable(t).getDescription());
+                retry(requestStream);
+            }
+
+            @Override
+            public void onCompleted() {
+                retry(requestStream);
+            }
+        });
+    }
+
+    /**
+     * Reconnect a lost watch stream after a delay, possibly to another server
+     * @param ended The stream that ended, ignored if it is not the current one (stopped and watched again)
+     */
+    private synchronized void retry(ClientCallStreamObserver<ReqT> ended) {
+
+        if (!watching || ended != call) return;
+        call = null;
+
+        debug.log("watchClass: Stream ended, reconnecting with vector clock: " + vectorClock);
+
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() { open(); }
+        }, RETRY_DELAY);
+    }
+}
@@ -0,0 +1,22 @@
+package pt.ulisboa.tecnico.classes.client;
+
+import pt.ulisboa.tecnico.classes.VectorClock;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ResponseCode;
+
+/**
+ * Result of a request to a class server
+ * @param code          The response code
+ * @param value         The value returned, null if the request has none or it failed
+ * @param vectorClock   The server clock sent with the response
+ * @param <T>           The value type
+ */
+public record ClientResult<T>(ResponseCode code, T value, VectorClock vectorClock) {
+
+    /**
+     * Tell if the request was applied, possibly on a server that was not up to date
+     * @return True if the code is OK or SERVER_NOT_UPDATED
+     */
+    public boolean isApplied() {
+        return code == ResponseCode.OK || code == ResponseCode.SERVER_NOT_UPDATED;
+    }
+}
@@ -0,0 +1,168 @@
+package pt.ulisboa.tecnico.classes.client;
+
+import pt.ulisboa.tecnico.classes.ConnectionManager;
+import pt.ulisboa.tecnico.classes.Convert;
+import pt.ulisboa.tecnico.classes.Debug;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ClassState;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.PageOrder;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ResponseCode;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.VectorClockState;
+import pt.ulisboa.tecnico.classes.contract.professor.ProfessorClassServer.*;
+import pt.ulisboa.tecnico.classes.contract.professor.ProfessorServiceGrpc;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking client of the professor service
+ */
+public class ProfessorClient extends ClassClient {
+
+    public ProfessorClient(ConnectionManager connectionManager, boolean debugMode) {
+        this(connectionManager, null, debugMode);
+    }
+
+    public ProfessorClient(ConnectionManager connectionManager, Executor executor, boolean debugMode) {
+        super(connectionManager, executor, new Debug(ProfessorClient.class.getName(), debugMode));
+    }
+
+    /**
+     * Open class enrollments
+     * @param capacity  The class capacity
+     * @return          The response code
+     */
+    public CompletableFuture<ClientResult<Void>> openEnrollments(int capacity) {
+
+        OpenEnrollmentsRequest request = OpenEnrollmentsRequest.newBuilder()
+                .setCapacity(capacity)
+                .setVectorClockState(getVectorClockState())
+                .build();
+
+        return send(new Call<>("openEnrollments", PRIMARY_QUALIFIERS,
+                channel -> ProfessorServiceGrpc.newFutureStub(channel).openEnrollments(request),
+                OpenEnrollmentsResponse::getCode, OpenEnrollmentsResponse::getVectorClockState, true, false))
+                .thenApply(response -> new ClientResult<>(response.getCode(), null, Convert.toVectorClock(response.getVectorClockState())));
+    }
+
+    /**
+     * Close class enrollments
+     * @return The response code
+     */
+    public CompletableFuture<ClientResult<Void>> closeEnrollments() {
+
+        CloseEnrollmentsRequest request = CloseEnrollmentsRequest.newBuilder()
+                .setVectorClockState(getVectorClockState())
+                .build();
+
+        return send(new Call<>("closeEnrollments", PRIMARY_QUALIFIERS,
+                channel -> ProfessorServiceGrpc.newFutureStub(channel).closeEnrollments(request),
+                CloseEnrollmentsResponse::getCode, CloseEnrollmentsResponse::getVectorClockState, true, false))
+                .thenApply(response -> new ClientResult<>(response.getCode(), null, Convert.toVectorClock(response.getVectorClockState())));
+    }
+
+    /**
+     * List class state with class capacity, enrollment status and enrolled/discarded students
+     * @return The class state, the one received before if the class did not change since
+     */
+    public CompletableFuture<ClientResult<ClassState>> listClass() {
+
+        ListClassRequest.Builder requestBuilder = ListClassRequest.newBuilder()
+                .setVectorClockState(getVectorClockState());
+
+        // Let the server skip the class state if it did not change since the last listClass
+        CachedClassState cached = getCachedClassState();
+        if (cached != null)
+            requestBuilder.setCachedVectorClockState(Convert.toVectorClockState(cached.vectorClock()));
+
+        ListClassRequest request = requestBuilder.build();
+
+        return send(new Call<>("listClass", QUALIFIERS,
+                channel -> ProfessorServiceGrpc.newFutureStub(channel).listClass(request),
+                ListClassResponse::getCode, ListClassResponse::getVectorClockState, false, true))
+                .thenApply(response -> toClassStateResult(response.getCode(), response.getClassState(), response.getVectorClockState()));
+    }
+
+    /**
+     * List class state page by page from a single server
+     * @param pageSize  The number of students in each page
+     * @param order     The order of the students
+     * @param onPage    Receives each page as it arrives, every page carries the same code and clock
+     * @return          The code and clock of the listing, once the last page arrived
+     */
+    public CompletableFuture<ClientResult<Void>> listClassStream(int pageSize, PageOrder order, Consumer<ListClassPageResponse> onPage) {
+
+        ListClassPageRequest request = ListClassPageRequest.newBuilder()
+                .setVectorClockState(getVectorClockState())
+                .setPageSize(pageSize)
+                .setOrder(order)
+                .build();
+
+        return stream("listClassStream",
+                (channel, observer) -> ProfessorServiceGrpc.newStub(channel).listClassStream(request, observer),
+                ListClassPageResponse::getCode, ListClassPageResponse::getVectorClockState, onPage)
+                .thenApply(page -> new ClientResult<>(page.getCode(), null, Convert.toVectorClock(page.getVectorClockState())));
+    }
+
+    /**
+     * List class state page by page, with a request for each page, every page from the same server
+     * @param pageSize  The number of students in each page
+     * @param order     The order of the students
+     * @param onPage    Receives each page as it arrives
+     * @return          The code and clock of the first page, once the last page arrived
+     */
+    public CompletableFuture<ClientResult<Void>> listClassPages(int pageSize, PageOrder order, Consumer<ListClassPageResponse> onPage) {
+
+        VectorClockState vectorClockState = getVectorClockState();
+
+        return pages("listClassPage",
+                (channel, pageToken) -> ProfessorServiceGrpc.newFutureStub(channel).listClassPage(ListClassPageRequest.newBuilder()
+                        .setVectorClockState(vectorClockState)
+                        .setPageToken(pageToken)
+                        .setPageSize(pageSize)
+                        .setOrder(order)
+                        .build()),
+                ListClassPageResponse::getCode, ListClassPageResponse::getVectorClockState,
+                ListClassPageResponse::getNextPageToken, onPage)
+                .thenApply(page -> new ClientResult<>(page.getCode(), null, Convert.toVectorClock(page.getVectorClockState())));
+    }
+
+    /**
+     * Cancel student enrollment
+     * @param studentId The student id
+     * @return          The response code
+     */
+    public CompletableFuture<ClientResult<Void>> cancelEnrollment(String studentId) {
+
+        CancelEnrollmentRequest request = CancelEnrollmentRequest.newBuilder()
+                .setStudentId(studentId)
+                .setVectorClockState(getVectorClockState())
+                .build();
+
+        return send(new Call<>("cancelEnrollment", QUALIFIERS,
+                channel -> ProfessorServiceGrpc.newFutureStub(channel).cancelEnrollment(request),
+                CancelEnrollmentResponse::getCode, CancelEnrollmentResponse::getVectorClockState, true, false))
+                .thenApply(response -> new ClientResult<>(response.getCode(), null, Convert.toVectorClock(response.getVectorClockState())));
+    }
+
+    /**
+     * Cancel several student enrollments with a single request
+     * @param studentIds    The student ids
+     * @param atomic        If true, no enrollment is cancelled unless all of them can be
+     * @return              The code of each student, in order
+     */
+    public CompletableFuture<ClientResult<List<ResponseCode>>> cancelEnrollmentBatch(List<String> studentIds, boolean atomic) {
+
+        CancelEnrollmentBatchRequest request = CancelEnrollmentBatchRequest.newBuilder()
+                .addAllStudentIds(studentIds)
+                .setAtomic(atomic)
+                .setVectorClockState(getVectorClockState())
+                .build();
+
+        return send(new Call<>("cancelEnrollmentBatch", QUALIFIERS,
+                channel -> ProfessorServiceGrpc.newFutureStub(channel).cancelEnrollmentBatch(request),
+                CancelEnrollmentBatchResponse::getCode, CancelEnrollmentBatchResponse::getVectorClockState, true, false))
+                .thenApply(response -> new ClientResult<>(response.getCode(), response.getCodesList(), Convert.toVectorClock(response.getVectorClockState())));
+    }
+}
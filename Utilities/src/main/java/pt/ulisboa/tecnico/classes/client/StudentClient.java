@@ -0,0 +1,154 @@
+package pt.ulisboa.tecnico.classes.client;
+
+import pt.ulisboa.tecnico.classes.ConnectionManager;
+import pt.ulisboa.tecnico.classes.Convert;
+import pt.ulisboa.tecnico.classes.Debug;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ClassState;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.PageOrder;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ResponseCode;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.VectorClockState;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.Student;
+import pt.ulisboa.tecnico.classes.contract.student.StudentClassServer.*;
+import pt.ulisboa.tecnico.classes.contract.student.StudentServiceGrpc;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking client of the student service
+ */
+public class StudentClient extends ClassClient {
+
+    public StudentClient(ConnectionManager connectionManager, boolean debugMode) {
+        this(connectionManager, null, debugMode);
+    }
+
+    public StudentClient(ConnectionManager connectionManager, Executor executor, boolean debugMode) {
+        super(connectionManager, executor, new Debug(StudentClient.class.getName(), debugMode));
+    }
+
+    /**
+     * List class state with class capacity, enrollment status and enrolled/discarded students
+     * @return The class state, the one received before if the class did not change since
+     */
+    public CompletableFuture<ClientResult<ClassState>> listClass() {
+
+        ListClassRequest.Builder requestBuilder = ListClassRequest.newBuilder()
+                .setVectorClockState(getVectorClockState());
+
+        // Let the server skip the class state if it did not change since the last listClass
+        CachedClassState cached = getCachedClassState();
+        if (cached != null)
+            requestBuilder.setCachedVectorClockState(Convert.toVectorClockState(cached.vectorClock()));
+
+        ListClassRequest request = requestBuilder.build();
+
+        return send(new Call<>("listClass", QUALIFIERS,
+                channel -> StudentServiceGrpc.newFutureStub(channel).listClass(request),
+                ListClassResponse::getCode, ListClassResponse::getVectorClockState, false, true))
+                .thenApply(response -> toClassStateResult(response.getCode(), response.getClassState(), response.getVectorClockState()));
+    }
+
+    /**
+     * List class state page by page from a single server
+     * @param pageSize  The number of students in each page
+     * @param order     The order of the students
+     * @param onPage    Receives each page as it arrives, every page carries the same code and clock
+     * @return          The code and clock of the listing, once the last page arrived
+     */
+    public CompletableFuture<ClientResult<Void>> listClassStream(int pageSize, PageOrder order, Consumer<ListClassPageResponse> onPage) {
+
+        ListClassPageRequest request = ListClassPageRequest.newBuilder()
+                .setVectorClockState(getVectorClockState())
+                .setPageSize(pageSize)
+                .setOrder(order)
+                .build();
+
+        return stream("listClassStream",
+                (channel, observer) -> StudentServiceGrpc.newStub(channel).listClassStream(request, observer),
+                ListClassPageResponse::getCode, ListClassPageResponse::getVectorClockState, onPage)
+                .thenApply(page -> new ClientResult<>(page.getCode(), null, Convert.toVectorClock(page.getVectorClockState())));
+    }
+
+    /**
+     * List class state page by page, with a request for each page, every page from the same server
+     * @param pageSize  The number of students in each page
+     * @param order     The order of the students
+     * @param onPage    Receives each page as it arrives
+     * @return          The code and clock of the first page, once the last page arrived
+     */
+    public CompletableFuture<ClientResult<Void>> listClassPages(int pageSize, PageOrder order, Consumer<ListClassPageResponse> onPage) {
+
+        VectorClockState vectorClockState = getVectorClockState();
+
+        return pages("listClassPage",
+                (channel, pageToken) -> StudentServiceGrpc.newFutureStub(channel).listClassPage(ListClassPageRequest.newBuilder()
+                        .setVectorClockState(vectorClockState)
+                        .setPageToken(pageToken)
+                        .setPageSize(pageSize)
+                        .setOrder(order)
+                        .build()),
+                ListClassPageResponse::getCode, ListClassPageResponse::getVectorClockState,
+                ListClassPageResponse::getNextPageToken, onPage)
+                .thenApply(page -> new ClientResult<>(page.getCode(), null, Convert.toVectorClock(page.getVectorClockState())));
+    }
+
+    /**
+     * Get the enrollment state of a single student, without listing the whole class
+     * @param studentId The student id
+     * @return          The enrollment state, position and timestamp of the student
+     */
+    public CompletableFuture<ClientResult<GetEnrollmentResponse>> getEnrollment(String studentId) {
+
+        GetEnrollmentRequest request = GetEnrollmentRequest.newBuilder()
+                .setStudentId(studentId)
+                .setVectorClockState(getVectorClockState())
+                .build();
+
+        return send(new Call<>("getEnrollment", QUALIFIERS,
+                channel -> StudentServiceGrpc.newFutureStub(channel).getEnrollment(request),
+                GetEnrollmentResponse::getCode, GetEnrollmentResponse::getVectorClockState, false, false))
+                .thenApply(response -> new ClientResult<>(response.getCode(), response, Convert.toVectorClock(response.getVectorClockState())));
+    }
+
+    /**
+     * Enroll student in class
+     * @param studentId    The student id
+     * @param studentName  The student name
+     * @return             The response code
+     */
+    public CompletableFuture<ClientResult<Void>> enroll(String studentId, String studentName) {
+
+        EnrollRequest request = EnrollRequest.newBuilder()
+                .setStudent(Student.newBuilder().setStudentId(studentId).setStudentName(studentName))
+                .setVectorClockState(getVectorClockState())
+                .build();
+
+        return send(new Call<>("enroll", QUALIFIERS,
+                channel -> StudentServiceGrpc.newFutureStub(channel).enroll(request),
+                EnrollResponse::getCode, EnrollResponse::getVectorClockState, true, false))
+                .thenApply(response -> new ClientResult<>(response.getCode(), null, Convert.toVectorClock(response.getVectorClockState())));
+    }
+
+    /**
+     * Enroll several students with a single request
+     * @param students  The students to enroll
+     * @param atomic    If true, no student is enrolled unless all of them can be
+     * @return          The code of each student, in order
+     */
+    public CompletableFuture<ClientResult<List<ResponseCode>>> enrollBatch(List<Student> students, boolean atomic) {
+
+        EnrollBatchRequest request = EnrollBatchRequest.newBuilder()
+                .addAllStudents(students)
+                .setAtomic(atomic)
+                .setVectorClockState(getVectorClockState())
+                .build();
+
+        return send(new Call<>("enrollBatch", QUALIFIERS,
+                channel -> StudentServiceGrpc.newFutureStub(channel).enrollBatch(request),
+                EnrollBatchResponse::getCode, EnrollBatchResponse::getVectorClockState, true, false))
+                .thenApply(response -> new ClientResult<>(response.getCode(), response.getCodesList(), Convert.toVectorClock(response.getVectorClockState())));
+    }
+}
@@ -0,0 +1,106 @@
+package pt.ulisboa.tecnico.classes;
+
+import com.google.common.util.concurrent.SettableFuture;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgedReadsTest {
+
+    @Test
+    void slowFirstServerIsHedgedByTimer() throws Exception {
+
+        HedgedReads hedgedReads = new HedgedReads(10);
+        SettableFuture<String> primary = SettableFuture.create();
+        SettableFuture<String> hedge = SettableFuture.create();
+        hedge.set("hedge");
+
+        CompletableFuture<HedgedReads.Response<String>> result = hedgedReads.call(() -> primary, () -> hedge, response -> true);
+
+        HedgedReads.Response<String> response = result.get(5, TimeUnit.SECONDS);
+        assertEquals("hedge", response.value());
+        assertTrue(response.hedged());
+        assertTrue(primary.isCancelled());
+    }
+
+    @Test
+    void fastFirstServerIsNotHedged() throws Exception {
+
+        HedgedReads hedgedReads = new HedgedReads(10_000);
+        SettableFuture<String> primary = SettableFuture.create();
+        AtomicBoolean hedged = new AtomicBoolean();
+
+        CompletableFuture<HedgedReads.Response<String>> result = hedgedReads.call(() -> primary, () -> {
+            hedged.set(true);
+            return SettableFuture.create();
+        }, response -> true);
+
+        // The caller is not blocked while the first server answers
+        assertFalse(result.isDone());
+        primary.set("primary");
+
+        HedgedReads.Response<String> response = result.get(5, TimeUnit.SECONDS);
+        assertEquals("primary", response.value());
+        assertFalse(response.hedged());
+        assertFalse(hedged.get());
+    }
+
+    @Test
+    void unacceptableAnswerIsHedgedAtOnce() throws Exception {
+
+        HedgedReads hedgedReads = new HedgedReads(10_000);
+        SettableFuture<String> primary = SettableFuture.create();
+        SettableFuture<String> hedge = SettableFuture.create();
+
+        CompletableFuture<HedgedReads.Response<String>> result = hedgedReads.call(() -> primary, () -> hedge,
+                response -> !response.equals("stale"));
+
+        primary.set("stale");
+        hedge.set("fresh");
+
+        HedgedReads.Response<String> response = result.get(5, TimeUnit.SECONDS);
+        assertEquals("fresh", response.value());
+        assertTrue(response.hedged());
+    }
+
+    @Test
+    void unacceptableAnswerIsUsedIfOtherFails() throws Exception {
+
+        HedgedReads hedgedReads = new HedgedReads(10_000);
+        SettableFuture<String> primary = SettableFuture.create();
+        SettableFuture<String> hedge = SettableFuture.create();
+
+        CompletableFuture<HedgedReads.Response<String>> result = hedgedReads.call(() -> primary, () -> hedge,
+                response -> !response.equals("stale"));
+
+        primary.set("stale");
+        hedge.setException(Status.UNAVAILABLE.asRuntimeException());
+
+        HedgedReads.Response<String> response = result.get(5, TimeUnit.SECONDS);
+        assertEquals("stale", response.value());
+        assertFalse(response.hedged());
+    }
+
+    @Test
+    void bothFailures() {
+
+        HedgedReads hedgedReads = new HedgedReads(0);
+        SettableFuture<String> primary = SettableFuture.create();
+        SettableFuture<String> hedge = SettableFuture.create();
+        primary.setException(Status.UNAVAILABLE.withDescription("first").asRuntimeException());
+        hedge.setException(Status.UNAVAILABLE.withDescription("second").asRuntimeException());
+
+        CompletableFuture<HedgedReads.Response<String>> result = hedgedReads.call(() -> primary, () -> hedge, response -> true);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(StatusRuntimeException.class, e.getCause());
+        assertEquals("first", Status.fromThrowable(e.getCause()).getDescription());
+    }
+}
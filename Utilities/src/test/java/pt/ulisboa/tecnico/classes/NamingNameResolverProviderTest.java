@@ -0,0 +1,27 @@
+package pt.ulisboa.tecnico.classes;
+
+import io.grpc.NameResolverRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NamingNameResolverProviderTest {
+
+    @Test
+    void defaultSchemeStaysDns() {
+        assertEquals("dns", NameResolverRegistry.getDefaultRegistry().asFactory().getDefaultScheme());
+    }
+
+    @Test
+    void otherSchemesAreNotResolved() {
+
+        NamingNameResolverProvider provider = new NamingNameResolverProvider();
+
+        assertNull(provider.newNameResolver(URI.create("dns:///localhost:8080"), null));
+        assertNull(provider.newNameResolver(URI.create("turmas://localhost:5000"), null));
+        assertEquals(URI.create("turmas://localhost:5000/turmas/P,S"),
+                URI.create(NamingNameResolverProvider.target("localhost", 5000, "turmas", new String[]{"P", "S"})));
+    }
+}
@@ -0,0 +1,53 @@
+package pt.ulisboa.tecnico.classes;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerExecutorsTest {
+
+    @Test
+    void modeIsParsedFromArguments() {
+
+        assertEquals(ServerExecutors.Mode.CACHED, ServerExecutors.parseMode(new String[]{"-debug"}));
+        assertEquals(ServerExecutors.Mode.FIXED, ServerExecutors.parseMode(new String[]{"-debug", "-executor=fixed"}));
+        assertEquals(ServerExecutors.Mode.VIRTUAL, ServerExecutors.parseMode(new String[]{"-executor=Virtual"}));
+        assertThrows(IllegalArgumentException.class, () -> ServerExecutors.parseMode(new String[]{"-executor=other"}));
+    }
+
+    @Test
+    void cachedModeKeepsGrpcDefault() {
+        assertNull(ServerExecutors.create(ServerExecutors.Mode.CACHED, "test"));
+    }
+
+    @Test
+    void virtualModeNeedsJava21() throws Exception {
+
+        ExecutorService executor = ServerExecutors.create(ServerExecutors.Mode.VIRTUAL, "test");
+        try {
+            assertEquals(ServerExecutors.isVirtualAvailable(), executor != null);
+            assertEquals(Runtime.version().feature() >= 21, ServerExecutors.isVirtualAvailable());
+        } finally {
+            if (executor != null) executor.shutdown();
+        }
+    }
+
+    @Test
+    void poolThreadsAreNamedDaemonsWithPriority() throws Exception {
+
+        for (ServerExecutors.Mode mode : new ServerExecutors.Mode[]{ServerExecutors.Mode.CACHED, ServerExecutors.Mode.FIXED}) {
+            ExecutorService executor = ServerExecutors.createPool(mode, "lane", 1, Thread.MAX_PRIORITY);
+            try {
+                Thread thread = executor.submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+                assertTrue(thread.getName().startsWith("lane-"));
+                assertTrue(thread.isDaemon());
+                assertEquals(Thread.MAX_PRIORITY, thread.getPriority());
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+}
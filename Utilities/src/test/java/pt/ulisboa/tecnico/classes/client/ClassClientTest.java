@@ -0,0 +1,133 @@
+package pt.ulisboa.tecnico.classes.client;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.Test;
+import pt.ulisboa.tecnico.classes.RetryAfter;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.ResponseCode;
+import pt.ulisboa.tecnico.classes.contract.student.StudentClassServer.EnrollRequest;
+import pt.ulisboa.tecnico.classes.contract.student.StudentClassServer.EnrollResponse;
+import pt.ulisboa.tecnico.classes.contract.student.StudentServiceGrpc;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassClientTest {
+
+    /**
+     * Student service answering every enrollment with the same code
+     */
+    private static class EnrollService extends StudentServiceGrpc.StudentServiceImplBase {
+
+        private volatile ResponseCode code;
+
+        EnrollService(ResponseCode code) { this.code = code; }
+
+        @Override
+        public void enroll(EnrollRequest request, StreamObserver<EnrollResponse> responseObserver) {
+            responseObserver.onNext(EnrollResponse.newBuilder().setCode(code).build());
+            responseObserver.onCompleted();
+        }
+    }
+
+    /**
+     * Student service refusing a number of enrollments as a busy server, then applying them
+     */
+    private static class BusyService extends StudentServiceGrpc.StudentServiceImplBase {
+
+        private final AtomicInteger busy;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        BusyService(int busy) { this.busy = new AtomicInteger(busy); }
+
+        @Override
+        public void enroll(EnrollRequest request, StreamObserver<EnrollResponse> responseObserver) {
+
+            calls.incrementAndGet();
+            if (busy.getAndDecrement() > 0) {
+                responseObserver.onError(Status.RESOURCE_EXHAUSTED.asRuntimeException(RetryAfter.trailers(50)));
+                return;
+            }
+            responseObserver.onNext(EnrollResponse.newBuilder().setCode(ResponseCode.OK).build());
+            responseObserver.onCompleted();
+        }
+    }
+
+    @Test
+    void busyServerIsRetriedAfterItsWait() throws Exception {
+
+        BusyService service = new BusyService(2);
+
+        try (FakeServers servers = new FakeServers(service)) {
+            StudentClient client = new StudentClient(servers.getConnectionManager(), false);
+
+            long start = System.nanoTime();
+            assertEquals(ResponseCode.OK, client.enroll("aluno0001", "Student 1").get(10, TimeUnit.SECONDS).code());
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+            assertEquals(3, service.calls.get());
+
+            client.close();
+        }
+    }
+
+    @Test
+    void busyServerFailsAfterRetries() throws Exception {
+
+        BusyService service = new BusyService(Integer.MAX_VALUE);
+
+        try (FakeServers servers = new FakeServers(service)) {
+            StudentClient client = new StudentClient(servers.getConnectionManager(), false);
+
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> client.enroll("aluno0001", "Student 1").get(10, TimeUnit.SECONDS));
+            assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(e.getCause()).getCode());
+            assertEquals(4, service.calls.get());
+
+            client.close();
+        }
+    }
+
+    @Test
+    void busyServerMovesRequestToAnotherServer() throws Exception {
+
+        BusyService busy = new BusyService(Integer.MAX_VALUE);
+        BusyService idle = new BusyService(0);
+
+        try (FakeServers servers = new FakeServers(busy, idle)) {
+            StudentClient client = new StudentClient(servers.getConnectionManager(), false);
+
+            for (int i = 0; i < 5; i++) {
+                assertEquals(ResponseCode.OK, client.enroll("aluno0001", "Student 1").get(10, TimeUnit.SECONDS).code());
+            }
+            assertEquals(5, idle.calls.get());
+
+            client.close();
+        }
+    }
+
+    @Test
+    void onlyAppliedWritesMakeServerSticky() throws Exception {
+
+        EnrollService service = new EnrollService(ResponseCode.SERVER_NOT_UPDATED);
+
+        try (FakeServers servers = new FakeServers(service)) {
+            StudentClient client = new StudentClient(servers.getConnectionManager(), false);
+
+            assertEquals(ResponseCode.SERVER_NOT_UPDATED, client.enroll("aluno0001", "Student 1").get(10, TimeUnit.SECONDS).code());
+            assertNull(client.getStickyAddress());
+
+            service.code = ResponseCode.FULL_CLASS;
+            assertEquals(ResponseCode.FULL_CLASS, client.enroll("aluno0001", "Student 1").get(10, TimeUnit.SECONDS).code());
+            assertNull(client.getStickyAddress());
+
+            service.code = ResponseCode.OK;
+            assertEquals(ResponseCode.OK, client.enroll("aluno0001", "Student 1").get(10, TimeUnit.SECONDS).code());
+            assertEquals(servers.getAddress(0), client.getStickyAddress());
+
+            client.close();
+        }
+    }
+}
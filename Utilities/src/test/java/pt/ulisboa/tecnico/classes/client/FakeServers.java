@@ -0,0 +1,56 @@
+package pt.ulisboa.tecnico.classes.client;
+
+import io.grpc.BindableService;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.stub.StreamObserver;
+import pt.ulisboa.tecnico.classes.ConnectionManager;
+import pt.ulisboa.tecnico.classes.contract.ClassesDefinitions.Address;
+import pt.ulisboa.tecnico.classes.contract.naming.ClassServerNamingServer.LookupRequest;
+import pt.ulisboa.tecnico.classes.contract.naming.ClassServerNamingServer.LookupResponse;
+import pt.ulisboa.tecnico.classes.contract.naming.NamingServerServiceGrpc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class servers on local ports and a naming server that lists all of them
+ */
+final class FakeServers implements AutoCloseable {
+
+    private final List<Server> servers = new ArrayList<>();
+    private final List<Address> addresses = new ArrayList<>();
+    private final Server naming;
+    private final ConnectionManager connectionManager;
+
+    FakeServers(BindableService... services) throws IOException {
+
+        for (BindableService service : services) {
+            Server server = ServerBuilder.forPort(0).addService(service).build().start();
+            servers.add(server);
+            addresses.add(Address.newBuilder().setHost("localhost").setPort(server.getPort()).build());
+        }
+
+        naming = ServerBuilder.forPort(0).addService(new NamingServerServiceGrpc.NamingServerServiceImplBase() {
+            @Override
+            public void lookup(LookupRequest request, StreamObserver<LookupResponse> responseObserver) {
+                responseObserver.onNext(LookupResponse.newBuilder().addAllAddress(addresses).build());
+                responseObserver.onCompleted();
+            }
+        }).build().start();
+
+        connectionManager = new ConnectionManager("localhost", naming.getPort(), ConnectionManager.DEFAULT_MEMBERSHIP_TTL);
+    }
+
+    ConnectionManager getConnectionManager() { return connectionManager; }
+
+    Address getAddress(int server) { return addresses.get(server); }
+
+    @Override
+    public void close() {
+        connectionManager.close();
+        servers.forEach(Server::shutdownNow);
+        naming.shutdownNow();
+    }
+}